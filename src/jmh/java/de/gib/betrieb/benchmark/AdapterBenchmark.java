@@ -0,0 +1,184 @@
+package de.gib.betrieb.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gib.betrieb.adapter.*;
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mikro-Benchmarks der vier ZuFhir-Adapter und der JSON-Serialisierung, ohne Datenbank.
+ * Je Resource-Typ drei Stufen: nur Mapping (Map-Baum), Mapping + ObjectMapper (Engine map)
+ * und direktes Schreiben über den JsonGenerator (Engine generator).
+ * Mit -prof gc liefert gc.alloc.rate.norm die Allokation pro Aufruf in Bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdapterBenchmark {
+
+    private PatientZuFhirAdapter patientAdapter;
+    private ArztZuFhirAdapter arztAdapter;
+    private BefundZuFhirAdapter befundAdapter;
+    private BerichtZuFhirAdapter berichtAdapter;
+    private ObjectMapper objectMapper;
+
+    private Patient patient;
+    private Arzt arzt;
+    private Befund befund;
+    private Bericht bericht;
+
+    @Setup
+    public void vorbereiten() {
+        objectMapper = new ObjectMapper();
+        patientAdapter = new PatientZuFhirAdapter();
+        arztAdapter = new ArztZuFhirAdapter();
+
+        befundAdapter = new BefundZuFhirAdapter();
+        ReflectionTestUtils.setField(befundAdapter, "patientAdapter", patientAdapter);
+        ReflectionTestUtils.setField(befundAdapter, "arztAdapter", arztAdapter);
+
+        // Feste Fixtures, damit jede Messung dieselben Daten rendert
+        patient = new Patient("Lara", "Schmidt", LocalDate.of(1985, 3, 14), "weiblich");
+        patient.setPatientenId(42L);
+
+        arzt = new Arzt("Jonas", "Weber", "Innere Medizin");
+        arzt.setArztId(7L);
+
+        Einrichtung einrichtung = new Einrichtung("Klinikum Nord", "Krankenhaus");
+        einrichtung.setEinrichtungsId(1L);
+        Standort standort = new Standort(einrichtung, "Station 3B", "Station");
+        standort.setStandortId(3L);
+
+        Behandlungsfall fall = new Behandlungsfall(patient, arzt, standort,
+                LocalDateTime.of(2024, 4, 1, 9, 0), "stationär");
+        fall.setFallId(77L);
+
+        befund = new Befund(fall, "LAB-001", "120", "mmHg", LocalDateTime.of(2024, 4, 1, 10, 15));
+        befund.setBefundId(1001L);
+
+        Befund zweiterBefund = new Befund(fall, "VITAL-001", "37,2", "°C", LocalDateTime.of(2024, 4, 1, 10, 30));
+        zweiterBefund.setBefundId(1002L);
+
+        Befund dritterBefund = new Befund(fall, "URINE-001", "unauffällig", null, LocalDateTime.of(2024, 4, 1, 11, 0));
+        dritterBefund.setBefundId(1003L);
+
+        bericht = new Bericht(fall, "LABORBERICHT", LocalDateTime.of(2024, 4, 2, 8, 30));
+        bericht.setBerichtId(200L);
+
+        // Stub statt Datenbank: liefert für jeden Fall dieselben drei Befunde
+        List<Befund> befundeDesFalls = List.of(befund, zweiterBefund, dritterBefund);
+        BefundRepository befundRepository = (BefundRepository) Proxy.newProxyInstance(
+                BefundRepository.class.getClassLoader(),
+                new Class<?>[]{BefundRepository.class},
+                (proxy, methode, args) -> {
+                    if (methode.getName().equals("findByBehandlungsfallFallId")) {
+                        return befundeDesFalls;
+                    }
+                    throw new UnsupportedOperationException(methode.getName());
+                });
+
+        berichtAdapter = new BerichtZuFhirAdapter();
+        ReflectionTestUtils.setField(berichtAdapter, "patientAdapter", patientAdapter);
+        ReflectionTestUtils.setField(berichtAdapter, "arztAdapter", arztAdapter);
+        ReflectionTestUtils.setField(berichtAdapter, "befundRepository", befundRepository);
+    }
+
+    // Patient
+
+    @Benchmark
+    public Map<String, Object> patient_mapping() {
+        return patientAdapter.konvertiereZuFhir(patient);
+    }
+
+    @Benchmark
+    public byte[] patient_json_map() throws IOException {
+        return objectMapper.writeValueAsBytes(patientAdapter.konvertiereZuFhir(patient));
+    }
+
+    @Benchmark
+    public byte[] patient_json_generator() throws IOException {
+        ByteArrayOutputStream puffer = new ByteArrayOutputStream(2048);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(puffer)) {
+            patientAdapter.schreibeFhir(patient, gen);
+        }
+        return puffer.toByteArray();
+    }
+
+    // Practitioner
+
+    @Benchmark
+    public Map<String, Object> arzt_mapping() {
+        return arztAdapter.konvertiereZuFhir(arzt);
+    }
+
+    @Benchmark
+    public byte[] arzt_json_map() throws IOException {
+        return objectMapper.writeValueAsBytes(arztAdapter.konvertiereZuFhir(arzt));
+    }
+
+    @Benchmark
+    public byte[] arzt_json_generator() throws IOException {
+        ByteArrayOutputStream puffer = new ByteArrayOutputStream(2048);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(puffer)) {
+            arztAdapter.schreibeFhir(arzt, gen);
+        }
+        return puffer.toByteArray();
+    }
+
+    // Observation
+
+    @Benchmark
+    public Map<String, Object> befund_mapping() {
+        return befundAdapter.konvertiereZuFhir(befund);
+    }
+
+    @Benchmark
+    public byte[] befund_json_map() throws IOException {
+        return objectMapper.writeValueAsBytes(befundAdapter.konvertiereZuFhir(befund));
+    }
+
+    @Benchmark
+    public byte[] befund_json_generator() throws IOException {
+        ByteArrayOutputStream puffer = new ByteArrayOutputStream(2048);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(puffer)) {
+            befundAdapter.schreibeFhir(befund, gen);
+        }
+        return puffer.toByteArray();
+    }
+
+    // DiagnosticReport (Befunde kommen aus dem Repository-Stub)
+
+    @Benchmark
+    public Map<String, Object> bericht_mapping() {
+        return berichtAdapter.konvertiereZuFhir(bericht);
+    }
+
+    @Benchmark
+    public byte[] bericht_json_map() throws IOException {
+        return objectMapper.writeValueAsBytes(berichtAdapter.konvertiereZuFhir(bericht));
+    }
+
+    @Benchmark
+    public byte[] bericht_json_generator() throws IOException {
+        ByteArrayOutputStream puffer = new ByteArrayOutputStream(2048);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(puffer)) {
+            berichtAdapter.schreibeFhir(bericht, gen);
+        }
+        return puffer.toByteArray();
+    }
+}
@@ -2,8 +2,10 @@ package de.gib.betrieb;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication  // Scannt alle Packages unter de.gib.betrieb automatisch
+@EnableScheduling      // Abgleich der Referenzdaten
 public class LegacyZuFhirStarter {
 
     public static void main(String[] args) {
@@ -1,96 +1,217 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.gib.betrieb.config.StufenTimer;
 import de.gib.betrieb.model.Arzt;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import java.io.IOException;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 // Wandelt Legacy-Arzt-Daten in FHIR Practitioner Resource um
 @Component
 public class ArztZuFhirAdapter {
 
+    // Optional, damit die Adapter auch ohne Spring (Unit-Tests, Benchmarks) laufen
+    @Autowired(required = false)
+    private StufenTimer stufenTimer;
+
+    @Autowired(required = false)
+    private Terminologie terminologie;
+
+    // Ohne Referenzdaten (Unit-Tests, Benchmarks) wird direkt aus der Entität gelesen
+    @Autowired(required = false)
+    private Referenzdaten referenzdaten;
+
+    private static final String TYP = "Practitioner";
+    private static final String PROFIL = "http://hl7.org/fhir/StructureDefinition/Practitioner";
+    private static final Fragmente.Fragment META = Fragmente.meta(PROFIL);
+    private static final Fragmente.Fragment META_TEILMENGE = Fragmente.metaTeilmenge(PROFIL);
+    private static final Fragmente.Fragment META_REDUZIERT = Fragmente.metaReduziert(PROFIL);
+    private static final String IDENTIFIER_SYSTEM = "http://krankenhaus.de/practitioner-id";
+
     public Map<String, Object> konvertiereZuFhir(Arzt arzt) {
+        return konvertiereZuFhir(arzt, Elementauswahl.ALLE);
+    }
+
+    // Nur die Elemente der Auswahl, ausgeschlossene werden nicht berechnet
+    public Map<String, Object> konvertiereZuFhir(Arzt arzt, Elementauswahl auswahl) {
         if (arzt == null) {
             return null;
         }
 
-        Map<String, Object> fhirPractitioner = new HashMap<>();
+        Map<String, Object> fhirPractitioner = new LinkedHashMap<>();
 
         // FHIR Basis-Felder
         fhirPractitioner.put("resourceType", "Practitioner");
         fhirPractitioner.put("id", arzt.getArztId().toString());
 
         // Meta-Informationen
-        Map<String, Object> meta = new HashMap<>();
-        meta.put("profile", new String[]{"http://hl7.org/fhir/StructureDefinition/Practitioner"});
-        fhirPractitioner.put("meta", meta);
+        fhirPractitioner.put("meta", meta(auswahl).wert());
 
         // Identifier
-        Map<String, Object> identifier = new HashMap<>();
-        identifier.put("system", "http://krankenhaus.de/practitioner-id");
-        identifier.put("value", arzt.getArztId().toString());
-        fhirPractitioner.put("identifier", new Map[]{identifier});
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            Map<String, Object> identifier = new LinkedHashMap<>();
+            identifier.put("system", IDENTIFIER_SYSTEM);
+            identifier.put("value", arzt.getArztId().toString());
+            fhirPractitioner.put("identifier", new Map[]{identifier});
+        }
 
         // Name
-        Map<String, Object> name = new HashMap<>();
-        name.put("use", "official");
-        name.put("family", arzt.getNachname());
-        name.put("given", new String[]{arzt.getVorname()});
-        name.put("prefix", new String[]{"Dr."});
-        fhirPractitioner.put("name", new Map[]{name});
+        if (auswahl.enthaelt(TYP, "name")) {
+            Map<String, Object> name = new LinkedHashMap<>();
+            name.put("use", "official");
+            name.put("family", arzt.getNachname());
+            name.put("given", new String[]{arzt.getVorname()});
+            name.put("prefix", Fragmente.PRAEFIX_DR.wert());
+            fhirPractitioner.put("name", new Map[]{name});
+        }
 
         // Fachrichtung
-        if (arzt.getFachrichtung() != null) {
-            Map<String, Object> qualification = new HashMap<>();
-
-            Map<String, Object> code = new HashMap<>();
-            Map<String, Object> coding = new HashMap<>();
-            coding.put("system", "http://snomed.info/sct");
-            coding.put("code", mapFachrichtungZuSnomed(arzt.getFachrichtung()));
-            coding.put("display", arzt.getFachrichtung());
-            code.put("coding", new Map[]{coding});
-            code.put("text", arzt.getFachrichtung());
-
-            qualification.put("code", code);
-            fhirPractitioner.put("qualification", new Map[]{qualification});
+        if (arzt.getFachrichtung() != null && auswahl.enthaelt(TYP, "qualification")) {
+            fhirPractitioner.put("qualification", qualifikation(arzt.getFachrichtung()).wert());
         }
 
-        fhirPractitioner.put("active", true);
+        if (auswahl.enthaelt(TYP, "active")) {
+            fhirPractitioner.put("active", true);
+        }
 
         // Narrativtext
-        String narr = erstelleNarratixtext.practitionerSatz(
+        if (auswahl.enthaelt(TYP, "text")) {
+            fhirPractitioner.put("text", erstelleNarratixtext.baueText(narrativ(arzt)));
+        }
+
+        return fhirPractitioner;
+    }
+
+    public void schreibeFhir(Arzt arzt, JsonGenerator gen) throws IOException {
+        schreibeFhir(arzt, Elementauswahl.ALLE, gen);
+    }
+
+    /**
+     * Schreibt den Arzt direkt in den JsonGenerator, ohne Map-Baum.
+     * Feldreihenfolge und Werte entsprechen exakt {@link #konvertiereZuFhir(Arzt, Elementauswahl)}.
+     */
+    public void schreibeFhir(Arzt arzt, Elementauswahl auswahl, JsonGenerator gen) throws IOException {
+        String id = arzt.getArztId().toString();
+
+        gen.writeStartObject();
+        gen.writeStringField("resourceType", "Practitioner");
+        gen.writeStringField("id", id);
+
+        meta(auswahl).schreibeFeld(gen, "meta");
+
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            gen.writeArrayFieldStart("identifier");
+            gen.writeStartObject();
+            gen.writeStringField("system", IDENTIFIER_SYSTEM);
+            gen.writeStringField("value", id);
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        if (auswahl.enthaelt(TYP, "name")) {
+            gen.writeArrayFieldStart("name");
+            gen.writeStartObject();
+            gen.writeStringField("use", "official");
+            gen.writeStringField("family", arzt.getNachname());
+            gen.writeArrayFieldStart("given");
+            gen.writeString(arzt.getVorname());
+            gen.writeEndArray();
+            Fragmente.PRAEFIX_DR.schreibeFeld(gen, "prefix");
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        if (arzt.getFachrichtung() != null && auswahl.enthaelt(TYP, "qualification")) {
+            qualifikation(arzt.getFachrichtung()).schreibeFeld(gen, "qualification");
+        }
+
+        if (auswahl.enthaelt(TYP, "active")) {
+            gen.writeBooleanField("active", true);
+        }
+
+        if (auswahl.enthaelt(TYP, "text")) {
+            erstelleNarratixtext.schreibeText(gen, narrativ(arzt));
+        }
+        gen.writeEndObject();
+    }
+
+    private static Fragmente.Fragment meta(Elementauswahl auswahl) {
+        if (auswahl.istReduziert()) {
+            return META_REDUZIERT;
+        }
+        return auswahl.eingeschraenkt() ? META_TEILMENGE : META;
+    }
+
+    private String narrativ(Arzt arzt) {
+        return StufenTimer.messe(stufenTimer, "Practitioner", "narrativ", () -> erstelleNarratixtext.practitionerDiv(
                 "Dr.",
                 arzt.getVorname(),
                 arzt.getNachname(),
                 arzt.getFachrichtung()
-        );
-        fhirPractitioner.put("text", erstelleNarratixtext.baueText(narr));
-
-        return fhirPractitioner;
+        ));
     }
 
     // Mapping
-    private String mapFachrichtungZuSnomed(String fachrichtung) {
-        switch (fachrichtung) {
-            case "Innere Medizin": return "419192003";
-            case "Chirurgie":      return "394609007";
-            case "Orthopädie":     return "394801008";
-            case "Kardiologie":    return "394579002";
-            case "Neurologie":     return "394591006";
-            case "Radiologie":     return "394914008";
-            default:               return "309343006";
-        }
+    private Terminologie.Konzept uebersetze(String map, String quelle) {
+        return (terminologie != null ? terminologie : Terminologie.standard()).uebersetze(map, quelle);
+    }
+
+    // Text ist die Fachrichtung aus dem Altsystem, nicht das Display der Terminologie
+    private Fragmente.Fragment qualifikation(String fachrichtung) {
+        return Fragmente.qualifikation(uebersetze(Terminologie.FACHRICHTUNG, fachrichtung), fachrichtung);
     }
 
     public String generiereFhirUrl(Long arztId) {
         return "Practitioner/" + arztId;
     }
 
+    /**
+     * Referenz inkl. display aus den Referenzdaten. Von der Entität wird nur die Id gelesen,
+     * ein Lazy-Proxy aus Behandlungsfall.arzt wird dadurch nicht initialisiert.
+     */
     public Map<String, Object> erstellePractitionerReference(Arzt arzt) {
-        Map<String, Object> reference = new HashMap<>();
-        reference.put("reference", "Practitioner/" + arzt.getArztId());
-        reference.put("display", "Dr. " + arzt.getVorname() + " " + arzt.getNachname()
-                + " (" + arzt.getFachrichtung() + ")");
+        return erstellePractitionerReference(arzt, true);
+    }
+
+    // Ohne display (reduziertes Profil) bleibt auch ohne Referenzdaten der Lazy-Proxy unangetastet
+    public Map<String, Object> erstellePractitionerReference(Arzt arzt, boolean mitAnzeige) {
+        Referenzdaten.ArztEintrag eintrag = referenzEintrag(arzt);
+        Map<String, Object> reference = new LinkedHashMap<>();
+        reference.put("reference", eintrag != null ? eintrag.reference() : "Practitioner/" + arzt.getArztId());
+        if (mitAnzeige) {
+            reference.put("display", eintrag != null ? eintrag.display() : practitionerDisplay(arzt));
+        }
         return reference;
     }
+
+    public void schreibePractitionerReference(JsonGenerator gen, Arzt arzt) throws IOException {
+        schreibePractitionerReference(gen, arzt, true);
+    }
+
+    // Generator-Variante von erstellePractitionerReference
+    public void schreibePractitionerReference(JsonGenerator gen, Arzt arzt, boolean mitAnzeige) throws IOException {
+        Referenzdaten.ArztEintrag eintrag = referenzEintrag(arzt);
+        gen.writeStartObject();
+        gen.writeStringField("reference", eintrag != null ? eintrag.reference() : "Practitioner/" + arzt.getArztId());
+        if (mitAnzeige) {
+            gen.writeStringField("display", eintrag != null ? eintrag.display() : practitionerDisplay(arzt));
+        }
+        gen.writeEndObject();
+    }
+
+    private Referenzdaten.ArztEintrag referenzEintrag(Arzt arzt) {
+        Long arztId = arzt.getArztId();
+        return referenzdaten != null && arztId != null ? referenzdaten.arzt(arztId) : null;
+    }
+
+    private String practitionerDisplay(Arzt arzt) {
+        return practitionerDisplay(arzt.getVorname(), arzt.getNachname(), arzt.getFachrichtung());
+    }
+
+    static String practitionerDisplay(String vorname, String nachname, String fachrichtung) {
+        return "Dr. " + vorname + " " + nachname + " (" + fachrichtung + ")";
+    }
 }
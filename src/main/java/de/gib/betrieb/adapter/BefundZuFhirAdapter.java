@@ -1,14 +1,18 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.gib.betrieb.config.StufenTimer;
 import de.gib.betrieb.model.Befund;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 @Component
 public class BefundZuFhirAdapter {
@@ -19,156 +23,304 @@ public class BefundZuFhirAdapter {
     @Autowired
     private ArztZuFhirAdapter arztAdapter;
 
+    // Optional, damit die Adapter auch ohne Spring (Unit-Tests, Benchmarks) laufen
+    @Autowired(required = false)
+    private StufenTimer stufenTimer;
+
+    @Autowired(required = false)
+    private Terminologie terminologie;
+
+    private static final String TYP = "Observation";
+    private static final String PROFIL = "http://hl7.org/fhir/StructureDefinition/Observation";
+    private static final Fragmente.Fragment META = Fragmente.meta(PROFIL);
+    private static final Fragmente.Fragment META_TEILMENGE = Fragmente.metaTeilmenge(PROFIL);
+    private static final Fragmente.Fragment META_REDUZIERT = Fragmente.metaReduziert(PROFIL);
+    private static final String IDENTIFIER_SYSTEM = "http://krankenhaus.de/observation-id";
+
+    /** Was {@link #konvertiereAusIndex(Indexbefund)} ausgibt, als _elements-Auswahl */
+    public static final Elementauswahl INDEX_ELEMENTE = Elementauswahl.aus(null, "category,code,subject,encounter,effective,value");
+
+    /** Spalten eines Befunds im Befund-Index; wert ist NaN, wenn nicht numerisch (dann wertText, sonst null) */
+    public record Indexbefund(long befundId, long fallId, long patientId, String code, LocalDateTime zeitpunkt,
+                              double wert, String wertText, String einheit) {}
+
     // FHIR-konforme DateTime: mit Sekunden und Zeitzone
     private static final DateTimeFormatter FHIR_DATETIME_TZ =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
 
     // Wandelt Legacy-Befund-Daten in eine FHIR Observation
     public Map<String, Object> konvertiereZuFhir(Befund befund) {
+        return konvertiereZuFhir(befund, Elementauswahl.ALLE);
+    }
+
+    // Nur die Elemente der Auswahl, ausgeschlossene werden nicht berechnet
+    public Map<String, Object> konvertiereZuFhir(Befund befund, Elementauswahl auswahl) {
         if (befund == null) {
             return null;
         }
 
-        Map<String, Object> fhirObservation = new HashMap<>();
+        Map<String, Object> fhirObservation = new LinkedHashMap<>();
 
         // Basis
         fhirObservation.put("resourceType", "Observation");
         fhirObservation.put("id", befund.getBefundId().toString());
 
-        Map<String, Object> meta = new HashMap<>();
-        meta.put("profile", new String[]{"http://hl7.org/fhir/StructureDefinition/Observation"});
-        fhirObservation.put("meta", meta);
+        fhirObservation.put("meta", meta(auswahl).wert());
 
         // Identifier
-        Map<String, Object> identifier = new HashMap<>();
-        identifier.put("system", "http://krankenhaus.de/observation-id");
-        identifier.put("value", befund.getBefundId().toString());
-        fhirObservation.put("identifier", new Map[]{identifier});
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            Map<String, Object> identifier = new LinkedHashMap<>();
+            identifier.put("system", IDENTIFIER_SYSTEM);
+            identifier.put("value", befund.getBefundId().toString());
+            fhirObservation.put("identifier", new Map[]{identifier});
+        }
 
         // Status
         fhirObservation.put("status", "final");
 
         // Kategorie
-        Map<String, Object> category = new HashMap<>();
-        Map<String, Object> categoryCoding = new HashMap<>();
-        categoryCoding.put("system", "http://terminology.hl7.org/CodeSystem/observation-category");
-
-        if (befund.getCode() != null && befund.getCode().startsWith("LAB")) {
-            categoryCoding.put("code", "laboratory");
-            categoryCoding.put("display", "Laboratory");
-        } else if (befund.getCode() != null && befund.getCode().startsWith("VITAL")) {
-            categoryCoding.put("code", "vital-signs");
-            categoryCoding.put("display", "Vital Signs");
-        } else {
-            categoryCoding.put("code", "exam");
-            categoryCoding.put("display", "Exam");
+        if (auswahl.enthaelt(TYP, "category")) {
+            fhirObservation.put("category", Fragmente.kategorie(uebersetze(Terminologie.BEFUND_KATEGORIE, befund.getCode())).wert());
         }
 
-        category.put("coding", new Map[]{categoryCoding});
-        fhirObservation.put("category", new Map[]{category});
-
         // Code
-        Map<String, Object> code = new HashMap<>();
-        Map<String, Object> coding = new HashMap<>();
-        coding.put("system", "http://krankenhaus.de/codes");
-        coding.put("code", befund.getCode());
-        coding.put("display", mapCodeZuDisplay(befund.getCode()));
-        code.put("coding", new Map[]{coding});
-        code.put("text", mapCodeZuDisplay(befund.getCode()));
-        fhirObservation.put("code", code);
+        Terminologie.Konzept befundCode = uebersetze(Terminologie.BEFUND_CODE, befund.getCode());
+        String codeDisplay = befundCode.display();
+        fhirObservation.put("code", Fragmente.codeableConcept(befundCode, codeDisplay).wert());
 
         // Subject
-        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getPatient() != null) {
+        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getPatient() != null
+                && auswahl.enthaelt(TYP, "subject")) {
             fhirObservation.put("subject",
-                    patientAdapter.erstellePatientReference(befund.getBehandlungsfall().getPatient()));
+                    patientAdapter.erstellePatientReference(befund.getBehandlungsfall().getPatient(), auswahl.mitAnzeige()));
         }
 
         // Encounter
-        if (befund.getBehandlungsfall() != null) {
-            Map<String, Object> encounter = new HashMap<>();
+        if (befund.getBehandlungsfall() != null && auswahl.enthaelt(TYP, "encounter")) {
+            Map<String, Object> encounter = new LinkedHashMap<>();
             encounter.put("reference", "Encounter/" + befund.getBehandlungsfall().getFallId());
             fhirObservation.put("encounter", encounter);
         }
 
         // Zeitpunkt
-        String zeitMitTz = null;
-        if (befund.getZeitpunkt() != null) {
-            ZonedDateTime zdt = befund.getZeitpunkt().atZone(ZoneId.systemDefault());
-            zeitMitTz = zdt.format(FHIR_DATETIME_TZ);
+        boolean mitText = auswahl.enthaelt(TYP, "text");
+        String zeitMitTz = mitText || auswahl.enthaelt(TYP, "effective") ? formatiereZeitpunkt(befund) : null;
+        if (zeitMitTz != null && auswahl.enthaelt(TYP, "effective")) {
             fhirObservation.put("effectiveDateTime", zeitMitTz);
         }
 
         // Wert
         String valueTextForNarrative = null;
-        if (befund.getWert() != null) {
-            try {
-                Double numerischerWert = Double.parseDouble(
-                        befund.getWert().replaceAll("[^0-9.,]", "").replace(",", ".")
-                );
-                Map<String, Object> valueQuantity = new HashMap<>();
-                valueQuantity.put("value", numerischerWert);
-
-                if (befund.getEinheit() != null && !befund.getEinheit().isEmpty()) {
-                    String einheitDisplay = befund.getEinheit();
-                    String ucumCode = mappeNachUcumCode(einheitDisplay);
-
-                    valueQuantity.put("unit", einheitDisplay);
-                    valueQuantity.put("system", "http://unitsofmeasure.org");
-                    valueQuantity.put("code", ucumCode);
-
-
-                    valueTextForNarrative = numerischerWert + " " + einheitDisplay;
-                } else {
-                    valueTextForNarrative = numerischerWert.toString();
-                }
-
-                fhirObservation.put("valueQuantity", valueQuantity);
-            } catch (NumberFormatException e) {
+        boolean mitWert = auswahl.enthaelt(TYP, "value");
+        if (befund.getWert() != null && (mitWert || mitText)) {
+            Double numerischerWert = parseNumerischenWert(befund.getWert());
+            if (mitWert && numerischerWert != null) {
+                fhirObservation.put("valueQuantity", valueQuantity(numerischerWert, befund.getEinheit()));
+            } else if (mitWert) {
                 fhirObservation.put("valueString", befund.getWert());
-                valueTextForNarrative = befund.getWert();
             }
+            valueTextForNarrative = wertText(befund, numerischerWert);
         }
 
         // Performer
-        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getArzt() != null) {
+        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getArzt() != null
+                && auswahl.enthaelt(TYP, "performer")) {
             fhirObservation.put("performer", new Map[]{
-                    arztAdapter.erstellePractitionerReference(befund.getBehandlungsfall().getArzt())
+                    arztAdapter.erstellePractitionerReference(befund.getBehandlungsfall().getArzt(), auswahl.mitAnzeige())
             });
         }
 
         // Narrativtext
-        String narr = erstelleNarratixtext.observationSatz(
-                mapCodeZuDisplay(befund.getCode()),
-                valueTextForNarrative,
-                zeitMitTz
-        );
-        fhirObservation.put("text", erstelleNarratixtext.baueText(narr));
+        if (mitText) {
+            String narr = narrativ(codeDisplay, valueTextForNarrative, zeitMitTz);
+            fhirObservation.put("text", erstelleNarratixtext.baueText(narr));
+        }
+
+        return fhirObservation;
+    }
+
+    /**
+     * Observation aus den Spalten des Befund-Index ($lastn), ohne Entität und ohne Datenbank.
+     * Enthält die Elemente von {@link #INDEX_ELEMENTE} genau wie konvertiereZuFhir mit dieser Auswahl,
+     * nur subject ohne display: der Patientenname steht nicht im Index.
+     */
+    public Map<String, Object> konvertiereAusIndex(Indexbefund befund) {
+        Map<String, Object> fhirObservation = new LinkedHashMap<>();
+        fhirObservation.put("resourceType", "Observation");
+        fhirObservation.put("id", Long.toString(befund.befundId()));
+        fhirObservation.put("meta", META_TEILMENGE.wert());
+        fhirObservation.put("status", "final");
+        fhirObservation.put("category", Fragmente.kategorie(uebersetze(Terminologie.BEFUND_KATEGORIE, befund.code())).wert());
 
+        Terminologie.Konzept befundCode = uebersetze(Terminologie.BEFUND_CODE, befund.code());
+        fhirObservation.put("code", Fragmente.codeableConcept(befundCode, befundCode.display()).wert());
+
+        Map<String, Object> subject = new LinkedHashMap<>();
+        subject.put("reference", "Patient/" + befund.patientId());
+        fhirObservation.put("subject", subject);
+        Map<String, Object> encounter = new LinkedHashMap<>();
+        encounter.put("reference", "Encounter/" + befund.fallId());
+        fhirObservation.put("encounter", encounter);
+
+        if (befund.zeitpunkt() != null) {
+            fhirObservation.put("effectiveDateTime", fhirZeitpunkt(befund.zeitpunkt()));
+        }
+        if (!Double.isNaN(befund.wert())) {
+            fhirObservation.put("valueQuantity", valueQuantity(befund.wert(), befund.einheit()));
+        } else if (befund.wertText() != null) {
+            fhirObservation.put("valueString", befund.wertText());
+        }
         return fhirObservation;
     }
 
-    // Mappt interne Codes zu lesbaren Bezeichnungen
-    private String mapCodeZuDisplay(String code) {
-        if (code == null) return "Unbekannte Messung";
-        switch (code) {
-            case "LAB-001": return "Blutdruck";
-            case "LAB-002": return "Blutzucker";
-            case "VITAL-001": return "Körpertemperatur";
-            case "VITAL-002": return "Puls";
-            case "BLOOD-001": return "Blutbild";
-            case "URINE-001": return "Urinanalyse";
-            default: return "Unbekannte Messung (" + code + ")";
+    public void schreibeFhir(Befund befund, JsonGenerator gen) throws IOException {
+        schreibeFhir(befund, Elementauswahl.ALLE, gen);
+    }
+
+    /**
+     * Schreibt den Befund direkt in den JsonGenerator, ohne Map-Baum.
+     * Feldreihenfolge und Werte entsprechen exakt {@link #konvertiereZuFhir(Befund, Elementauswahl)}.
+     */
+    public void schreibeFhir(Befund befund, Elementauswahl auswahl, JsonGenerator gen) throws IOException {
+        String id = befund.getBefundId().toString();
+
+        gen.writeStartObject();
+        gen.writeStringField("resourceType", "Observation");
+        gen.writeStringField("id", id);
+
+        meta(auswahl).schreibeFeld(gen, "meta");
+
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            gen.writeArrayFieldStart("identifier");
+            gen.writeStartObject();
+            gen.writeStringField("system", IDENTIFIER_SYSTEM);
+            gen.writeStringField("value", id);
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        gen.writeStringField("status", "final");
+
+        if (auswahl.enthaelt(TYP, "category")) {
+            Fragmente.kategorie(uebersetze(Terminologie.BEFUND_KATEGORIE, befund.getCode())).schreibeFeld(gen, "category");
+        }
+
+        Terminologie.Konzept befundCode = uebersetze(Terminologie.BEFUND_CODE, befund.getCode());
+        String codeDisplay = befundCode.display();
+        Fragmente.codeableConcept(befundCode, codeDisplay).schreibeFeld(gen, "code");
+
+        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getPatient() != null
+                && auswahl.enthaelt(TYP, "subject")) {
+            gen.writeFieldName("subject");
+            patientAdapter.schreibePatientReference(gen, befund.getBehandlungsfall().getPatient(), auswahl.mitAnzeige());
+        }
+
+        if (befund.getBehandlungsfall() != null && auswahl.enthaelt(TYP, "encounter")) {
+            gen.writeObjectFieldStart("encounter");
+            gen.writeStringField("reference", "Encounter/" + befund.getBehandlungsfall().getFallId());
+            gen.writeEndObject();
+        }
+
+        boolean mitText = auswahl.enthaelt(TYP, "text");
+        String zeitMitTz = mitText || auswahl.enthaelt(TYP, "effective") ? formatiereZeitpunkt(befund) : null;
+        if (zeitMitTz != null && auswahl.enthaelt(TYP, "effective")) {
+            gen.writeStringField("effectiveDateTime", zeitMitTz);
+        }
+
+        String valueTextForNarrative = null;
+        boolean mitWert = auswahl.enthaelt(TYP, "value");
+        if (befund.getWert() != null && (mitWert || mitText)) {
+            Double numerischerWert = parseNumerischenWert(befund.getWert());
+            if (mitWert && numerischerWert != null) {
+                gen.writeObjectFieldStart("valueQuantity");
+                gen.writeNumberField("value", numerischerWert);
+                if (befund.getEinheit() != null && !befund.getEinheit().isEmpty()) {
+                    gen.writeStringField("unit", befund.getEinheit());
+                    gen.writeStringField("system", "http://unitsofmeasure.org");
+                    gen.writeStringField("code", uebersetze(Terminologie.UCUM, befund.getEinheit()).code());
+                }
+                gen.writeEndObject();
+            } else if (mitWert) {
+                gen.writeStringField("valueString", befund.getWert());
+            }
+            valueTextForNarrative = wertText(befund, numerischerWert);
+        }
+
+        if (befund.getBehandlungsfall() != null && befund.getBehandlungsfall().getArzt() != null
+                && auswahl.enthaelt(TYP, "performer")) {
+            gen.writeArrayFieldStart("performer");
+            arztAdapter.schreibePractitionerReference(gen, befund.getBehandlungsfall().getArzt(), auswahl.mitAnzeige());
+            gen.writeEndArray();
+        }
+
+        if (mitText) {
+            String narr = narrativ(codeDisplay, valueTextForNarrative, zeitMitTz);
+            erstelleNarratixtext.schreibeText(gen, narr);
+        }
+        gen.writeEndObject();
+    }
+
+    private static Fragmente.Fragment meta(Elementauswahl auswahl) {
+        if (auswahl.istReduziert()) {
+            return META_REDUZIERT;
+        }
+        return auswahl.eingeschraenkt() ? META_TEILMENGE : META;
+    }
+
+    private String narrativ(String codeDisplay, String valueText, String zeitMitTz) {
+        return StufenTimer.messe(stufenTimer, "Observation", "narrativ",
+                () -> erstelleNarratixtext.observationDiv(codeDisplay, valueText, zeitMitTz));
+    }
+
+    private String formatiereZeitpunkt(Befund befund) {
+        if (befund.getZeitpunkt() == null) {
+            return null;
         }
+        return fhirZeitpunkt(befund.getZeitpunkt());
     }
 
-    private String mappeNachUcumCode(String einheitDisplay) {
-        if (einheitDisplay == null) return null;
-        switch (einheitDisplay) {
-            case "mmHg": return "mm[Hg]";
-            case "°C":   return "Cel";
-            case "degC": return "Cel";
-            default:     return einheitDisplay;
+    /** Legacy-Zeitpunkt (Serverzeit) als FHIR dateTime mit Sekunden und Zeitzone */
+    public static String fhirZeitpunkt(LocalDateTime zeitpunkt) {
+        ZonedDateTime zdt = zeitpunkt.atZone(ZoneId.systemDefault());
+        return zdt.format(FHIR_DATETIME_TZ);
+    }
+
+    /** valueQuantity mit UCUM-Code der Einheit, wie in Observation.value */
+    public Map<String, Object> valueQuantity(double wert, String einheit) {
+        Map<String, Object> valueQuantity = new LinkedHashMap<>();
+        valueQuantity.put("value", wert);
+
+        if (einheit != null && !einheit.isEmpty()) {
+            String ucumCode = uebersetze(Terminologie.UCUM, einheit).code();
+
+            valueQuantity.put("unit", einheit);
+            valueQuantity.put("system", "http://unitsofmeasure.org");
+            valueQuantity.put("code", ucumCode);
         }
+        return valueQuantity;
+    }
+
+    // Liefert null, wenn der Legacy-Wert nicht numerisch ist (dann valueString); auch für den Befund-Index
+    public static Double parseNumerischenWert(String wert) {
+        try {
+            return Double.parseDouble(wert.replaceAll("[^0-9.,]", "").replace(",", "."));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String wertText(Befund befund, Double numerischerWert) {
+        if (numerischerWert == null) {
+            return befund.getWert();
+        }
+        if (befund.getEinheit() != null && !befund.getEinheit().isEmpty()) {
+            return numerischerWert + " " + befund.getEinheit();
+        }
+        return numerischerWert.toString();
+    }
+
+    private Terminologie.Konzept uebersetze(String map, String quelle) {
+        return (terminologie != null ? terminologie : Terminologie.standard()).uebersetze(map, quelle);
     }
 
     public String generiereFhirUrl(Long befundId) {
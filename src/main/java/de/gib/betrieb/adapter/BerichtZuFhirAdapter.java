@@ -1,17 +1,20 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.gib.betrieb.config.StufenTimer;
 import de.gib.betrieb.model.Bericht;
 import de.gib.betrieb.model.Befund;
 import de.gib.betrieb.datenbank.BefundRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -27,152 +30,291 @@ public class BerichtZuFhirAdapter {
     @Autowired
     private BefundRepository befundRepository;
 
+    // Optional, damit die Adapter auch ohne Spring (Unit-Tests, Benchmarks) laufen
+    @Autowired(required = false)
+    private StufenTimer stufenTimer;
+
+    @Autowired(required = false)
+    private Terminologie terminologie;
+
+    private static final String TYP = "DiagnosticReport";
+    private static final String PROFIL = "http://hl7.org/fhir/StructureDefinition/DiagnosticReport";
+    private static final Fragmente.Fragment META = Fragmente.meta(PROFIL);
+    private static final Fragmente.Fragment META_TEILMENGE = Fragmente.metaTeilmenge(PROFIL);
+    private static final Fragmente.Fragment META_REDUZIERT = Fragmente.metaReduziert(PROFIL);
+    private static final String IDENTIFIER_SYSTEM = "http://krankenhaus.de/diagnostic-report-id";
+
     // FHIR-konforme DateTime
     private static final DateTimeFormatter FHIR_DATETIME_TZ =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
 
     // Wandelt Daten in eine FHIR DiagnosticReport Resource
     public Map<String, Object> konvertiereZuFhir(Bericht bericht) {
+        return konvertiereZuFhir(bericht, Elementauswahl.ALLE);
+    }
+
+    // Befunde werden nur geladen, wenn result oder das Narrativ ausgegeben wird
+    public Map<String, Object> konvertiereZuFhir(Bericht bericht, Elementauswahl auswahl) {
+        if (bericht == null) {
+            return null;
+        }
+        return konvertiereZuFhir(bericht, brauchtBefunde(auswahl) ? ladeBefunde(bericht) : null, auswahl);
+    }
+
+    // Wie oben, aber mit bereits geladenen Befunden des Falls (kein Repository-Zugriff)
+    public Map<String, Object> konvertiereZuFhir(Bericht bericht, List<Befund> befunde) {
+        return konvertiereZuFhir(bericht, befunde, Elementauswahl.ALLE);
+    }
+
+    public Map<String, Object> konvertiereZuFhir(Bericht bericht, List<Befund> befunde, Elementauswahl auswahl) {
         if (bericht == null) {
             return null;
         }
 
-        Map<String, Object> fhirReport = new HashMap<>();
+        Map<String, Object> fhirReport = new LinkedHashMap<>();
 
         // Basis
         fhirReport.put("resourceType", "DiagnosticReport");
         fhirReport.put("id", bericht.getBerichtId().toString());
 
         // Meta
-        Map<String, Object> meta = new HashMap<>();
-        meta.put("profile", new String[]{"http://hl7.org/fhir/StructureDefinition/DiagnosticReport"});
-        fhirReport.put("meta", meta);
+        fhirReport.put("meta", meta(auswahl).wert());
 
         // Identifier
-        Map<String, Object> identifier = new HashMap<>();
-        identifier.put("system", "http://krankenhaus.de/diagnostic-report-id");
-        identifier.put("value", bericht.getBerichtId().toString());
-        fhirReport.put("identifier", new Map[]{identifier});
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            Map<String, Object> identifier = new LinkedHashMap<>();
+            identifier.put("system", IDENTIFIER_SYSTEM);
+            identifier.put("value", bericht.getBerichtId().toString());
+            fhirReport.put("identifier", new Map[]{identifier});
+        }
 
         // Status
         fhirReport.put("status", "final");
 
         // Kategorie
-        Map<String, Object> category = new HashMap<>();
-        Map<String, Object> categoryCoding = new HashMap<>();
-        categoryCoding.put("system", "http://terminology.hl7.org/CodeSystem/v2-0074");
-
         String code = bericht.getCode();
-        if ("LABORBERICHT".equals(code)) {
-            categoryCoding.put("code", "LAB");
-            categoryCoding.put("display", "Laboratory");
-        } else if ("RADIOLOGIE".equals(code)) {
-            categoryCoding.put("code", "RAD");
-            categoryCoding.put("display", "Radiology");
-        } else {
-            categoryCoding.put("code", "OTH");
-            categoryCoding.put("display", "Other");
+        if (auswahl.enthaelt(TYP, "category")) {
+            fhirReport.put("category", Fragmente.kategorie(uebersetze(Terminologie.BERICHT_KATEGORIE, code)).wert());
         }
 
-        category.put("coding", new Map[]{categoryCoding});
-        fhirReport.put("category", new Map[]{category});
-
         // Code des Berichts
-        Map<String, Object> codeEl = new HashMap<>();
-        Map<String, Object> coding = new HashMap<>();
-        coding.put("system", "http://krankenhaus.de/report-codes");
-        coding.put("code", code);
-        coding.put("display", mapCodeZuDisplay(code));
-        codeEl.put("coding", new Map[]{coding});
-        codeEl.put("text", mapCodeZuDisplay(code));
-        fhirReport.put("code", codeEl);
+        Terminologie.Konzept berichtCode = uebersetze(Terminologie.BERICHT_CODE, code);
+        String codeDisplay = berichtCode.display();
+        fhirReport.put("code", Fragmente.codeableConcept(berichtCode, codeDisplay).wert());
 
         // Subject
-        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getPatient() != null) {
+        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getPatient() != null
+                && auswahl.enthaelt(TYP, "subject")) {
             fhirReport.put("subject",
-                    patientAdapter.erstellePatientReference(bericht.getBehandlungsfall().getPatient()));
+                    patientAdapter.erstellePatientReference(bericht.getBehandlungsfall().getPatient(), auswahl.mitAnzeige()));
         }
 
         // Encounter
-        if (bericht.getBehandlungsfall() != null) {
-            Map<String, Object> encounter = new HashMap<>();
+        if (bericht.getBehandlungsfall() != null && auswahl.enthaelt(TYP, "encounter")) {
+            Map<String, Object> encounter = new LinkedHashMap<>();
             encounter.put("reference", "Encounter/" + bericht.getBehandlungsfall().getFallId());
             fhirReport.put("encounter", encounter);
         }
 
         // Zeiten
-        String effectiveMitTz = null;
-        if (bericht.getErstelltAm() != null) {
-            ZonedDateTime zdt = bericht.getErstelltAm().atZone(ZoneId.systemDefault());
-            effectiveMitTz = zdt.format(FHIR_DATETIME_TZ);
-            fhirReport.put("effectiveDateTime", effectiveMitTz);
+        if (auswahl.enthaelt(TYP, "effective")) {
+            String effectiveMitTz = formatiereEffective(bericht);
+            if (effectiveMitTz != null) {
+                fhirReport.put("effectiveDateTime", effectiveMitTz);
+            }
         }
 
-        if (bericht.getErstelltAm() != null) {
-            Instant instant = bericht.getErstelltAm()
-                    .atZone(ZoneId.systemDefault())
-                    .toInstant();
-            fhirReport.put("issued", instant.toString());
+        boolean mitText = auswahl.enthaelt(TYP, "text");
+        String issued = mitText || auswahl.enthaelt(TYP, "issued") ? formatiereIssued(bericht) : null;
+        if (issued != null && auswahl.enthaelt(TYP, "issued")) {
+            fhirReport.put("issued", issued);
         }
 
         // Performer
-        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getArzt() != null) {
+        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getArzt() != null
+                && auswahl.enthaelt(TYP, "performer")) {
             fhirReport.put("performer", new Map[]{
-                    arztAdapter.erstellePractitionerReference(bericht.getBehandlungsfall().getArzt())
+                    arztAdapter.erstellePractitionerReference(bericht.getBehandlungsfall().getArzt(), auswahl.mitAnzeige())
             });
         }
 
         // Zugehörige Observations
-        int anzahlErgebnisse = 0;
-        if (bericht.getBehandlungsfall() != null) {
-            List<Befund> befunde = befundRepository.findByBehandlungsfallFallId(
-                    bericht.getBehandlungsfall().getFallId());
-
-            if (befunde != null && !befunde.isEmpty()) {
-                List<Map<String, Object>> results = new ArrayList<>();
-                for (Befund befund : befunde) {
-                    Map<String, Object> resultRef = new HashMap<>();
-                    resultRef.put("reference", "Observation/" + befund.getBefundId());
-                    resultRef.put("display", mapCodeZuDisplayObservation(befund.getCode()));
-                    results.add(resultRef);
-                }
-                fhirReport.put("result", results);
-                anzahlErgebnisse = results.size();
+        int anzahlErgebnisse = befunde != null ? befunde.size() : 0;
+        if (anzahlErgebnisse > 0 && auswahl.enthaelt(TYP, "result")) {
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Befund befund : befunde) {
+                Map<String, Object> resultRef = new LinkedHashMap<>();
+                resultRef.put("reference", "Observation/" + befund.getBefundId());
+                resultRef.put("display", uebersetze(Terminologie.BERICHT_ERGEBNIS, befund.getCode()).display());
+                results.add(resultRef);
             }
+            fhirReport.put("result", results);
         }
 
-        fhirReport.put("conclusion", "Automatisch generierter Bericht vom Typ: " + mapCodeZuDisplay(code));
+        if (auswahl.enthaelt(TYP, "conclusion")) {
+            fhirReport.put("conclusion", conclusion(codeDisplay));
+        }
 
         // Narrative
-        String narr = erstelleNarratixtext.diagnosticReportSatz(
-                mapCodeZuDisplay(code),
-                "final",
-                (String) fhirReport.get("issued"),
-                anzahlErgebnisse
-        );
-        fhirReport.put("text", erstelleNarratixtext.baueText(narr));
+        if (mitText) {
+            String narr = narrativ(codeDisplay, issued, anzahlErgebnisse);
+            fhirReport.put("text", erstelleNarratixtext.baueText(narr));
+        }
 
         return fhirReport;
     }
 
-    private String mapCodeZuDisplay(String code) {
-        if (code == null) return "Medizinischer Bericht";
-        switch (code) {
-            case "ARZTBRIEF":     return "Arztbrief";
-            case "LABORBERICHT":  return "Laborbericht";
-            case "RADIOLOGIE":    return "Radiologischer Bericht";
-            case "ENTLASSUNG":    return "Entlassungsbericht";
-            default:              return "Medizinischer Bericht (" + code + ")";
+    public void schreibeFhir(Bericht bericht, JsonGenerator gen) throws IOException {
+        schreibeFhir(bericht, Elementauswahl.ALLE, gen);
+    }
+
+    public void schreibeFhir(Bericht bericht, Elementauswahl auswahl, JsonGenerator gen) throws IOException {
+        schreibeFhir(bericht, brauchtBefunde(auswahl) ? ladeBefunde(bericht) : null, auswahl, gen);
+    }
+
+    public void schreibeFhir(Bericht bericht, List<Befund> befunde, JsonGenerator gen) throws IOException {
+        schreibeFhir(bericht, befunde, Elementauswahl.ALLE, gen);
+    }
+
+    /**
+     * Schreibt den Bericht direkt in den JsonGenerator, ohne Map-Baum.
+     * Feldreihenfolge und Werte entsprechen exakt {@link #konvertiereZuFhir(Bericht, List, Elementauswahl)}.
+     */
+    public void schreibeFhir(Bericht bericht, List<Befund> befunde, Elementauswahl auswahl, JsonGenerator gen)
+            throws IOException {
+        String id = bericht.getBerichtId().toString();
+        String code = bericht.getCode();
+
+        gen.writeStartObject();
+        gen.writeStringField("resourceType", "DiagnosticReport");
+        gen.writeStringField("id", id);
+
+        meta(auswahl).schreibeFeld(gen, "meta");
+
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            gen.writeArrayFieldStart("identifier");
+            gen.writeStartObject();
+            gen.writeStringField("system", IDENTIFIER_SYSTEM);
+            gen.writeStringField("value", id);
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        gen.writeStringField("status", "final");
+
+        if (auswahl.enthaelt(TYP, "category")) {
+            Fragmente.kategorie(uebersetze(Terminologie.BERICHT_KATEGORIE, code)).schreibeFeld(gen, "category");
+        }
+
+        Terminologie.Konzept berichtCode = uebersetze(Terminologie.BERICHT_CODE, code);
+        String codeDisplay = berichtCode.display();
+        Fragmente.codeableConcept(berichtCode, codeDisplay).schreibeFeld(gen, "code");
+
+        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getPatient() != null
+                && auswahl.enthaelt(TYP, "subject")) {
+            gen.writeFieldName("subject");
+            patientAdapter.schreibePatientReference(gen, bericht.getBehandlungsfall().getPatient(), auswahl.mitAnzeige());
+        }
+
+        if (bericht.getBehandlungsfall() != null && auswahl.enthaelt(TYP, "encounter")) {
+            gen.writeObjectFieldStart("encounter");
+            gen.writeStringField("reference", "Encounter/" + bericht.getBehandlungsfall().getFallId());
+            gen.writeEndObject();
+        }
+
+        if (auswahl.enthaelt(TYP, "effective")) {
+            String effectiveMitTz = formatiereEffective(bericht);
+            if (effectiveMitTz != null) {
+                gen.writeStringField("effectiveDateTime", effectiveMitTz);
+            }
+        }
+
+        boolean mitText = auswahl.enthaelt(TYP, "text");
+        String issued = mitText || auswahl.enthaelt(TYP, "issued") ? formatiereIssued(bericht) : null;
+        if (issued != null && auswahl.enthaelt(TYP, "issued")) {
+            gen.writeStringField("issued", issued);
+        }
+
+        if (bericht.getBehandlungsfall() != null && bericht.getBehandlungsfall().getArzt() != null
+                && auswahl.enthaelt(TYP, "performer")) {
+            gen.writeArrayFieldStart("performer");
+            arztAdapter.schreibePractitionerReference(gen, bericht.getBehandlungsfall().getArzt(), auswahl.mitAnzeige());
+            gen.writeEndArray();
+        }
+
+        int anzahlErgebnisse = befunde != null ? befunde.size() : 0;
+        if (anzahlErgebnisse > 0 && auswahl.enthaelt(TYP, "result")) {
+            gen.writeArrayFieldStart("result");
+            for (Befund befund : befunde) {
+                gen.writeStartObject();
+                gen.writeStringField("reference", "Observation/" + befund.getBefundId());
+                gen.writeStringField("display", uebersetze(Terminologie.BERICHT_ERGEBNIS, befund.getCode()).display());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+
+        if (auswahl.enthaelt(TYP, "conclusion")) {
+            gen.writeStringField("conclusion", conclusion(codeDisplay));
+        }
+
+        if (mitText) {
+            String narr = narrativ(codeDisplay, issued, anzahlErgebnisse);
+            erstelleNarratixtext.schreibeText(gen, narr);
+        }
+        gen.writeEndObject();
+    }
+
+    /** Ob für die Auswahl die Befunde des Falls gebraucht werden (result-Liste oder Anzahl im Narrativ) */
+    public static boolean brauchtBefunde(Elementauswahl auswahl) {
+        return auswahl.enthaelt(TYP, "result") || auswahl.enthaelt(TYP, "text");
+    }
+
+    private static Fragmente.Fragment meta(Elementauswahl auswahl) {
+        if (auswahl.istReduziert()) {
+            return META_REDUZIERT;
         }
+        return auswahl.eingeschraenkt() ? META_TEILMENGE : META;
     }
 
-    private String mapCodeZuDisplayObservation(String code) {
-        if (code == null) return "Observation";
-        switch (code) {
-            case "LAB-001": return "Blutdruck";
-            case "LAB-002": return "Blutzucker";
-            default:        return "Observation (" + code + ")";
+    private String narrativ(String codeDisplay, String issued, int anzahlErgebnisse) {
+        return StufenTimer.messe(stufenTimer, "DiagnosticReport", "narrativ",
+                () -> erstelleNarratixtext.diagnosticReportDiv(codeDisplay, "final", issued, anzahlErgebnisse));
+    }
+
+    private List<Befund> ladeBefunde(Bericht bericht) {
+        if (bericht.getBehandlungsfall() == null) {
+            return null;
+        }
+        Long fallId = bericht.getBehandlungsfall().getFallId();
+        return StufenTimer.messe(stufenTimer, "DiagnosticReport", "db",
+                () -> befundRepository.findByBehandlungsfallFallId(fallId));
+    }
+
+    private String formatiereEffective(Bericht bericht) {
+        if (bericht.getErstelltAm() == null) {
+            return null;
         }
+        ZonedDateTime zdt = bericht.getErstelltAm().atZone(ZoneId.systemDefault());
+        return zdt.format(FHIR_DATETIME_TZ);
+    }
+
+    private String formatiereIssued(Bericht bericht) {
+        if (bericht.getErstelltAm() == null) {
+            return null;
+        }
+        Instant instant = bericht.getErstelltAm()
+                .atZone(ZoneId.systemDefault())
+                .toInstant();
+        return instant.toString();
+    }
+
+    private String conclusion(String codeDisplay) {
+        return "Automatisch generierter Bericht vom Typ: " + codeDisplay;
+    }
+
+    private Terminologie.Konzept uebersetze(String map, String quelle) {
+        return (terminologie != null ? terminologie : Terminologie.standard()).uebersetze(map, quelle);
     }
 
     public String generiereFhirUrl(Long berichtId) {
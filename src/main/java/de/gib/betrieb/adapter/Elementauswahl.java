@@ -0,0 +1,173 @@
+package de.gib.betrieb.adapter;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Welche Elemente einer Resource ausgegeben werden, nach den FHIR-Parametern _summary und _elements.
+ * Die Adapter fragen vor jedem Element nach und berechnen ausgeschlossene Elemente gar nicht erst,
+ * auch nicht das Narrativ. resourceType, id und meta sind immer enthalten, bei _elements und
+ * _summary=text zusätzlich die Pflichtelemente des Typs. Eingeschränkte Resources tragen in meta
+ * das Tag SUBSETTED.
+ * Unter Überlast legt die Laststeuerung das reduzierte Profil darüber: kein Narrativ, keine
+ * DiagnosticReport.result-Liste und keine display-Texte in Referenzen.
+ */
+public final class Elementauswahl {
+
+    public enum Zusammenfassung { TRUE, TEXT, DATA, COUNT, FALSE }
+
+    // Summary- und Pflichtelemente aus den R4-StructureDefinitions, soweit die Adapter sie befüllen.
+    // Elemente mit Datentyp-Auswahl stehen unter ihrem Grundnamen (value, effective).
+    private record Definition(Set<String> zusammenfassung, Set<String> pflicht) {}
+
+    private static final Map<String, Definition> DEFINITIONEN = Map.of(
+            "Patient", new Definition(
+                    Set.of("identifier", "active", "name", "gender", "birthDate"), Set.of()),
+            "Practitioner", new Definition(
+                    Set.of("identifier", "active", "name"), Set.of()),
+            "Observation", new Definition(
+                    Set.of("identifier", "status", "code", "subject", "encounter", "effective", "issued",
+                            "performer", "value"),
+                    Set.of("status", "code")),
+            "DiagnosticReport", new Definition(
+                    Set.of("identifier", "status", "category", "code", "subject", "encounter", "effective",
+                            "issued", "performer"),
+                    Set.of("status", "code")));
+
+    private static final Set<String> AUSWAHL_ELEMENTE = Set.of("value", "effective");
+
+    // Teuer zu berechnende Elemente, die im reduzierten Profil entfallen
+    private static final Set<String> OHNE_BEI_UEBERLAST = Set.of("text", "result");
+
+    /** Vollständige Resources, wie ohne Parameter */
+    public static final Elementauswahl ALLE = new Elementauswahl(Zusammenfassung.FALSE, null, false);
+
+    /** {@link #ALLE} im reduzierten Profil */
+    public static final Elementauswahl REDUZIERT = new Elementauswahl(Zusammenfassung.FALSE, null, true);
+
+    private final Zusammenfassung zusammenfassung;
+    // null = keine _elements-Angabe
+    private final Set<String> elemente;
+    private final boolean reduziert;
+
+    private Elementauswahl(Zusammenfassung zusammenfassung, Set<String> elemente, boolean reduziert) {
+        this.zusammenfassung = zusammenfassung;
+        this.elemente = elemente;
+        this.reduziert = reduziert;
+    }
+
+    /**
+     * Aus den Request-Parametern; beide leer oder _summary=false ergibt {@link #ALLE}.
+     * Unbekannte _summary-Werte und die Kombination beider Parameter sind IllegalArgumentException.
+     */
+    public static Elementauswahl aus(String summary, String elements) {
+        boolean mitSummary = summary != null && !summary.isBlank();
+        boolean mitElements = elements != null && !elements.isBlank();
+        if (mitSummary && mitElements) {
+            throw new IllegalArgumentException("_summary und _elements können nicht kombiniert werden");
+        }
+        if (mitElements) {
+            Set<String> namen = Arrays.stream(elements.split(","))
+                    .map(String::trim)
+                    .filter(n -> !n.isEmpty())
+                    .map(Elementauswahl::grundname)
+                    .collect(Collectors.toUnmodifiableSet());
+            return new Elementauswahl(Zusammenfassung.FALSE, namen, false);
+        }
+        if (!mitSummary) {
+            return ALLE;
+        }
+        Zusammenfassung z;
+        try {
+            z = Zusammenfassung.valueOf(summary.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unbekannter Wert für _summary: " + summary);
+        }
+        return z == Zusammenfassung.FALSE ? ALLE : new Elementauswahl(z, null, false);
+    }
+
+    /** Dieselbe Auswahl im reduzierten Profil */
+    public Elementauswahl reduziert() {
+        if (reduziert) {
+            return this;
+        }
+        return this == ALLE ? REDUZIERT : new Elementauswahl(zusammenfassung, elemente, true);
+    }
+
+    /** Ob element (Grundname, z. B. "value" für valueQuantity) in einer Resource vom Typ typ ausgegeben wird */
+    public boolean enthaelt(String typ, String element) {
+        if (this == ALLE) {
+            return true;
+        }
+        if (reduziert && OHNE_BEI_UEBERLAST.contains(element)) {
+            return false;
+        }
+        Definition definition = DEFINITIONEN.get(typ);
+        boolean pflicht = definition != null && definition.pflicht().contains(element);
+        if (elemente != null) {
+            return pflicht || elemente.contains(element);
+        }
+        return switch (zusammenfassung) {
+            case TRUE -> definition != null && definition.zusammenfassung().contains(element);
+            case TEXT -> pflicht || "text".equals(element);
+            case DATA -> !"text".equals(element);
+            case COUNT -> false;
+            case FALSE -> true;
+        };
+    }
+
+    /** Ob Elemente weggelassen werden; dann gehört SUBSETTED in meta.tag */
+    public boolean eingeschraenkt() {
+        return this != ALLE;
+    }
+
+    /** Reduziertes Profil unter Überlast; in meta.tag steht dann zusätzlich das Lastprofil */
+    public boolean istReduziert() {
+        return reduziert;
+    }
+
+    /** Ob Referenzen ein display bekommen; im reduzierten Profil nur reference */
+    public boolean mitAnzeige() {
+        return !reduziert;
+    }
+
+    /** _summary=count: Suchen liefern nur die Trefferzahl */
+    public boolean nurAnzahl() {
+        return zusammenfassung == Zusammenfassung.COUNT;
+    }
+
+    /** Parameter für Folgelinks, leer bei {@link #ALLE}; das reduzierte Profil entscheidet der Server je Seite neu */
+    public String alsQuery() {
+        if (elemente != null) {
+            return "&_elements=" + String.join(",", elemente.stream().sorted().toList());
+        }
+        return zusammenfassung == Zusammenfassung.FALSE ? "" : "&_summary=" + zusammenfassung.name().toLowerCase(Locale.ROOT);
+    }
+
+    // Teil des Schlüssels der Ladebündelung
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Elementauswahl a && zusammenfassung == a.zusammenfassung
+                && Objects.equals(elemente, a.elemente) && reduziert == a.reduziert;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(zusammenfassung, elemente, reduziert);
+    }
+
+    // valueQuantity -> value, effectiveDateTime -> effective
+    private static String grundname(String element) {
+        for (String basis : AUSWAHL_ELEMENTE) {
+            if (element.length() > basis.length() && element.startsWith(basis)
+                    && Character.isUpperCase(element.charAt(basis.length()))) {
+                return basis;
+            }
+        }
+        return element;
+    }
+}
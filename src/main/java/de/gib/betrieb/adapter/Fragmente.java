@@ -0,0 +1,154 @@
+package de.gib.betrieb.adapter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Vorgefertigte Teilbäume, die in vielen Resources gleich aussehen: meta.profile, Kategorien,
+ * CodeableConcepts aus der Terminologie, Qualifikationen. Jedes Fragment liegt einmal als tief
+ * unveränderlicher Map/List-Baum für die Map-Engine vor und einmal als fertiges JSON, das der Generator
+ * unverändert durchschreibt. Pro Resource wird nur noch gebaut, was sich tatsächlich unterscheidet.
+ * Fragmente zu Terminologie-Konzepten werden beim ersten Gebrauch angelegt und über den Inhalt
+ * wiedergefunden, ein Neuladen der Terminologie braucht deshalb keine Invalidierung.
+ */
+public final class Fragmente {
+
+    // Obergrenze wie bei den unbekannten Codes der Terminologie; darüber wird jedes Mal neu gebaut
+    private static final int MAX_FRAGMENTE = 10_000;
+
+    private static final ObjectMapper SCHREIBER = new ObjectMapper();
+
+    /** Unveränderlicher Teilbaum plus sein serialisiertes JSON */
+    public record Fragment(Object wert, String json) {
+
+        // Generator-Variante von wert(), nach writeFieldName bzw. innerhalb eines Arrays
+        public void schreibe(JsonGenerator gen) throws IOException {
+            if (gen.getPrettyPrinter() != null) {
+                // Rohes JSON würde die Einrückung brechen
+                gen.writeObject(wert);
+            } else {
+                gen.writeRawValue(json);
+            }
+        }
+
+        public void schreibeFeld(JsonGenerator gen, String feld) throws IOException {
+            gen.writeFieldName(feld);
+            schreibe(gen);
+        }
+    }
+
+    private record Schluessel(String art, Terminologie.Konzept konzept, String text) {}
+
+    private static final Map<Schluessel, Fragment> CACHE = new ConcurrentHashMap<>();
+
+    private static final Map<String, Object> SUBSETTED = subsetted();
+
+    private static final Map<String, Object> LASTPROFIL_REDUZIERT = lastprofilReduziert();
+
+    /** name.prefix der Practitioner */
+    public static final Fragment PRAEFIX_DR = fragment(List.of("Dr."));
+
+    private Fragmente() {
+    }
+
+    /** meta mit einem einzelnen Profil: {"profile":[url]} */
+    public static Fragment meta(String profil) {
+        return fragment(objekt("profile", List.of(profil)));
+    }
+
+    /** Wie {@link #meta(String)}, zusätzlich mit dem Tag SUBSETTED für per _summary/_elements gekürzte Resources */
+    public static Fragment metaTeilmenge(String profil) {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("profile", List.of(profil));
+        meta.put("tag", List.of(SUBSETTED));
+        return fragment(Collections.unmodifiableMap(meta));
+    }
+
+    /** Wie {@link #metaTeilmenge(String)}, zusätzlich mit dem Tag für das reduzierte Profil unter Überlast */
+    public static Fragment metaReduziert(String profil) {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("profile", List.of(profil));
+        meta.put("tag", List.of(SUBSETTED, LASTPROFIL_REDUZIERT));
+        return fragment(Collections.unmodifiableMap(meta));
+    }
+
+    /** category mit einem Coding: [{"coding":[coding]}] */
+    public static Fragment kategorie(Terminologie.Konzept konzept) {
+        return gecacht(new Schluessel("kategorie", konzept, null),
+                () -> List.of(objekt("coding", List.of(konzept.coding()))));
+    }
+
+    /** CodeableConcept mit einem Coding und Text: {"coding":[coding],"text":text} */
+    public static Fragment codeableConcept(Terminologie.Konzept konzept, String text) {
+        return gecacht(new Schluessel("codeableConcept", konzept, text), () -> codeableConceptWert(konzept, text));
+    }
+
+    /** Practitioner.qualification: [{"code":{"coding":[coding],"text":text}}] */
+    public static Fragment qualifikation(Terminologie.Konzept konzept, String text) {
+        return gecacht(new Schluessel("qualifikation", konzept, text),
+                () -> List.of(objekt("code", codeableConceptWert(konzept, text))));
+    }
+
+    static int anzahlGecacht() {
+        return CACHE.size();
+    }
+
+    private static Map<String, Object> codeableConceptWert(Terminologie.Konzept konzept, String text) {
+        Map<String, Object> wert = new LinkedHashMap<>();
+        wert.put("coding", List.of(konzept.coding()));
+        wert.put("text", text);
+        return Collections.unmodifiableMap(wert);
+    }
+
+    private static Map<String, Object> subsetted() {
+        Map<String, Object> coding = new LinkedHashMap<>();
+        coding.put("system", "http://terminology.hl7.org/CodeSystem/v3-ObservationValue");
+        coding.put("code", "SUBSETTED");
+        coding.put("display", "Resource encoded in summary mode");
+        return Collections.unmodifiableMap(coding);
+    }
+
+    private static Map<String, Object> lastprofilReduziert() {
+        Map<String, Object> coding = new LinkedHashMap<>();
+        coding.put("system", "http://krankenhaus.de/fhir/lastprofil");
+        coding.put("code", "reduziert");
+        coding.put("display", "Unter Last ohne Narrativ, Ergebnisliste und Anzeigetexte erzeugt");
+        return Collections.unmodifiableMap(coding);
+    }
+
+    // LinkedHashMap statt Map.of: feste Feldreihenfolge und null als Wert erlaubt
+    private static Map<String, Object> objekt(String feld, Object wert) {
+        Map<String, Object> objekt = new LinkedHashMap<>();
+        objekt.put(feld, wert);
+        return Collections.unmodifiableMap(objekt);
+    }
+
+    private static Fragment gecacht(Schluessel schluessel, Supplier<Object> wert) {
+        Fragment f = CACHE.get(schluessel);
+        if (f == null) {
+            f = fragment(wert.get());
+            if (CACHE.size() < MAX_FRAGMENTE) {
+                CACHE.putIfAbsent(schluessel, f);
+            }
+        }
+        return f;
+    }
+
+    private static Fragment fragment(Object wert) {
+        try {
+            return new Fragment(wert, SCHREIBER.writeValueAsString(wert));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
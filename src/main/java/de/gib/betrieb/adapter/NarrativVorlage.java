@@ -0,0 +1,66 @@
+package de.gib.betrieb.adapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Satzvorlage für ein Narrativ, einmal beim Laden der Klasse in Literale und Platzhalter zerlegt.
+ * Gerendert wird samt XHTML-div in einen je Thread wiederverwendeten StringBuilder; pro Aufruf entsteht
+ * nur noch der fertige String statt einer Kette von Zwischenergebnissen.
+ */
+final class NarrativVorlage {
+
+    private static final String DIV_ANFANG = "<div xmlns=\"http://www.w3.org/1999/xhtml\">";
+    private static final String DIV_ENDE = "</div>";
+
+    private static final ThreadLocal<StringBuilder> PUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    // literale[i] steht vor platzhalter[i], das letzte Literal nach dem letzten Platzhalter
+    private final String[] literale;
+    private final int[] platzhalter;
+
+    private NarrativVorlage(String[] literale, int[] platzhalter) {
+        this.literale = literale;
+        this.platzhalter = platzhalter;
+    }
+
+    /**
+     * Zerlegt eine Vorlage wie "Befund {code} am {zeit}." Die Werte beim Rendern kommen in der
+     * Reihenfolge von namen, ein Platzhalter darf mehrfach vorkommen.
+     */
+    static NarrativVorlage kompiliere(String vorlage, String... namen) {
+        List<String> literale = new ArrayList<>();
+        List<Integer> platzhalter = new ArrayList<>();
+        int pos = 0;
+        int auf;
+        while ((auf = vorlage.indexOf('{', pos)) >= 0) {
+            int zu = vorlage.indexOf('}', auf);
+            if (zu < 0) {
+                throw new IllegalArgumentException("Nicht geschlossener Platzhalter in: " + vorlage);
+            }
+            String name = vorlage.substring(auf + 1, zu);
+            int index = List.of(namen).indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unbekannter Platzhalter {" + name + "} in: " + vorlage);
+            }
+            literale.add(vorlage.substring(pos, auf));
+            platzhalter.add(index);
+            pos = zu + 1;
+        }
+        literale.add(vorlage.substring(pos));
+        return new NarrativVorlage(literale.toArray(String[]::new),
+                platzhalter.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** Vollständiges div mit Namespace */
+    String rendere(String... werte) {
+        StringBuilder sb = PUFFER.get();
+        sb.setLength(0);
+        sb.append(DIV_ANFANG);
+        for (int i = 0; i < platzhalter.length; i++) {
+            sb.append(literale[i]).append(werte[platzhalter[i]]);
+        }
+        sb.append(literale[platzhalter.length]).append(DIV_ENDE);
+        return sb.toString();
+    }
+}
@@ -1,70 +1,170 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.gib.betrieb.config.StufenTimer;
 import de.gib.betrieb.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import java.io.IOException;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 // Wandelt Patienten Daten aus DB in FHIR Patient Resource um
 @Component
 public class PatientZuFhirAdapter {
 
+    // Optional, damit die Adapter auch ohne Spring (Unit-Tests, Benchmarks) laufen
+    @Autowired(required = false)
+    private StufenTimer stufenTimer;
+
+    private static final String TYP = "Patient";
+    private static final String PROFIL = "http://hl7.org/fhir/StructureDefinition/Patient";
+    private static final Fragmente.Fragment META = Fragmente.meta(PROFIL);
+    private static final Fragmente.Fragment META_TEILMENGE = Fragmente.metaTeilmenge(PROFIL);
+    private static final Fragmente.Fragment META_REDUZIERT = Fragmente.metaReduziert(PROFIL);
+    private static final String IDENTIFIER_SYSTEM = "http://krankenhaus.de/patient-id";
+
     public Map<String, Object> konvertiereZuFhir(Patient patient) {
+        return konvertiereZuFhir(patient, Elementauswahl.ALLE);
+    }
+
+    // Nur die Elemente der Auswahl, ausgeschlossene werden nicht berechnet
+    public Map<String, Object> konvertiereZuFhir(Patient patient, Elementauswahl auswahl) {
         if (patient == null) {
             return null;
         }
 
-        Map<String, Object> fhirPatient = new HashMap<>();
+        Map<String, Object> fhirPatient = new LinkedHashMap<>();
 
         // FHIR Basis-Felder
         fhirPatient.put("resourceType", "Patient");
         fhirPatient.put("id", patient.getPatientenId().toString());
 
         // Meta-Informationen
-        Map<String, Object> meta = new HashMap<>();
-        meta.put("profile", new String[]{"http://hl7.org/fhir/StructureDefinition/Patient"});
-        fhirPatient.put("meta", meta);
+        fhirPatient.put("meta", meta(auswahl).wert());
 
         // Identifier
-        Map<String, Object> identifier = new HashMap<>();
-        identifier.put("system", "http://krankenhaus.de/patient-id");
-        identifier.put("value", patient.getPatientenId().toString());
-        fhirPatient.put("identifier", new Map[]{identifier});
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            Map<String, Object> identifier = new LinkedHashMap<>();
+            identifier.put("system", IDENTIFIER_SYSTEM);
+            identifier.put("value", patient.getPatientenId().toString());
+            fhirPatient.put("identifier", new Map[]{identifier});
+        }
 
         // Name
-        Map<String, Object> name = new HashMap<>();
-        name.put("use", "official");
-        name.put("family", patient.getNachname());
-        name.put("given", new String[]{patient.getVorname()});
-        fhirPatient.put("name", new Map[]{name});
+        if (auswahl.enthaelt(TYP, "name")) {
+            Map<String, Object> name = new LinkedHashMap<>();
+            name.put("use", "official");
+            name.put("family", patient.getNachname());
+            name.put("given", new String[]{patient.getVorname()});
+            fhirPatient.put("name", new Map[]{name});
+        }
 
         // Geschlecht
         String fhirGender = konvertiereGeschlecht(patient.getGeschlecht());
-        if (fhirGender != null) {
+        if (fhirGender != null && auswahl.enthaelt(TYP, "gender")) {
             fhirPatient.put("gender", fhirGender);
         }
 
         // Geburtsdatum
-        String geburtsdatumFormatiert = null;
-        if (patient.getGeburtsdatum() != null) {
-            geburtsdatumFormatiert = patient.getGeburtsdatum().format(DateTimeFormatter.ISO_LOCAL_DATE);
+        String geburtsdatumFormatiert = formatiereGeburtsdatum(patient);
+        if (geburtsdatumFormatiert != null && auswahl.enthaelt(TYP, "birthDate")) {
             fhirPatient.put("birthDate", geburtsdatumFormatiert);
         }
 
-        fhirPatient.put("active", true);
+        if (auswahl.enthaelt(TYP, "active")) {
+            fhirPatient.put("active", true);
+        }
 
         // Narrativtext
-        String narr = erstelleNarratixtext.patientSatz(
+        if (auswahl.enthaelt(TYP, "text")) {
+            fhirPatient.put("text", erstelleNarratixtext.baueText(narrativ(patient, geburtsdatumFormatiert, fhirGender)));
+        }
+
+        return fhirPatient;
+    }
+
+    public void schreibeFhir(Patient patient, JsonGenerator gen) throws IOException {
+        schreibeFhir(patient, Elementauswahl.ALLE, gen);
+    }
+
+    /**
+     * Schreibt den Patienten direkt in den JsonGenerator, ohne Map-Baum.
+     * Feldreihenfolge und Werte entsprechen exakt {@link #konvertiereZuFhir(Patient, Elementauswahl)}.
+     */
+    public void schreibeFhir(Patient patient, Elementauswahl auswahl, JsonGenerator gen) throws IOException {
+        String id = patient.getPatientenId().toString();
+
+        gen.writeStartObject();
+        gen.writeStringField("resourceType", "Patient");
+        gen.writeStringField("id", id);
+
+        meta(auswahl).schreibeFeld(gen, "meta");
+
+        if (auswahl.enthaelt(TYP, "identifier")) {
+            gen.writeArrayFieldStart("identifier");
+            gen.writeStartObject();
+            gen.writeStringField("system", IDENTIFIER_SYSTEM);
+            gen.writeStringField("value", id);
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        if (auswahl.enthaelt(TYP, "name")) {
+            gen.writeArrayFieldStart("name");
+            gen.writeStartObject();
+            gen.writeStringField("use", "official");
+            gen.writeStringField("family", patient.getNachname());
+            gen.writeArrayFieldStart("given");
+            gen.writeString(patient.getVorname());
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+        }
+
+        String fhirGender = konvertiereGeschlecht(patient.getGeschlecht());
+        if (fhirGender != null && auswahl.enthaelt(TYP, "gender")) {
+            gen.writeStringField("gender", fhirGender);
+        }
+
+        String geburtsdatumFormatiert = formatiereGeburtsdatum(patient);
+        if (geburtsdatumFormatiert != null && auswahl.enthaelt(TYP, "birthDate")) {
+            gen.writeStringField("birthDate", geburtsdatumFormatiert);
+        }
+
+        if (auswahl.enthaelt(TYP, "active")) {
+            gen.writeBooleanField("active", true);
+        }
+
+        if (auswahl.enthaelt(TYP, "text")) {
+            erstelleNarratixtext.schreibeText(gen, narrativ(patient, geburtsdatumFormatiert, fhirGender));
+        }
+        gen.writeEndObject();
+    }
+
+    private static Fragmente.Fragment meta(Elementauswahl auswahl) {
+        if (auswahl.istReduziert()) {
+            return META_REDUZIERT;
+        }
+        return auswahl.eingeschraenkt() ? META_TEILMENGE : META;
+    }
+
+    private String formatiereGeburtsdatum(Patient patient) {
+        if (patient.getGeburtsdatum() == null) {
+            return null;
+        }
+        return patient.getGeburtsdatum().format(DateTimeFormatter.ISO_LOCAL_DATE);
+    }
+
+    private String narrativ(Patient patient, String geburtsdatumFormatiert, String fhirGender) {
+        return StufenTimer.messe(stufenTimer, "Patient", "narrativ", () -> erstelleNarratixtext.patientDiv(
                 patient.getVorname(),
                 patient.getNachname(),
                 geburtsdatumFormatiert,
                 fhirGender,
                 patient.getPatientenId().toString()
-        );
-        fhirPatient.put("text", erstelleNarratixtext.baueText(narr));
-
-        return fhirPatient;
+        ));
     }
 
     private String konvertiereGeschlecht(String legacyGeschlecht) {
@@ -91,9 +191,30 @@ public class PatientZuFhirAdapter {
     }
 
     public Map<String, Object> erstellePatientReference(Patient patient) {
-        Map<String, Object> reference = new HashMap<>();
+        return erstellePatientReference(patient, true);
+    }
+
+    // Ohne display (reduziertes Profil) wird der Name nicht gelesen
+    public Map<String, Object> erstellePatientReference(Patient patient, boolean mitAnzeige) {
+        Map<String, Object> reference = new LinkedHashMap<>();
         reference.put("reference", "Patient/" + patient.getPatientenId());
-        reference.put("display", patient.getVorname() + " " + patient.getNachname());
+        if (mitAnzeige) {
+            reference.put("display", patient.getVorname() + " " + patient.getNachname());
+        }
         return reference;
     }
+
+    public void schreibePatientReference(JsonGenerator gen, Patient patient) throws IOException {
+        schreibePatientReference(gen, patient, true);
+    }
+
+    // Generator-Variante von erstellePatientReference
+    public void schreibePatientReference(JsonGenerator gen, Patient patient, boolean mitAnzeige) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("reference", "Patient/" + patient.getPatientenId());
+        if (mitAnzeige) {
+            gen.writeStringField("display", patient.getVorname() + " " + patient.getNachname());
+        }
+        gen.writeEndObject();
+    }
 }
@@ -0,0 +1,229 @@
+package de.gib.betrieb.adapter;
+
+import de.gib.betrieb.datenbank.*;
+import de.gib.betrieb.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Stammdaten (Arzt, Standort, Einrichtung, Medikament) komplett im Speicher, Schlüssel sind primitive long-Ids.
+ * Die Tabellen sind klein und ändern sich kaum, die Adapter lösen Practitioner-Referenzen daher hier auf
+ * statt über Hibernate. Geladen wird beim Start, danach prüft ein Job im Abstand von
+ * fhir.referenzdaten.pruefintervall eine Prüfsumme der Tabellen und lädt nur bei Abweichung neu.
+ * Änderungen an Ärzten über JPA werden nach dem Commit sofort übernommen.
+ */
+@Component
+public class Referenzdaten {
+
+    public record ArztEintrag(long id, String vorname, String nachname, String fachrichtung,
+                              String reference, String display) {}
+
+    public record StandortEintrag(long id, long einrichtungsId, String bezeichnung, String typ) {}
+
+    public record EinrichtungEintrag(long id, String name, String typ) {}
+
+    public record MedikamentEintrag(long id, String code, String bezeichnung) {}
+
+    /**
+     * Unveränderliche Tabelle: sortierte Ids und Werte in parallelen Arrays, Suche per Binärsuche.
+     * Änderungen erzeugen eine Kopie, Leser sehen immer einen vollständigen Stand.
+     */
+    static final class Tabelle<T> {
+        private final long[] ids;
+        private final Object[] werte;
+
+        private Tabelle(long[] ids, Object[] werte) {
+            this.ids = ids;
+            this.werte = werte;
+        }
+
+        static <T> Tabelle<T> leer() {
+            return new Tabelle<>(new long[0], new Object[0]);
+        }
+
+        static <E, T> Tabelle<T> aus(List<E> quelle, ToLongFunction<E> id, Function<E, T> wert) {
+            List<E> sortiert = quelle.stream().sorted((a, b) -> Long.compare(id.applyAsLong(a), id.applyAsLong(b))).toList();
+            long[] ids = new long[sortiert.size()];
+            Object[] werte = new Object[sortiert.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = id.applyAsLong(sortiert.get(i));
+                werte[i] = wert.apply(sortiert.get(i));
+            }
+            return new Tabelle<>(ids, werte);
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(long id) {
+            int pos = Arrays.binarySearch(ids, id);
+            return pos >= 0 ? (T) werte[pos] : null;
+        }
+
+        Tabelle<T> mit(long id, T wert) {
+            int pos = Arrays.binarySearch(ids, id);
+            if (pos >= 0) {
+                Object[] neu = werte.clone();
+                neu[pos] = wert;
+                return new Tabelle<>(ids, neu);
+            }
+            int einfuegen = -pos - 1;
+            long[] neueIds = new long[ids.length + 1];
+            Object[] neueWerte = new Object[werte.length + 1];
+            System.arraycopy(ids, 0, neueIds, 0, einfuegen);
+            System.arraycopy(werte, 0, neueWerte, 0, einfuegen);
+            neueIds[einfuegen] = id;
+            neueWerte[einfuegen] = wert;
+            System.arraycopy(ids, einfuegen, neueIds, einfuegen + 1, ids.length - einfuegen);
+            System.arraycopy(werte, einfuegen, neueWerte, einfuegen + 1, werte.length - einfuegen);
+            return new Tabelle<>(neueIds, neueWerte);
+        }
+
+        Tabelle<T> ohne(long id) {
+            int pos = Arrays.binarySearch(ids, id);
+            if (pos < 0) {
+                return this;
+            }
+            long[] neueIds = new long[ids.length - 1];
+            Object[] neueWerte = new Object[werte.length - 1];
+            System.arraycopy(ids, 0, neueIds, 0, pos);
+            System.arraycopy(werte, 0, neueWerte, 0, pos);
+            System.arraycopy(ids, pos + 1, neueIds, pos, ids.length - pos - 1);
+            System.arraycopy(werte, pos + 1, neueWerte, pos, werte.length - pos - 1);
+            return new Tabelle<>(neueIds, neueWerte);
+        }
+
+        int groesse() {
+            return ids.length;
+        }
+    }
+
+    private record Stand(String version, Instant geladenAm,
+                         Tabelle<ArztEintrag> aerzte, Tabelle<StandortEintrag> standorte,
+                         Tabelle<EinrichtungEintrag> einrichtungen, Tabelle<MedikamentEintrag> medikamente) {}
+
+    @Autowired
+    private ArztRepository arztRepository;
+
+    @Autowired
+    private StandortRepository standortRepository;
+
+    @Autowired
+    private EinrichtungRepository einrichtungRepository;
+
+    @Autowired
+    private MedikamentRepository medikamentRepository;
+
+    @Value("${fhir.referenzdaten.aktiv:true}")
+    private boolean aktiv = true;
+
+    private volatile Stand stand = new Stand("", null,
+            Tabelle.leer(), Tabelle.leer(), Tabelle.leer(), Tabelle.leer());
+
+    private long ladevorgaenge;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void beimStart() {
+        pruefeVersion();
+    }
+
+    /** Lädt neu, wenn sich die Prüfsumme einer der Tabellen geändert hat */
+    @Scheduled(fixedDelayString = "${fhir.referenzdaten.pruefintervall:30s}",
+            initialDelayString = "${fhir.referenzdaten.pruefintervall:30s}")
+    public void pruefeVersion() {
+        if (!aktiv) {
+            return;
+        }
+        String version = arztRepository.pruefsumme() + "/" + standortRepository.pruefsumme() + "/"
+                + einrichtungRepository.pruefsumme() + "/" + medikamentRepository.pruefsumme();
+        if (!version.equals(stand.version())) {
+            lade(version);
+        }
+    }
+
+    // Version wird vor den Daten gelesen: eine Änderung dazwischen führt beim nächsten Lauf zu einem weiteren Laden
+    synchronized void lade(String version) {
+        List<Arzt> aerzte = arztRepository.findAll();
+        List<Standort> standorte = standortRepository.findAll();
+        List<Einrichtung> einrichtungen = einrichtungRepository.findAll();
+        List<Medikament> medikamente = medikamentRepository.findAll();
+
+        stand = new Stand(version, Instant.now(),
+                Tabelle.aus(aerzte, Arzt::getArztId, Referenzdaten::eintrag),
+                Tabelle.aus(standorte, Standort::getStandortId, s -> new StandortEintrag(s.getStandortId(),
+                        s.getEinrichtung() != null ? s.getEinrichtung().getEinrichtungsId() : 0L,
+                        s.getBezeichnung(), s.getTyp())),
+                Tabelle.aus(einrichtungen, Einrichtung::getEinrichtungsId,
+                        e -> new EinrichtungEintrag(e.getEinrichtungsId(), e.getName(), e.getTyp())),
+                Tabelle.aus(medikamente, Medikament::getMedikamentId,
+                        m -> new MedikamentEintrag(m.getMedikamentId(), m.getCode(), m.getBezeichnung())));
+        ladevorgaenge++;
+    }
+
+    /**
+     * Übernimmt Änderungen an Ärzten direkt aus der Entität. Läuft vor der Invalidierung im RessourcenCache,
+     * damit neu gerenderte Resources schon den neuen Namen tragen.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void entitaetGeaendert(EntitaetGeaendertEvent event) {
+        if (!(event.entitaet() instanceof Arzt arzt) || arzt.getArztId() == null) {
+            return;
+        }
+        Stand alt = stand;
+        Tabelle<ArztEintrag> aerzte = event.aenderung() == EntitaetGeaendertEvent.Aenderung.GELOESCHT
+                ? alt.aerzte().ohne(arzt.getArztId())
+                : alt.aerzte().mit(arzt.getArztId(), eintrag(arzt));
+        stand = new Stand(alt.version(), alt.geladenAm(), aerzte,
+                alt.standorte(), alt.einrichtungen(), alt.medikamente());
+    }
+
+    public ArztEintrag arzt(long arztId) {
+        return stand.aerzte().get(arztId);
+    }
+
+    public StandortEintrag standort(long standortId) {
+        return stand.standorte().get(standortId);
+    }
+
+    public EinrichtungEintrag einrichtung(long einrichtungsId) {
+        return stand.einrichtungen().get(einrichtungsId);
+    }
+
+    public MedikamentEintrag medikament(long medikamentId) {
+        return stand.medikamente().get(medikamentId);
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Stand aktuell = stand;
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("aerzte", aktuell.aerzte().groesse());
+        statistik.put("standorte", aktuell.standorte().groesse());
+        statistik.put("einrichtungen", aktuell.einrichtungen().groesse());
+        statistik.put("medikamente", aktuell.medikamente().groesse());
+        statistik.put("geladenAm", aktuell.geladenAm() != null ? aktuell.geladenAm().toString() : null);
+        statistik.put("ladevorgaenge", ladevorgaenge);
+        return statistik;
+    }
+
+    private static ArztEintrag eintrag(Arzt arzt) {
+        return new ArztEintrag(arzt.getArztId(), arzt.getVorname(), arzt.getNachname(), arzt.getFachrichtung(),
+                "Practitioner/" + arzt.getArztId(),
+                ArztZuFhirAdapter.practitionerDisplay(arzt.getVorname(), arzt.getNachname(), arzt.getFachrichtung()));
+    }
+}
@@ -0,0 +1,346 @@
+package de.gib.betrieb.adapter;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabellengesteuerte Übersetzung von Legacy-Codes in FHIR-Codings (ConceptMap-ähnlich).
+ * Die Tabellen kommen aus terminologie/konzeptmaps.json im Classpath oder aus fhir.terminologie.datei
+ * und werden beim Laden in unveränderliche Hash-Tabellen übersetzt. Displays sind interniert, die
+ * coding-Objekte werden von allen Resources gemeinsam benutzt.
+ * Eine geänderte Datei wird im Hintergrund neu geladen und als Ganzes ausgetauscht, Leser warten nie.
+ */
+@Component
+public class Terminologie {
+
+    private static final Logger log = LoggerFactory.getLogger(Terminologie.class);
+
+    private static final String CLASSPATH_DATEI = "terminologie/konzeptmaps.json";
+
+    // Obergrenze für gemerkte unbekannte Codes je Tabelle; darüber wird jedes Mal neu gebaut
+    private static final int MAX_UNBEKANNTE = 10_000;
+
+    public static final String BEFUND_CODE = "befund-code";
+    public static final String BEFUND_KATEGORIE = "befund-kategorie";
+    public static final String UCUM = "ucum";
+    public static final String BERICHT_CODE = "bericht-code";
+    public static final String BERICHT_KATEGORIE = "bericht-kategorie";
+    public static final String BERICHT_ERGEBNIS = "bericht-ergebnis";
+    public static final String FACHRICHTUNG = "fachrichtung";
+
+    /** Ergebnis einer Übersetzung; coding ist unveränderlich und wird geteilt */
+    public record Konzept(String code, String display, Map<String, Object> coding) {}
+
+    /**
+     * Quell-Codes, die eine Tabelle auf einen Ziel-Code abbildet, als Bedingung für eine Abfrage:
+     * exakt einer der codes, oder einer der praefixe, oder (ohneCode) gar kein Code
+     */
+    public record Quellen(Set<String> codes, List<Praefix> praefixe, boolean ohneCode) {
+
+        public static final Quellen KEINE = new Quellen(Set.of(), List.of(), false);
+
+        public boolean trifftNichts() {
+            return codes.isEmpty() && praefixe.isEmpty() && !ohneCode;
+        }
+
+        /** Dieselbe Bedingung in Java, für Daten außerhalb der Datenbank */
+        public boolean passt(String code) {
+            if (code == null) {
+                return ohneCode;
+            }
+            return codes.contains(code) || praefixe.stream().anyMatch(p -> p.passt(code));
+        }
+
+        /** Vereinigung, z. B. für kommagetrennte Werte eines Suchparameters */
+        public Quellen oder(Quellen andere) {
+            Set<String> alleCodes = new TreeSet<>(codes);
+            alleCodes.addAll(andere.codes());
+            List<Praefix> allePraefixe = new ArrayList<>(praefixe);
+            andere.praefixe().stream().filter(p -> !allePraefixe.contains(p)).forEach(allePraefixe::add);
+            return new Quellen(Set.copyOf(alleCodes), List.copyOf(allePraefixe), ohneCode || andere.ohneCode());
+        }
+    }
+
+    /**
+     * Codes, die mit praefix beginnen, außer den ausserCodes und denen mit einem der ausserPraefixe
+     * (vorrangige Einträge mit anderem Ziel). Leerer praefix = jeder vorhandene Code.
+     */
+    public record Praefix(String praefix, Set<String> ausserCodes, List<String> ausserPraefixe) {
+
+        boolean passt(String code) {
+            return code.startsWith(praefix) && !ausserCodes.contains(code)
+                    && ausserPraefixe.stream().noneMatch(code::startsWith);
+        }
+    }
+
+    /** Nach dem Austausch der Tabellen, z. B. damit gecachte Resources verworfen werden */
+    public record Neugeladen(String version) {}
+
+    // Dateiformat
+    record DateiInhalt(String version, List<MapDefinition> konzeptMaps) {}
+    record MapDefinition(String name, String system, List<Eintrag> eintraege, List<Eintrag> praefixe,
+                         Eintrag unbekannt, Eintrag leer) {}
+    record Eintrag(String quelle, String code, String display) {}
+
+    /** Eine übersetzte Tabelle: exakte Treffer per Hash, danach Präfixe in Dateireihenfolge */
+    static final class KonzeptMap {
+        private final String system;
+        private final Map<String, Konzept> exakt;
+        private final List<Map.Entry<String, Konzept>> praefixe;
+        private final Eintrag unbekannt;
+        private final Konzept leer;
+        private final Map<String, Konzept> unbekannte = new ConcurrentHashMap<>();
+
+        KonzeptMap(MapDefinition def) {
+            this.system = def.system();
+            Map<String, Konzept> exakt = new HashMap<>();
+            if (def.eintraege() != null) {
+                for (Eintrag e : def.eintraege()) {
+                    exakt.put(e.quelle(), konzept(e.quelle(), e));
+                }
+            }
+            this.exakt = Map.copyOf(exakt);
+            this.praefixe = def.praefixe() == null ? List.of() : def.praefixe().stream()
+                    .map(e -> Map.entry(e.quelle(), konzept(e.quelle(), e)))
+                    .toList();
+            this.unbekannt = def.unbekannt();
+            this.leer = def.leer() != null
+                    ? baue(def.leer().code(), def.leer().display())
+                    : baue(null, null);
+        }
+
+        Konzept uebersetze(String quelle) {
+            if (quelle == null) {
+                return leer;
+            }
+            Konzept k = exakt.get(quelle);
+            if (k != null) {
+                return k;
+            }
+            for (Map.Entry<String, Konzept> p : praefixe) {
+                if (quelle.startsWith(p.getKey())) {
+                    return p.getValue();
+                }
+            }
+            k = unbekannte.get(quelle);
+            if (k == null) {
+                k = konzept(quelle, unbekannt);
+                if (unbekannte.size() < MAX_UNBEKANNTE) {
+                    unbekannte.putIfAbsent(quelle, k);
+                }
+            }
+            return k;
+        }
+
+        // Umkehrung von uebersetze: dieselbe Rangfolge (exakt, Präfixe in Dateireihenfolge, unbekannt, leer)
+        Quellen quellen(String ziel) {
+            Set<String> codes = new TreeSet<>();
+            Set<String> andereCodes = new TreeSet<>();
+            exakt.forEach((quelle, k) -> (Objects.equals(k.code(), ziel) ? codes : andereCodes).add(quelle));
+
+            List<Praefix> treffer = new ArrayList<>();
+            List<String> anderePraefixe = new ArrayList<>();
+            for (Map.Entry<String, Konzept> p : praefixe) {
+                String praefix = p.getKey();
+                if (!Objects.equals(p.getValue().code(), ziel)) {
+                    anderePraefixe.add(praefix);
+                } else if (anderePraefixe.stream().noneMatch(praefix::startsWith)) {
+                    // Ein früherer, kürzerer Präfix mit anderem Ziel verdeckt diesen ganz
+                    treffer.add(new Praefix(praefix,
+                            Set.copyOf(andereCodes.stream().filter(c -> c.startsWith(praefix)).toList()),
+                            anderePraefixe.stream().filter(a -> a.startsWith(praefix)).toList()));
+                }
+            }
+
+            String vorlage = unbekannt != null ? unbekannt.code() : null;
+            if (vorlage == null || vorlage.contains("{quelle}")) {
+                // Der Ziel-Code enthält die Quelle: höchstens ein unbekannter Code passt
+                String quelle = quelleAus(vorlage, ziel);
+                if (quelle != null && istUnbekannt(quelle)) {
+                    codes.add(quelle);
+                }
+            } else if (vorlage.equals(ziel)) {
+                treffer.add(new Praefix("", Set.copyOf(andereCodes), List.copyOf(anderePraefixe)));
+            }
+            return new Quellen(Set.copyOf(codes), List.copyOf(treffer), Objects.equals(leer.code(), ziel));
+        }
+
+        private boolean istUnbekannt(String quelle) {
+            return !exakt.containsKey(quelle) && praefixe.stream().noneMatch(p -> quelle.startsWith(p.getKey()));
+        }
+
+        private static String quelleAus(String vorlage, String ziel) {
+            if (ziel == null || vorlage == null) {
+                return ziel;
+            }
+            int stelle = vorlage.indexOf("{quelle}");
+            String vorn = vorlage.substring(0, stelle);
+            String hinten = vorlage.substring(stelle + "{quelle}".length());
+            if (ziel.length() < vorn.length() + hinten.length() || !ziel.startsWith(vorn) || !ziel.endsWith(hinten)) {
+                return null;
+            }
+            return ziel.substring(vorn.length(), ziel.length() - hinten.length());
+        }
+
+        int groesse() {
+            return exakt.size() + praefixe.size();
+        }
+
+        // Fehlende Angaben fallen auf den Quell-Code zurück, {quelle} im Text wird ersetzt
+        private Konzept konzept(String quelle, Eintrag e) {
+            String code = e != null && e.code() != null ? e.code().replace("{quelle}", quelle) : quelle;
+            String display = e != null && e.display() != null ? e.display().replace("{quelle}", quelle) : quelle;
+            return baue(code, display);
+        }
+
+        private Konzept baue(String code, String display) {
+            code = code != null ? code.intern() : null;
+            display = display != null ? display.intern() : null;
+            Map<String, Object> coding = new LinkedHashMap<>();
+            if (system != null) {
+                coding.put("system", system);
+            }
+            coding.put("code", code);
+            coding.put("display", display);
+            return new Konzept(code, display, Collections.unmodifiableMap(coding));
+        }
+    }
+
+    private record Stand(String version, long dateiZeitstempel, Map<String, KonzeptMap> maps) {}
+
+    private static final ObjectMapper LESER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Autowired(required = false)
+    private ApplicationEventPublisher publisher;
+
+    // Leer = nur die Tabellen aus dem Classpath
+    @Value("${fhir.terminologie.datei:}")
+    private String datei = "";
+
+    private volatile Stand stand = ladeClasspath();
+
+    /** Für Adapter, die ohne Spring erzeugt werden (Unit-Tests, Benchmarks) */
+    public static Terminologie standard() {
+        return Standard.INSTANZ;
+    }
+
+    private static final class Standard {
+        static final Terminologie INSTANZ = new Terminologie();
+    }
+
+    public Konzept uebersetze(String map, String quelle) {
+        KonzeptMap konzeptMap = stand.maps().get(map);
+        if (konzeptMap == null) {
+            throw new IllegalArgumentException("Unbekannte Konzept-Map: " + map);
+        }
+        return konzeptMap.uebersetze(quelle);
+    }
+
+    /**
+     * Alle Quell-Codes, die in map auf zielCode abgebildet werden; mit system nur, wenn es das System der Tabelle ist.
+     * Für Suchen nach dem FHIR-Code, die direkt in SQL auf der Legacy-Spalte laufen.
+     */
+    public Quellen quellen(String map, String system, String zielCode) {
+        KonzeptMap konzeptMap = stand.maps().get(map);
+        if (konzeptMap == null) {
+            throw new IllegalArgumentException("Unbekannte Konzept-Map: " + map);
+        }
+        if (system != null && !system.equals(konzeptMap.system)) {
+            return Quellen.KEINE;
+        }
+        return konzeptMap.quellen(zielCode);
+    }
+
+    /** Lädt fhir.terminologie.datei neu, sobald sich ihr Änderungszeitpunkt ändert */
+    @Scheduled(fixedDelayString = "${fhir.terminologie.pruefintervall:30s}")
+    public void pruefeDatei() {
+        if (datei == null || datei.isBlank()) {
+            return;
+        }
+        Path pfad = Path.of(datei);
+        try {
+            long zeitstempel = Files.getLastModifiedTime(pfad).toMillis();
+            if (zeitstempel != stand.dateiZeitstempel()) {
+                try (InputStream in = Files.newInputStream(pfad)) {
+                    tausche(lies(in, zeitstempel));
+                }
+                log.info("Terminologie aus {} geladen (Version {})", pfad, stand.version());
+            }
+        } catch (IOException | RuntimeException e) {
+            // Fehlerhafte Datei: alter Stand bleibt aktiv
+            log.warn("Terminologie {} konnte nicht geladen werden: {}", pfad, e.getMessage());
+        }
+    }
+
+    /** Tauscht die Tabellen gegen den Inhalt des Streams (JSON wie terminologie/konzeptmaps.json) */
+    public void lade(InputStream in) throws IOException {
+        tausche(lies(in, System.currentTimeMillis()));
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Stand aktuell = stand;
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("version", aktuell.version());
+        statistik.put("quelle", datei == null || datei.isBlank() ? "classpath:" + CLASSPATH_DATEI : datei);
+        Map<String, Object> eintraege = new LinkedHashMap<>();
+        aktuell.maps().forEach((name, map) -> eintraege.put(name, map.groesse()));
+        statistik.put("eintraege", eintraege);
+        return statistik;
+    }
+
+    private void tausche(Stand neu) {
+        stand = neu;
+        if (publisher != null) {
+            publisher.publishEvent(new Neugeladen(neu.version()));
+        }
+    }
+
+    private static Stand ladeClasspath() {
+        try (InputStream in = Terminologie.class.getClassLoader().getResourceAsStream(CLASSPATH_DATEI)) {
+            if (in == null) {
+                throw new IllegalStateException(CLASSPATH_DATEI + " fehlt im Classpath");
+            }
+            return lies(in, 0L);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Tabellen, die eine externe Datei nicht enthält, kommen weiter aus dem Classpath
+    private static Stand lies(InputStream in, long zeitstempel) throws IOException {
+        DateiInhalt inhalt = LESER.readValue(in, DateiInhalt.class);
+        Map<String, KonzeptMap> maps = new HashMap<>();
+        if (zeitstempel != 0L) {
+            maps.putAll(ladeClasspath().maps());
+        }
+        for (MapDefinition def : inhalt.konzeptMaps()) {
+            maps.put(def.name(), new KonzeptMap(def));
+        }
+        return new Stand(inhalt.version(), zeitstempel, Map.copyOf(maps));
+    }
+}
@@ -1,57 +1,81 @@
 package de.gib.betrieb.adapter;
 
-import java.util.HashMap;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Baut einfache menschenlesbare Narrative für FHIR DomainResources.
+ * Die Sätze sind kompilierte {@link NarrativVorlage}n und liefern das fertige XHTML-div.
  */
 public final class erstelleNarratixtext {
 
+    private static final NarrativVorlage PATIENT = NarrativVorlage.kompiliere(
+            "Patientin oder Patient {name}, geboren am {geburt}, Geschlecht: {geschlecht}, ID: {id}.",
+            "name", "geburt", "geschlecht", "id");
+    private static final NarrativVorlage PRACTITIONER = NarrativVorlage.kompiliere(
+            "Behandelnde Person {name}.", "name");
+    private static final NarrativVorlage PRACTITIONER_MIT_FACH = NarrativVorlage.kompiliere(
+            "Behandelnde Person {name}, Fachrichtung: {fach}.", "name", "fach");
+    private static final NarrativVorlage OBSERVATION = NarrativVorlage.kompiliere(
+            "Befund {code} mit Wert {wert} am {zeit}.", "code", "wert", "zeit");
+    private static final NarrativVorlage DIAGNOSTIC_REPORT = NarrativVorlage.kompiliere(
+            "Bericht {code} mit Status {status}, ausgegeben am {issued}. Ergebnisse: {anzahl}.",
+            "code", "status", "issued", "anzahl");
+
     private erstelleNarratixtext() {}
 
-    // Baut das FHIR-Textfeld mit XHTML-Wrapper
-    public static Map<String, Object> baueText(String htmlOhneNamespace) {
-        Map<String, Object> text = new HashMap<>();
+    // Baut das FHIR-Textfeld aus einem fertigen div
+    public static Map<String, Object> baueText(String div) {
+        Map<String, Object> text = new LinkedHashMap<>();
         text.put("status", "generated");
-        String div = "<div xmlns=\"http://www.w3.org/1999/xhtml\">" + htmlOhneNamespace + "</div>";
         text.put("div", div);
         return text;
     }
 
+    // Generator-Variante von baueText, schreibt das Feld "text" direkt
+    public static void schreibeText(JsonGenerator gen, String div) throws IOException {
+        gen.writeObjectFieldStart("text");
+        gen.writeStringField("status", "generated");
+        gen.writeStringField("div", div);
+        gen.writeEndObject();
+    }
+
     // Patient
-    public static String patientSatz(String vorname, String nachname, String geburt, String geschlecht, String id) {
+    public static String patientDiv(String vorname, String nachname, String geburt, String geschlecht, String id) {
         String name = ((vorname != null ? vorname + " " : "") + (nachname != null ? nachname : "")).trim();
         String geb = (geburt != null ? geburt : "unbekannt");
         String sex = (geschlecht != null ? geschlecht : "unknown");
         String pid = (id != null ? id : "?");
-        return "Patientin oder Patient " + name + ", geboren am " + geb + ", Geschlecht: " + sex + ", ID: " + pid + ".";
+        return PATIENT.rendere(name, geb, sex, pid);
     }
 
     // Practitioner
-    public static String practitionerSatz(String titel, String vorname, String nachname, String fach) {
+    public static String practitionerDiv(String titel, String vorname, String nachname, String fach) {
         String name = ((titel != null ? titel + " " : "")
                 + (vorname != null ? vorname + " " : "")
                 + (nachname != null ? nachname : "")).trim();
         if (fach != null && !fach.isEmpty()) {
-            return "Behandelnde Person " + name + ", Fachrichtung: " + fach + ".";
+            return PRACTITIONER_MIT_FACH.rendere(name, fach);
         }
-        return "Behandelnde Person " + name + ".";
+        return PRACTITIONER.rendere(name);
     }
 
     // Observation
-    public static String observationSatz(String codeText, String valueText, String zeit) {
+    public static String observationDiv(String codeText, String valueText, String zeit) {
         String c = codeText != null ? codeText : "Messung";
         String v = valueText != null ? valueText : "kein Wert";
         String t = zeit != null ? zeit : "ohne Zeitangabe";
-        return "Befund " + c + " mit Wert " + v + " am " + t + ".";
+        return OBSERVATION.rendere(c, v, t);
     }
 
     // DiagnosticReport
-    public static String diagnosticReportSatz(String codeText, String status, String issued, int anzahlErgebnisse) {
+    public static String diagnosticReportDiv(String codeText, String status, String issued, int anzahlErgebnisse) {
         String c = codeText != null ? codeText : "Bericht";
         String s = status != null ? status : "unbekannt";
         String i = issued != null ? issued : "ohne Ausgabedatum";
-        return "Bericht " + c + " mit Status " + s + ", ausgegeben am " + i + ". Ergebnisse: " + anzahlErgebnisse + ".";
+        return DIAGNOSTIC_REPORT.rendere(c, s, i, Integer.toString(anzahlErgebnisse));
     }
 }
@@ -0,0 +1,224 @@
+package de.gib.betrieb.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lastabhängige Steuerung für /fhir/**. Jede Anfrage braucht einen von max-parallel Plätzen, die
+ * Wartezeit darauf ist die Queueing-Verzögerung (gleitender Mittelwert). Überschreiten parallele
+ * Anfragen oder Wartezeit die reduziert-ab-Schwellen, werden Resources im reduzierten Profil erzeugt
+ * (ohne Narrativ, result-Liste und display-Texte). Zurück geht es erst, wenn beide Werte für die
+ * Haltezeit unter den niedrigeren normal-unter-Schwellen lagen. Ist die Warteschlange voll oder gibt es innerhalb der
+ * maximalen Wartezeit keinen Platz, wird mit 429 und Retry-After abgewiesen.
+ */
+@Component
+public class Laststeuerung implements AsyncHandlerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(Laststeuerung.class);
+
+    private static final String PLATZ_ATTRIBUT = Laststeuerung.class.getName() + ".platz";
+
+    private static final byte[] ABGEWIESEN = ("{\"resourceType\":\"OperationOutcome\",\"issue\":[{\"severity\":\"error\","
+            + "\"code\":\"throttled\",\"diagnostics\":\"Server überlastet, später erneut versuchen\"}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    // Profil der laufenden Anfrage, null außerhalb von /fhir/**
+    private static final ThreadLocal<Boolean> REDUZIERT = new ThreadLocal<>();
+
+    private final boolean aktiv;
+    private final int maxParallel;
+    private final int maxWarteschlange;
+    private final long maxWartezeitNs;
+    private final int reduziertAbParallel;
+    private final long reduziertAbWartezeitNs;
+    private final int normalUnterParallel;
+    private final long normalUnterWartezeitNs;
+    private final long haltezeitNs;
+    private final String retryAfter;
+
+    // Fair, damit Wartende in Ankunftsreihenfolge drankommen
+    private final Semaphore plaetze;
+    // Gleitender Mittelwert der Wartezeit auf einen Platz, Gewicht 1/8 je Anfrage
+    private final AtomicLong mittlereWartezeitNs = new AtomicLong();
+
+    private volatile boolean reduziert;
+    private volatile long letzteUeberlastNs;
+
+    private final AtomicLong abgewiesen = new AtomicLong();
+    private final AtomicLong reduziertBeantwortet = new AtomicLong();
+    private final AtomicLong wechsel = new AtomicLong();
+
+    public Laststeuerung(@Value("${fhir.last.aktiv:true}") boolean aktiv,
+                         @Value("${fhir.last.max-parallel:64}") int maxParallel,
+                         @Value("${fhir.last.max-warteschlange:128}") int maxWarteschlange,
+                         @Value("${fhir.last.max-wartezeit:500ms}") Duration maxWartezeit,
+                         @Value("${fhir.last.reduziert-ab-parallel:48}") int reduziertAbParallel,
+                         @Value("${fhir.last.reduziert-ab-wartezeit:50ms}") Duration reduziertAbWartezeit,
+                         @Value("${fhir.last.normal-unter-parallel:16}") int normalUnterParallel,
+                         @Value("${fhir.last.normal-unter-wartezeit:5ms}") Duration normalUnterWartezeit,
+                         @Value("${fhir.last.haltezeit:10s}") Duration haltezeit,
+                         @Value("${fhir.last.retry-after:2s}") Duration retryAfter,
+                         MeterRegistry registry) {
+        if (normalUnterParallel > reduziertAbParallel || normalUnterWartezeit.compareTo(reduziertAbWartezeit) > 0) {
+            throw new IllegalArgumentException("fhir.last.normal-unter-* muss unter fhir.last.reduziert-ab-* liegen");
+        }
+        this.aktiv = aktiv;
+        this.maxParallel = maxParallel;
+        this.maxWarteschlange = maxWarteschlange;
+        this.maxWartezeitNs = maxWartezeit.toNanos();
+        this.reduziertAbParallel = reduziertAbParallel;
+        this.reduziertAbWartezeitNs = reduziertAbWartezeit.toNanos();
+        this.normalUnterParallel = normalUnterParallel;
+        this.normalUnterWartezeitNs = normalUnterWartezeit.toNanos();
+        this.haltezeitNs = haltezeit.toNanos();
+        this.retryAfter = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+        this.plaetze = new Semaphore(maxParallel, true);
+
+        if (registry != null) {
+            Gauge.builder("fhir.last.parallel", this, Laststeuerung::inBearbeitung)
+                    .description("Anfragen in Bearbeitung unter /fhir/**")
+                    .register(registry);
+            Gauge.builder("fhir.last.reduziert", this, l -> l.reduziert ? 1 : 0)
+                    .description("1 solange Resources im reduzierten Profil erzeugt werden")
+                    .register(registry);
+            Gauge.builder("fhir.last.abgewiesen", abgewiesen, AtomicLong::get)
+                    .description("Mit 429 abgewiesene Anfragen")
+                    .register(registry);
+        }
+    }
+
+    /** Ob die laufende Anfrage unter Überlast zugelassen wurde und im reduzierten Profil beantwortet wird */
+    public boolean reduziertBeantworten() {
+        return Boolean.TRUE.equals(REDUZIERT.get());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        // Async-Dispatch ($export-Streaming): der Platz wurde schon beim Start der Verarbeitung freigegeben
+        if (!aktiv || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        if (plaetze.getQueueLength() >= maxWarteschlange) {
+            return abweisen(response);
+        }
+
+        long start = System.nanoTime();
+        boolean frei;
+        try {
+            frei = plaetze.tryAcquire(maxWartezeitNs, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            frei = false;
+        }
+        long jetzt = System.nanoTime();
+        long wartezeit = jetzt - start;
+        mittlereWartezeitNs.accumulateAndGet(wartezeit, (mittel, neu) -> mittel + (neu - mittel) / 8);
+        if (!frei) {
+            return abweisen(response);
+        }
+
+        request.setAttribute(PLATZ_ATTRIBUT, Boolean.TRUE);
+        boolean reduziertBeantworten = bewerte(inBearbeitung(), jetzt);
+        REDUZIERT.set(reduziertBeantworten);
+        if (reduziertBeantworten) {
+            reduziertBeantwortet.incrementAndGet();
+            response.setHeader("X-Lastprofil", "reduziert");
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        gibFrei(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        gibFrei(request);
+    }
+
+    /**
+     * Zustandswechsel mit Hysterese: rein bei Überschreiten einer reduziert-ab-Schwelle, raus erst wenn beide
+     * Werte unter den normal-unter-Schwellen liegen und die letzte Überlast länger als die Haltezeit zurückliegt.
+     */
+    boolean bewerte(int parallel, long jetztNs) {
+        long wartezeit = mittlereWartezeitNs.get();
+        if (parallel >= reduziertAbParallel || wartezeit >= reduziertAbWartezeitNs) {
+            letzteUeberlastNs = jetztNs;
+            if (!reduziert) {
+                wechsle(true, parallel, wartezeit);
+            }
+        } else if (reduziert && parallel < normalUnterParallel && wartezeit < normalUnterWartezeitNs
+                && jetztNs - letzteUeberlastNs >= haltezeitNs) {
+            wechsle(false, parallel, wartezeit);
+        }
+        return reduziert;
+    }
+
+    private synchronized void wechsle(boolean neu, int parallel, long wartezeitNs) {
+        if (reduziert == neu) {
+            return;
+        }
+        reduziert = neu;
+        wechsel.incrementAndGet();
+        if (neu) {
+            log.warn("Überlast ({} parallel, Wartezeit {} ms): Resources im reduzierten Profil", parallel, wartezeitNs / 1_000_000);
+        } else {
+            log.info("Last normalisiert ({} parallel, Wartezeit {} ms): Resources wieder vollständig", parallel, wartezeitNs / 1_000_000);
+        }
+    }
+
+    private boolean abweisen(HttpServletResponse response) throws IOException {
+        abgewiesen.incrementAndGet();
+        response.setStatus(429);
+        response.setHeader("Retry-After", retryAfter);
+        response.setContentType("application/fhir+json");
+        response.setContentLength(ABGEWIESEN.length);
+        response.getOutputStream().write(ABGEWIESEN);
+        return false;
+    }
+
+    private void gibFrei(HttpServletRequest request) {
+        REDUZIERT.remove();
+        if (request.getAttribute(PLATZ_ATTRIBUT) != null) {
+            request.removeAttribute(PLATZ_ATTRIBUT);
+            plaetze.release();
+        }
+    }
+
+    private int inBearbeitung() {
+        return maxParallel - plaetze.availablePermits();
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("profil", reduziert ? "reduziert" : "voll");
+        statistik.put("parallel", inBearbeitung());
+        statistik.put("maxParallel", maxParallel);
+        statistik.put("wartend", plaetze.getQueueLength());
+        statistik.put("mittlereWartezeitMs", mittlereWartezeitNs.get() / 1_000_000.0);
+        statistik.put("reduziertBeantwortet", reduziertBeantwortet.get());
+        statistik.put("abgewiesen", abgewiesen.get());
+        statistik.put("profilwechsel", wechsel.get());
+        return statistik;
+    }
+}
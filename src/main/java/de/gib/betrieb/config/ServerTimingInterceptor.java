@@ -0,0 +1,73 @@
+package de.gib.betrieb.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Schreibt die im Request gemessenen Stufen als Server-Timing Header (z. B. "db;dur=1.2, mapping;dur=0.4").
+ * Der Interceptor öffnet die Messung für /fhir/**, der Header wird direkt vor dem Schreiben
+ * des Bodys gesetzt, weil die Antwort danach schon committed ist. Nur Requests, die die Messung
+ * geöffnet haben, bekommen den Header; asynchrone Handler geben den Container-Thread vorher frei.
+ */
+@ControllerAdvice
+public class ServerTimingInterceptor implements AsyncHandlerInterceptor, ResponseBodyAdvice<Object> {
+
+    private static final String START_ATTRIBUT = ServerTimingInterceptor.class.getName() + ".start";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUT, System.nanoTime());
+        StufenTimer.starteAnfrage();
+        return true;
+    }
+
+    // afterCompletion läuft bei asynchronen Handlern (Streaming-$export) nicht auf diesem Thread
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        StufenTimer.beendeAnfrage();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        StufenTimer.beendeAnfrage();
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType contentType,
+                                  Class<? extends HttpMessageConverter<?>> converterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        Object start = request instanceof ServletServerHttpRequest servlet
+                ? servlet.getServletRequest().getAttribute(START_ATTRIBUT) : null;
+        Map<String, Long> stufen = StufenTimer.stufenDerAnfrage();
+        if (!(start instanceof Long startNs) || stufen == null) {
+            return body;
+        }
+
+        StringBuilder header = new StringBuilder();
+        stufen.forEach((stufe, ns) -> header.append(eintrag(stufe, ns)).append(", "));
+        header.append(eintrag("gesamt", System.nanoTime() - startNs));
+        response.getHeaders().add("Server-Timing", header.toString());
+        return body;
+    }
+
+    private static String eintrag(String name, long ns) {
+        return name + ";dur=" + String.format(Locale.US, "%.3f", ns / 1_000_000.0);
+    }
+}
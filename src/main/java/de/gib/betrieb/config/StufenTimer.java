@@ -0,0 +1,85 @@
+package de.gib.betrieb.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Zeitmessung je Verarbeitungsstufe (db, mapping, narrativ, serialisierung, generator) und Resource-Typ.
+ * Die Werte gehen als Micrometer-Timer "fhir.stufe" an Prometheus und werden zusätzlich pro Request
+ * gesammelt, damit der ServerTimingInterceptor sie als Server-Timing Header ausgeben kann.
+ * Stufen können verschachtelt sein (narrativ liegt innerhalb von mapping).
+ */
+@Component
+public class StufenTimer {
+
+    // Stufe -> aufsummierte Nanosekunden des laufenden Requests, null außerhalb von /fhir/**
+    private static final ThreadLocal<Map<String, Long>> ANFRAGE = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timer = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> groessen = new ConcurrentHashMap<>();
+
+    public StufenTimer(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> T messe(String typ, String stufe, Supplier<T> aufgabe) {
+        long start = System.nanoTime();
+        try {
+            return aufgabe.get();
+        } finally {
+            erfasse(typ, stufe, System.nanoTime() - start);
+        }
+    }
+
+    /** Null-sichere Variante für Klassen, die auch ohne Spring laufen (Adapter in Unit-Tests) */
+    public static <T> T messe(StufenTimer stufenTimer, String typ, String stufe, Supplier<T> aufgabe) {
+        return stufenTimer == null ? aufgabe.get() : stufenTimer.messe(typ, stufe, aufgabe);
+    }
+
+    /** Größe des fertigen JSON je Resource-Typ */
+    public void erfasseBytes(String typ, int bytes) {
+        groessen.computeIfAbsent(typ, t -> DistributionSummary.builder("fhir.antwort.bytes")
+                        .description("Größe der serialisierten FHIR-Resource")
+                        .baseUnit("bytes")
+                        .tag("typ", t)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(bytes);
+    }
+
+    private void erfasse(String typ, String stufe, long dauerNs) {
+        timer.computeIfAbsent(typ + "|" + stufe, k -> Timer.builder("fhir.stufe")
+                        .description("Dauer einer Verarbeitungsstufe je Resource-Typ")
+                        .tag("typ", typ)
+                        .tag("stufe", stufe)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(dauerNs, TimeUnit.NANOSECONDS);
+
+        Map<String, Long> anfrage = ANFRAGE.get();
+        if (anfrage != null) {
+            anfrage.merge(stufe, dauerNs, Long::sum);
+        }
+    }
+
+    static void starteAnfrage() {
+        ANFRAGE.set(new LinkedHashMap<>());
+    }
+
+    static Map<String, Long> stufenDerAnfrage() {
+        return ANFRAGE.get();
+    }
+
+    static void beendeAnfrage() {
+        ANFRAGE.remove();
+    }
+}
@@ -0,0 +1,121 @@
+package de.gib.betrieb.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Legt eine faire Semaphore vor den Verbindungspool. Mit virtuellen Threads gibt es keine
+ * Obergrenze durch den Tomcat-Pool mehr; ohne Begrenzung würden tausende Threads gleichzeitig
+ * bei Hikari anstehen und nach dessen connectionTimeout ungeordnet scheitern. Hier warten sie
+ * stattdessen in Ankunftsreihenfolge auf einen der max-verbindungen Plätze, der mit
+ * Connection.close() wieder frei wird.
+ */
+@Component
+@ConditionalOnProperty(name = "fhir.db.begrenzung.aktiv", havingValue = "true")
+public class Verbindungsbegrenzung implements BeanPostProcessor {
+
+    private final int maxVerbindungen;
+    private final long maxWartezeitNs;
+
+    public Verbindungsbegrenzung(@Value("${fhir.db.max-verbindungen:${spring.datasource.hikari.maximum-pool-size:10}}") int maxVerbindungen,
+                                 @Value("${fhir.db.max-wartezeit:30s}") Duration maxWartezeit) {
+        this.maxVerbindungen = maxVerbindungen;
+        this.maxWartezeitNs = maxWartezeit.toNanos();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && !(bean instanceof BegrenzteDataSource)) {
+            return new BegrenzteDataSource(dataSource, maxVerbindungen, maxWartezeitNs);
+        }
+        return bean;
+    }
+
+    /** DelegatingDataSource, damit Actuator und Hikari-Metriken den Pool weiterhin finden */
+    static class BegrenzteDataSource extends DelegatingDataSource {
+
+        private final Semaphore plaetze;
+        private final long maxWartezeitNs;
+
+        BegrenzteDataSource(DataSource ziel, int maxVerbindungen, long maxWartezeitNs) {
+            super(ziel);
+            this.plaetze = new Semaphore(maxVerbindungen, true);
+            this.maxWartezeitNs = maxWartezeitNs;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            belege();
+            try {
+                return freigebendBeiClose(super.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                plaetze.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            belege();
+            try {
+                return freigebendBeiClose(super.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                plaetze.release();
+                throw e;
+            }
+        }
+
+        int freiePlaetze() {
+            return plaetze.availablePermits();
+        }
+
+        private void belege() throws SQLException {
+            try {
+                if (!plaetze.tryAcquire(maxWartezeitNs, TimeUnit.NANOSECONDS)) {
+                    throw new SQLTransientConnectionException("Keine Datenbankverbindung frei nach "
+                            + TimeUnit.NANOSECONDS.toMillis(maxWartezeitNs) + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Warten auf Datenbankverbindung unterbrochen", e);
+            }
+        }
+
+        // close() gibt den Platz genau einmal frei, alle anderen Aufrufe gehen unverändert an die Verbindung
+        private Connection freigebendBeiClose(Connection verbindung) {
+            AtomicBoolean geschlossen = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, methode, argumente) -> {
+                        if ("close".equals(methode.getName()) && methode.getParameterCount() == 0) {
+                            try {
+                                verbindung.close();
+                            } finally {
+                                if (geschlossen.compareAndSet(false, true)) {
+                                    plaetze.release();
+                                }
+                            }
+                            return null;
+                        }
+                        try {
+                            return methode.invoke(verbindung, argumente);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.gib.betrieb.config;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Zugriff auf virtuelle Threads (ab Java 21), solange der Build noch auf Java 17 zielt.
+ * Die Methode wird einmal per MethodHandle gesucht; unter Java 17 ist {@link #verfuegbar()} false.
+ */
+public final class VirtuelleThreads {
+
+    private static final MethodHandle JE_AUFGABE = sucheExecutor();
+
+    private VirtuelleThreads() {
+    }
+
+    public static boolean verfuegbar() {
+        return JE_AUFGABE != null;
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor(): ein neuer virtueller Thread je Aufgabe */
+    public static ExecutorService jeAufgabe() {
+        if (JE_AUFGABE == null) {
+            throw new IllegalStateException("Virtuelle Threads brauchen Java 21, laufend: "
+                    + Runtime.version().feature());
+        }
+        try {
+            return (ExecutorService) JE_AUFGABE.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Executor für virtuelle Threads nicht verfügbar", t);
+        }
+    }
+
+    private static MethodHandle sucheExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
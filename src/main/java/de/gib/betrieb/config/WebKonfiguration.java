@@ -0,0 +1,24 @@
+package de.gib.betrieb.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+ // Registriert Server-Timing Messung und Laststeuerung für alle FHIR-Endpunkte
+@Configuration
+public class WebKonfiguration implements WebMvcConfigurer {
+
+    @Autowired
+    private ServerTimingInterceptor serverTimingInterceptor;
+
+    @Autowired
+    private Laststeuerung laststeuerung;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Zuerst die Laststeuerung: abgewiesene Anfragen kosten keine Messung; /fhir/stats bleibt unter Last erreichbar
+        registry.addInterceptor(laststeuerung).addPathPatterns("/fhir/**").excludePathPatterns("/fhir/stats");
+        registry.addInterceptor(serverTimingInterceptor).addPathPatterns("/fhir/**");
+    }
+}
@@ -0,0 +1,138 @@
+package de.gib.betrieb.controller;
+
+import de.gib.betrieb.service.AusgabeEngine;
+import de.gib.betrieb.service.BulkExportJobService;
+import de.gib.betrieb.service.BulkExportService;
+import de.gib.betrieb.service.ExportJob;
+import de.gib.betrieb.service.FhirAdapterService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+ // Asynchroner Bulk Data $export nach FHIR Bulk Data Access:
+ // Kick-off mit "Prefer: respond-async", danach Status-Polling und Abruf der NDJSON-Dateien
+@RestController
+@RequestMapping("/fhir")
+public class BulkExportController {
+
+    @Autowired
+    private BulkExportJobService jobService;
+
+    @Autowired
+    private FhirAdapterService fhirService;
+
+    /**
+     * Kick-off: startet den Export im Hintergrund und antwortet mit 202 und Status-URL
+     */
+    @GetMapping(value = "/$export", headers = "Prefer")
+    public ResponseEntity<Map<String, Object>> starteExport(
+            @RequestHeader("Prefer") String prefer,
+            @RequestParam(name = "_type", required = false) String typen,
+            @RequestParam(name = "_engine", required = false) String engine,
+            HttpServletRequest request) throws IOException {
+        if (!prefer.contains("respond-async")) {
+            return ResponseEntity.badRequest().body(Map.of("fehler", "Nur 'Prefer: respond-async' wird unterstützt"));
+        }
+
+        List<String> resourceTypen = (typen == null || typen.isBlank())
+                ? BulkExportService.UNTERSTUETZTE_TYPEN
+                : Arrays.stream(typen.split(",")).map(String::trim).toList();
+        for (String typ : resourceTypen) {
+            if (!BulkExportService.istUnterstuetzt(typ)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "fehler", "Resource-Typ nicht exportierbar: " + typ,
+                        "unterstuetzt", BulkExportService.UNTERSTUETZTE_TYPEN));
+            }
+        }
+
+        AusgabeEngine ausgabeEngine;
+        try {
+            ausgabeEngine = fhirService.ermittleEngine(engine);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("fehler", e.getMessage()));
+        }
+
+        String basis = ServletUriComponentsBuilder.fromCurrentContextPath().path("/fhir").toUriString();
+        String anfrage = request.getRequestURL()
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+
+        ExportJob job;
+        try {
+            job = jobService.starteJob(resourceTypen, ausgabeEngine, anfrage, basis + "/$export-datei");
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", "30")
+                    .body(Map.of("fehler", "Export-Warteschlange voll, später erneut versuchen"));
+        }
+
+        return ResponseEntity.accepted()
+                .header("Content-Location", basis + "/$export-status/" + job.getId())
+                .build();
+    }
+
+    /**
+     * Status-Abfrage: 202 solange der Job läuft, 200 mit Manifest wenn fertig
+     */
+    @GetMapping("/$export-status/{jobId}")
+    public ResponseEntity<Map<String, Object>> getStatus(@PathVariable String jobId) {
+        ExportJob job = jobService.getJob(jobId);
+        if (job == null || job.getStatus() == ExportJob.Status.ABGEBROCHEN) {
+            return ResponseEntity.notFound().build();
+        }
+
+        switch (job.getStatus()) {
+            case LAEUFT:
+                return ResponseEntity.accepted()
+                        .header("X-Progress", job.fortschritt())
+                        .header("Retry-After", "2")
+                        .build();
+            case FEHLER:
+                return ResponseEntity.internalServerError().body(Map.of(
+                        "resourceType", "OperationOutcome",
+                        "issue", List.of(Map.of(
+                                "severity", "error",
+                                "code", "exception",
+                                "diagnostics", String.valueOf(job.getFehler())))));
+            default:
+                return ResponseEntity.ok(job.manifest());
+        }
+    }
+
+    /**
+     * Bricht einen laufenden Job ab bzw. räumt einen fertigen Job weg
+     */
+    @DeleteMapping("/$export-status/{jobId}")
+    public ResponseEntity<Void> loescheJob(@PathVariable String jobId) throws IOException {
+        if (jobService.loescheJob(jobId)) {
+            return ResponseEntity.accepted().build();
+        }
+        return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Abruf einer NDJSON-Ausgabedatei aus dem Manifest
+     */
+    @GetMapping("/$export-datei/{jobId}/{dateiname:.+}")
+    public ResponseEntity<Resource> getDatei(@PathVariable String jobId, @PathVariable String dateiname) {
+        Path datei = jobService.getDatei(jobId, dateiname);
+        if (datei == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(BulkExportService.NDJSON))
+                .body(new FileSystemResource(datei));
+    }
+}
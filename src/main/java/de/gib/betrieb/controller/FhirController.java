@@ -1,13 +1,31 @@
 package de.gib.betrieb.controller;
 
+import de.gib.betrieb.adapter.Elementauswahl;
+import de.gib.betrieb.config.Laststeuerung;
+import de.gib.betrieb.service.AusgabeEngine;
+import de.gib.betrieb.service.BefundAuswertung;
+import de.gib.betrieb.service.BefundSuchparameter;
+import de.gib.betrieb.service.BulkExportService;
 import de.gib.betrieb.service.FhirAdapterService;
+import de.gib.betrieb.service.PatientIndex;
+import de.gib.betrieb.service.SuchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.function.Supplier;
 
 
  // REST Controller für FHIR-Endpunkte
@@ -19,6 +37,21 @@ public class FhirController {
     @Autowired
     private FhirAdapterService fhirService;
 
+    @Autowired
+    private BulkExportService bulkExportService;
+
+    @Autowired
+    private SuchService suchService;
+
+    @Autowired
+    private BefundAuswertung befundAuswertung;
+
+    @Autowired
+    private PatientIndex patientIndex;
+
+    @Autowired
+    private Laststeuerung laststeuerung;
+
 /**
 * FHIR-Startseite mit verfügbaren Endpunkten
 */
@@ -30,114 +63,191 @@ public class FhirController {
         info.put("beschreibung", "Stellt Legacy-Krankenhaus-Daten als FHIR R4 Resources bereit");
 
         info.put("verfuegbareEndpunkte", new String[]{
-                "GET /fhir/Patient - Alle Patienten",
+                "GET /fhir/Patient - Patienten als searchset Bundle (_count, _cursor)",
                 "GET /fhir/Patient/{id} - Einzelner Patient",
-                "GET /fhir/Practitioner - Alle Ärzte",
+                "GET /fhir/Practitioner - Ärzte als searchset Bundle (_count, _cursor)",
                 "GET /fhir/Practitioner/{id} - Einzelner Arzt",
-                "GET /fhir/Observation - Alle Befunde",
+                "GET /fhir/Observation - Befunde als searchset Bundle (patient, code, category, date, _sort, _count, _cursor)",
                 "GET /fhir/Observation/{id} - Einzelner Befund",
+                "GET /fhir/Observation/$lastn?patient=1 - Letzte Befunde je Code (code, category, date, max)",
+                "GET /fhir/Observation/$stats?patient=1 - Kennzahlen je Code (code, category, date, duration, statistic)",
                 "GET /fhir/DiagnosticReport - Alle Berichte",
                 "GET /fhir/DiagnosticReport/{id} - Einzelner Bericht",
-                "GET /fhir/Patient/{id}/Bundle - Komplette Patientendaten"
+                "GET /fhir/Patient/{id}/Bundle - Komplette Patientendaten",
+                "GET /fhir/Patient/exists?_id=1,2,3 - Existenzprüfung für mehrere Patienten",
+                "GET /fhir/$export - Bulk-Export als NDJSON",
+                "GET /fhir/$export-status/{jobId} - Status eines asynchronen Exports",
+                "_summary=true|text|data|count|false und _elements=a,b auf allen Lese- und Suchendpunkten"
         });
 
         return info;
     }
 
     /**
-     * Alle Patienten als FHIR Patient Resources
+     * Patienten als searchset Bundle, seitenweise über _count und _cursor (next-Link)
      */
     @GetMapping("/Patient")
-    public List<Map<String, Object>> getAllePatienten() {
-        return fhirService.getAllePatiententAlsFhir();
+    public Map<String, Object> getAllePatienten(@RequestParam(name = "_count", required = false) Integer anzahl,
+                                                @RequestParam(name = "_cursor", required = false) Long cursor,
+                                                @RequestParam(name = "_summary", required = false) String summary,
+                                                @RequestParam(name = "_elements", required = false) String elements) {
+        return suchService.suchePatienten(seite(anzahl, cursor, ermittleAuswahl(summary, elements, true)));
     }
 
     /**
      * Einzelner Patient als FHIR Patient Resource
      */
     @GetMapping("/Patient/{id}")
-    public ResponseEntity<Map<String, Object>> getPatient(@PathVariable Long id) {
-        Map<String, Object> patient = fhirService.getPatientAlsFhir(id);
-
-        if (patient != null) {
-            return ResponseEntity.ok(patient);
-        } else {
-            return ResponseEntity.notFound().build();
-        }
+    public ResponseEntity<byte[]> getPatient(@PathVariable Long id,
+                                             @RequestParam(name = "_engine", required = false) String engine,
+                                             @RequestParam(name = "_summary", required = false) String summary,
+                                             @RequestParam(name = "_elements", required = false) String elements) {
+        return jsonAntwort(fhirService.getPatientAlsJson(id, ermittleEngine(engine),
+                ermittleAuswahl(summary, elements, false)));
     }
 
     /**
-     * Alle Ärzte als FHIR Practitioner Resources
+     * Ärzte als searchset Bundle, seitenweise über _count und _cursor
      */
     @GetMapping("/Practitioner")
-    public List<Map<String, Object>> getAlleAerzte() {
-        return fhirService.getAlleAerzteAlsFhir();
+    public Map<String, Object> getAlleAerzte(@RequestParam(name = "_count", required = false) Integer anzahl,
+                                             @RequestParam(name = "_cursor", required = false) Long cursor,
+                                             @RequestParam(name = "_summary", required = false) String summary,
+                                             @RequestParam(name = "_elements", required = false) String elements) {
+        return suchService.sucheAerzte(seite(anzahl, cursor, ermittleAuswahl(summary, elements, true)));
     }
 
     /**
      * Einzelner Arzt als FHIR Practitioner Resource
      */
     @GetMapping("/Practitioner/{id}")
-    public ResponseEntity<Map<String, Object>> getArzt(@PathVariable Long id) {
-        Map<String, Object> arzt = fhirService.getArztAlsFhir(id);
+    public ResponseEntity<byte[]> getArzt(@PathVariable Long id,
+                                          @RequestParam(name = "_engine", required = false) String engine,
+                                          @RequestParam(name = "_summary", required = false) String summary,
+                                          @RequestParam(name = "_elements", required = false) String elements) {
+        return jsonAntwort(fhirService.getArztAlsJson(id, ermittleEngine(engine),
+                ermittleAuswahl(summary, elements, false)));
+    }
 
-        if (arzt != null) {
-            return ResponseEntity.ok(arzt);
-        } else {
-            return ResponseEntity.notFound().build();
+    /**
+     * Befundsuche als searchset Bundle: patient, code und category (kommagetrennt = oder),
+     * date mit eq/ge/gt/le/lt (mehrfach = und), _sort=_id|date|-date; Keyset über _cursor aus dem next-Link
+     */
+    @GetMapping("/Observation")
+    public Map<String, Object> sucheBefunde(@RequestParam(name = "patient", required = false) String patient,
+                                            @RequestParam(name = "code", required = false) String code,
+                                            @RequestParam(name = "category", required = false) String kategorie,
+                                            @RequestParam(name = "date", required = false) List<String> datum,
+                                            @RequestParam(name = "_sort", required = false) String sortierung,
+                                            @RequestParam(name = "_count", required = false) Integer anzahl,
+                                            @RequestParam(name = "_cursor", required = false) String cursor,
+                                            @RequestParam(name = "_summary", required = false) String summary,
+                                            @RequestParam(name = "_elements", required = false) String elements) {
+        BefundSuchparameter parameter = new BefundSuchparameter(patient, code, kategorie, datum, sortierung, cursor);
+        try {
+            return suchService.sucheBefunde(parameter, seite(anzahl, null, ermittleAuswahl(summary, elements, true)));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
     }
 
     /**
-     * Einzelner Befund als FHIR Observation Resource
+     * Observation/$lastn: die letzten max Befunde je Code eines Patienten, aus dem Befund-Index
      */
-    @GetMapping("/Observation/{id}")
-    public ResponseEntity<Map<String, Object>> getBefund(@PathVariable Long id) {
-        Map<String, Object> befund = fhirService.getBefundAlsFhir(id);
+    @GetMapping("/Observation/$lastn")
+    public Map<String, Object> letzteBefunde(@RequestParam(name = "patient", required = false) String patient,
+                                             @RequestParam(name = "code", required = false) String code,
+                                             @RequestParam(name = "category", required = false) String kategorie,
+                                             @RequestParam(name = "date", required = false) List<String> datum,
+                                             @RequestParam(name = "max", required = false) Integer max) {
+        BefundSuchparameter parameter = new BefundSuchparameter(patient, code, kategorie, datum, null, null);
+        return auswerten(() -> befundAuswertung.lastn(parameter, max,
+                ServletUriComponentsBuilder.fromCurrentContextPath().path("/fhir").toUriString(),
+                ServletUriComponentsBuilder.fromCurrentRequest().toUriString()));
+    }
 
-        if (befund != null) {
-            return ResponseEntity.ok(befund);
-        } else {
-            return ResponseEntity.notFound().build();
+    /**
+     * Observation/$stats: count, minimum, maximum, average (statistic) je Code eines Patienten,
+     * eingegrenzt über date oder duration (Stunden bis jetzt), aus dem Befund-Index
+     */
+    @GetMapping("/Observation/$stats")
+    public Map<String, Object> befundStatistik(@RequestParam(name = "patient", required = false) String patient,
+                                               @RequestParam(name = "code", required = false) String code,
+                                               @RequestParam(name = "category", required = false) String kategorie,
+                                               @RequestParam(name = "date", required = false) List<String> datum,
+                                               @RequestParam(name = "duration", required = false) Double dauerStunden,
+                                               @RequestParam(name = "statistic", required = false) String statistik) {
+        BefundSuchparameter parameter = new BefundSuchparameter(patient, code, kategorie, datum, null, null);
+        return auswerten(() -> befundAuswertung.stats(parameter, dauerStunden, statistik));
+    }
+
+    // Ungültige Parameter 400, Index (noch) nicht verfügbar 503
+    private Map<String, Object> auswerten(Supplier<Map<String, Object>> operation) {
+        try {
+            return operation.get();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
         }
     }
 
     /**
-     * Alle Befunde eines Patienten als FHIR Observations
+     * Einzelner Befund als FHIR Observation Resource
+     */
+    @GetMapping("/Observation/{id}")
+    public ResponseEntity<byte[]> getBefund(@PathVariable Long id,
+                                            @RequestParam(name = "_engine", required = false) String engine,
+                                            @RequestParam(name = "_summary", required = false) String summary,
+                                            @RequestParam(name = "_elements", required = false) String elements) {
+        return jsonAntwort(fhirService.getBefundAlsJson(id, ermittleEngine(engine),
+                ermittleAuswahl(summary, elements, false)));
+    }
+
+    /**
+     * Befunde eines Patienten als searchset Bundle, Keyset über befund_id
      */
     @GetMapping("/Patient/{patientId}/Observation")
-    public List<Map<String, Object>> getBefundeVonPatient(@PathVariable Long patientId) {
-        return fhirService.getBefundeFuerPatient(patientId);
+    public Map<String, Object> getBefundeVonPatient(@PathVariable Long patientId,
+                                                    @RequestParam(name = "_count", required = false) Integer anzahl,
+                                                    @RequestParam(name = "_cursor", required = false) Long cursor,
+                                                    @RequestParam(name = "_summary", required = false) String summary,
+                                                    @RequestParam(name = "_elements", required = false) String elements) {
+        return suchService.sucheBefundeVonPatient(patientId, seite(anzahl, cursor, ermittleAuswahl(summary, elements, true)));
     }
 
     /**
      * Einzelner Bericht als FHIR DiagnosticReport Resource
      */
     @GetMapping("/DiagnosticReport/{id}")
-    public ResponseEntity<Map<String, Object>> getBericht(@PathVariable Long id) {
-        Map<String, Object> bericht = fhirService.getBerichtAlsFhir(id);
-
-        if (bericht != null) {
-            return ResponseEntity.ok(bericht);
-        } else {
-            return ResponseEntity.notFound().build();
-        }
+    public ResponseEntity<byte[]> getBericht(@PathVariable Long id,
+                                             @RequestParam(name = "_engine", required = false) String engine,
+                                             @RequestParam(name = "_summary", required = false) String summary,
+                                             @RequestParam(name = "_elements", required = false) String elements) {
+        return jsonAntwort(fhirService.getBerichtAlsJson(id, ermittleEngine(engine),
+                ermittleAuswahl(summary, elements, false)));
     }
 
     /**
-     * Alle Berichte eines Patienten als FHIR DiagnosticReports
+     * Berichte eines Patienten als searchset Bundle, Keyset über bericht_id
      */
     @GetMapping("/Patient/{patientId}/DiagnosticReport")
-    public List<Map<String, Object>> getBerichteVonPatient(@PathVariable Long patientId) {
-        return fhirService.getBerichteFuerPatient(patientId);
+    public Map<String, Object> getBerichteVonPatient(@PathVariable Long patientId,
+                                                     @RequestParam(name = "_count", required = false) Integer anzahl,
+                                                     @RequestParam(name = "_cursor", required = false) Long cursor,
+                                                     @RequestParam(name = "_summary", required = false) String summary,
+                                                     @RequestParam(name = "_elements", required = false) String elements) {
+        return suchService.sucheBerichteVonPatient(patientId, seite(anzahl, cursor, ermittleAuswahl(summary, elements, true)));
     }
 
     /**
      * Komplettes FHIR Bundle mit allen Daten eines Patienten
      */
     @GetMapping("/Patient/{patientId}/Bundle")
-    public ResponseEntity<Map<String, Object>> getPatientBundle(@PathVariable Long patientId) {
-        Map<String, Object> bundle = fhirService.getPatientBundle(patientId);
+    public ResponseEntity<Map<String, Object>> getPatientBundle(@PathVariable Long patientId,
+                                                                @RequestParam(name = "_summary", required = false) String summary,
+                                                                @RequestParam(name = "_elements", required = false) String elements) {
+        Map<String, Object> bundle = fhirService.getPatientBundle(patientId, ermittleAuswahl(summary, elements, false));
 
         if (bundle != null && ((List<?>) bundle.get("entry")).size() > 0) {
             return ResponseEntity.ok(bundle);
@@ -146,6 +256,96 @@ public class FhirController {
         }
     }
 
+    /**
+     * Bulk Data $export: streamt alle Resources der angefragten Typen als NDJSON
+     */
+    @GetMapping("/$export")
+    public ResponseEntity<StreamingResponseBody> bulkExport(
+            @RequestParam(name = "_type", required = false) String typen,
+            @RequestParam(name = "_engine", required = false) String engine) {
+        List<String> resourceTypen = ermittleExportTypen(typen);
+        AusgabeEngine ausgabeEngine = ermittleEngine(engine);
+
+        StreamingResponseBody body = out -> {
+            for (String typ : resourceTypen) {
+                bulkExportService.exportiereNdjson(typ, ausgabeEngine, out);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(BulkExportService.NDJSON))
+                .body(body);
+    }
+
+    /**
+     * Bulk Data $export in lokale NDJSON-Dateien (eine Datei pro Resource-Typ)
+     */
+    @GetMapping(value = "/$export", params = "ziel=datei")
+    public Map<String, Object> bulkExportInDateien(
+            @RequestParam(name = "_type", required = false) String typen,
+            @RequestParam(name = "_engine", required = false) String engine) throws IOException {
+        AusgabeEngine ausgabeEngine = ermittleEngine(engine);
+        List<Map<String, Object>> dateien = new ArrayList<>();
+        for (String typ : ermittleExportTypen(typen)) {
+            dateien.add(bulkExportService.exportiereInDatei(typ, ausgabeEngine));
+        }
+        return Map.of("output", dateien);
+    }
+
+    private AusgabeEngine ermittleEngine(String engine) {
+        try {
+            return fhirService.ermittleEngine(engine);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // _summary=count gibt es nur bei Suchen
+    private Elementauswahl ermittleAuswahl(String summary, String elements, boolean suche) {
+        Elementauswahl auswahl;
+        try {
+            auswahl = Elementauswahl.aus(summary, elements);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (auswahl.nurAnzahl() && !suche) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "_summary=count ist nur bei Suchen erlaubt");
+        }
+        // Unter Überlast zugelassene Anfragen bekommen das reduzierte Profil
+        return laststeuerung.reduziertBeantworten() ? auswahl.reduziert() : auswahl;
+    }
+
+    // Links der Seite zeigen auf den aktuellen Endpunkt, fullUrls auf die FHIR-Basis
+    private SuchService.Seite seite(Integer anzahl, Long cursor, Elementauswahl auswahl) {
+        return new SuchService.Seite(
+                ServletUriComponentsBuilder.fromCurrentContextPath().path("/fhir").toUriString(),
+                ServletUriComponentsBuilder.fromCurrentRequestUri().replaceQuery(null).toUriString(),
+                cursor, anzahl, auswahl);
+    }
+
+    // Bereits serialisiertes JSON ausliefern, 404 wenn die Resource fehlt
+    private ResponseEntity<byte[]> jsonAntwort(byte[] json) {
+        if (json == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(json);
+    }
+
+    private List<String> ermittleExportTypen(String typen) {
+        if (typen == null || typen.isBlank()) {
+            return BulkExportService.UNTERSTUETZTE_TYPEN;
+        }
+        List<String> resourceTypen = Arrays.stream(typen.split(",")).map(String::trim).toList();
+        for (String typ : resourceTypen) {
+            if (!BulkExportService.istUnterstuetzt(typ)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Resource-Typ nicht exportierbar: " + typ);
+            }
+        }
+        return resourceTypen;
+    }
+
     /**
      * FHIR-Adapter Statistiken
      */
@@ -155,14 +355,13 @@ public class FhirController {
     }
 
     /**
-     * Prüft ob ein Patient existiert (für FHIR-konforme Validierung)
+     * Prüft ob ein Patient existiert (für FHIR-konforme Validierung), beantwortet aus dem PatientIndex
      */
     @GetMapping("/Patient/{id}/exists")
     public ResponseEntity<Map<String, Object>> checkPatientExists(@PathVariable Long id) {
-        Map<String, Object> patient = fhirService.getPatientAlsFhir(id);
         Map<String, Object> reslut = new HashMap<>();
 
-        if (patient != null) {
+        if (patientIndex.existiert(id)) {
             reslut.put("exists", true);
             reslut.put("patientId", id);
             reslut.put("resourceType", "Patient");
@@ -174,4 +373,28 @@ public class FhirController {
         }
     }
 
+    /**
+     * Existenzprüfung für mehrere Patienten auf einmal: /fhir/Patient/exists?_id=1,2,3
+     */
+    @GetMapping("/Patient/exists")
+    public Map<String, Object> checkPatientenExist(@RequestParam(name = "_id") List<Long> ids) {
+        List<Map<String, Object>> ergebnisse = new ArrayList<>();
+        int vorhanden = 0;
+        for (Map.Entry<Long, Boolean> e : patientIndex.existieren(ids).entrySet()) {
+            Map<String, Object> ergebnis = new LinkedHashMap<>();
+            ergebnis.put("patientId", e.getKey());
+            ergebnis.put("exists", e.getValue());
+            ergebnisse.add(ergebnis);
+            if (e.getValue()) {
+                vorhanden++;
+            }
+        }
+
+        Map<String, Object> antwort = new LinkedHashMap<>();
+        antwort.put("anzahl", ergebnisse.size());
+        antwort.put("vorhanden", vorhanden);
+        antwort.put("ergebnisse", ergebnisse);
+        return antwort;
+    }
+
 }
\ No newline at end of file
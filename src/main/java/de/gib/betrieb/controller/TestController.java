@@ -1,9 +1,15 @@
 package de.gib.betrieb.controller;
 
+import de.gib.betrieb.config.VirtuelleThreads;
+import de.gib.betrieb.service.AusgabeEngine;
 import de.gib.betrieb.service.FhirAdapterService;
+import de.gib.betrieb.service.LastGenerator;
+import de.gib.betrieb.service.MassendatenGenerator;
+import de.gib.betrieb.service.Massenloeschung;
 import de.gib.betrieb.service.TestdatenGenerator;
 import de.gib.betrieb.model.Patient;
 import de.gib.betrieb.datenbank.PatientRepository;
+import org.HdrHistogram.Histogram;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -14,6 +20,7 @@ import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
@@ -29,6 +36,15 @@ public class TestController {
     @Autowired
     private FhirAdapterService fhirService;
 
+    @Autowired
+    private LastGenerator lastGenerator;
+
+    @Autowired
+    private MassendatenGenerator massendatenGenerator;
+
+    @Autowired
+    private Massenloeschung massenloeschung;
+
     /**
      * Status-Check
      */
@@ -56,6 +72,29 @@ public class TestController {
         }
     }
 
+    /**
+     * Generiert Testdaten per COPY (für Benchmarks mit großen Datenmengen), mit Zeilen/s je Tabelle.
+     * Mit seed reproduzierbar; faelle/befunde/berichte überschreiben die konfigurierten Verteilungen
+     * (z. B. befunde=lognormal:1.5:1.2:5000 für einzelne Patienten mit Tausenden Befunden).
+     */
+    @PostMapping("/generiere-copy/{anzahl}")
+    public Map<String, Object> generiereMassendaten(@PathVariable int anzahl,
+                                                    @RequestParam(required = false) Long seed,
+                                                    @RequestParam(required = false) Integer threads,
+                                                    @RequestParam(required = false) String faelle,
+                                                    @RequestParam(required = false) String befunde,
+                                                    @RequestParam(required = false) String berichte) {
+        try {
+            MassendatenGenerator.Optionen optionen = massendatenGenerator.optionen(seed, threads, faelle, befunde, berichte);
+            return massendatenGenerator.generiere(anzahl, optionen).alsMap();
+        } catch (Exception e) {
+            Map<String, Object> fehler = new HashMap<>();
+            fehler.put("status", "FEHLER");
+            fehler.put("nachricht", e.getMessage());
+            return fehler;
+        }
+    }
+
     /**
      * Zeigt die letzten 10 Patienten an (nach ID sortiert, neueste zuerst)
      */
@@ -89,14 +128,15 @@ public class TestController {
     }
 
     /**
-     * Löscht alle Testdaten
+     * Löscht alle Testdaten mengenbasiert (TRUNCATE oder DELETE je Tabelle), Stammdaten nur auf Wunsch
      */
     @DeleteMapping("/loeschen")
-    public String loescheAlleDaten() {
+    public String loescheAlleDaten(@RequestParam(defaultValue = "truncate") String modus,
+                                   @RequestParam(defaultValue = "false") boolean stammdaten) {
         try {
             long anzahlVorher = patientRepository.count();
-            patientRepository.deleteAll();
-            return String.format("Alle %d Testdaten wurden gelöscht", anzahlVorher);
+            Massenloeschung.Ergebnis ergebnis = massenloeschung.loesche(Massenloeschung.modus(modus), stammdaten);
+            return String.format("Alle %d Testdaten wurden gelöscht: %s", anzahlVorher, ergebnis.alsText());
         } catch (Exception e) {
             return "Fehler beim Löschen: " + e.getMessage();
         }
@@ -182,8 +222,26 @@ public class TestController {
             @RequestParam(name = "warmup", defaultValue = "5") int anzahlWarmupDurchlaeufe,
             @RequestParam(name = "stichprobe", defaultValue = "100") int groesseStichprobe,
             @RequestParam(name = "paralleleThreats", defaultValue = "1") int anzahlParallelerThreads,
-            @RequestParam(name = "seed", defaultValue = "42") long zufallsStartwert
+            @RequestParam(name = "seed", defaultValue = "42") long zufallsStartwert,
+            @RequestParam(name = "engine", required = false) String engine,
+            @RequestParam(name = "modus", defaultValue = "geschlossen") String modus,
+            @RequestParam(name = "rate", defaultValue = "50") double rateProSekunde,
+            @RequestParam(name = "threadart", defaultValue = "plattform") String threadart
     ) {
+        // Spalten bleiben gleich, die Thread-Art steht im Dateinamen
+        boolean virtuell = "virtuell".equals(threadart);
+        if (!virtuell && !"plattform".equals(threadart)) {
+            return ResponseEntity.badRequest().body("threadart muss plattform oder virtuell sein");
+        }
+        if (virtuell && !VirtuelleThreads.verfuegbar()) {
+            return ResponseEntity.badRequest().body("threadart=virtuell braucht Java 21 (Profil java21)");
+        }
+
+        if ("offen".equals(modus)) {
+            return performanceTestsOffen(anzahlDurchlaeufe, anzahlWarmupDurchlaeufe, groesseStichprobe,
+                    anzahlParallelerThreads, zufallsStartwert, engine, rateProSekunde, virtuell);
+        }
+
         StringBuilder csv = new StringBuilder();
 
         csv.append(
@@ -206,15 +264,18 @@ public class TestController {
             int effektiveStichprobe = Math.min(groesseStichprobe, allePatienten.size());
             Random zufall = new Random(zufallsStartwert);
 
+            // Ohne engine wird wie bisher nur die Konvertierung gemessen, mit engine inkl. Serialisierung
+            AusgabeEngine ausgabeEngine = (engine == null) ? null : fhirService.ermittleEngine(engine);
+
             // Warm-up
             for (int i = 0; i < anzahlWarmupDurchlaeufe; i++) {
-                fuehreDurchlaufAus(allePatienten, effektiveStichprobe, anzahlParallelerThreads, zufall);
+                fuehreDurchlaufAus(allePatienten, effektiveStichprobe, anzahlParallelerThreads, virtuell, zufall, ausgabeEngine);
             }
 
             // Messdurchläufe
             for (int durchlauf = 0; durchlauf < anzahlDurchlaeufe; durchlauf++) {
                 DurchlaufErgebnis ergebnis = fuehreDurchlaufAus(
-                        allePatienten, effektiveStichprobe, anzahlParallelerThreads, zufall
+                        allePatienten, effektiveStichprobe, anzahlParallelerThreads, virtuell, zufall, ausgabeEngine
                 );
 
                 double gesamtMs = ergebnis.gesamtNs / 1_000_000.0;
@@ -243,7 +304,7 @@ public class TestController {
                         .append(ergebnis.fehler).append("\n");
             }
 
-            String dateiname = "perf_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".csv";
+            String dateiname = "perf_" + (virtuell ? "virtuell_" : "") + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".csv";
             return ResponseEntity.ok()
                     .header("Content-Disposition", "attachment; filename=\"" + dateiname + "\"")
                     .body(csv.toString());
@@ -254,6 +315,108 @@ public class TestController {
         }
     }
 
+    /**
+     * Offenes Modell: feste Ankunftsrate, Latenzen in HdrHistogrammen (korrigiert um Coordinated Omission).
+     * Die ersten 13 Spalten entsprechen dem geschlossenen Modus, danach folgen die Zusatzspalten.
+     */
+    private ResponseEntity<String> performanceTestsOffen(int anzahlDurchlaeufe, int anzahlWarmupDurchlaeufe,
+                                                         int groesseStichprobe, int anzahlThreads,
+                                                         long zufallsStartwert, String engine, double rateProSekunde,
+                                                         boolean virtuell) {
+        StringBuilder csv = new StringBuilder();
+
+        csv.append(
+                "zeit;stichprobe_n;threads;durchlauf_nr;"
+                        + "dauer_gesamt_ms;durchsatz_pat_pro_s;"
+                        + "mittel_ms_pro_patient;median_ms_pro_patient;p95_ms_pro_patient;stdabw_ms_pro_patient;"
+                        + "anzahl_angefragt;anzahl_ok;anzahl_fehler;"
+                        + "modus;soll_rate_pro_s;p50_ms;p90_ms;p99_ms;p999_ms;max_ms;"
+                        + "bedienzeit_p50_ms;bedienzeit_p99_ms;verspaetet_gestartet\n"
+        );
+
+        try {
+            List<Patient> allePatienten = patientRepository.findAll();
+            if (allePatienten.isEmpty()) {
+                return ResponseEntity.badRequest().body("keine Patientendaten vorhanden");
+            }
+            if (rateProSekunde <= 0) {
+                return ResponseEntity.badRequest().body("rate muss größer 0 sein");
+            }
+
+            final DateTimeFormatter ZEITSTEMPEL_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss.SSS");
+            String zeitstempel = LocalDateTime.now().format(ZEITSTEMPEL_FORMAT);
+
+            int effektiveStichprobe = Math.min(groesseStichprobe, allePatienten.size());
+            Random zufall = new Random(zufallsStartwert);
+            AusgabeEngine ausgabeEngine = (engine == null) ? null : fhirService.ermittleEngine(engine);
+
+            for (int i = 0; i < anzahlWarmupDurchlaeufe; i++) {
+                lastGenerator.fuehreDurchlaufAus(waehleIds(allePatienten, effektiveStichprobe, zufall),
+                        rateProSekunde, anzahlThreads, virtuell, id -> ladePatient(id, ausgabeEngine));
+            }
+
+            for (int durchlauf = 0; durchlauf < anzahlDurchlaeufe; durchlauf++) {
+                LastGenerator.Ergebnis ergebnis = lastGenerator.fuehreDurchlaufAus(
+                        waehleIds(allePatienten, effektiveStichprobe, zufall),
+                        rateProSekunde, anzahlThreads, virtuell, id -> ladePatient(id, ausgabeEngine));
+
+                Histogram antwort = ergebnis.antwortzeitNs;
+                Histogram bedien = ergebnis.bedienzeitNs;
+                double gesamtMs = ergebnis.gesamtNs / 1_000_000.0;
+                double durchsatz = ergebnis.erfolgreich == 0 ? 0.0 : (ergebnis.erfolgreich / (gesamtMs / 1000.0));
+
+                csv.append(zeitstempel).append(";")
+                        .append(effektiveStichprobe).append(";")
+                        .append(anzahlThreads).append(";")
+                        .append(durchlauf).append(";")
+                        .append(formatZahl(gesamtMs)).append(";")
+                        .append(formatZahl(durchsatz)).append(";")
+                        .append(formatZahl(antwort.getMean() / 1_000_000.0)).append(";")
+                        .append(formatZahl(inMs(antwort, 50))).append(";")
+                        .append(formatZahl(inMs(antwort, 95))).append(";")
+                        .append(formatZahl(antwort.getStdDeviation() / 1_000_000.0)).append(";")
+                        .append(effektiveStichprobe).append(";")
+                        .append(ergebnis.erfolgreich).append(";")
+                        .append(ergebnis.fehler).append(";")
+                        .append("offen").append(";")
+                        .append(formatZahl(rateProSekunde)).append(";")
+                        .append(formatZahl(inMs(antwort, 50))).append(";")
+                        .append(formatZahl(inMs(antwort, 90))).append(";")
+                        .append(formatZahl(inMs(antwort, 99))).append(";")
+                        .append(formatZahl(inMs(antwort, 99.9))).append(";")
+                        .append(formatZahl(antwort.getMaxValue() / 1_000_000.0)).append(";")
+                        .append(formatZahl(inMs(bedien, 50))).append(";")
+                        .append(formatZahl(inMs(bedien, 99))).append(";")
+                        .append(ergebnis.verspaetet).append("\n");
+            }
+
+            String dateiname = "perf_offen_" + (virtuell ? "virtuell_" : "") + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".csv";
+            return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=\"" + dateiname + "\"")
+                    .body(csv.toString());
+
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body("fehler: " + e.getClass().getSimpleName() + " - " + e.getMessage());
+        }
+    }
+
+    // Gleiche Auswahl wie im geschlossenen Modus: gemischt mit dem Seed, die ersten n
+    private static List<Long> waehleIds(List<Patient> alle, int stichprobe, Random zufall) {
+        List<Patient> kopie = new ArrayList<>(alle);
+        Collections.shuffle(kopie, zufall);
+        List<Long> ids = new ArrayList<>(stichprobe);
+        for (Patient p : kopie.subList(0, stichprobe)) {
+            ids.add(p.getPatientenId());
+        }
+        return ids;
+    }
+
+    private static double inMs(Histogram histogramm, double perzentil) {
+        if (histogramm.getTotalCount() == 0) return Double.NaN;
+        return histogramm.getValueAtPercentile(perzentil) / 1_000_000.0;
+    }
+
     private static class DurchlaufErgebnis {
         long gesamtNs;
         int erfolgreich;
@@ -262,14 +425,18 @@ public class TestController {
     }
 
     private DurchlaufErgebnis fuehreDurchlaufAus(
-            List<Patient> alle, int stichprobe, int anzahlParallelerThreads, Random zufall
+            List<Patient> alle, int stichprobe, int anzahlParallelerThreads, boolean virtuell, Random zufall,
+            AusgabeEngine engine
     )
     {
         List<Patient> kopie = new ArrayList<>(alle);
         Collections.shuffle(kopie, zufall);
         List<Patient> auswahl = kopie.subList(0, stichprobe);
 
-        ExecutorService pool = (anzahlParallelerThreads <= 1) ? null : Executors.newFixedThreadPool(anzahlParallelerThreads);
+        // Virtuell: ein Thread je Aufruf, höchstens anzahlParallelerThreads gleichzeitig wie beim festen Pool
+        ExecutorService pool = (anzahlParallelerThreads <= 1) ? null
+                : virtuell ? VirtuelleThreads.jeAufgabe() : Executors.newFixedThreadPool(anzahlParallelerThreads);
+        Semaphore gleichzeitig = new Semaphore(anzahlParallelerThreads);
 
         long start = System.nanoTime();
         AtomicInteger ok = new AtomicInteger(0);
@@ -284,8 +451,7 @@ public class TestController {
                 for (Patient p : auswahl) {
                     long t0 = System.nanoTime();
                     try {
-                        Map<String, Object> fhir = fhirService.getPatientAlsFhir(p.getPatientenId());
-                        if (fhir != null) ok.incrementAndGet(); else fail.incrementAndGet();
+                        if (ladePatient(p.getPatientenId(), engine)) ok.incrementAndGet(); else fail.incrementAndGet();
                     } catch (Exception ex) {
                         fail.incrementAndGet();
                     } finally {
@@ -298,17 +464,20 @@ public class TestController {
             } else {
                 // parallel
                 for (Patient p : auswahl) {
+                    if (virtuell) {
+                        gleichzeitig.acquireUninterruptibly();
+                    }
                     futures.add(pool.submit(() -> {
                         long t0 = System.nanoTime();
                         try {
-                            Map<String, Object> fhir = fhirService.getPatientAlsFhir(p.getPatientenId());
-                            if (fhir != null) ok.incrementAndGet(); else fail.incrementAndGet();
+                            if (ladePatient(p.getPatientenId(), engine)) ok.incrementAndGet(); else fail.incrementAndGet();
                         } catch (Exception ex) {
                             fail.incrementAndGet();
                         } finally {
 
                                 long dt = Math.max(1L, System.nanoTime() - t0);
                                 einzelzeitenNs.add(dt);
+                                if (virtuell) gleichzeitig.release();
 
                         }
                         return null;
@@ -332,6 +501,14 @@ public class TestController {
         return r;
     }
 
+    // Ein gemessener Aufruf: nur Konvertierung (engine == null) oder bis zum fertigen JSON
+    private boolean ladePatient(Long patientId, AusgabeEngine engine) {
+        if (engine == null) {
+            return fhirService.getPatientAlsFhir(patientId) != null;
+        }
+        return fhirService.getPatientAlsJson(patientId, engine) != null;
+    }
+
     private static double durchschnitt(List<Long> ns) {
         if (ns == null || ns.isEmpty()) return Double.NaN;
         double summe = 0;
@@ -383,7 +560,14 @@ public class TestController {
 
                 Testdaten verwalten:
                 POST   /api/test/generiere/{anzahl}   - Testdaten erstellen (z. B. /generiere/50)
-                DELETE /api/test/loeschen             - ALLE Testdaten löschen
+                POST   /api/test/generiere-copy/{anzahl} - Große Mengen per COPY (z. B. /generiere-copy/1000000),
+                       liefert Zeilen/s je Tabelle. Parameter: seed (reproduzierbar), threads,
+                       faelle, befunde, berichte als Verteilung: gleich:1-3, zipf:1.2:500,
+                       lognormal:1.5:1.2:5000
+                DELETE /api/test/loeschen             - ALLE Testdaten löschen (Patienten mit Fällen, Befunden,
+                       Berichten, Verordnungen, Terminen). Parameter: modus=truncate (Standard,
+                       Ids wieder ab 1) oder delete (Zeilen je Tabelle, Lesezugriffe laufen weiter),
+                       stammdaten=true löscht auch Ärzte, Standorte, Einrichtungen, Medikamente
 
                 Legacy-Daten anzeigen:
                 GET    /api/test/letzte10Patienten    - Letzte 10 Patienten (Legacy-Format)
@@ -397,13 +581,24 @@ public class TestController {
                 GET    /fhir/stats                    - FHIR-Adapter Statistiken
 
                 Patient Resources (FHIR R4):
-                GET    /fhir/Patient                  - Alle Patienten als FHIR
+                GET    /fhir/Patient                  - Patienten als searchset Bundle
+                       Listen blättern über _count und den next-Link (_cursor = letzte Id)
                 GET    /fhir/Patient/{id}             - Einzelner Patient (z. B. /Patient/1)
+                       Einzelabrufe akzeptieren _engine=map|generator (Rendering-Engine)
                 GET    /fhir/Patient/{id}/Bundle      - Komplette Patientendaten als Bundle
-                GET    /fhir/Patient/{id}/exists      - Prüft, ob Patient existiert
+                GET    /fhir/Patient/{id}/exists      - Prüft, ob Patient existiert (aus dem Id-Index, ohne DB)
+                GET    /fhir/Patient/exists?_id=1,2,3 - Existenzprüfung für mehrere Patienten
+
+                Bulk-Export (NDJSON):
+                GET    /fhir/$export                  - Patient, Observation, DiagnosticReport als NDJSON
+                       Parameter: _type (z. B. Patient,Observation), ziel=datei für lokale Dateien
+                       Mit Header "Prefer: respond-async" asynchron: 202 + Content-Location
+                GET    /fhir/$export-status/{jobId}   - 202 mit X-Progress, fertig 200 mit Manifest
+                DELETE /fhir/$export-status/{jobId}   - Export abbrechen
+                GET    /fhir/$export-datei/{jobId}/{datei} - NDJSON-Datei aus dem Manifest
 
                 Practitioner Resources (Ärzte):
-                GET    /fhir/Practitioner             - Alle Ärzte als FHIR
+                GET    /fhir/Practitioner             - Ärzte als searchset Bundle
                 GET    /fhir/Practitioner/{id}        - Einzelner Arzt (z. B. /Practitioner/1)
 
                 Observation Resources (Befunde):
@@ -419,7 +614,12 @@ public class TestController {
                 GET    /api/test/fhir-test            - Grundfunktionen des FHIR-Adapters testen
                 GET    /api/test/vergleiche/{id}      - Legacy-Daten mit FHIR-Daten vergleichen
                 GET    /api/test/performance-tests    - Performance-Test als CSV
-                       Parameter: durchlaeufe, warmup, stichprobe, parallel, seed
+                       Parameter: durchlaeufe, warmup, stichprobe, parallel, seed,
+                       engine (map|generator, misst inkl. JSON-Serialisierung)
+                       modus=offen mit rate (Anfragen/s): feste Ankunftsrate, Latenzen per
+                       HdrHistogram inkl. Wartezeit (p50/p90/p99/p99.9/max als Zusatzspalten)
+                       threadart=virtuell (Java 21): virtuelle Threads statt festem Pool,
+                       gleiche Spalten, Dateiname perf_virtuell_...
 
                 DOKUMENTATION:
                 --------------------------------------------
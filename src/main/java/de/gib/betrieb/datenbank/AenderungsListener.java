@@ -0,0 +1,35 @@
+package de.gib.betrieb.datenbank;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * JPA Entity-Listener: meldet Änderungen, die über die Anwendung (JPA) laufen, als Spring-Event.
+ * Hibernate holt die Instanz über den SpringBeanContainer, daher funktioniert die Injection.
+ * Änderungen direkt per SQL an der Anwendung vorbei werden hier nicht gesehen.
+ */
+@Component
+public class AenderungsListener {
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    @PostPersist
+    public void angelegt(Object entitaet) {
+        publisher.publishEvent(new EntitaetGeaendertEvent(entitaet, EntitaetGeaendertEvent.Aenderung.ANGELEGT));
+    }
+
+    @PostUpdate
+    public void geaendert(Object entitaet) {
+        publisher.publishEvent(new EntitaetGeaendertEvent(entitaet, EntitaetGeaendertEvent.Aenderung.GEAENDERT));
+    }
+
+    @PostRemove
+    public void geloescht(Object entitaet) {
+        publisher.publishEvent(new EntitaetGeaendertEvent(entitaet, EntitaetGeaendertEvent.Aenderung.GELOESCHT));
+    }
+}
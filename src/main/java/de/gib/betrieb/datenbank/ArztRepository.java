@@ -1,7 +1,9 @@
 package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Arzt;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import java.util.List;
 
@@ -10,4 +12,16 @@ public interface ArztRepository extends JpaRepository<Arzt, Long> {
 
     List<Arzt> findByFachrichtung(String fachrichtung);
     List<Arzt> findByNachname(String nachname);
+
+    // Keyset-Paging für Searchset-Bundles
+    @Query("SELECT a FROM Arzt a WHERE a.arztId > ?1 ORDER BY a.arztId")
+    List<Arzt> findeSeiteNach(Long nachId, Limit limit);
+
+    // Prüfsumme über alle Zeilen (Anzahl + Summe der Zeilen-Hashes) für den Abgleich der Referenzdaten
+    @Query(value = "SELECT count(*) || ':' || coalesce(sum(hashtext(t::text)), 0) FROM arzt t", nativeQuery = true)
+    String pruefsumme();
+
+    // Zeilenschätzung des Planers (ohne Scan), -1 solange die Tabelle nie analysiert wurde
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = to_regclass('arzt')", nativeQuery = true)
+    Long geschaetzteAnzahl();
 }
@@ -0,0 +1,34 @@
+package de.gib.betrieb.datenbank;
+
+import de.gib.betrieb.adapter.Terminologie;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filter, Sortierung und Keyset-Position der Observation-Suche. null heißt jeweils: kein Filter.
+ * Der Zeitraum ist halboffen [ab, bis), Befunde ohne Zeitpunkt fallen bei einem Zeitfilter heraus
+ * und stehen bei Sortierung nach Datum in beiden Richtungen am Ende.
+ */
+public record BefundKriterien(Long patientId, Terminologie.Quellen codes, Terminologie.Quellen kategorien,
+                              LocalDateTime ab, LocalDateTime bis, Sortierung sortierung, Position nach) {
+
+    public enum Sortierung { ID, DATUM, DATUM_ABSTEIGEND }
+
+    /** Letzter Treffer der Vorseite; zeitpunkt nur bei Sortierung nach Datum (und auch dann ggf. null) */
+    public record Position(LocalDateTime zeitpunkt, long befundId) {}
+
+    /** Ein Code- oder Kategoriefilter, der auf keinen Legacy-Code passt, oder ein leerer Zeitraum */
+    public boolean trifftNichts() {
+        return (codes != null && codes.trifftNichts())
+                || (kategorien != null && kategorien.trifftNichts())
+                || (ab != null && bis != null && !ab.isBefore(bis));
+    }
+
+    public boolean mitZeitfilter() {
+        return ab != null || bis != null;
+    }
+
+    public BefundKriterien nach(Position position) {
+        return new BefundKriterien(patientId, codes, kategorien, ab, bis, sortierung, position);
+    }
+}
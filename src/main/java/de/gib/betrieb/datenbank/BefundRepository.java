@@ -1,13 +1,81 @@
 package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Befund;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
-public interface BefundRepository extends JpaRepository<Befund, Long> {
+public interface BefundRepository extends JpaRepository<Befund, Long>, BefundSucheRepository {
 
     List<Befund> findByBehandlungsfallFallId(Long fallId);
-    List<Befund> findByCode(String code);
+
+    // Patienten-Graph: alle Befunde eines Patienten in einem Select, sortiert wie die Einzelabfragen je Fall
+    @Query("SELECT b FROM Befund b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p "
+            + "WHERE p.patientenId = ?1 ORDER BY f.fallId, b.befundId")
+    List<Befund> ladeBefundeFuerPatient(Long patientenId);
+
+    // Wie ladeBefundeFuerPatient, zusätzlich mit Arzt: paralleler Bundle-Aufbau, die Entitäten verlassen den Lade-Thread
+    @Query("SELECT b FROM Befund b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p LEFT JOIN FETCH f.arzt "
+            + "WHERE p.patientenId = ?1 ORDER BY f.fallId, b.befundId")
+    List<Befund> ladeBefundeMitArztFuerPatient(Long patientenId);
+
+    // Keyset-Paging der Befunde eines Patienten über befund_id
+    @Query("SELECT b FROM Befund b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p "
+            + "WHERE p.patientenId = ?1 AND b.befundId > ?2 ORDER BY b.befundId")
+    List<Befund> findeSeiteFuerPatientNach(Long patientenId, Long nachId, Limit limit);
+
+    // Gesammelte Einzelabrufe: Fall, Patient und Arzt gleich mit, die Entitäten gehen an andere Threads
+    @Query("SELECT b FROM Befund b LEFT JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient LEFT JOIN FETCH f.arzt "
+            + "WHERE b.befundId IN ?1")
+    List<Befund> ladeMitFall(Collection<Long> ids);
+
+    // Trefferzahl für _summary=count
+    @Query("SELECT count(b) FROM Befund b WHERE b.behandlungsfall.patient.patientenId = ?1")
+    long zaehleFuerPatient(Long patientenId);
+
+    // Befunde mehrerer Fälle auf einmal (result-Listen einer Berichtsseite)
+    @Query("SELECT b FROM Befund b WHERE b.behandlungsfall.fallId IN ?1 ORDER BY b.befundId")
+    List<Befund> findeBefundeDerFaelle(Collection<Long> fallIds);
+
+    // Bulk-Export: Fall und Patient direkt mitladen, Arzt kommt aus den Referenzdaten
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT b FROM Befund b LEFT JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient "
+            + "ORDER BY b.befundId")
+    Stream<Befund> streameAlleBefunde();
+
+    // Partition für den asynchronen Export
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT b FROM Befund b LEFT JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient "
+            + "WHERE b.befundId BETWEEN ?1 AND ?2 ORDER BY b.befundId")
+    Stream<Befund> streameBefundeImBereich(Long vonId, Long bisId);
+
+    // Aufbau des BefundIndex: nur die Spalten, keine Entitäten
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "10000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new de.gib.betrieb.datenbank.BefundZeile(p.patientenId, b.befundId, f.fallId, b.code, b.zeitpunkt, "
+            + "b.wert, b.einheit) FROM Befund b JOIN b.behandlungsfall f JOIN f.patient p")
+    Stream<BefundZeile> streameIndexZeilen();
+
+    @Query("SELECT new de.gib.betrieb.datenbank.IdBereich(MIN(b.befundId), MAX(b.befundId)) FROM Befund b")
+    IdBereich ermittleIdBereich();
+
+    // Zeilenschätzung des Planers (ohne Scan), -1 solange die Tabelle nie analysiert wurde
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = to_regclass('befund')", nativeQuery = true)
+    Long geschaetzteAnzahl();
 }
@@ -0,0 +1,18 @@
+package de.gib.betrieb.datenbank;
+
+import de.gib.betrieb.model.Befund;
+
+import java.util.List;
+
+/**
+ * Dynamische Observation-Suche als Fragment von {@link BefundRepository}: die Kombination der Filter
+ * steht erst zur Laufzeit fest, deshalb wird die Abfrage gebaut statt per @Query deklariert.
+ */
+public interface BefundSucheRepository {
+
+    /** Bis zu limit Befunde ab kriterien.nach(), mit Fall und Patient */
+    List<Befund> suche(BefundKriterien kriterien, int limit);
+
+    /** Trefferzahl ohne Keyset-Position (_summary=count) */
+    long zaehle(BefundKriterien kriterien);
+}
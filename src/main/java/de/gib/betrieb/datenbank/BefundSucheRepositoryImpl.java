@@ -0,0 +1,148 @@
+package de.gib.betrieb.datenbank;
+
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.model.Befund;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Baut die Observation-Suche als eine JPQL-Abfrage über befund und behandlungsfall. Alle Filter laufen in
+ * der Datenbank; passende Indizes: (code, zeitpunkt, befund_id) für Code und Zeitraum,
+ * (fall_id, code, zeitpunkt) für die Suche innerhalb eines Patienten.
+ * Geblättert wird per Keyset auf (zeitpunkt, befund_id) bzw. befund_id, nie per OFFSET.
+ */
+class BefundSucheRepositoryImpl implements BefundSucheRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /** JPQL und benannte Parameter, getrennt vom EntityManager prüfbar */
+    record Abfrage(String jpql, Map<String, Object> parameter) {}
+
+    @Override
+    public List<Befund> suche(BefundKriterien kriterien, int limit) {
+        Abfrage abfrage = baue(kriterien, false);
+        TypedQuery<Befund> query = entityManager.createQuery(abfrage.jpql(), Befund.class);
+        abfrage.parameter().forEach(query::setParameter);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public long zaehle(BefundKriterien kriterien) {
+        Abfrage abfrage = baue(kriterien.nach(null), true);
+        TypedQuery<Long> query = entityManager.createQuery(abfrage.jpql(), Long.class);
+        abfrage.parameter().forEach(query::setParameter);
+        return query.getSingleResult();
+    }
+
+    static Abfrage baue(BefundKriterien k, boolean zaehlen) {
+        Map<String, Object> parameter = new LinkedHashMap<>();
+        List<String> bedingungen = new ArrayList<>();
+
+        if (k.patientId() != null) {
+            bedingungen.add("f.patient.patientenId = :patient");
+            parameter.put("patient", k.patientId());
+        }
+        if (k.codes() != null) {
+            bedingungen.add(codeBedingung(k.codes(), "code", parameter));
+        }
+        if (k.kategorien() != null) {
+            bedingungen.add(codeBedingung(k.kategorien(), "kategorie", parameter));
+        }
+        if (k.ab() != null) {
+            bedingungen.add("b.zeitpunkt >= :ab");
+            parameter.put("ab", k.ab());
+        }
+        if (k.bis() != null) {
+            bedingungen.add("b.zeitpunkt < :bis");
+            parameter.put("bis", k.bis());
+        }
+
+        boolean nachDatum = k.sortierung() != BefundKriterien.Sortierung.ID;
+        boolean absteigend = k.sortierung() == BefundKriterien.Sortierung.DATUM_ABSTEIGEND;
+        // Mit Zeitfilter gibt es keine Befunde ohne Zeitpunkt, die Sortierung entspricht dann genau dem Index
+        boolean ohneZeitpunktMoeglich = nachDatum && !k.mitZeitfilter();
+        if (k.nach() != null) {
+            bedingungen.add(keysetBedingung(k.nach(), nachDatum, absteigend, ohneZeitpunktMoeglich, parameter));
+        }
+
+        StringBuilder jpql = new StringBuilder(zaehlen
+                ? "SELECT count(b) FROM Befund b JOIN b.behandlungsfall f"
+                : "SELECT b FROM Befund b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p");
+        if (!bedingungen.isEmpty()) {
+            jpql.append(" WHERE ").append(String.join(" AND ", bedingungen));
+        }
+        if (!zaehlen) {
+            if (!nachDatum) {
+                jpql.append(" ORDER BY b.befundId");
+            } else {
+                String richtung = absteigend ? " DESC" : "";
+                jpql.append(" ORDER BY b.zeitpunkt").append(richtung)
+                        .append(ohneZeitpunktMoeglich ? " NULLS LAST" : "")
+                        .append(", b.befundId").append(richtung);
+            }
+        }
+        return new Abfrage(jpql.toString(), parameter);
+    }
+
+    // Die redundante Schranke auf zeitpunkt allein gibt dem Planer den Index-Range-Scan
+    private static String keysetBedingung(BefundKriterien.Position nach, boolean nachDatum, boolean absteigend,
+                                          boolean ohneZeitpunktMoeglich, Map<String, Object> parameter) {
+        parameter.put("nachId", nach.befundId());
+        String vergleich = absteigend ? "<" : ">";
+        if (!nachDatum) {
+            return "b.befundId > :nachId";
+        }
+        if (nach.zeitpunkt() == null) {
+            // Die Vorseite endete bereits bei den Befunden ohne Zeitpunkt
+            return "(b.zeitpunkt IS NULL AND b.befundId " + vergleich + " :nachId)";
+        }
+        parameter.put("nachZeit", nach.zeitpunkt());
+        String bedingung = "(b.zeitpunkt " + vergleich + "= :nachZeit AND (b.zeitpunkt " + vergleich
+                + " :nachZeit OR b.befundId " + vergleich + " :nachId))";
+        return ohneZeitpunktMoeglich ? "(" + bedingung + " OR b.zeitpunkt IS NULL)" : bedingung;
+    }
+
+    // Oder-Verknüpfung der Quellen, siehe Terminologie.Quellen
+    private static String codeBedingung(Terminologie.Quellen quellen, String name, Map<String, Object> parameter) {
+        List<String> zweige = new ArrayList<>();
+        if (!quellen.codes().isEmpty()) {
+            zweige.add("b.code IN :" + name);
+            parameter.put(name, List.copyOf(quellen.codes()));
+        }
+        for (int i = 0; i < quellen.praefixe().size(); i++) {
+            Terminologie.Praefix praefix = quellen.praefixe().get(i);
+            String p = name + "P" + i;
+            List<String> teile = new ArrayList<>();
+            if (praefix.praefix().isEmpty()) {
+                teile.add("b.code IS NOT NULL");
+            } else {
+                teile.add("b.code LIKE :" + p + " ESCAPE '!'");
+                parameter.put(p, like(praefix.praefix()));
+            }
+            if (!praefix.ausserCodes().isEmpty()) {
+                teile.add("b.code NOT IN :" + p + "C");
+                parameter.put(p + "C", List.copyOf(praefix.ausserCodes()));
+            }
+            for (int j = 0; j < praefix.ausserPraefixe().size(); j++) {
+                teile.add("b.code NOT LIKE :" + p + "A" + j + " ESCAPE '!'");
+                parameter.put(p + "A" + j, like(praefix.ausserPraefixe().get(j)));
+            }
+            zweige.add(teile.size() == 1 ? teile.get(0) : "(" + String.join(" AND ", teile) + ")");
+        }
+        if (quellen.ohneCode()) {
+            zweige.add("b.code IS NULL");
+        }
+        return "(" + String.join(" OR ", zweige) + ")";
+    }
+
+    static String like(String praefix) {
+        return praefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+}
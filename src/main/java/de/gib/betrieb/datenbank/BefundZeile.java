@@ -0,0 +1,9 @@
+package de.gib.betrieb.datenbank;
+
+import java.time.LocalDateTime;
+
+/**
+ * Die Spalten eines Befunds, die der BefundIndex hält, ohne Entität und Persistenzkontext.
+ */
+public record BefundZeile(Long patientId, Long befundId, Long fallId, String code, LocalDateTime zeitpunkt,
+                          String wert, String einheit) {}
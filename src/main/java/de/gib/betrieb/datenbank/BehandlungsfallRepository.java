@@ -15,4 +15,7 @@ public interface BehandlungsfallRepository extends JpaRepository<Behandlungsfall
     // Custom Query für komplexe Abfragen
     @Query("SELECT b FROM Behandlungsfall b WHERE b.patient.patientenId = ?1 AND b.art = ?2")
     List<Behandlungsfall> findeBehandlungsfaelleNachPatientUndArt(Long patientenId, String art);
+
+    @Query("SELECT new de.gib.betrieb.datenbank.IdBereich(MIN(b.fallId), MAX(b.fallId)) FROM Behandlungsfall b")
+    IdBereich ermittleIdBereich();
 }
@@ -1,9 +1,63 @@
 package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Bericht;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface BerichtRepository extends JpaRepository<Bericht, Long> {
+
+    // Patienten-Graph: alle Berichte eines Patienten in einem Select
+    @Query("SELECT b FROM Bericht b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p "
+            + "WHERE p.patientenId = ?1 ORDER BY f.fallId, b.berichtId")
+    List<Bericht> ladeBerichteFuerPatient(Long patientenId);
+
+    // Wie ladeBerichteFuerPatient, zusätzlich mit Arzt: paralleler Bundle-Aufbau, die Entitäten verlassen den Lade-Thread
+    @Query("SELECT b FROM Bericht b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p LEFT JOIN FETCH f.arzt "
+            + "WHERE p.patientenId = ?1 ORDER BY f.fallId, b.berichtId")
+    List<Bericht> ladeBerichteMitArztFuerPatient(Long patientenId);
+
+    // Keyset-Paging der Berichte eines Patienten über bericht_id
+    @Query("SELECT b FROM Bericht b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p "
+            + "WHERE p.patientenId = ?1 AND b.berichtId > ?2 ORDER BY b.berichtId")
+    List<Bericht> findeSeiteFuerPatientNach(Long patientenId, Long nachId, Limit limit);
+
+    // Gesammelte Einzelabrufe: Fall, Patient und Arzt gleich mit, die Entitäten gehen an andere Threads
+    @Query("SELECT b FROM Bericht b LEFT JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient LEFT JOIN FETCH f.arzt "
+            + "WHERE b.berichtId IN ?1")
+    List<Bericht> ladeMitFall(Collection<Long> ids);
+
+    // Trefferzahl für _summary=count
+    @Query("SELECT count(b) FROM Bericht b WHERE b.behandlungsfall.patient.patientenId = ?1")
+    long zaehleFuerPatient(Long patientenId);
+
+    // Bulk-Export: Fall und Patient direkt mitladen (Arzt kommt aus den Referenzdaten)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT b FROM Bericht b LEFT JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient "
+            + "ORDER BY b.berichtId")
+    Stream<Bericht> streameAlleBerichte();
+
+    // Partition für den asynchronen Export, geschnitten über die Fall-Id (Berichte eines Falls liegen zusammen)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT b FROM Bericht b JOIN FETCH b.behandlungsfall f LEFT JOIN FETCH f.patient "
+            + "WHERE f.fallId BETWEEN ?1 AND ?2 ORDER BY f.fallId, b.berichtId")
+    Stream<Bericht> streameBerichteImFallBereich(Long vonFallId, Long bisFallId);
+
+    // Zeilenschätzung des Planers (ohne Scan), -1 solange die Tabelle nie analysiert wurde
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = to_regclass('bericht')", nativeQuery = true)
+    Long geschaetzteAnzahl();
 }
@@ -2,8 +2,13 @@ package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Einrichtung;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface EinrichtungRepository extends JpaRepository<Einrichtung, Long> {
-}
\ No newline at end of file
+
+    // Prüfsumme über alle Zeilen (Anzahl + Summe der Zeilen-Hashes) für den Abgleich der Referenzdaten
+    @Query(value = "SELECT count(*) || ':' || coalesce(sum(hashtext(t::text)), 0) FROM einrichtung t", nativeQuery = true)
+    String pruefsumme();
+}
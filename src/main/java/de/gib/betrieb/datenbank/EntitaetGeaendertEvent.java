@@ -0,0 +1,14 @@
+package de.gib.betrieb.datenbank;
+
+/**
+ * Wird nach jedem Insert/Update/Delete einer beobachteten Entität veröffentlicht.
+ * Caches und Zähler hören darauf (nach dem Commit), um ihren Stand nachzuziehen.
+ */
+public record EntitaetGeaendertEvent(Object entitaet, Aenderung aenderung) {
+
+    public enum Aenderung { ANGELEGT, GEAENDERT, GELOESCHT }
+
+    public boolean betrifft(Class<?> typ) {
+        return typ.isInstance(entitaet);
+    }
+}
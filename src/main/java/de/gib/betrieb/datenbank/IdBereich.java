@@ -0,0 +1,12 @@
+package de.gib.betrieb.datenbank;
+
+/**
+ * Kleinste und größte Id einer Tabelle (beide null bei leerer Tabelle).
+ * Grundlage für die Partitionierung des asynchronen Exports.
+ */
+public record IdBereich(Long von, Long bis) {
+
+    public boolean istLeer() {
+        return von == null || bis == null;
+    }
+}
@@ -1,10 +1,15 @@
 package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Patient;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PatientRepository extends JpaRepository<Patient, Long> {
@@ -21,4 +26,39 @@ public interface PatientRepository extends JpaRepository<Patient, Long> {
     //Letzte 10 Patienten nach ID sortiert
     @Query("SELECT p FROM Patient p ORDER BY p.patientenId DESC LIMIT 10")
     List<Patient> findLetzteZehnPatienten();
-}
\ No newline at end of file
+
+    // Keyset-Paging für Searchset-Bundles: nächste Seite nach der letzten Id, ohne OFFSET
+    @Query("SELECT p FROM Patient p WHERE p.patientenId > ?1 ORDER BY p.patientenId")
+    List<Patient> findeSeiteNach(Long nachId, Limit limit);
+
+    // Server-seitiger Cursor für den Bulk-Export (Fetch-Size greift nur innerhalb einer Transaktion)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Patient p ORDER BY p.patientenId")
+    Stream<Patient> streameAllePatienten();
+
+    // Partition für den asynchronen Export
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Patient p WHERE p.patientenId BETWEEN ?1 AND ?2 ORDER BY p.patientenId")
+    Stream<Patient> streamePatientenImBereich(Long vonId, Long bisId);
+
+    // Nur die Ids, für den Aufbau des PatientIndex
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "10000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p.patientenId FROM Patient p")
+    Stream<Long> streameAlleIds();
+
+    @Query("SELECT new de.gib.betrieb.datenbank.IdBereich(MIN(p.patientenId), MAX(p.patientenId)) FROM Patient p")
+    IdBereich ermittleIdBereich();
+
+    // Zeilenschätzung des Planers (ohne Scan), -1 solange die Tabelle nie analysiert wurde
+    @Query(value = "SELECT CAST(reltuples AS bigint) FROM pg_class WHERE oid = to_regclass('patient')", nativeQuery = true)
+    Long geschaetzteAnzahl();
+}
@@ -2,8 +2,13 @@ package de.gib.betrieb.datenbank;
 
 import de.gib.betrieb.model.Standort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface StandortRepository extends JpaRepository<Standort, Long> {
+
+    // Prüfsumme über alle Zeilen (Anzahl + Summe der Zeilen-Hashes) für den Abgleich der Referenzdaten
+    @Query(value = "SELECT count(*) || ':' || coalesce(sum(hashtext(t::text)), 0) FROM standort t", nativeQuery = true)
+    String pruefsumme();
 }
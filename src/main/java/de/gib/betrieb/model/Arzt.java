@@ -1,10 +1,12 @@
 package de.gib.betrieb.model;
 
+import de.gib.betrieb.datenbank.AenderungsListener;
 import jakarta.persistence.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.util.List;
 
 @Entity
+@EntityListeners(AenderungsListener.class)
 @Table(name = "arzt")
 public class Arzt {
 
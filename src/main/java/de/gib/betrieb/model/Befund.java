@@ -1,11 +1,18 @@
 package de.gib.betrieb.model;
 
+import de.gib.betrieb.datenbank.AenderungsListener;
 import jakarta.persistence.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "befund")
+@EntityListeners(AenderungsListener.class)
+@Table(name = "befund", indexes = {
+        @Index(name = "idx_befund_fall", columnList = "fall_id"),
+        // Observation-Suche: Code und Zeitraum, bzw. Code/Kategorie und Zeitraum innerhalb der Fälle eines Patienten
+        @Index(name = "idx_befund_code_zeitpunkt", columnList = "code, zeitpunkt, befund_id"),
+        @Index(name = "idx_befund_fall_code_zeitpunkt", columnList = "fall_id, code, zeitpunkt")
+})
 public class Befund {
 
     @Id
@@ -1,12 +1,14 @@
 package de.gib.betrieb.model;
 
+import de.gib.betrieb.datenbank.AenderungsListener;
 import jakarta.persistence.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "behandlungsfall")
+@EntityListeners(AenderungsListener.class)
+@Table(name = "behandlungsfall", indexes = @Index(name = "idx_behandlungsfall_patient", columnList = "patienten_id"))
 public class Behandlungsfall {
 
     @Id
@@ -20,12 +22,13 @@ public class Behandlungsfall {
     @JsonIgnore
     private Patient patient;
 
-    @ManyToOne
+    // Arzt und Standort kommen für das Mapping aus den Referenzdaten, geladen wird nur bei Zugriff
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "arzt_id")
     @JsonIgnore
     private Arzt arzt;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "standort_id")
     @JsonIgnore
     private Standort standort;
@@ -1,11 +1,13 @@
 package de.gib.betrieb.model;
 
+import de.gib.betrieb.datenbank.AenderungsListener;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 @Entity
-@Table(name = "bericht")
+@EntityListeners(AenderungsListener.class)
+@Table(name = "bericht", indexes = @Index(name = "idx_bericht_fall", columnList = "fall_id"))
 public class Bericht {
 
     @Id
@@ -1,11 +1,13 @@
 package de.gib.betrieb.model;
 
+import de.gib.betrieb.datenbank.AenderungsListener;
 import jakarta.persistence.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDate;
 import java.util.List;
 
 @Entity
+@EntityListeners(AenderungsListener.class)
 @Table(name = "patient")
 public class Patient {
 
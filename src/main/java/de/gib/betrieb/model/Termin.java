@@ -5,7 +5,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "termin")
+@Table(name = "termin", indexes = @Index(name = "idx_termin_patient", columnList = "patienten_id"))
 public class Termin {
 
     @Id
@@ -5,7 +5,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "verordnung")
+@Table(name = "verordnung", indexes = @Index(name = "idx_verordnung_patient", columnList = "patienten_id"))
 public class Verordnung {
 
     @Id
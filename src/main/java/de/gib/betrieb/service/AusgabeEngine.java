@@ -0,0 +1,25 @@
+package de.gib.betrieb.service;
+
+/**
+ * Rendering-Engine für die JSON-Ausgabe.
+ * MAP baut den Map-Baum der Adapter und lässt Jackson ihn serialisieren,
+ * GENERATOR schreibt die Resource direkt in einen JsonGenerator.
+ * Beide liefern byte-identisches JSON, die Wahl per Request dient dem Lastvergleich.
+ */
+public enum AusgabeEngine {
+    MAP,
+    GENERATOR;
+
+    /** Liest den Request-Parameter (_engine=map|generator), ohne Angabe gilt der Standard */
+    public static AusgabeEngine aus(String wert, AusgabeEngine standard) {
+        if (wert == null || wert.isBlank()) {
+            return standard;
+        }
+        switch (wert.trim().toLowerCase()) {
+            case "map":       return MAP;
+            case "generator": return GENERATOR;
+            default:
+                throw new IllegalArgumentException("Unbekannte Engine: " + wert + " (erlaubt: map, generator)");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.BefundZuFhirAdapter;
+import de.gib.betrieb.adapter.Fragmente;
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.datenbank.BefundKriterien;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Die FHIR-Operationen Observation/$lastn und Observation/$stats, beantwortet aus dem {@link BefundIndex}:
+ * keine Datenbank, keine Entitäten, keine vollständige Konvertierung. Filter wie bei der Befundsuche
+ * (patient Pflicht, code, category, date); $stats zusätzlich duration in Stunden bis jetzt.
+ */
+@Service
+public class BefundAuswertung {
+
+    static final String STATISTIK_SYSTEM = "http://hl7.org/fhir/observation-statistics";
+
+    /** Unterstützte Werte von statistic, ohne Angabe gelten count, minimum, maximum und average */
+    static final List<String> STATISTIKEN = List.of("count", "totalcount", "minimum", "maximum", "average", "sum");
+    private static final List<String> STANDARD_STATISTIKEN = List.of("count", "minimum", "maximum", "average");
+
+    @Autowired
+    private BefundIndex befundIndex;
+
+    @Autowired
+    private BefundZuFhirAdapter befundAdapter;
+
+    @Autowired
+    private Terminologie terminologie;
+
+    /** searchset mit den letzten max Befunden je Code, neueste zuerst */
+    public Map<String, Object> lastn(BefundSuchparameter parameter, Integer max, String basisUrl, String selbstUrl) {
+        if (max != null && max < 1) {
+            throw new IllegalArgumentException("max muss mindestens 1 sein");
+        }
+        BefundKriterien kriterien = kriterien(parameter);
+        List<BefundZuFhirAdapter.Indexbefund> befunde = kriterien.trifftNichts() ? List.of()
+                : befundIndex.letzte(kriterien.patientId(), codeFilter(kriterien), kriterien.ab(), kriterien.bis(),
+                max != null ? max : 1);
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (BefundZuFhirAdapter.Indexbefund befund : befunde) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("fullUrl", basisUrl + "/Observation/" + befund.befundId());
+            entry.put("resource", befundAdapter.konvertiereAusIndex(befund));
+            entry.put("search", Map.of("mode", "match"));
+            entries.add(entry);
+        }
+
+        Map<String, Object> bundle = new LinkedHashMap<>();
+        bundle.put("resourceType", "Bundle");
+        bundle.put("id", UUID.randomUUID().toString());
+        bundle.put("type", "searchset");
+        bundle.put("total", entries.size());
+        bundle.put("link", List.of(Map.of("relation", "self", "url", selbstUrl)));
+        bundle.put("entry", entries);
+        return bundle;
+    }
+
+    /** Parameters mit einer statistics-Observation je Code, die Kennzahlen als component */
+    public Map<String, Object> stats(BefundSuchparameter parameter, Double dauerStunden, String statistik) {
+        List<String> statistiken = statistiken(statistik);
+        BefundKriterien kriterien = kriterien(parameter);
+        LocalDateTime ab = kriterien.ab();
+        if (dauerStunden != null) {
+            if (dauerStunden <= 0) {
+                throw new IllegalArgumentException("duration muss größer als 0 sein");
+            }
+            LocalDateTime seit = LocalDateTime.now().minusSeconds(Math.round(dauerStunden * 3600));
+            ab = ab == null || seit.isAfter(ab) ? seit : ab;
+        }
+        boolean leer = kriterien.trifftNichts() || (ab != null && kriterien.bis() != null && !ab.isBefore(kriterien.bis()));
+        List<BefundIndex.Kennzahlen> kennzahlen = leer ? List.of()
+                : befundIndex.kennzahlen(kriterien.patientId(), codeFilter(kriterien), ab, kriterien.bis());
+
+        List<Map<String, Object>> parameterListe = new ArrayList<>();
+        for (BefundIndex.Kennzahlen k : kennzahlen) {
+            Map<String, Object> eintrag = new LinkedHashMap<>();
+            eintrag.put("name", "statistics");
+            eintrag.put("resource", statistikObservation(kriterien.patientId(), k, statistiken));
+            parameterListe.add(eintrag);
+        }
+        Map<String, Object> ergebnis = new LinkedHashMap<>();
+        ergebnis.put("resourceType", "Parameters");
+        ergebnis.put("parameter", parameterListe);
+        return ergebnis;
+    }
+
+    private Map<String, Object> statistikObservation(long patientId, BefundIndex.Kennzahlen k, List<String> statistiken) {
+        Map<String, Object> observation = new LinkedHashMap<>();
+        observation.put("resourceType", "Observation");
+        observation.put("status", "final");
+        Terminologie.Konzept code = terminologie.uebersetze(Terminologie.BEFUND_CODE, k.code());
+        observation.put("code", Fragmente.codeableConcept(code, code.display()).wert());
+        observation.put("subject", Map.of("reference", "Patient/" + patientId));
+        Map<String, Object> zeitraum = new LinkedHashMap<>();
+        if (k.erster() != null) {
+            zeitraum.put("start", BefundZuFhirAdapter.fhirZeitpunkt(k.erster()));
+        }
+        if (k.letzter() != null) {
+            zeitraum.put("end", BefundZuFhirAdapter.fhirZeitpunkt(k.letzter()));
+        }
+        if (!zeitraum.isEmpty()) {
+            observation.put("effectivePeriod", zeitraum);
+        }
+
+        List<Map<String, Object>> komponenten = new ArrayList<>();
+        for (String s : statistiken) {
+            Map<String, Object> komponente = new LinkedHashMap<>();
+            switch (s) {
+                case "count" -> komponente.put("valueInteger", k.anzahlNumerisch());
+                case "totalcount" -> komponente.put("valueInteger", k.anzahl());
+                // Ohne numerische Werte gibt es kein Minimum, Maximum oder Mittel
+                case "minimum" -> wert(komponente, k, k.minimum());
+                case "maximum" -> wert(komponente, k, k.maximum());
+                case "average" -> wert(komponente, k, k.mittelwert());
+                case "sum" -> wert(komponente, k, k.summe());
+                default -> throw new IllegalStateException(s);
+            }
+            if (!komponente.isEmpty()) {
+                Map<String, Object> coding = new LinkedHashMap<>();
+                coding.put("system", STATISTIK_SYSTEM);
+                coding.put("code", s);
+                Map<String, Object> mitCode = new LinkedHashMap<>();
+                mitCode.put("code", Map.of("coding", List.of(coding)));
+                mitCode.putAll(komponente);
+                komponenten.add(mitCode);
+            }
+        }
+        observation.put("component", komponenten);
+        return observation;
+    }
+
+    private void wert(Map<String, Object> komponente, BefundIndex.Kennzahlen k, double wert) {
+        if (k.anzahlNumerisch() > 0) {
+            komponente.put("valueQuantity", befundAdapter.valueQuantity(wert, k.einheit()));
+        }
+    }
+
+    private BefundKriterien kriterien(BefundSuchparameter parameter) {
+        if (!befundIndex.bereit()) {
+            throw new IllegalStateException("Befund-Index ist nicht aufgebaut");
+        }
+        BefundKriterien kriterien = parameter.kriterien(terminologie);
+        if (kriterien.patientId() == null) {
+            throw new IllegalArgumentException("patient ist Pflicht");
+        }
+        return kriterien;
+    }
+
+    private static Predicate<String> codeFilter(BefundKriterien kriterien) {
+        return code -> (kriterien.codes() == null || kriterien.codes().passt(code))
+                && (kriterien.kategorien() == null || kriterien.kategorien().passt(code));
+    }
+
+    static List<String> statistiken(String statistik) {
+        if (statistik == null || statistik.isBlank()) {
+            return STANDARD_STATISTIKEN;
+        }
+        List<String> statistiken = Arrays.stream(statistik.split(","))
+                .map(s -> s.trim().toLowerCase(Locale.ROOT))
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .toList();
+        for (String s : statistiken) {
+            if (!STATISTIKEN.contains(s)) {
+                throw new IllegalArgumentException("Nicht unterstützte statistic '" + s + "', erwartet "
+                        + String.join(", ", STATISTIKEN));
+            }
+        }
+        return statistiken;
+    }
+}
@@ -0,0 +1,460 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.BefundZuFhirAdapter;
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.datenbank.BefundZeile;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Behandlungsfall;
+import de.gib.betrieb.model.Patient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Spaltenorientierter Index über befund für $lastn und $stats, je Patient eine Partition aus primitiven Arrays
+ * (befund_id, fall_id, Code-Ordinalzahl, Zeitpunkt in Epochensekunden, numerischer Wert, Einheit, Text).
+ * Innerhalb einer Partition sind die Zeilen nach Code, Zeitpunkt und Id sortiert: jeder Code ist ein
+ * zusammenhängender Bereich, der letzte Wert steht an dessen Ende, ein Zeitraum ist eine Binärsuche.
+ * <p>
+ * Partitionen sind unveränderlich; eine Änderung über JPA ersetzt die Partition des Patienten, Leser sehen
+ * immer einen vollständigen Stand und warten nie. Aufgebaut wird beim Start und in festen Abständen,
+ * nach Massenänderungen an JPA vorbei (COPY, TRUNCATE) sofort. Verschiebt eine Änderung einen Befund zu
+ * einem anderen Patienten, bleibt die alte Zeile bis zum nächsten Neuaufbau stehen.
+ */
+@Service
+public class BefundIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(BefundIndex.class);
+
+    // Zeitpunkt fehlt: sortiert vor allen anderen, fällt bei jedem Zeitfilter heraus
+    static final long OHNE_ZEITPUNKT = Long.MIN_VALUE;
+
+    // 8 + 8 + 4 + 8 + 8 + 4 + 4 Bytes je Zeile, für die Statistik
+    private static final int BYTES_JE_ZEILE = 44;
+
+    /** Kennzahlen der numerischen Werte eines Codes; einheit null, wenn die Werte verschiedene Einheiten haben */
+    public record Kennzahlen(String code, long anzahl, long anzahlNumerisch, double minimum, double maximum,
+                             double summe, String einheit, LocalDateTime erster, LocalDateTime letzter) {
+
+        public double mittelwert() {
+            return anzahlNumerisch > 0 ? summe / anzahlNumerisch : Double.NaN;
+        }
+    }
+
+    @Autowired
+    private BefundRepository befundRepository;
+
+    @Value("${fhir.befundindex.aktiv:true}")
+    private boolean aktiv = true;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // Nur wachsend; nicht numerische Werte sind in den Legacy-Daten wenige feste Texte ("Normal", "Erhöht")
+    private final Woerterbuch codes = new Woerterbuch();
+    private final Woerterbuch einheiten = new Woerterbuch();
+    private final Woerterbuch texte = new Woerterbuch();
+
+    // Schreiber (Events, Austausch beim Neuaufbau) nacheinander, Leser ohne Sperre
+    private final ReentrantLock schreibsperre = new ReentrantLock();
+    // Ein Neuaufbau nach dem anderen, sonst setzt der erste fertige waehrendAufbau des zweiten zurück
+    private final ReentrantLock aufbausperre = new ReentrantLock();
+    private volatile ConcurrentHashMap<Long, Partition> partitionen = new ConcurrentHashMap<>();
+    private volatile boolean aufgebaut;
+    private volatile Instant aufgebautAm;
+    private volatile long aufbauMillis;
+    private List<EntitaetGeaendertEvent> waehrendAufbau;
+
+    private final AtomicLong abfragen = new AtomicLong();
+    private final AtomicLong aenderungen = new AtomicLong();
+
+    public boolean bereit() {
+        return aktiv && aufgebaut;
+    }
+
+    /**
+     * Liest alle Befunde als Spalten neu ein; bis zum Austausch wird aus dem alten Stand geantwortet.
+     * Überschneiden sich Zeitplan und Massenänderung, wartet der zweite Aufruf.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${fhir.befundindex.neuaufbau:10m}",
+            initialDelayString = "${fhir.befundindex.neuaufbau:10m}")
+    @Transactional(readOnly = true)
+    public void neuAufbauen() {
+        if (!aktiv) {
+            return;
+        }
+        aufbausperre.lock();
+        ConcurrentHashMap<Long, Partition> neu;
+        try {
+            long start = System.nanoTime();
+            schreibend(() -> waehrendAufbau = new ArrayList<>());
+
+            Map<Long, Bauer> bauer = new HashMap<>();
+            try (Stream<BefundZeile> zeilen = befundRepository.streameIndexZeilen()) {
+                zeilen.forEach(z -> bauer.computeIfAbsent(z.patientId(), id -> new Bauer()).hinzu(spalten(z)));
+            }
+            neu = new ConcurrentHashMap<>(Math.max(16, bauer.size() * 4 / 3));
+            bauer.forEach((id, b) -> neu.put(id, b.baue()));
+
+            schreibend(() -> {
+                waehrendAufbau.forEach(e -> uebernehme(neu, e));
+                partitionen = neu;
+                aufgebaut = true;
+                aufgebautAm = Instant.now();
+                aufbauMillis = (System.nanoTime() - start) / 1_000_000;
+            });
+        } finally {
+            schreibend(() -> waehrendAufbau = null);
+            aufbausperre.unlock();
+        }
+        log.info("Befund-Index: {} Zeilen von {} Patienten in {} ms", zeilen(), neu.size(), aufbauMillis);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void entitaetGeaendert(EntitaetGeaendertEvent event) {
+        if (!aktiv || !(event.betrifft(Befund.class) || event.betrifft(Patient.class))) {
+            return;
+        }
+        schreibend(() -> {
+            uebernehme(partitionen, event);
+            if (waehrendAufbau != null) {
+                waehrendAufbau.add(event);
+            }
+        });
+        aenderungen.incrementAndGet();
+    }
+
+    /**
+     * Die letzten max Befunde je Code eines Patienten, neueste zuerst, Codes alphabetisch.
+     * ab/bis grenzen den Zeitpunkt ein (halboffen, null = offen).
+     */
+    public List<BefundZuFhirAdapter.Indexbefund> letzte(long patientId, Predicate<String> codeFilter,
+                                                         LocalDateTime ab, LocalDateTime bis, int max) {
+        abfragen.incrementAndGet();
+        Partition p = partitionen.get(patientId);
+        if (p == null) {
+            return List.of();
+        }
+        List<BefundZuFhirAdapter.Indexbefund> ergebnis = new ArrayList<>();
+        for (int[] bereich : bereiche(p, codeFilter, ab, bis)) {
+            for (int i = bereich[1] - 1; i >= bereich[0] && i >= bereich[1] - max; i--) {
+                ergebnis.add(zeile(p, patientId, i));
+            }
+        }
+        return ergebnis;
+    }
+
+    /** Anzahl, Minimum, Maximum und Summe der Werte je Code eines Patienten im Zeitraum [ab, bis) */
+    public List<Kennzahlen> kennzahlen(long patientId, Predicate<String> codeFilter, LocalDateTime ab, LocalDateTime bis) {
+        abfragen.incrementAndGet();
+        Partition p = partitionen.get(patientId);
+        if (p == null) {
+            return List.of();
+        }
+        List<Kennzahlen> ergebnis = new ArrayList<>();
+        for (int[] bereich : bereiche(p, codeFilter, ab, bis)) {
+            long numerisch = 0;
+            double minimum = Double.POSITIVE_INFINITY;
+            double maximum = Double.NEGATIVE_INFINITY;
+            double summe = 0;
+            int einheit = -2;
+            for (int i = bereich[0]; i < bereich[1]; i++) {
+                double wert = p.werte[i];
+                if (Double.isNaN(wert)) {
+                    continue;
+                }
+                numerisch++;
+                minimum = Math.min(minimum, wert);
+                maximum = Math.max(maximum, wert);
+                summe += wert;
+                einheit = einheit == -2 || einheit == p.einheiten[i] ? p.einheiten[i] : -3;
+            }
+            ergebnis.add(new Kennzahlen(codes.wert(p.codes[bereich[0]]), bereich[1] - bereich[0], numerisch,
+                    minimum, maximum, summe, einheit >= 0 ? einheiten.wert(einheit) : null,
+                    zeitpunkt(p.zeiten[bereich[0]]), zeitpunkt(p.zeiten[bereich[1] - 1])));
+        }
+        return ergebnis;
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Map<Long, Partition> aktuell = partitionen;
+        long zeilen = zeilen();
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("aufgebaut", aufgebaut);
+        statistik.put("patienten", aktuell.size());
+        statistik.put("zeilen", zeilen);
+        statistik.put("bytes", zeilen * BYTES_JE_ZEILE);
+        statistik.put("codes", codes.groesse());
+        statistik.put("einheiten", einheiten.groesse());
+        statistik.put("texte", texte.groesse());
+        statistik.put("aufgebautAm", aufgebautAm != null ? aufgebautAm.toString() : null);
+        statistik.put("aufbauMillis", aufbauMillis);
+        statistik.put("abfragen", abfragen.get());
+        statistik.put("aenderungen", aenderungen.get());
+        return statistik;
+    }
+
+    private long zeilen() {
+        return partitionen.values().stream().mapToLong(p -> p.befundIds.length).sum();
+    }
+
+    // [von, bis) je passendem Code, Codes alphabetisch; ohne Zeitfilter mit den Zeilen ohne Zeitpunkt
+    private List<int[]> bereiche(Partition p, Predicate<String> codeFilter, LocalDateTime ab, LocalDateTime bis) {
+        long abSekunde = ab != null ? sekunde(ab) : OHNE_ZEITPUNKT + 1;
+        long bisSekunde = bis != null ? sekunde(bis) : Long.MAX_VALUE;
+        boolean ohneZeitfilter = ab == null && bis == null;
+
+        List<int[]> bereiche = new ArrayList<>();
+        int start = 0;
+        while (start < p.codes.length) {
+            int ende = start + 1;
+            while (ende < p.codes.length && p.codes[ende] == p.codes[start]) {
+                ende++;
+            }
+            if (codeFilter.test(codes.wert(p.codes[start]))) {
+                int von = ohneZeitfilter ? start : erstesAb(p.zeiten, start, ende, abSekunde);
+                int bisIndex = ohneZeitfilter ? ende : erstesAb(p.zeiten, von, ende, bisSekunde);
+                if (von < bisIndex) {
+                    bereiche.add(new int[]{von, bisIndex});
+                }
+            }
+            start = ende;
+        }
+        bereiche.sort(Comparator.comparing(b -> codes.wert(p.codes[b[0]]), Comparator.nullsFirst(Comparator.naturalOrder())));
+        return bereiche;
+    }
+
+    // Erster Index in [von, bis) mit zeiten[i] >= sekunde
+    private static int erstesAb(long[] zeiten, int von, int bis, long sekunde) {
+        int lo = von;
+        int hi = bis;
+        while (lo < hi) {
+            int mitte = (lo + hi) >>> 1;
+            if (zeiten[mitte] < sekunde) {
+                lo = mitte + 1;
+            } else {
+                hi = mitte;
+            }
+        }
+        return lo;
+    }
+
+    private BefundZuFhirAdapter.Indexbefund zeile(Partition p, long patientId, int i) {
+        return new BefundZuFhirAdapter.Indexbefund(p.befundIds[i], p.fallIds[i], patientId, codes.wert(p.codes[i]),
+                zeitpunkt(p.zeiten[i]), p.werte[i], texte.wert(p.texte[i]), einheiten.wert(p.einheiten[i]));
+    }
+
+    private void uebernehme(Map<Long, Partition> ziel, EntitaetGeaendertEvent event) {
+        if (event.entitaet() instanceof Patient patient) {
+            if (event.aenderung() == EntitaetGeaendertEvent.Aenderung.GELOESCHT && patient.getPatientenId() != null) {
+                ziel.remove(patient.getPatientenId());
+            }
+            return;
+        }
+        Befund befund = (Befund) event.entitaet();
+        Behandlungsfall fall = befund.getBehandlungsfall();
+        if (befund.getBefundId() == null || fall == null || fall.getPatient() == null
+                || fall.getPatient().getPatientenId() == null) {
+            return;
+        }
+        long befundId = befund.getBefundId();
+        boolean geloescht = event.aenderung() == EntitaetGeaendertEvent.Aenderung.GELOESCHT;
+        long[] spalten = geloescht ? null : spalten(new BefundZeile(fall.getPatient().getPatientenId(), befundId,
+                fall.getFallId(), befund.getCode(), befund.getZeitpunkt(), befund.getWert(), befund.getEinheit()));
+        ziel.compute(fall.getPatient().getPatientenId(), (id, alt) -> {
+            Bauer bauer = new Bauer();
+            if (alt != null) {
+                bauer.uebernimm(alt, befundId);
+            }
+            if (spalten != null) {
+                bauer.hinzu(spalten);
+            }
+            return bauer.groesse == 0 ? null : bauer.baue();
+        });
+    }
+
+    // Eine Zeile als long-Werte in Spaltenreihenfolge; der Wert als Bitmuster des double
+    private long[] spalten(BefundZeile z) {
+        Double wert = z.wert() != null ? BefundZuFhirAdapter.parseNumerischenWert(z.wert()) : null;
+        return new long[]{
+                z.befundId(),
+                z.fallId() != null ? z.fallId() : 0L,
+                codes.ordinal(z.code()),
+                z.zeitpunkt() != null ? sekunde(z.zeitpunkt()) : OHNE_ZEITPUNKT,
+                Double.doubleToRawLongBits(wert != null ? wert : Double.NaN),
+                einheiten.ordinal(z.einheit()),
+                wert == null ? texte.ordinal(z.wert()) : -1
+        };
+    }
+
+    private long sekunde(LocalDateTime zeitpunkt) {
+        return zeitpunkt.atZone(zone).toEpochSecond();
+    }
+
+    private LocalDateTime zeitpunkt(long sekunde) {
+        return sekunde == OHNE_ZEITPUNKT ? null : LocalDateTime.ofInstant(Instant.ofEpochSecond(sekunde), zone);
+    }
+
+    private void schreibend(Runnable aktion) {
+        schreibsperre.lock();
+        try {
+            aktion.run();
+        } finally {
+            schreibsperre.unlock();
+        }
+    }
+
+    /** Unveränderliche Zeilen eines Patienten, sortiert nach Code, Zeitpunkt, befund_id */
+    static final class Partition {
+        final long[] befundIds;
+        final long[] fallIds;
+        final int[] codes;
+        final long[] zeiten;
+        final double[] werte;
+        final int[] einheiten;
+        final int[] texte;
+
+        private Partition(int n) {
+            befundIds = new long[n];
+            fallIds = new long[n];
+            codes = new int[n];
+            zeiten = new long[n];
+            werte = new double[n];
+            einheiten = new int[n];
+            texte = new int[n];
+        }
+    }
+
+    /** Sammelt Zeilen eines Patienten in wachsenden Arrays und sortiert beim Bauen */
+    static final class Bauer {
+        private long[] befundIds = new long[8];
+        private long[] fallIds = new long[8];
+        private int[] codes = new int[8];
+        private long[] zeiten = new long[8];
+        private double[] werte = new double[8];
+        private int[] einheiten = new int[8];
+        private int[] texte = new int[8];
+        private int groesse;
+
+        void hinzu(long[] s) {
+            hinzu(s[0], s[1], (int) s[2], s[3], Double.longBitsToDouble(s[4]), (int) s[5], (int) s[6]);
+        }
+
+        // Alle Zeilen von p außer befundId
+        void uebernimm(Partition p, long ohneBefundId) {
+            for (int i = 0; i < p.befundIds.length; i++) {
+                if (p.befundIds[i] != ohneBefundId) {
+                    hinzu(p.befundIds[i], p.fallIds[i], p.codes[i], p.zeiten[i], p.werte[i], p.einheiten[i], p.texte[i]);
+                }
+            }
+        }
+
+        private void hinzu(long befundId, long fallId, int code, long zeit, double wert, int einheit, int text) {
+            if (groesse == befundIds.length) {
+                int n = groesse * 2;
+                befundIds = Arrays.copyOf(befundIds, n);
+                fallIds = Arrays.copyOf(fallIds, n);
+                codes = Arrays.copyOf(codes, n);
+                zeiten = Arrays.copyOf(zeiten, n);
+                werte = Arrays.copyOf(werte, n);
+                einheiten = Arrays.copyOf(einheiten, n);
+                texte = Arrays.copyOf(texte, n);
+            }
+            befundIds[groesse] = befundId;
+            fallIds[groesse] = fallId;
+            codes[groesse] = code;
+            zeiten[groesse] = zeit;
+            werte[groesse] = wert;
+            einheiten[groesse] = einheit;
+            texte[groesse] = text;
+            groesse++;
+        }
+
+        Partition baue() {
+            Integer[] reihenfolge = new Integer[groesse];
+            for (int i = 0; i < groesse; i++) {
+                reihenfolge[i] = i;
+            }
+            Arrays.sort(reihenfolge, Comparator.<Integer>comparingInt(i -> codes[i])
+                    .thenComparingLong(i -> zeiten[i])
+                    .thenComparingLong(i -> befundIds[i]));
+            Partition p = new Partition(groesse);
+            for (int j = 0; j < groesse; j++) {
+                int i = reihenfolge[j];
+                p.befundIds[j] = befundIds[i];
+                p.fallIds[j] = fallIds[i];
+                p.codes[j] = codes[i];
+                p.zeiten[j] = zeiten[i];
+                p.werte[j] = werte[i];
+                p.einheiten[j] = einheiten[i];
+                p.texte[j] = texte[i];
+            }
+            return p;
+        }
+    }
+
+    /** Zeichenketten als Ordinalzahl; null ist -1. Nur wachsend, Leser ohne Sperre */
+    static final class Woerterbuch {
+        private final Map<String, Integer> ordinale = new ConcurrentHashMap<>();
+        private volatile String[] werte = new String[16];
+        private int anzahl;
+
+        int ordinal(String wert) {
+            if (wert == null) {
+                return -1;
+            }
+            Integer ordinal = ordinale.get(wert);
+            return ordinal != null ? ordinal : neu(wert);
+        }
+
+        String wert(int ordinal) {
+            return ordinal < 0 ? null : werte[ordinal];
+        }
+
+        int groesse() {
+            return ordinale.size();
+        }
+
+        // Eintrag vor der Ordinalzahl veröffentlichen: wer die Zahl sieht, findet auch den Text
+        private synchronized int neu(String wert) {
+            Integer ordinal = ordinale.get(wert);
+            if (ordinal != null) {
+                return ordinal;
+            }
+            String[] aktuell = werte;
+            if (anzahl == aktuell.length) {
+                aktuell = Arrays.copyOf(aktuell, anzahl * 2);
+            }
+            aktuell[anzahl] = wert;
+            werte = aktuell;
+            ordinale.put(wert, anzahl);
+            return anzahl++;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.datenbank.BefundKriterien;
+import de.gib.betrieb.model.Befund;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Suchparameter von GET /fhir/Observation, so wie sie in der URL stehen.
+ * <ul>
+ *   <li>patient: 123 oder Patient/123</li>
+ *   <li>code, category: [system|]code, mehrere kommagetrennt (oder); werden über die Terminologie auf
+ *       die Legacy-Codes zurückgeführt</li>
+ *   <li>date: [eq|ge|gt|le|lt]JJJJ[-MM[-TT[Thh:mm:ss[.s][Zone]]]], mehrfach (und); ohne Zone Serverzeit</li>
+ *   <li>_sort: _id (Standard), date oder -date</li>
+ * </ul>
+ * Ungültige Werte führen zu IllegalArgumentException.
+ */
+public record BefundSuchparameter(String patient, String code, String kategorie, List<String> datum,
+                                  String sortierung, String cursor) {
+
+    private static final Pattern DATUM = Pattern.compile("(eq|ge|gt|le|lt)?(\\d{4}(-\\d{2}(-\\d{2}(T.+)?)?)?)");
+
+    /** Zeitraum eines Datumswerts in seiner Genauigkeit, halboffen [von, bis) */
+    record Zeitraum(LocalDateTime von, LocalDateTime bis) {}
+
+    public BefundKriterien kriterien(Terminologie terminologie) {
+        LocalDateTime ab = null;
+        LocalDateTime bis = null;
+        if (datum != null) {
+            for (String wert : datum) {
+                if (wert == null || wert.isBlank()) {
+                    continue;
+                }
+                // Ein unkodiertes + der Zeitzone kommt als Leerzeichen an
+                Matcher m = DATUM.matcher(wert.trim().replace(' ', '+'));
+                if (!m.matches()) {
+                    throw new IllegalArgumentException("Ungültiger date-Parameter '" + wert + "'");
+                }
+                Zeitraum z = zeitraum(m.group(2));
+                // gt/le beziehen sich auf das Ende des angegebenen Zeitraums: le2025-03-31 schließt den ganzen Tag ein
+                switch (m.group(1) == null ? "eq" : m.group(1)) {
+                    case "eq" -> {
+                        ab = spaeter(ab, z.von());
+                        bis = frueher(bis, z.bis());
+                    }
+                    case "ge" -> ab = spaeter(ab, z.von());
+                    case "gt" -> ab = spaeter(ab, z.bis());
+                    case "le" -> bis = frueher(bis, z.bis());
+                    case "lt" -> bis = frueher(bis, z.von());
+                    default -> throw new IllegalStateException();
+                }
+            }
+        }
+        BefundKriterien.Sortierung sort = sortierungsart();
+        return new BefundKriterien(patientId(),
+                quellen(terminologie, Terminologie.BEFUND_CODE, code),
+                quellen(terminologie, Terminologie.BEFUND_KATEGORIE, kategorie),
+                ab, bis, sort, position(sort));
+    }
+
+    /** Cursor für die Folgeseite nach befund, passend zur Sortierung */
+    public String cursorNach(Befund befund) {
+        if (sortierungsart() == BefundKriterien.Sortierung.ID) {
+            return befund.getBefundId().toString();
+        }
+        LocalDateTime zeitpunkt = befund.getZeitpunkt();
+        return (zeitpunkt != null ? zeitpunkt.toString() : "") + "," + befund.getBefundId();
+    }
+
+    /** Die Filter als Query-Teil "&name=wert..." für die Seitenlinks, ohne _count und _cursor */
+    public String alsQuery() {
+        StringBuilder query = new StringBuilder();
+        anhaengen(query, "patient", patient);
+        anhaengen(query, "code", code);
+        anhaengen(query, "category", kategorie);
+        if (datum != null) {
+            datum.forEach(d -> anhaengen(query, "date", d));
+        }
+        anhaengen(query, "_sort", sortierung);
+        return query.toString();
+    }
+
+    BefundKriterien.Sortierung sortierungsart() {
+        if (sortierung == null || sortierung.isBlank() || sortierung.equals("_id")) {
+            return BefundKriterien.Sortierung.ID;
+        }
+        return switch (sortierung.trim()) {
+            case "date" -> BefundKriterien.Sortierung.DATUM;
+            case "-date" -> BefundKriterien.Sortierung.DATUM_ABSTEIGEND;
+            default -> throw new IllegalArgumentException(
+                    "Ungültiges _sort '" + sortierung + "', erwartet _id, date oder -date");
+        };
+    }
+
+    private Long patientId() {
+        if (patient == null || patient.isBlank()) {
+            return null;
+        }
+        String id = patient.trim();
+        if (id.startsWith("Patient/")) {
+            id = id.substring("Patient/".length());
+        }
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Ungültiger patient-Parameter '" + patient + "'");
+        }
+    }
+
+    private BefundKriterien.Position position(BefundKriterien.Sortierung sort) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            if (sort == BefundKriterien.Sortierung.ID) {
+                return new BefundKriterien.Position(null, Long.parseLong(cursor.trim()));
+            }
+            int komma = cursor.lastIndexOf(',');
+            if (komma < 0) {
+                throw new IllegalArgumentException("Ungültiger _cursor '" + cursor + "' für _sort=" + sortierung);
+            }
+            String zeitpunkt = cursor.substring(0, komma).trim();
+            return new BefundKriterien.Position(zeitpunkt.isEmpty() ? null : LocalDateTime.parse(zeitpunkt),
+                    Long.parseLong(cursor.substring(komma + 1).trim()));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Ungültiger _cursor '" + cursor + "'");
+        }
+    }
+
+    // Kommagetrennte Werte: ein Befund passt, wenn er auf einen davon abgebildet wird
+    private static Terminologie.Quellen quellen(Terminologie terminologie, String map, String werte) {
+        if (werte == null || werte.isBlank()) {
+            return null;
+        }
+        Terminologie.Quellen quellen = Terminologie.Quellen.KEINE;
+        for (String wert : werte.split(",")) {
+            String token = wert.trim();
+            String system = null;
+            int trenner = token.indexOf('|');
+            if (trenner >= 0) {
+                system = trenner > 0 ? token.substring(0, trenner) : null;
+                token = token.substring(trenner + 1);
+            }
+            if (!token.isEmpty()) {
+                quellen = quellen.oder(terminologie.quellen(map, system, token));
+            }
+        }
+        return quellen;
+    }
+
+    static Zeitraum zeitraum(String wert) {
+        try {
+            if (wert.length() == 4) {
+                LocalDateTime von = LocalDate.of(Integer.parseInt(wert), 1, 1).atStartOfDay();
+                return new Zeitraum(von, von.plusYears(1));
+            }
+            if (wert.length() == 7) {
+                LocalDateTime von = YearMonth.parse(wert).atDay(1).atStartOfDay();
+                return new Zeitraum(von, von.plusMonths(1));
+            }
+            if (wert.length() == 10) {
+                LocalDateTime von = LocalDate.parse(wert).atStartOfDay();
+                return new Zeitraum(von, von.plusDays(1));
+            }
+            // Zeitpunkte werden in Serverzeit gespeichert (wie im Adapter ausgegeben)
+            boolean mitZone = wert.endsWith("Z") || wert.substring(10).matches(".*[+-]\\d{2}:\\d{2}$");
+            LocalDateTime von = mitZone
+                    ? OffsetDateTime.parse(wert).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime()
+                    : LocalDateTime.parse(wert);
+            boolean mitBruchteil = wert.indexOf('.', 10) > 0;
+            return new Zeitraum(von, mitBruchteil ? von.plusNanos(1) : von.plusSeconds(1));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Ungültiges Datum '" + wert + "'");
+        }
+    }
+
+    private static LocalDateTime spaeter(LocalDateTime a, LocalDateTime b) {
+        return a == null || b.isAfter(a) ? b : a;
+    }
+
+    private static LocalDateTime frueher(LocalDateTime a, LocalDateTime b) {
+        return a == null || b.isBefore(a) ? b : a;
+    }
+
+    private static void anhaengen(StringBuilder query, String name, String wert) {
+        if (wert != null && !wert.isBlank()) {
+            query.append('&').append(name).append('=')
+                    .append(URLEncoder.encode(wert.trim(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.*;
+import de.gib.betrieb.model.*;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Zeilenzahlen für /fhir/stats ohne COUNT(*) pro Aufruf.
+ * Jede Tabelle hat einen Zähler, den die JPA-Events (Anlegen/Löschen) nach dem Commit fortschreiben.
+ * In festen Abständen wird er gegen die Datenbank abgeglichen: exakt per COUNT(*) oder, im Modus
+ * "schaetzung", über pg_class.reltuples ohne Tabellenscan. Jeder Wert trägt seine Herkunft und sein Alter.
+ * Die Werte sind nur letztlich konsistent: Commits, die während eines Abgleichs laufen, können bis zum
+ * nächsten Abgleich doppelt oder gar nicht mitgezählt sein.
+ */
+@Service
+public class BestandsStatistik {
+
+    public enum Art { EXAKT, SCHAETZUNG }
+
+    static final class Zaehler {
+        private final String tabelle;
+        private final LongSupplier exakt;
+        private final Supplier<Long> geschaetzt;
+
+        // Wert beim letzten Abgleich plus die seitdem über JPA gemeldeten Änderungen
+        private volatile long basis;
+        private final AtomicLong aenderungen = new AtomicLong();
+        private volatile Art art;
+        private volatile Instant stand;
+
+        Zaehler(String tabelle, LongSupplier exakt, Supplier<Long> geschaetzt) {
+            this.tabelle = tabelle;
+            this.exakt = exakt;
+            this.geschaetzt = geschaetzt;
+        }
+
+        long wert() {
+            return basis + aenderungen.get();
+        }
+    }
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private ArztRepository arztRepository;
+
+    @Autowired
+    private BefundRepository befundRepository;
+
+    @Autowired
+    private BerichtRepository berichtRepository;
+
+    // exakt = COUNT(*), schaetzung = pg_class.reltuples (ohne Scan, Stand des letzten ANALYZE)
+    @Value("${fhir.statistik.modus:exakt}")
+    private String modus = "exakt";
+
+    private final Map<Class<?>, Zaehler> zaehler = new LinkedHashMap<>();
+
+    @PostConstruct
+    void init() {
+        zaehler.put(Patient.class, new Zaehler("patient", patientRepository::count, patientRepository::geschaetzteAnzahl));
+        zaehler.put(Arzt.class, new Zaehler("arzt", arztRepository::count, arztRepository::geschaetzteAnzahl));
+        zaehler.put(Befund.class, new Zaehler("befund", befundRepository::count, befundRepository::geschaetzteAnzahl));
+        zaehler.put(Bericht.class, new Zaehler("bericht", berichtRepository::count, berichtRepository::geschaetzteAnzahl));
+    }
+
+    /** Gleicht alle Zähler mit der Datenbank ab (beim Start und dann alle fhir.statistik.abgleich) */
+    @Scheduled(fixedDelayString = "${fhir.statistik.abgleich:5m}")
+    public void abgleichen() {
+        for (Zaehler z : zaehler.values()) {
+            abgleichen(z);
+        }
+    }
+
+    private void abgleichen(Zaehler z) {
+        synchronized (z) {
+            // Die bis hier gemeldeten Änderungen sind committed und stecken im Ergebnis der Abfrage, sie werden
+            // danach abgezogen. Was später gemeldet wird, bleibt stehen; ein Commit zwischen diesem Stand und
+            // dem Snapshot der Abfrage zählt damit bis zum nächsten Abgleich doppelt.
+            long vorher = z.aenderungen.get();
+
+            Art art = Art.EXAKT;
+            long wert = -1;
+            if ("schaetzung".equalsIgnoreCase(modus)) {
+                Long geschaetzt = z.geschaetzt.get();
+                if (geschaetzt != null && geschaetzt >= 0) {
+                    wert = geschaetzt;
+                    art = Art.SCHAETZUNG;
+                }
+            }
+            // Nie analysierte Tabellen haben keine Schätzung (-1), dann doch zählen
+            if (wert < 0) {
+                wert = z.exakt.getAsLong();
+            }
+
+            z.basis = wert;
+            z.aenderungen.addAndGet(-vorher);
+            z.art = art;
+            z.stand = Instant.now();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void entitaetGeaendert(EntitaetGeaendertEvent event) {
+        Zaehler z = zaehler.entrySet().stream()
+                .filter(e -> event.betrifft(e.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(null);
+        if (z == null) {
+            return;
+        }
+        switch (event.aenderung()) {
+            case ANGELEGT -> z.aenderungen.incrementAndGet();
+            case GELOESCHT -> z.aenderungen.decrementAndGet();
+            default -> { }
+        }
+    }
+
+    /** Aktueller Wert einer Tabelle, vor dem ersten Abgleich wird sofort abgeglichen */
+    public long anzahl(Class<?> entitaet) {
+        Zaehler z = zaehler.get(entitaet);
+        if (z.stand == null) {
+            abgleichen(z);
+        }
+        return z.wert();
+    }
+
+    /** Wert, Herkunft und Alter je Tabelle für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, Zaehler> e : zaehler.entrySet()) {
+            Zaehler z = e.getValue();
+            long wert = anzahl(e.getKey());
+            Map<String, Object> eintrag = new LinkedHashMap<>();
+            eintrag.put("wert", wert);
+            eintrag.put("art", z.art.name().toLowerCase(Locale.ROOT));
+            eintrag.put("abgeglichenAm", z.stand.toString());
+            eintrag.put("alterSekunden", Duration.between(z.stand, Instant.now()).toSeconds());
+            eintrag.put("aenderungenSeitAbgleich", z.aenderungen.get());
+            statistik.put(z.tabelle, eintrag);
+        }
+        return statistik;
+    }
+}
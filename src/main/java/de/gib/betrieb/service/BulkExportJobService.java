@@ -0,0 +1,249 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.IdBereich;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Asynchroner Bulk Data $export.
+ * Jeder Resource-Typ wird über seinen Id-Bereich in Partitionen geschnitten, ein begrenzter
+ * Worker-Pool schreibt pro Typ und Partition eine NDJSON-Datei in das Job-Verzeichnis.
+ * Beendete Jobs werden nach {@code fhir.export.aufbewahrung} samt Dateien entfernt.
+ */
+@Service
+public class BulkExportJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkExportJobService.class);
+
+    // Erlaubte Dateinamen beim Abruf, verhindert Pfade außerhalb des Job-Verzeichnisses
+    private static final Pattern DATEINAME = Pattern.compile("[A-Za-z]+-\\d+\\.ndjson");
+
+    @Autowired
+    private BulkExportService bulkExportService;
+
+    @Value("${fhir.export.verzeichnis:export}")
+    private String exportVerzeichnis;
+
+    @Value("${fhir.export.partitionen:4}")
+    private int partitionenProTyp;
+
+    @Value("${fhir.export.aufbewahrung:24h}")
+    private Duration aufbewahrung = Duration.ofHours(24);
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor workerPool;
+
+    public BulkExportJobService(@Value("${fhir.export.worker:4}") int anzahlWorker,
+                                @Value("${fhir.export.warteschlange:256}") int warteschlange) {
+        AtomicInteger zaehler = new AtomicInteger();
+        this.workerPool = new ThreadPoolExecutor(
+                anzahlWorker, anzahlWorker, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(warteschlange),
+                r -> {
+                    Thread t = new Thread(r, "fhir-export-" + zaehler.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Startet einen Export-Job und gibt ihn sofort zurück.
+     * Wirft RejectedExecutionException, wenn die Warteschlange des Pools voll ist.
+     */
+    public ExportJob starteJob(List<String> resourceTypen, AusgabeEngine engine,
+                               String anfrage, String dateiBasisUrl) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        Path verzeichnis = Paths.get(exportVerzeichnis, jobId);
+        Files.createDirectories(verzeichnis);
+
+        ExportJob job = new ExportJob(jobId, anfrage, dateiBasisUrl, verzeichnis);
+        jobs.put(jobId, job);
+
+        List<Runnable> aufgaben = new ArrayList<>();
+        for (String typ : resourceTypen) {
+            IdBereich bereich = bulkExportService.ermittlePartitionsBereich(typ);
+            if (bereich == null || bereich.istLeer()) {
+                continue;
+            }
+            List<long[]> partitionen = schneide(bereich.von(), bereich.bis(), partitionenProTyp);
+            for (int nummer = 0; nummer < partitionen.size(); nummer++) {
+                long[] grenzen = partitionen.get(nummer);
+                int partitionsNummer = nummer;
+                aufgaben.add(() -> schreibePartition(job, typ, partitionsNummer, grenzen[0], grenzen[1], engine));
+            }
+        }
+
+        // Gesamtzahl vor dem ersten Submit setzen, sonst kann ein schneller Worker den Job zu früh beenden
+        job.setzePartitionenGesamt(aufgaben.size());
+        try {
+            for (Runnable aufgabe : aufgaben) {
+                job.merkeAufgabe(workerPool.submit(aufgabe));
+            }
+        } catch (RejectedExecutionException e) {
+            // Ohne Content-Location kann der Client den Job nicht löschen, also hier komplett verwerfen
+            jobs.remove(jobId);
+            job.fehlgeschlagen("Export-Warteschlange voll");
+            try {
+                loescheVerzeichnis(verzeichnis);
+            } catch (IOException io) {
+                log.warn("Export {}: Verzeichnis nach Ablehnung nicht gelöscht: {}", jobId, io.getMessage());
+            }
+            throw e;
+        }
+        return job;
+    }
+
+    public ExportJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /** Bricht den Job ab und entfernt seine Dateien; false, wenn der Job unbekannt ist */
+    public boolean loescheJob(String jobId) throws IOException {
+        ExportJob job = jobs.remove(jobId);
+        if (job == null) {
+            return false;
+        }
+        job.abbrechen();
+        loescheVerzeichnis(job.getVerzeichnis());
+        return true;
+    }
+
+    /**
+     * Entfernt beendete Jobs, deren Ende länger als die Aufbewahrungszeit zurückliegt, und
+     * verwaiste Job-Verzeichnisse (z.B. aus einem früheren Lauf) gleichen Alters.
+     */
+    @Scheduled(fixedDelayString = "${fhir.export.aufraeumen:10m}",
+            initialDelayString = "${fhir.export.aufraeumen:10m}")
+    public void raeumeAuf() {
+        Instant grenze = Instant.now().minus(aufbewahrung);
+        for (ExportJob job : jobs.values()) {
+            Instant beendetAm = job.getBeendetAm();
+            if (beendetAm != null && beendetAm.isBefore(grenze) && jobs.remove(job.getId(), job)) {
+                entferneDateien(job.getId(), job.getVerzeichnis());
+            }
+        }
+
+        Path wurzel = Paths.get(exportVerzeichnis);
+        if (!Files.isDirectory(wurzel)) {
+            return;
+        }
+        try (Stream<Path> verzeichnisse = Files.list(wurzel)) {
+            for (Path verzeichnis : verzeichnisse.toList()) {
+                String jobId = verzeichnis.getFileName().toString();
+                if (Files.isDirectory(verzeichnis) && !jobs.containsKey(jobId)
+                        && Files.getLastModifiedTime(verzeichnis).toInstant().isBefore(grenze)) {
+                    entferneDateien(jobId, verzeichnis);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Export-Verzeichnis {} nicht lesbar: {}", wurzel, e.getMessage());
+        }
+    }
+
+    private void entferneDateien(String jobId, Path verzeichnis) {
+        try {
+            loescheVerzeichnis(verzeichnis);
+            log.info("Export {}: nach Ablauf der Aufbewahrung entfernt", jobId);
+        } catch (IOException e) {
+            log.warn("Export {}: Verzeichnis nicht gelöscht: {}", jobId, e.getMessage());
+        }
+    }
+
+    /** Pfad einer fertigen Ausgabedatei, null wenn Job oder Datei nicht existieren */
+    public Path getDatei(String jobId, String dateiname) {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || !DATEINAME.matcher(dateiname).matches()) {
+            return null;
+        }
+        Path datei = job.getVerzeichnis().resolve(dateiname);
+        return Files.isRegularFile(datei) ? datei : null;
+    }
+
+    // Teilt [von, bis] in höchstens n gleich große, lückenlose Bereiche
+    static List<long[]> schneide(long von, long bis, int n) {
+        List<long[]> bereiche = new ArrayList<>();
+        long breite = bis - von + 1;
+        int anzahl = (int) Math.max(1, Math.min(n, breite));
+        long schritt = breite / anzahl;
+        long rest = breite % anzahl;
+
+        long start = von;
+        for (int i = 0; i < anzahl; i++) {
+            long ende = start + schritt - 1 + (i < rest ? 1 : 0);
+            bereiche.add(new long[]{start, ende});
+            start = ende + 1;
+        }
+        return bereiche;
+    }
+
+    private void schreibePartition(ExportJob job, String typ, int nummer, long vonId, long bisId,
+                                   AusgabeEngine engine) {
+        if (job.getStatus() != ExportJob.Status.LAEUFT) {
+            return;
+        }
+        String dateiname = typ + "-" + nummer + ".ndjson";
+        Path datei = job.getVerzeichnis().resolve(dateiname);
+
+        long start = System.nanoTime();
+        try {
+            long anzahl;
+            try (OutputStream out = Files.newOutputStream(datei)) {
+                anzahl = bulkExportService.exportiereBereich(typ, vonId, bisId, engine, out, job::sollAbbrechen);
+            }
+            long dauerMs = (System.nanoTime() - start) / 1_000_000;
+
+            job.partitionFertig(new ExportJob.Partition(
+                    typ, nummer, vonId, bisId, dateiname, anzahl, Files.size(datei), dauerMs));
+
+            log.info("Export {}: {} mit {} Zeilen in {} ms", job.getId(), dateiname, anzahl, dauerMs);
+        } catch (CancellationException e) {
+            // Job wurde abgebrochen oder ist fehlgeschlagen, Dateien räumen loescheJob bzw. raeumeAuf weg
+        } catch (Exception e) {
+            job.fehlgeschlagen(dateiname + ": " + e.getMessage());
+        }
+    }
+
+    private void loescheVerzeichnis(Path verzeichnis) throws IOException {
+        if (!Files.exists(verzeichnis)) {
+            return;
+        }
+        try (Stream<Path> pfade = Files.walk(verzeichnis)) {
+            for (Path pfad : pfade.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(pfad);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void beende() {
+        workerPool.shutdownNow();
+    }
+}
@@ -0,0 +1,196 @@
+package de.gib.betrieb.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.gib.betrieb.adapter.*;
+import de.gib.betrieb.datenbank.*;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * FHIR Bulk Data $export als NDJSON (eine Resource pro Zeile).
+ * Liest über einen server-seitigen Cursor und schreibt jede Zeile sofort raus,
+ * damit der Heap unabhängig von der Tabellengröße flach bleibt.
+ */
+@Service
+public class BulkExportService {
+
+    public static final String NDJSON = "application/fhir+ndjson";
+
+    public static final List<String> UNTERSTUETZTE_TYPEN = List.of("Patient", "Observation", "DiagnosticReport");
+
+    // Nach so vielen Zeilen wird der Persistence Context geleert
+    private static final int LEERUNGS_INTERVALL = 500;
+
+    private static final BooleanSupplier KEIN_ABBRUCH = () -> false;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private BefundRepository befundRepository;
+
+    @Autowired
+    private BerichtRepository berichtRepository;
+
+    @Autowired
+    private BehandlungsfallRepository behandlungsfallRepository;
+
+    @Autowired
+    private PatientZuFhirAdapter patientAdapter;
+
+    @Autowired
+    private BefundZuFhirAdapter befundAdapter;
+
+    @Autowired
+    private BerichtZuFhirAdapter berichtAdapter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${fhir.export.verzeichnis:export}")
+    private String exportVerzeichnis;
+
+    /** Schreibt alle Resources eines Typs als NDJSON in den Ziel-Stream, gibt die Anzahl Zeilen zurück */
+    @Transactional(readOnly = true)
+    public long exportiereNdjson(String resourceTyp, AusgabeEngine engine, OutputStream ziel) throws IOException {
+        return schreibeNdjson(resourceTyp, engine, ziel);
+    }
+
+    /** Schreibt alle Resources eines Typs in eine lokale NDJSON-Datei */
+    @Transactional(readOnly = true)
+    public Map<String, Object> exportiereInDatei(String resourceTyp, AusgabeEngine engine) throws IOException {
+        Path verzeichnis = Paths.get(exportVerzeichnis);
+        Files.createDirectories(verzeichnis);
+
+        String zeitstempel = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        Path datei = verzeichnis.resolve(resourceTyp + "_" + zeitstempel + ".ndjson");
+
+        long start = System.nanoTime();
+        long anzahl;
+        try (OutputStream out = Files.newOutputStream(datei)) {
+            anzahl = schreibeNdjson(resourceTyp, engine, out);
+        }
+        long dauerMs = (System.nanoTime() - start) / 1_000_000;
+
+        return Map.of(
+                "type", resourceTyp,
+                "datei", datei.toAbsolutePath().toString(),
+                "count", anzahl,
+                "dauerMs", dauerMs
+        );
+    }
+
+    /**
+     * Schreibt eine Id-Partition eines Typs als NDJSON (asynchroner Export).
+     * Patient und Observation werden über ihre eigene Id geschnitten, DiagnosticReport über die Fall-Id.
+     * Liefert abbruch true, endet der Export mit einer CancellationException.
+     */
+    @Transactional(readOnly = true)
+    public long exportiereBereich(String resourceTyp, long vonId, long bisId, AusgabeEngine engine,
+                                  OutputStream ziel, BooleanSupplier abbruch) throws IOException {
+        switch (resourceTyp) {
+            case "Patient":
+                return schreibe(patientRepository.streamePatientenImBereich(vonId, bisId), engine,
+                        patientAdapter::konvertiereZuFhir, patientAdapter::schreibeFhir, ziel, abbruch);
+            case "Observation":
+                return schreibe(befundRepository.streameBefundeImBereich(vonId, bisId), engine,
+                        befundAdapter::konvertiereZuFhir, befundAdapter::schreibeFhir, ziel, abbruch);
+            case "DiagnosticReport":
+                return schreibe(berichtRepository.streameBerichteImFallBereich(vonId, bisId), engine,
+                        berichtAdapter::konvertiereZuFhir, berichtAdapter::schreibeFhir, ziel, abbruch);
+            default:
+                throw new IllegalArgumentException("Resource-Typ nicht exportierbar: " + resourceTyp);
+        }
+    }
+
+    /** Id-Bereich, über den ein Resource-Typ partitioniert wird */
+    public IdBereich ermittlePartitionsBereich(String resourceTyp) {
+        switch (resourceTyp) {
+            case "Patient":          return patientRepository.ermittleIdBereich();
+            case "Observation":      return befundRepository.ermittleIdBereich();
+            case "DiagnosticReport": return behandlungsfallRepository.ermittleIdBereich();
+            default:
+                throw new IllegalArgumentException("Resource-Typ nicht exportierbar: " + resourceTyp);
+        }
+    }
+
+    public static boolean istUnterstuetzt(String resourceTyp) {
+        return UNTERSTUETZTE_TYPEN.contains(resourceTyp);
+    }
+
+    private long schreibeNdjson(String resourceTyp, AusgabeEngine engine, OutputStream ziel) throws IOException {
+        switch (resourceTyp) {
+            case "Patient":
+                return schreibe(patientRepository.streameAllePatienten(), engine,
+                        patientAdapter::konvertiereZuFhir, patientAdapter::schreibeFhir, ziel, KEIN_ABBRUCH);
+            case "Observation":
+                return schreibe(befundRepository.streameAlleBefunde(), engine,
+                        befundAdapter::konvertiereZuFhir, befundAdapter::schreibeFhir, ziel, KEIN_ABBRUCH);
+            case "DiagnosticReport":
+                return schreibe(berichtRepository.streameAlleBerichte(), engine,
+                        berichtAdapter::konvertiereZuFhir, berichtAdapter::schreibeFhir, ziel, KEIN_ABBRUCH);
+            default:
+                throw new IllegalArgumentException("Resource-Typ nicht exportierbar: " + resourceTyp);
+        }
+    }
+
+    private <T> long schreibe(Stream<T> zeilen, AusgabeEngine engine,
+                              Function<T, Map<String, Object>> konverter, RessourcenSchreiber<T> schreiber,
+                              OutputStream ziel, BooleanSupplier abbruch) throws IOException {
+        // Kein Flush pro Resource, Jackson puffert selbst
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(ziel);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Zeilen trennt das '\n' unten, sonst stellt Jackson jedem weiteren Wurzelwert ein Leerzeichen voran
+        generator.setRootValueSeparator(null);
+
+        long anzahl = 0;
+        try (zeilen; generator) {
+            var iterator = zeilen.iterator();
+            while (iterator.hasNext()) {
+                if (abbruch.getAsBoolean()) {
+                    throw new CancellationException("Export abgebrochen nach " + anzahl + " Zeilen");
+                }
+                T entitaet = iterator.next();
+                if (engine == AusgabeEngine.GENERATOR) {
+                    schreiber.schreibe(entitaet, generator);
+                } else {
+                    writer.writeValue(generator, konverter.apply(entitaet));
+                }
+                generator.writeRaw('\n');
+                anzahl++;
+
+                // Bereits geschriebene Entitäten freigeben, sonst wächst der Persistence Context mit
+                if (anzahl % LEERUNGS_INTERVALL == 0) {
+                    entityManager.clear();
+                }
+            }
+            generator.flush();
+        }
+        return anzahl;
+    }
+}
@@ -0,0 +1,192 @@
+package de.gib.betrieb.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Zustand eines asynchronen $export-Jobs.
+ * Die Partitionen laufen im Worker-Pool und melden ihre Ergebnisse hier zurück.
+ */
+public class ExportJob {
+
+    public enum Status { LAEUFT, FERTIG, FEHLER, ABGEBROCHEN }
+
+    /** Ergebnis einer fertig geschriebenen Partition inkl. Durchsatz */
+    public static class Partition {
+        final String resourceTyp;
+        final int nummer;
+        final long vonId;
+        final long bisId;
+        final String datei;
+        final long anzahl;
+        final long bytes;
+        final long dauerMs;
+
+        Partition(String resourceTyp, int nummer, long vonId, long bisId,
+                  String datei, long anzahl, long bytes, long dauerMs) {
+            this.resourceTyp = resourceTyp;
+            this.nummer = nummer;
+            this.vonId = vonId;
+            this.bisId = bisId;
+            this.datei = datei;
+            this.anzahl = anzahl;
+            this.bytes = bytes;
+            this.dauerMs = dauerMs;
+        }
+
+        double zeilenProSekunde() {
+            return dauerMs == 0 ? anzahl * 1000.0 : anzahl * 1000.0 / dauerMs;
+        }
+
+        Map<String, Object> alsMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("type", resourceTyp);
+            map.put("partition", nummer);
+            map.put("vonId", vonId);
+            map.put("bisId", bisId);
+            map.put("datei", datei);
+            map.put("count", anzahl);
+            map.put("bytes", bytes);
+            map.put("dauerMs", dauerMs);
+            map.put("zeilenProSekunde", Math.round(zeilenProSekunde() * 10) / 10.0);
+            return map;
+        }
+    }
+
+    private final String id;
+    private final String anfrage;
+    private final String basisUrl;
+    private final Path verzeichnis;
+    private final Instant transaktionsZeit = Instant.now();
+
+    private final List<Partition> fertigePartitionen = Collections.synchronizedList(new ArrayList<>());
+    private final List<Future<?>> laufendeAufgaben = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger offenePartitionen = new AtomicInteger();
+
+    private volatile int partitionenGesamt;
+    private volatile Status status = Status.LAEUFT;
+    private volatile String fehler;
+    private volatile Instant beendetAm;
+
+    ExportJob(String id, String anfrage, String basisUrl, Path verzeichnis) {
+        this.id = id;
+        this.anfrage = anfrage;
+        this.basisUrl = basisUrl;
+        this.verzeichnis = verzeichnis;
+    }
+
+    public String getId() { return id; }
+    public Status getStatus() { return status; }
+    public String getFehler() { return fehler; }
+    public Path getVerzeichnis() { return verzeichnis; }
+    public Instant getBeendetAm() { return beendetAm; }
+
+    /**
+     * Abbruchprüfung für laufende Partitionen: wahr, sobald der Job nicht mehr läuft, also auch
+     * wenn eine andere Partition fehlgeschlagen ist. cancel() unterbricht laufende Worker nicht.
+     */
+    public boolean sollAbbrechen() {
+        return status != Status.LAEUFT;
+    }
+
+    /** Fortschritt für den X-Progress Header */
+    public String fortschritt() {
+        int fertig = fertigePartitionen.size();
+        return fertig + "/" + partitionenGesamt + " Partitionen";
+    }
+
+    void setzePartitionenGesamt(int anzahl) {
+        this.partitionenGesamt = anzahl;
+        this.offenePartitionen.set(anzahl);
+        if (anzahl == 0) {
+            beende(Status.FERTIG);
+        }
+    }
+
+    void merkeAufgabe(Future<?> aufgabe) {
+        laufendeAufgaben.add(aufgabe);
+    }
+
+    void partitionFertig(Partition partition) {
+        fertigePartitionen.add(partition);
+        if (offenePartitionen.decrementAndGet() == 0 && status == Status.LAEUFT) {
+            beende(Status.FERTIG);
+        }
+    }
+
+    synchronized void fehlgeschlagen(String meldung) {
+        if (status == Status.LAEUFT) {
+            this.fehler = meldung;
+            beende(Status.FEHLER);
+            brecheAufgabenAb();
+        }
+    }
+
+    synchronized void abbrechen() {
+        if (status == Status.LAEUFT) {
+            beende(Status.ABGEBROCHEN);
+        }
+        brecheAufgabenAb();
+    }
+
+    private void beende(Status endStatus) {
+        this.status = endStatus;
+        this.beendetAm = Instant.now();
+    }
+
+    private void brecheAufgabenAb() {
+        synchronized (laufendeAufgaben) {
+            for (Future<?> aufgabe : laufendeAufgaben) {
+                aufgabe.cancel(false);
+            }
+        }
+    }
+
+    /** Bulk-Data-Manifest; unter extension steht der Durchsatz je Partition */
+    public Map<String, Object> manifest() {
+        List<Partition> partitionen;
+        synchronized (fertigePartitionen) {
+            partitionen = new ArrayList<>(fertigePartitionen);
+        }
+        partitionen.sort((a, b) -> a.resourceTyp.equals(b.resourceTyp)
+                ? Integer.compare(a.nummer, b.nummer)
+                : a.resourceTyp.compareTo(b.resourceTyp));
+
+        List<Map<String, Object>> output = new ArrayList<>();
+        List<Map<String, Object>> durchsatz = new ArrayList<>();
+        long zeilenGesamt = 0;
+        for (Partition partition : partitionen) {
+            Map<String, Object> eintrag = new LinkedHashMap<>();
+            eintrag.put("type", partition.resourceTyp);
+            eintrag.put("url", basisUrl + "/" + id + "/" + partition.datei);
+            eintrag.put("count", partition.anzahl);
+            output.add(eintrag);
+            durchsatz.add(partition.alsMap());
+            zeilenGesamt += partition.anzahl;
+        }
+
+        Map<String, Object> extension = new LinkedHashMap<>();
+        extension.put("jobId", id);
+        extension.put("zeilenGesamt", zeilenGesamt);
+        if (beendetAm != null) {
+            extension.put("dauerMs", beendetAm.toEpochMilli() - transaktionsZeit.toEpochMilli());
+        }
+        extension.put("partitionen", durchsatz);
+
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("transactionTime", transaktionsZeit.toString());
+        manifest.put("request", anfrage);
+        manifest.put("requiresAccessToken", false);
+        manifest.put("output", output);
+        manifest.put("error", List.of());
+        manifest.put("extension", extension);
+        return manifest;
+    }
+}
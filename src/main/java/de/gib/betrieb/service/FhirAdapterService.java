@@ -1,16 +1,26 @@
 package de.gib.betrieb.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gib.betrieb.adapter.*;
+import de.gib.betrieb.config.Laststeuerung;
+import de.gib.betrieb.config.StufenTimer;
 import de.gib.betrieb.datenbank.*;
 import de.gib.betrieb.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Optional;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Haupt-Service für die FHIR-Adapter-Funktionalität
@@ -20,12 +30,6 @@ import java.util.UUID;
 public class FhirAdapterService {
 
     // Repositories
-    @Autowired
-    private PatientRepository patientRepository;
-
-    @Autowired
-    private ArztRepository arztRepository;
-
     @Autowired
     private BefundRepository befundRepository;
 
@@ -48,70 +52,195 @@ public class FhirAdapterService {
     @Autowired
     private BerichtZuFhirAdapter berichtAdapter;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PatientGraphLader patientGraphLader;
+
+    @Autowired
+    private RessourcenCache ressourcenCache;
+
+    @Autowired
+    private StufenTimer stufenTimer;
+
+    @Autowired
+    private Referenzdaten referenzdaten;
+
+    @Autowired
+    private PatientIndex patientIndex;
+
+    @Autowired
+    private BefundIndex befundIndex;
+
+    @Autowired
+    private BestandsStatistik bestandsStatistik;
+
+    @Autowired
+    private Terminologie terminologie;
+
+    @Autowired
+    private Laststeuerung laststeuerung;
+
+    @Autowired
+    private Ladebuendelung ladebuendelung;
+
+    @Autowired
+    private Stapelabruf stapelabruf;
+
+    @Autowired
+    private ParallelerAufbau parallelerAufbau;
+
+    // Standard-Engine, wenn der Request keine _engine angibt
+    @Value("${fhir.ausgabe.engine:map}")
+    private String standardEngine;
+
+    /** Ermittelt die Engine aus dem Request-Parameter, sonst aus der Konfiguration */
+    public AusgabeEngine ermittleEngine(String wert) {
+        return AusgabeEngine.aus(wert, AusgabeEngine.aus(standardEngine, AusgabeEngine.MAP));
+    }
+
+    /** Patient als fertig serialisiertes JSON (über den RessourcenCache), null wenn nicht vorhanden */
+    public byte[] getPatientAlsJson(Long patientId, AusgabeEngine engine) {
+        return getPatientAlsJson(patientId, engine, Elementauswahl.ALLE);
+    }
+
+    /** Wie oben, gekürzt nach _summary/_elements; gekürzte Resources gehen am Cache vorbei */
+    public byte[] getPatientAlsJson(Long patientId, AusgabeEngine engine, Elementauswahl auswahl) {
+        return hole("Patient", patientId, auswahl, () -> stufenTimer.messe("Patient", "db", () -> stapelabruf.patient(patientId))
+                .map(p -> new RessourcenCache.Geladen(rendere("Patient", p, engine,
+                        x -> patientAdapter.konvertiereZuFhir(x, auswahl),
+                        (x, gen) -> patientAdapter.schreibeFhir(x, auswahl, gen)),
+                        RessourcenCache.Bezug.KEINER))
+                .orElse(null));
+    }
+
+    /** Arzt als fertig serialisiertes JSON (über den RessourcenCache), null wenn nicht vorhanden */
+    public byte[] getArztAlsJson(Long arztId, AusgabeEngine engine) {
+        return getArztAlsJson(arztId, engine, Elementauswahl.ALLE);
+    }
+
+    public byte[] getArztAlsJson(Long arztId, AusgabeEngine engine, Elementauswahl auswahl) {
+        return hole("Practitioner", arztId, auswahl, () -> stufenTimer.messe("Practitioner", "db", () -> stapelabruf.arzt(arztId))
+                .map(a -> new RessourcenCache.Geladen(rendere("Practitioner", a, engine,
+                        x -> arztAdapter.konvertiereZuFhir(x, auswahl),
+                        (x, gen) -> arztAdapter.schreibeFhir(x, auswahl, gen)),
+                        RessourcenCache.Bezug.KEINER))
+                .orElse(null));
+    }
+
+    /** Befund als fertig serialisiertes JSON (über den RessourcenCache), null wenn nicht vorhanden */
+    public byte[] getBefundAlsJson(Long befundId, AusgabeEngine engine) {
+        return getBefundAlsJson(befundId, engine, Elementauswahl.ALLE);
+    }
+
+    public byte[] getBefundAlsJson(Long befundId, AusgabeEngine engine, Elementauswahl auswahl) {
+        return hole("Observation", befundId, auswahl, () -> stufenTimer.messe("Observation", "db", () -> stapelabruf.befund(befundId))
+                .map(b -> new RessourcenCache.Geladen(rendere("Observation", b, engine,
+                        x -> befundAdapter.konvertiereZuFhir(x, auswahl),
+                        (x, gen) -> befundAdapter.schreibeFhir(x, auswahl, gen)),
+                        RessourcenCache.Bezug.von(b.getBehandlungsfall())))
+                .orElse(null));
+    }
+
+    /** Bericht als fertig serialisiertes JSON (über den RessourcenCache), null wenn nicht vorhanden */
+    public byte[] getBerichtAlsJson(Long berichtId, AusgabeEngine engine) {
+        return getBerichtAlsJson(berichtId, engine, Elementauswahl.ALLE);
+    }
+
+    public byte[] getBerichtAlsJson(Long berichtId, AusgabeEngine engine, Elementauswahl auswahl) {
+        return hole("DiagnosticReport", berichtId, auswahl, () -> stufenTimer.messe("DiagnosticReport", "db", () -> stapelabruf.bericht(berichtId))
+                .map(b -> new RessourcenCache.Geladen(rendere("DiagnosticReport", b, engine,
+                        x -> berichtAdapter.konvertiereZuFhir(x, auswahl),
+                        (x, gen) -> berichtAdapter.schreibeFhir(x, auswahl, gen)),
+                        RessourcenCache.Bezug.von(b.getBehandlungsfall())))
+                .orElse(null));
+    }
+
+    // Gleichzeitige identische Abrufe teilen sich eine Ladung; der Cache hält nur vollständige Resources
+    private byte[] hole(String typ, Long id, Elementauswahl auswahl, Supplier<RessourcenCache.Geladen> lader) {
+        return ladebuendelung.lade(typ, id, auswahl, () -> ausCacheOderGeladen(typ, id, auswahl, lader));
+    }
+
+    private byte[] ausCacheOderGeladen(String typ, Long id, Elementauswahl auswahl,
+                                       Supplier<RessourcenCache.Geladen> lader) {
+        if (!auswahl.eingeschraenkt()) {
+            return ressourcenCache.holeMitBezug(typ, id, lader);
+        }
+        // Unter Last ist die schon gecachte vollständige Fassung billiger als jede reduzierte
+        if (auswahl == Elementauswahl.REDUZIERT) {
+            byte[] vollstaendig = ressourcenCache.vorhanden(typ, id);
+            if (vollstaendig != null) {
+                return vollstaendig;
+            }
+        }
+        RessourcenCache.Geladen geladen = lader.get();
+        return geladen != null ? geladen.json() : null;
+    }
+
+    // Gemessen wird je Stufe: mapping und serialisierung (Map-Engine) bzw. generator (beides in einem Schritt)
+    private <T> byte[] rendere(String typ, T entitaet, AusgabeEngine engine,
+                               Function<T, Map<String, Object>> konverter, RessourcenSchreiber<T> schreiber) {
+        byte[] json;
+        if (engine == AusgabeEngine.GENERATOR) {
+            json = stufenTimer.messe(typ, "generator", () -> {
+                ByteArrayOutputStream puffer = new ByteArrayOutputStream(2048);
+                try (JsonGenerator gen = objectMapper.getFactory().createGenerator(puffer)) {
+                    schreiber.schreibe(entitaet, gen);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return puffer.toByteArray();
+            });
+        } else {
+            Map<String, Object> resource = stufenTimer.messe(typ, "mapping", () -> konverter.apply(entitaet));
+            json = stufenTimer.messe(typ, "serialisierung", () -> {
+                try {
+                    return objectMapper.writeValueAsBytes(resource);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        stufenTimer.erfasseBytes(typ, json.length);
+        return json;
+    }
+
     /** Holt einen einzelnen Patienten als FHIR Patient Resource */
     public Map<String, Object> getPatientAlsFhir(Long patientId) {
-        Optional<Patient> patient = patientRepository.findById(patientId);
+        Optional<Patient> patient = stapelabruf.patient(patientId);
         if (patient.isPresent()) {
             return patientAdapter.konvertiereZuFhir(patient.get());
         }
         return null;
     }
 
-    /** Holt alle Patienten als FHIR Patient Resources */
-    public List<Map<String, Object>> getAllePatiententAlsFhir() {
-        List<Patient> patienten = patientRepository.findAll();
-        List<Map<String, Object>> fhirPatienten = new ArrayList<>();
-        for (Patient patient : patienten) {
-            Map<String, Object> fhirPatient = patientAdapter.konvertiereZuFhir(patient);
-            if (fhirPatient != null) {
-                fhirPatienten.add(fhirPatient);
-            }
-        }
-        return fhirPatienten;
-    }
-
     /** Holt einen einzelnen Arzt als FHIR Practitioner Resource */
     public Map<String, Object> getArztAlsFhir(Long arztId) {
-        Optional<Arzt> arzt = arztRepository.findById(arztId);
+        Optional<Arzt> arzt = stapelabruf.arzt(arztId);
         if (arzt.isPresent()) {
             return arztAdapter.konvertiereZuFhir(arzt.get());
         }
         return null;
     }
 
-    /** Holt alle Ärzte als FHIR Practitioner Resources */
-    public List<Map<String, Object>> getAlleAerzteAlsFhir() {
-        List<Arzt> aerzte = arztRepository.findAll();
-        List<Map<String, Object>> fhirAerzte = new ArrayList<>();
-        for (Arzt arzt : aerzte) {
-            Map<String, Object> fhirArzt = arztAdapter.konvertiereZuFhir(arzt);
-            if (fhirArzt != null) {
-                fhirAerzte.add(fhirArzt);
-            }
-        }
-        return fhirAerzte;
-    }
-
     /** Holt einen einzelnen Befund als FHIR Observation Resource */
     public Map<String, Object> getBefundAlsFhir(Long befundId) {
-        Optional<Befund> befund = befundRepository.findById(befundId);
+        Optional<Befund> befund = stapelabruf.befund(befundId);
         if (befund.isPresent()) {
             return befundAdapter.konvertiereZuFhir(befund.get());
         }
         return null;
     }
 
-    /** Holt alle Befunde für einen Patienten als FHIR Observations */
+    /** Holt alle Befunde für einen Patienten als FHIR Observations (ein Select inkl. Fall, Arzt und Standort) */
     public List<Map<String, Object>> getBefundeFuerPatient(Long patientId) {
-        List<Behandlungsfall> faelle = behandlungsfallRepository.findByPatientPatientenId(patientId);
+        List<Befund> befunde = befundRepository.ladeBefundeFuerPatient(patientId);
         List<Map<String, Object>> fhirBefunde = new ArrayList<>();
-        for (Behandlungsfall fall : faelle) {
-            List<Befund> befunde = befundRepository.findByBehandlungsfallFallId(fall.getFallId());
-            for (Befund befund : befunde) {
-                Map<String, Object> fhirBefund = befundAdapter.konvertiereZuFhir(befund);
-                if (fhirBefund != null) {
-                    fhirBefunde.add(fhirBefund);
-                }
+        for (Befund befund : befunde) {
+            Map<String, Object> fhirBefund = befundAdapter.konvertiereZuFhir(befund);
+            if (fhirBefund != null) {
+                fhirBefunde.add(fhirBefund);
             }
         }
         return fhirBefunde;
@@ -119,7 +248,7 @@ public class FhirAdapterService {
 
     /** Holt einen einzelnen Bericht als FHIR DiagnosticReport Resource */
     public Map<String, Object> getBerichtAlsFhir(Long berichtId) {
-        Optional<Bericht> bericht = berichtRepository.findById(berichtId);
+        Optional<Bericht> bericht = stapelabruf.bericht(berichtId);
         if (bericht.isPresent()) {
             return berichtAdapter.konvertiereZuFhir(bericht.get());
         }
@@ -128,44 +257,48 @@ public class FhirAdapterService {
 
     /** Holt alle Berichte für einen Patienten als FHIR DiagnosticReports */
     public List<Map<String, Object>> getBerichteFuerPatient(Long patientId) {
-        List<Behandlungsfall> faelle = behandlungsfallRepository.findByPatientPatientenId(patientId);
+        List<Bericht> berichte = berichtRepository.ladeBerichteFuerPatient(patientId);
+        if (berichte.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Befunde einmal für alle Fälle laden statt einmal pro Bericht
+        PatientGraph graph = new PatientGraph(null, befundRepository.ladeBefundeFuerPatient(patientId), berichte);
         List<Map<String, Object>> fhirBerichte = new ArrayList<>();
-        for (Behandlungsfall fall : faelle) {
-            for (Bericht bericht : fall.getBerichte()) {
-                Map<String, Object> fhirBericht = berichtAdapter.konvertiereZuFhir(bericht);
-                if (fhirBericht != null) {
-                    fhirBerichte.add(fhirBericht);
-                }
+        for (Bericht bericht : berichte) {
+            Map<String, Object> fhirBericht = berichtAdapter.konvertiereZuFhir(bericht, graph.befundeZuBericht(bericht));
+            if (fhirBericht != null) {
+                fhirBerichte.add(fhirBericht);
             }
         }
         return fhirBerichte;
     }
 
-    /** Erstellt ein FHIR Bundle mit allen Daten eines Patienten */
+    /**
+     * Erstellt ein FHIR Bundle mit allen Daten eines Patienten.
+     * Der Graph wird mit drei Selects geladen, das Rendern greift danach nicht mehr auf die Datenbank zu.
+     */
     public Map<String, Object> getPatientBundle(Long patientId) {
+        return getPatientBundle(patientId, Elementauswahl.ALLE);
+    }
+
+    /** Bundle mit nach _summary/_elements gekürzten Resources */
+    public Map<String, Object> getPatientBundle(Long patientId, Elementauswahl auswahl) {
+        // Das Bundle wird danach nur noch serialisiert, gleichzeitige Anfragen können es sich teilen
+        return ladebuendelung.lade("Bundle", patientId, auswahl, () -> baueBundle(patientId, auswahl));
+    }
+
+    private Map<String, Object> baueBundle(Long patientId, Elementauswahl auswahl) {
         Map<String, Object> bundle = new HashMap<>();
         bundle.put("resourceType", "Bundle");
         bundle.put("id", "patient-bundle-" + patientId);
         bundle.put("type", "collection");
 
         List<Map<String, Object>> entries = new ArrayList<>();
-
-        // Patient
-        Map<String, Object> patientFhir = getPatientAlsFhir(patientId);
-        if (patientFhir != null) {
-            entries.add(bundleEntryMitFullUrl(patientFhir));
-        }
-
-        // Befunde
-        List<Map<String, Object>> befunde = getBefundeFuerPatient(patientId);
-        for (Map<String, Object> befund : befunde) {
-            entries.add(bundleEntryMitFullUrl(befund));
-        }
-
-        // Berichte
-        List<Map<String, Object>> berichte = getBerichteFuerPatient(patientId);
-        for (Map<String, Object> bericht : berichte) {
-            entries.add(bundleEntryMitFullUrl(bericht));
+        PatientGraph graph = stufenTimer.messe("Bundle", "db", () -> parallelerAufbau.aktiv()
+                ? patientGraphLader.ladeGleichzeitig(patientId)
+                : patientGraphLader.lade(patientId));
+        if (graph != null) {
+            entries = stufenTimer.messe("Bundle", "mapping", () -> baueEntries(graph, auswahl));
         }
 
         bundle.put("entry", entries);
@@ -173,6 +306,25 @@ public class FhirAdapterService {
         return bundle;
     }
 
+    // Reihenfolge: Patient, Befunde, Berichte; große Bundles werden parallel konvertiert
+    private List<Map<String, Object>> baueEntries(PatientGraph graph, Elementauswahl auswahl) {
+        List<Befund> befunde = graph.getBefunde();
+        List<Bericht> berichte = graph.getBerichte();
+        int ersterBericht = 1 + befunde.size();
+
+        return parallelerAufbau.konvertiere(ersterBericht + berichte.size(), i -> {
+            if (i == 0) {
+                return bundleEntryMitFullUrl(patientAdapter.konvertiereZuFhir(graph.getPatient(), auswahl));
+            }
+            if (i < ersterBericht) {
+                return bundleEntryMitFullUrl(befundAdapter.konvertiereZuFhir(befunde.get(i - 1), auswahl));
+            }
+            Bericht bericht = berichte.get(i - ersterBericht);
+            return bundleEntryMitFullUrl(
+                    berichtAdapter.konvertiereZuFhir(bericht, graph.befundeZuBericht(bericht), auswahl));
+        });
+    }
+
     /** Baut einen Bundle-Entry mit verpflichtender fullUrl (URN/UUID). */
     private Map<String, Object> bundleEntryMitFullUrl(Map<String, Object> resource) {
         Map<String, Object> entry = new HashMap<>();
@@ -185,15 +337,22 @@ public class FhirAdapterService {
     public Map<String, Object> getAdapterStatistik() {
         Map<String, Object> statistik = new HashMap<>();
 
-        long anzahlPatienten = patientRepository.count();
-        long anzahlAerzte = arztRepository.count();
-        long anzahlBefunde = befundRepository.count();
-        long anzahlBerichte = berichtRepository.count();
-
-        statistik.put("verfuegbarePatienten", anzahlPatienten);
-        statistik.put("verfuegbareAerzte", anzahlAerzte);
-        statistik.put("verfuegbareBefunde", anzahlBefunde);
-        statistik.put("verfuegbareBerichte", anzahlBerichte);
+        // Zähler statt COUNT(*) je Aufruf; Herkunft und Alter der Werte stehen unter "bestand"
+        statistik.put("verfuegbarePatienten", bestandsStatistik.anzahl(Patient.class));
+        statistik.put("verfuegbareAerzte", bestandsStatistik.anzahl(Arzt.class));
+        statistik.put("verfuegbareBefunde", bestandsStatistik.anzahl(Befund.class));
+        statistik.put("verfuegbareBerichte", bestandsStatistik.anzahl(Bericht.class));
+        statistik.put("bestand", bestandsStatistik.statistik());
+
+        statistik.put("cache", ressourcenCache.statistik());
+        statistik.put("referenzdaten", referenzdaten.statistik());
+        statistik.put("patientIndex", patientIndex.statistik());
+        statistik.put("befundIndex", befundIndex.statistik());
+        statistik.put("terminologie", terminologie.statistik());
+        statistik.put("last", laststeuerung.statistik());
+        statistik.put("buendelung", ladebuendelung.statistik());
+        statistik.put("stapel", stapelabruf.statistik());
+        statistik.put("bundleAufbau", parallelerAufbau.statistik());
 
         statistik.put("unterstuetzteFhirResourcen", new String[]{
                 "Patient", "Practitioner", "Observation", "DiagnosticReport"
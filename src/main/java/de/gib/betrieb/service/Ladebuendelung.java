@@ -0,0 +1,113 @@
+package de.gib.betrieb.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bündelt gleichzeitige identische Lesezugriffe (Single-Flight): Solange eine Ladung für
+ * Resource-Typ + Id + Ausgabeoptionen läuft, warten weitere Anfragen auf deren Ergebnis statt
+ * selbst Datenbank und Konvertierung zu bemühen. Gespeichert wird nichts, der Eintrag verschwindet
+ * mit dem Ende der Ladung. Ein Fehler der Ladung geht an alle Wartenden.
+ */
+@Service
+public class Ladebuendelung {
+
+    // Die Engine gehört nicht in den Schlüssel, beide liefern identische Bytes
+    record Schluessel(String typ, Object id, Object optionen) {}
+
+    private final boolean aktiv;
+    private final Map<Schluessel, CompletableFuture<Object>> laufend = new ConcurrentHashMap<>();
+
+    private final AtomicLong geladen = new AtomicLong();
+    private final AtomicLong geteilt = new AtomicLong();
+    private final Counter geladenZaehler;
+    private final Counter geteiltZaehler;
+
+    public Ladebuendelung(@Value("${fhir.buendelung.aktiv:true}") boolean aktiv, MeterRegistry registry) {
+        this.aktiv = aktiv;
+        this.geladenZaehler = registry != null ? zaehler(registry, "geladen") : null;
+        this.geteiltZaehler = registry != null ? zaehler(registry, "geteilt") : null;
+    }
+
+    /**
+     * Liefert das Ergebnis von lader; läuft für denselben Schlüssel schon eine Ladung,
+     * wird auf diese gewartet. optionen braucht equals/hashCode.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T lade(String typ, Object id, Object optionen, Supplier<T> lader) {
+        if (!aktiv) {
+            return lader.get();
+        }
+        Schluessel schluessel = new Schluessel(typ, id, optionen);
+        CompletableFuture<Object> eigene = new CompletableFuture<>();
+        CompletableFuture<Object> vorhandene = laufend.putIfAbsent(schluessel, eigene);
+        if (vorhandene != null) {
+            zaehle(geteilt, geteiltZaehler);
+            return (T) warte(vorhandene);
+        }
+
+        zaehle(geladen, geladenZaehler);
+        try {
+            T ergebnis = lader.get();
+            eigene.complete(ergebnis);
+            return ergebnis;
+        } catch (RuntimeException | Error e) {
+            eigene.completeExceptionally(e);
+            throw e;
+        } finally {
+            laufend.remove(schluessel, eigene);
+        }
+    }
+
+    private static Object warte(CompletableFuture<Object> ladung) {
+        try {
+            return ladung.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            }
+            if (e.getCause() instanceof Error f) {
+                throw f;
+            }
+            throw e;
+        }
+    }
+
+    private static void zaehle(AtomicLong wert, Counter zaehler) {
+        wert.incrementAndGet();
+        if (zaehler != null) {
+            zaehler.increment();
+        }
+    }
+
+    private static Counter zaehler(MeterRegistry registry, String ergebnis) {
+        return Counter.builder("fhir.buendelung")
+                .description("Lesezugriffe je Ergebnis: selbst geladen oder an laufender Ladung beteiligt")
+                .tag("ergebnis", ergebnis)
+                .register(registry);
+    }
+
+    /** Kennzahlen für /fhir/stats; quote = Anteil der Anfragen ohne eigene Ladung */
+    public Map<String, Object> statistik() {
+        long eigene = geladen.get();
+        long mitgenutzt = geteilt.get();
+        long gesamt = eigene + mitgenutzt;
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("laufend", laufend.size());
+        statistik.put("geladen", eigene);
+        statistik.put("geteilt", mitgenutzt);
+        statistik.put("quote", gesamt == 0 ? 0.0 : (double) mitgenutzt / gesamt);
+        return statistik;
+    }
+}
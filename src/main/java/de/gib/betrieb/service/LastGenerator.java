@@ -0,0 +1,200 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.config.VirtuelleThreads;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongPredicate;
+
+/**
+ * Lastgenerator mit fester Ankunftsrate (offenes Modell).
+ * Anfrage i hat den Soll-Startzeitpunkt start + i * intervall. Die Antwortzeit wird ab diesem
+ * Soll-Zeitpunkt gemessen. Wartet eine Anfrage, weil alle Worker belegt sind oder der Server hängt,
+ * zählt die Wartezeit mit (keine Coordinated Omission). Die reine Bedienzeit ab dem tatsächlichen
+ * Start wird getrennt erfasst. Jeder Worker schreibt in eigene Histogramme, gemerged wird am Ende.
+ * <p>
+ * Auf virtuellen Threads gibt es keine festen Worker: jede Ankunft startet zu ihrem Soll-Zeitpunkt einen
+ * eigenen Thread, die Nebenläufigkeit ist also nur durch den Server begrenzt.
+ */
+@Service
+public class LastGenerator {
+
+    // Vorlauf, damit alle Worker bereitstehen, bevor die erste Anfrage fällig ist
+    private static final long VORLAUF_NS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    // Ab dieser Verspätung gilt eine Anfrage als verspätet gestartet (Worker waren alle belegt)
+    private static final long VERSPAETET_AB_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int GENAUIGKEIT = 3;
+
+    public static class Ergebnis {
+        public long gesamtNs;
+        public int erfolgreich;
+        public int fehler;
+        public int verspaetet;
+        // Ab Soll-Startzeitpunkt (korrigiert)
+        public final Histogram antwortzeitNs = new Histogram(GENAUIGKEIT);
+        // Ab tatsächlichem Start (ohne Wartezeit)
+        public final Histogram bedienzeitNs = new Histogram(GENAUIGKEIT);
+    }
+
+    /**
+     * Führt einen Durchlauf aus: für jede Id eine Anfrage, mit ratePs Anfragen pro Sekunde.
+     * Der Aufruf liefert true bei Erfolg; Exceptions zählen als Fehler.
+     */
+    public Ergebnis fuehreDurchlaufAus(List<Long> ids, double ratePs, int anzahlThreads, LongPredicate aufruf)
+            throws InterruptedException {
+        return fuehreDurchlaufAus(ids, ratePs, anzahlThreads, false, aufruf);
+    }
+
+    /**
+     * Wie oben; mit virtuell bekommt jede Anfrage einen eigenen virtuellen Thread (Java 21),
+     * anzahlThreads begrenzt dann nichts.
+     */
+    public Ergebnis fuehreDurchlaufAus(List<Long> ids, double ratePs, int anzahlThreads, boolean virtuell,
+                                      LongPredicate aufruf) throws InterruptedException {
+        if (ratePs <= 0) {
+            throw new IllegalArgumentException("rate muss größer 0 sein");
+        }
+        long intervallNs = Math.max(1L, Math.round(1_000_000_000.0 / ratePs));
+        if (virtuell) {
+            return jeAnkunft(ids, intervallNs, VirtuelleThreads.jeAufgabe(), aufruf);
+        }
+        int threads = Math.max(1, anzahlThreads);
+
+        // Plattform-Threads vor dem Start anlegen, damit das nicht in die Messung fällt
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        pool.prestartAllCoreThreads();
+
+        Ergebnis[] proWorker = new Ergebnis[threads];
+        long[] letztesEnde = new long[threads];
+        AtomicInteger naechste = new AtomicInteger();
+        long start = System.nanoTime() + VORLAUF_NS;
+
+        List<Future<?>> worker = new ArrayList<>();
+        try {
+            for (int w = 0; w < threads; w++) {
+                Ergebnis eigenes = new Ergebnis();
+                proWorker[w] = eigenes;
+                int nummer = w;
+                worker.add(pool.submit(() -> {
+                    int i;
+                    while ((i = naechste.getAndIncrement()) < ids.size()) {
+                        long soll = start + i * intervallNs;
+                        long jetzt;
+                        while ((jetzt = System.nanoTime()) < soll) {
+                            LockSupport.parkNanos(soll - jetzt);
+                        }
+                        if (jetzt - soll > VERSPAETET_AB_NS) {
+                            eigenes.verspaetet++;
+                        }
+
+                        boolean erfolg;
+                        try {
+                            erfolg = aufruf.test(ids.get(i));
+                        } catch (Exception e) {
+                            erfolg = false;
+                        }
+                        long ende = System.nanoTime();
+
+                        eigenes.antwortzeitNs.recordValue(Math.max(1L, ende - soll));
+                        eigenes.bedienzeitNs.recordValue(Math.max(1L, ende - jetzt));
+                        if (erfolg) eigenes.erfolgreich++; else eigenes.fehler++;
+                        letztesEnde[nummer] = ende;
+                    }
+                }));
+            }
+            for (Future<?> f : worker) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Worker abgebrochen", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Future.get() sorgt dafür, dass die Werte der Worker hier sichtbar sind
+        Ergebnis gesamt = new Ergebnis();
+        long ende = start;
+        for (int w = 0; w < threads; w++) {
+            gesamt.antwortzeitNs.add(proWorker[w].antwortzeitNs);
+            gesamt.bedienzeitNs.add(proWorker[w].bedienzeitNs);
+            gesamt.erfolgreich += proWorker[w].erfolgreich;
+            gesamt.fehler += proWorker[w].fehler;
+            gesamt.verspaetet += proWorker[w].verspaetet;
+            ende = Math.max(ende, letztesEnde[w]);
+        }
+        gesamt.gesamtNs = ende - start;
+        return gesamt;
+    }
+
+    /**
+     * Eine Aufgabe je Ankunft: der aufrufende Thread reicht Anfrage i zu start + i * intervall an den
+     * Executor, der dafür einen neuen Thread startet. Die Histogramme teilen sich alle Aufgaben.
+     */
+    Ergebnis jeAnkunft(List<Long> ids, long intervallNs, ExecutorService jeAufgabe, LongPredicate aufruf)
+            throws InterruptedException {
+        Histogram antwort = new ConcurrentHistogram(GENAUIGKEIT);
+        Histogram bedien = new ConcurrentHistogram(GENAUIGKEIT);
+        AtomicInteger erfolgreich = new AtomicInteger();
+        AtomicInteger fehler = new AtomicInteger();
+        AtomicInteger verspaetet = new AtomicInteger();
+        AtomicLong letztesEnde = new AtomicLong();
+        long start = System.nanoTime() + VORLAUF_NS;
+
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                long soll = start + i * intervallNs;
+                long jetzt;
+                while ((jetzt = System.nanoTime()) < soll) {
+                    LockSupport.parkNanos(soll - jetzt);
+                }
+                long id = ids.get(i);
+                jeAufgabe.execute(() -> {
+                    long begonnen = System.nanoTime();
+                    if (begonnen - soll > VERSPAETET_AB_NS) {
+                        verspaetet.incrementAndGet();
+                    }
+                    boolean erfolg;
+                    try {
+                        erfolg = aufruf.test(id);
+                    } catch (Exception e) {
+                        erfolg = false;
+                    }
+                    long ende = System.nanoTime();
+
+                    antwort.recordValue(Math.max(1L, ende - soll));
+                    bedien.recordValue(Math.max(1L, ende - begonnen));
+                    (erfolg ? erfolgreich : fehler).incrementAndGet();
+                    letztesEnde.accumulateAndGet(ende, Math::max);
+                });
+            }
+            jeAufgabe.shutdown();
+            jeAufgabe.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            jeAufgabe.shutdownNow();
+        }
+
+        Ergebnis gesamt = new Ergebnis();
+        gesamt.antwortzeitNs.add(antwort);
+        gesamt.bedienzeitNs.add(bedien);
+        gesamt.erfolgreich = erfolgreich.get();
+        gesamt.fehler = fehler.get();
+        gesamt.verspaetet = verspaetet.get();
+        gesamt.gesamtNs = Math.max(start, letztesEnde.get()) - start;
+        return gesamt;
+    }
+}
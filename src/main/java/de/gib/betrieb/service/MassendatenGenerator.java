@@ -0,0 +1,515 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.Referenzdaten;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Massengenerierung von Testdaten per PostgreSQL COPY statt einzelner repository.save()-Aufrufe.
+ * Die Ids kommen aus vorab reservierten Bereichen der Identity-Sequenzen, die Fremdschlüssel
+ * patient → behandlungsfall → befund/bericht werden dadurch schon beim Erzeugen vergeben.
+ * Geladen wird in Blöcken von patienten-je-block Patienten, jeder Block in einer Transaktion und
+ * mit eigenem, aus dem seed abgeleiteten Zufallsgenerator; die Blöcke laufen parallel. Die Mengen je
+ * Patient bzw. Fall folgen konfigurierbaren {@link Verteilung}en, schiefe Verteilungen (Zipf, lognormal)
+ * erzeugen gezielt einzelne Patienten mit sehr vielen Befunden.
+ * Die Stammdaten (Einrichtungen, Standorte, Ärzte, Medikamente) werden wiederverwendet bzw. einmal über JPA angelegt.
+ */
+@Service
+public class MassendatenGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(MassendatenGenerator.class);
+
+    // Reihenfolge = Reihenfolge der COPYs im Block (Fremdschlüssel)
+    private static final Tabelle PATIENT = new Tabelle("patient", "patienten_id",
+            "vorname, nachname, geburtsdatum, geschlecht");
+    private static final Tabelle FALL = new Tabelle("behandlungsfall", "fall_id",
+            "patienten_id, arzt_id, standort_id, beginn, ende, art");
+    private static final Tabelle BEFUND = new Tabelle("befund", "befund_id",
+            "fall_id, code, wert, einheit, zeitpunkt");
+    private static final Tabelle BERICHT = new Tabelle("bericht", "bericht_id",
+            "fall_id, code, erstellt_am");
+    private static final Tabelle VERORDNUNG = new Tabelle("verordnung", "verordnung_id",
+            "patienten_id, medikament_id, arzt_id, verordnet_am, status, dosierung");
+    private static final Tabelle TERMIN = new Tabelle("termin", "termin_id",
+            "patienten_id, arzt_id, standort_id, beginn_zeit, ende_zeit, status");
+    private static final List<Tabelle> TABELLEN = List.of(PATIENT, FALL, BEFUND, BERICHT, VERORDNUNG, TERMIN);
+
+    // Wertevorrat wie im TestdatenGenerator
+    private static final String[] VORNAMEN_MAENNLICH = {"Hans", "Peter", "Klaus", "Wolfgang", "Bernd",
+            "Michael", "Thomas", "Andreas", "Stefan", "Ralf"};
+    private static final String[] VORNAMEN_WEIBLICH = {"Maria", "Anna", "Petra", "Sabine", "Monika",
+            "Andrea", "Claudia", "Karin", "Barbara", "Ute"};
+    private static final String[] NACHNAMEN = {"Müller", "Schmidt", "Schneider", "Fischer", "Weber",
+            "Meyer", "Wagner", "Becker", "Schulz", "Hoffmann"};
+    private static final String[] ARTEN = {"Ambulant", "Stationär", "Notfall", "Voruntersuchung"};
+    private static final String[] BEFUND_CODES = {"LAB-001", "LAB-002", "VITAL-001", "VITAL-002",
+            "BLOOD-001", "URINE-001"};
+    private static final String[] BEFUND_WERTE = {"120/80", "98.6", "Normal", "Erhöht", "Niedrig", "7.4"};
+    private static final String[] EINHEITEN = {"mmHg", "°C", "", "mg/dl", "pH", "ml"};
+    private static final String[] BERICHT_CODES = {"ARZTBRIEF", "LABORBERICHT", "RADIOLOGIE", "ENTLASSUNG"};
+    private static final String[] VERORDNUNG_STATUS = {"aktiv", "beendet", "pausiert"};
+    private static final String[] DOSIERUNGEN = {"1x täglich", "2x täglich", "3x täglich", "bei Bedarf"};
+    private static final String[] TERMIN_STATUS = {"geplant", "bestätigt", "abgesagt"};
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private TestdatenGenerator testdatenGenerator;
+
+    @Autowired
+    private PatientIndex patientIndex;
+
+    @Autowired
+    private BefundIndex befundIndex;
+
+    @Autowired
+    private BestandsStatistik bestandsStatistik;
+
+    @Autowired
+    private Referenzdaten referenzdaten;
+
+    @Value("${fhir.massendaten.patienten-je-block:10000}")
+    private int patientenJeBlock = 10_000;
+
+    @Value("${fhir.massendaten.threads:4}")
+    private int threads = 4;
+
+    @Value("${fhir.massendaten.faelle:gleich:1-3}")
+    private String faelleJePatient = "gleich:1-3";
+
+    @Value("${fhir.massendaten.befunde:gleich:2-5}")
+    private String befundeJeFall = "gleich:2-5";
+
+    @Value("${fhir.massendaten.berichte:gleich:1-2}")
+    private String berichteJeFall = "gleich:1-2";
+
+    // ISO-Datum; fester Bezugspunkt statt now(), damit Läufe mit gleichem seed gleich ausfallen
+    @Value("${fhir.massendaten.stichtag:2025-01-01}")
+    private String stichtag = "2025-01-01";
+
+    /** Tabelle mit Identity-Spalte und den übrigen Spalten in COPY-Reihenfolge */
+    record Tabelle(String name, String idSpalte, String spalten) {
+
+        String copyBefehl() {
+            return "COPY " + name + " (" + idSpalte + ", " + spalten + ") FROM STDIN";
+        }
+    }
+
+    /**
+     * Parameter eines Laufs. Gleicher seed, gleiche Verteilungen und gleicher Stichtag ergeben dieselben
+     * Daten, unabhängig von der Anzahl Threads; nur die Ids hängen vom Stand der Sequenzen ab.
+     * Fälle liegen in den zwei Jahren vor dem Stichtag, Termine in den 90 Tagen danach.
+     */
+    public record Optionen(long seed, int threads, Verteilung faelle, Verteilung befunde, Verteilung berichte,
+                           LocalDate stichtag) {}
+
+    /** Zeilen und reine COPY-Zeit einer Tabelle (über alle Threads summiert) */
+    public record Tabellenergebnis(String tabelle, long zeilen, long copyNanos) {
+
+        public double zeilenProSekunde() {
+            return copyNanos == 0 ? 0.0 : zeilen * 1e9 / copyNanos;
+        }
+    }
+
+    public record Ergebnis(int patienten, Optionen optionen, long dauerNanos, List<Tabellenergebnis> tabellen) {
+
+        public long zeilen() {
+            return tabellen.stream().mapToLong(Tabellenergebnis::zeilen).sum();
+        }
+
+        public Map<String, Object> alsMap() {
+            Map<String, Object> ergebnis = new LinkedHashMap<>();
+            ergebnis.put("patienten", patienten);
+            ergebnis.put("seed", optionen.seed());
+            ergebnis.put("threads", optionen.threads());
+            ergebnis.put("faelle", optionen.faelle().toString());
+            ergebnis.put("befunde", optionen.befunde().toString());
+            ergebnis.put("berichte", optionen.berichte().toString());
+            ergebnis.put("stichtag", optionen.stichtag().toString());
+            ergebnis.put("zeilen", zeilen());
+            ergebnis.put("sekunden", dauerNanos / 1e9);
+            ergebnis.put("zeilenProSekunde", dauerNanos == 0 ? 0.0 : zeilen() * 1e9 / dauerNanos);
+            List<Map<String, Object>> jeTabelle = new ArrayList<>();
+            for (Tabellenergebnis t : tabellen) {
+                Map<String, Object> zeile = new LinkedHashMap<>();
+                zeile.put("tabelle", t.tabelle());
+                zeile.put("zeilen", t.zeilen());
+                zeile.put("copySekunden", t.copyNanos() / 1e9);
+                zeile.put("zeilenProSekunde", Math.round(t.zeilenProSekunde()));
+                jeTabelle.add(zeile);
+            }
+            ergebnis.put("tabellen", jeTabelle);
+            return ergebnis;
+        }
+    }
+
+    // Ids der Stammdaten, auf die die erzeugten Zeilen verweisen (nach Id sortiert, für reproduzierbare Läufe)
+    record Stammdaten(long[] aerzte, long[] standorte, long[] medikamente) {}
+
+    /**
+     * Mengen eines Blocks, vorab gezogen, damit die Id-Bereiche vor dem Erzeugen feststehen. Der Zufallsgenerator
+     * des Blocks erzeugt danach auch die Werte, der Inhalt hängt so nur vom seed und der Blocknummer ab.
+     */
+    static final class Block {
+        final int patienten;
+        final SplittableRandom zufall;
+        final int[] faelleJePatient;
+        final int[] verordnungenJePatient;
+        final int[] termineJePatient;
+        final int[] befundeJeFall;
+        final int[] berichteJeFall;
+        // Zeilen und erste Id je Tabelle, Reihenfolge wie TABELLEN
+        final long[] anzahl = new long[TABELLEN.size()];
+        final long[] ersteId = new long[TABELLEN.size()];
+
+        Block(int patienten, SplittableRandom zufall, Optionen optionen) {
+            this.patienten = patienten;
+            this.zufall = zufall;
+            faelleJePatient = new int[patienten];
+            verordnungenJePatient = new int[patienten];
+            termineJePatient = new int[patienten];
+            int faelle = 0;
+            for (int p = 0; p < patienten; p++) {
+                faelleJePatient[p] = optionen.faelle().ziehe(zufall);
+                verordnungenJePatient[p] = zufall.nextInt(3) + 1;
+                termineJePatient[p] = zufall.nextInt(2) + 1;
+                faelle += faelleJePatient[p];
+                anzahl[4] += verordnungenJePatient[p];
+                anzahl[5] += termineJePatient[p];
+            }
+            befundeJeFall = new int[faelle];
+            berichteJeFall = new int[faelle];
+            for (int f = 0; f < faelle; f++) {
+                befundeJeFall[f] = optionen.befunde().ziehe(zufall);
+                berichteJeFall[f] = optionen.berichte().ziehe(zufall);
+                anzahl[2] += befundeJeFall[f];
+                anzahl[3] += berichteJeFall[f];
+            }
+            anzahl[0] = patienten;
+            anzahl[1] = faelle;
+        }
+    }
+
+    /** Optionen aus der Konfiguration; null-Werte werden durch die konfigurierten ersetzt, ohne seed wird einer gezogen */
+    public Optionen optionen(Long seed, Integer threads, String faelle, String befunde, String berichte) {
+        return new Optionen(
+                seed != null ? seed : new SplittableRandom().nextLong(),
+                Math.max(1, threads != null ? threads : this.threads),
+                Verteilung.parse(faelle != null ? faelle : faelleJePatient),
+                Verteilung.parse(befunde != null ? befunde : befundeJeFall),
+                Verteilung.parse(berichte != null ? berichte : berichteJeFall),
+                LocalDate.parse(stichtag));
+    }
+
+    public Ergebnis generiere(int anzahlPatienten) {
+        return generiere(anzahlPatienten, optionen(null, null, null, null, null));
+    }
+
+    /**
+     * Erzeugt anzahlPatienten Patienten mit Fällen, Befunden, Berichten, Verordnungen und Terminen.
+     * Die Blöcke werden im aufrufenden Thread geplant (je Block ein vom seed abgeleiteter SplittableRandom)
+     * und bekommen zusammenhängende Teile der vorab reservierten Id-Bereiche; Erzeugen und COPY laufen
+     * danach parallel auf optionen.threads Verbindungen. Am Ende werden Id-Index, Befund-Index und Bestandszähler
+     * nachgezogen, die COPYs laufen am AenderungsListener vorbei.
+     */
+    public Ergebnis generiere(int anzahlPatienten, Optionen optionen) {
+        long start = System.nanoTime();
+        AtomicLongArray zeilen = new AtomicLongArray(TABELLEN.size());
+        AtomicLongArray copyNanos = new AtomicLongArray(TABELLEN.size());
+
+        List<Block> bloecke = plane(anzahlPatienten, optionen);
+        Stammdaten stammdaten;
+        try (Connection verbindung = dataSource.getConnection()) {
+            stammdaten = stammdaten(verbindung);
+            verteileIds(verbindung, bloecke);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Massengenerierung fehlgeschlagen: " + e.getMessage(), e);
+        }
+
+        AtomicInteger threadZaehler = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(optionen.threads(), r -> {
+            Thread t = new Thread(r, "fhir-massendaten-" + threadZaehler.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger geladen = new AtomicInteger();
+        LocalDateTime bezug = optionen.stichtag().atStartOfDay();
+        try {
+            List<Future<?>> laeufe = new ArrayList<>();
+            for (Block block : bloecke) {
+                laeufe.add(pool.submit(() -> {
+                    CopyZeilen[] puffer = erzeuge(block, stammdaten, bezug);
+                    ladeBlock(puffer, zeilen, copyNanos);
+                    log.info("Massendaten: {}/{} Patienten geladen",
+                            geladen.addAndGet(block.patienten), anzahlPatienten);
+                    return null;
+                }));
+            }
+            for (Future<?> lauf : laeufe) {
+                lauf.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Massengenerierung unterbrochen", e);
+        } catch (ExecutionException e) {
+            Throwable ursache = e.getCause();
+            throw new IllegalStateException("Massengenerierung fehlgeschlagen: " + ursache.getMessage(), ursache);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (Connection verbindung = dataSource.getConnection(); Statement st = verbindung.createStatement()) {
+            // Planer-Statistiken und reltuples (fhir.statistik.modus=schaetzung) auf den neuen Stand bringen
+            for (Tabelle t : TABELLEN) {
+                st.execute("ANALYZE " + t.name());
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("ANALYZE nach Massengenerierung fehlgeschlagen: " + e.getMessage(), e);
+        }
+
+        patientIndex.neuAufbauen();
+        befundIndex.neuAufbauen();
+        bestandsStatistik.abgleichen();
+        referenzdaten.pruefeVersion();
+
+        List<Tabellenergebnis> tabellen = new ArrayList<>();
+        for (int i = 0; i < TABELLEN.size(); i++) {
+            tabellen.add(new Tabellenergebnis(TABELLEN.get(i).name(), zeilen.get(i), copyNanos.get(i)));
+        }
+        Ergebnis ergebnis = new Ergebnis(anzahlPatienten, optionen, System.nanoTime() - start, tabellen);
+        log.info("Massendaten (seed {}): {} Zeilen in {} s ({} Zeilen/s)", optionen.seed(), ergebnis.zeilen(),
+                String.format("%.1f", ergebnis.dauerNanos() / 1e9), Math.round(ergebnis.zeilen() * 1e9 / ergebnis.dauerNanos()));
+        return ergebnis;
+    }
+
+    /** Blöcke in fester Reihenfolge; Block i bekommt den i-ten split() des Generators aus dem seed */
+    List<Block> plane(int anzahlPatienten, Optionen optionen) {
+        SplittableRandom wurzel = new SplittableRandom(optionen.seed());
+        List<Block> bloecke = new ArrayList<>();
+        for (int erledigt = 0; erledigt < anzahlPatienten; erledigt += patientenJeBlock) {
+            int patienten = Math.min(patientenJeBlock, anzahlPatienten - erledigt);
+            bloecke.add(new Block(patienten, wurzel.split(), optionen));
+        }
+        return bloecke;
+    }
+
+    // Ein Bereich je Tabelle für den ganzen Lauf, die Blöcke bekommen ihn in Blockreihenfolge zugeteilt
+    private static void verteileIds(Connection verbindung, List<Block> bloecke) throws SQLException {
+        for (int i = 0; i < TABELLEN.size(); i++) {
+            long summe = 0;
+            for (Block block : bloecke) {
+                summe += block.anzahl[i];
+            }
+            long naechste = reserviere(verbindung, TABELLEN.get(i), summe);
+            for (Block block : bloecke) {
+                block.ersteId[i] = naechste;
+                naechste += block.anzahl[i];
+            }
+        }
+        verbindung.setAutoCommit(true);
+    }
+
+    /** Zeilen eines Blocks im COPY-Textformat, Fremdschlüssel aus den zugeteilten Id-Bereichen */
+    static CopyZeilen[] erzeuge(Block block, Stammdaten stammdaten, LocalDateTime bezug) {
+        SplittableRandom zufall = block.zufall;
+        long[] naechsteId = block.ersteId.clone();
+        CopyZeilen[] puffer = new CopyZeilen[TABELLEN.size()];
+        for (int i = 0; i < puffer.length; i++) {
+            puffer[i] = new CopyZeilen();
+        }
+
+        int fall = 0;
+        for (int p = 0; p < block.patienten; p++) {
+            long patientId = naechsteId[0]++;
+            boolean istMann = zufall.nextBoolean();
+            puffer[0].zeile(patientId,
+                    istMann ? waehle(zufall, VORNAMEN_MAENNLICH) : waehle(zufall, VORNAMEN_WEIBLICH),
+                    waehle(zufall, NACHNAMEN),
+                    LocalDate.of(1940 + zufall.nextInt(70), zufall.nextInt(12) + 1, zufall.nextInt(28) + 1),
+                    istMann ? "männlich" : "weiblich");
+
+            for (int j = 0; j < block.faelleJePatient[p]; j++, fall++) {
+                long fallId = naechsteId[1]++;
+                LocalDateTime beginn = bezug.minusDays(zufall.nextInt(730));
+                String art = waehle(zufall, ARTEN);
+                LocalDateTime ende = "Stationär".equals(art) ? beginn.plusDays(zufall.nextInt(10) + 1) : null;
+                puffer[1].zeile(fallId, patientId, waehle(zufall, stammdaten.aerzte()),
+                        waehle(zufall, stammdaten.standorte()), beginn, ende, art);
+
+                for (int k = 0; k < block.befundeJeFall[fall]; k++) {
+                    puffer[2].zeile(naechsteId[2]++, fallId, waehle(zufall, BEFUND_CODES), waehle(zufall, BEFUND_WERTE),
+                            waehle(zufall, EINHEITEN), beginn.plusMinutes(zufall.nextInt(480)));
+                }
+                for (int l = 0; l < block.berichteJeFall[fall]; l++) {
+                    puffer[3].zeile(naechsteId[3]++, fallId, waehle(zufall, BERICHT_CODES),
+                            beginn.plusHours(zufall.nextInt(24)));
+                }
+            }
+
+            for (int m = 0; m < block.verordnungenJePatient[p]; m++) {
+                puffer[4].zeile(naechsteId[4]++, patientId, waehle(zufall, stammdaten.medikamente()),
+                        waehle(zufall, stammdaten.aerzte()), bezug.minusDays(zufall.nextInt(365)),
+                        waehle(zufall, VERORDNUNG_STATUS), waehle(zufall, DOSIERUNGEN));
+            }
+            for (int n = 0; n < block.termineJePatient[p]; n++) {
+                LocalDateTime beginn = bezug.plusDays(zufall.nextInt(90));
+                puffer[5].zeile(naechsteId[5]++, patientId, waehle(zufall, stammdaten.aerzte()),
+                        waehle(zufall, stammdaten.standorte()), beginn, beginn.plusMinutes(30 + zufall.nextInt(60)),
+                        waehle(zufall, TERMIN_STATUS));
+            }
+        }
+        return puffer;
+    }
+
+    // Ein Block = eine Transaktion auf eigener Verbindung, COPY in Fremdschlüssel-Reihenfolge
+    private void ladeBlock(CopyZeilen[] puffer, AtomicLongArray zeilen, AtomicLongArray copyNanos)
+            throws SQLException, IOException {
+        try (Connection verbindung = dataSource.getConnection()) {
+            CopyManager copy = verbindung.unwrap(PGConnection.class).getCopyAPI();
+            verbindung.setAutoCommit(false);
+            try {
+                for (int i = 0; i < TABELLEN.size(); i++) {
+                    long t0 = System.nanoTime();
+                    long kopiert = copy.copyIn(TABELLEN.get(i).copyBefehl(), new StringReader(puffer[i].toString()), 1 << 16);
+                    copyNanos.addAndGet(i, System.nanoTime() - t0);
+                    zeilen.addAndGet(i, kopiert);
+                    puffer[i] = null;
+                }
+                verbindung.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                verbindung.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reserviert anzahl Ids der Identity-Sequenz und liefert die erste. Die Tabellensperre hält
+     * gleichzeitige INSERTs (die nextval über den Default ziehen) kurz an, damit der Bereich lückenlos bleibt.
+     */
+    static long reserviere(Connection verbindung, Tabelle tabelle, long anzahl) throws SQLException {
+        if (anzahl == 0) {
+            return 0;
+        }
+        verbindung.setAutoCommit(false);
+        try (Statement sperre = verbindung.createStatement();
+             PreparedStatement st = verbindung.prepareStatement(
+                     "SELECT setval(s, nextval(s) + ? - 1) FROM (SELECT pg_get_serial_sequence(?, ?)::regclass AS s) q")) {
+            sperre.execute("LOCK TABLE " + tabelle.name() + " IN SHARE ROW EXCLUSIVE MODE");
+            st.setLong(1, anzahl);
+            st.setString(2, tabelle.name());
+            st.setString(3, tabelle.idSpalte());
+            long letzte;
+            try (ResultSet rs = st.executeQuery()) {
+                rs.next();
+                letzte = rs.getLong(1);
+            }
+            verbindung.commit();
+            return letzte - anzahl + 1;
+        } catch (SQLException | RuntimeException e) {
+            verbindung.rollback();
+            throw e;
+        }
+    }
+
+    private Stammdaten stammdaten(Connection verbindung) throws SQLException {
+        Stammdaten vorhanden = leseStammdaten(verbindung);
+        if (vorhanden.aerzte().length > 0 && vorhanden.standorte().length > 0 && vorhanden.medikamente().length > 0) {
+            return vorhanden;
+        }
+        testdatenGenerator.generiereStammdaten();
+        return leseStammdaten(verbindung);
+    }
+
+    private static Stammdaten leseStammdaten(Connection verbindung) throws SQLException {
+        return new Stammdaten(
+                ids(verbindung, "SELECT arzt_id FROM arzt ORDER BY arzt_id"),
+                ids(verbindung, "SELECT standort_id FROM standort ORDER BY standort_id"),
+                ids(verbindung, "SELECT medikament_id FROM medikament ORDER BY medikament_id"));
+    }
+
+    private static long[] ids(Connection verbindung, String sql) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (Statement st = verbindung.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static String waehle(SplittableRandom zufall, String[] werte) {
+        return werte[zufall.nextInt(werte.length)];
+    }
+
+    private static long waehle(SplittableRandom zufall, long[] werte) {
+        return werte[zufall.nextInt(werte.length)];
+    }
+
+    /** Zeilen im Textformat von COPY: Tabulator zwischen Feldern, \N für null */
+    static final class CopyZeilen {
+
+        private final StringBuilder text = new StringBuilder(1 << 16);
+
+        void zeile(Object... felder) {
+            for (int i = 0; i < felder.length; i++) {
+                if (i > 0) {
+                    text.append('\t');
+                }
+                feld(felder[i]);
+            }
+            text.append('\n');
+        }
+
+        private void feld(Object wert) {
+            if (wert == null) {
+                text.append("\\N");
+                return;
+            }
+            String s = wert.toString();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '\\' -> text.append("\\\\");
+                    case '\t' -> text.append("\\t");
+                    case '\n' -> text.append("\\n");
+                    case '\r' -> text.append("\\r");
+                    default -> text.append(c);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
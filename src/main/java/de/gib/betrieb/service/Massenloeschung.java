@@ -0,0 +1,134 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.Referenzdaten;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Setzt den Datenbestand mengenbasiert zurück statt über patientRepository.deleteAll(), das jeden Patienten
+ * lädt und die Kaskade Zeile für Zeile löscht. Zwei Wege, beide in einer Transaktion:
+ * <ul>
+ *   <li>TRUNCATE ... RESTART IDENTITY: alle Tabellen in einer Anweisung, Ids beginnen wieder bei 1.
+ *       Sperrt die Tabellen exklusiv, laufende Lesezugriffe warten kurz.</li>
+ *   <li>DELETE je Tabelle in Abhängigkeitsreihenfolge: liefert die gelöschten Zeilen je Tabelle,
+ *       Lesezugriffe laufen weiter, Ids werden nicht zurückgesetzt. Braucht die Indizes auf den
+ *       Fremdschlüsselspalten (idx_befund_fall usw.), sonst prüft Postgres jede gelöschte Elternzeile per
+ *       Seq-Scan über die eben geleerten, noch nicht bereinigten Kindtabellen.</li>
+ * </ul>
+ * Ohne stammdaten bleiben Arzt, Standort, Einrichtung und Medikament erhalten (wie bisher bei deleteAll()).
+ * Da alles an JPA vorbei läuft, werden Cache, Id-Index, Befund-Index, Bestandszähler und Referenzdaten danach nachgezogen.
+ */
+@Service
+public class Massenloeschung {
+
+    private static final Logger log = LoggerFactory.getLogger(Massenloeschung.class);
+
+    // Abhängige Tabellen zuerst
+    static final List<String> PATIENTENBEZOGEN = List.of("befund", "bericht", "behandlungsfall", "verordnung", "termin", "patient");
+    static final List<String> STAMMDATEN = List.of("standort", "einrichtung", "arzt", "medikament");
+
+    public enum Modus { TRUNCATE, DELETE }
+
+    /** Ein Schritt mit Dauer; zeilen nur bei DELETE (sonst -1) */
+    public record Schritt(String tabelle, long zeilen, long nanos) {}
+
+    public record Ergebnis(Modus modus, boolean mitStammdaten, long dauerNanos, List<Schritt> schritte) {
+
+        public String alsText() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "%s%s in %.2f s",
+                    modus.name().toLowerCase(Locale.ROOT), mitStammdaten ? " inkl. Stammdaten" : "", dauerNanos / 1e9));
+            for (Schritt s : schritte) {
+                text.append(String.format(Locale.ROOT, "%n  %-16s %s%.2f s", s.tabelle(),
+                        s.zeilen() >= 0 ? s.zeilen() + " Zeilen, " : "", s.nanos() / 1e9));
+            }
+            return text.toString();
+        }
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private RessourcenCache ressourcenCache;
+
+    @Autowired
+    private PatientIndex patientIndex;
+
+    @Autowired
+    private BefundIndex befundIndex;
+
+    @Autowired
+    private BestandsStatistik bestandsStatistik;
+
+    @Autowired
+    private Referenzdaten referenzdaten;
+
+    public Ergebnis loesche(Modus modus, boolean mitStammdaten) {
+        List<String> tabellen = new ArrayList<>(PATIENTENBEZOGEN);
+        if (mitStammdaten) {
+            tabellen.addAll(STAMMDATEN);
+        }
+
+        long start = System.nanoTime();
+        List<Schritt> schritte = new ArrayList<>();
+        try (Connection verbindung = dataSource.getConnection()) {
+            verbindung.setAutoCommit(false);
+            try (Statement st = verbindung.createStatement()) {
+                if (modus == Modus.TRUNCATE) {
+                    long t0 = System.nanoTime();
+                    st.execute(truncateBefehl(tabellen));
+                    schritte.add(new Schritt(String.join(", ", tabellen), -1, System.nanoTime() - t0));
+                } else {
+                    for (String tabelle : tabellen) {
+                        long t0 = System.nanoTime();
+                        int zeilen = st.executeUpdate("DELETE FROM " + tabelle);
+                        schritte.add(new Schritt(tabelle, zeilen, System.nanoTime() - t0));
+                        log.info("Massenlöschung: {} Zeilen aus {} gelöscht ({}/{})", zeilen, tabelle,
+                                schritte.size(), tabellen.size());
+                    }
+                }
+                verbindung.commit();
+            } catch (SQLException | RuntimeException e) {
+                verbindung.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Massenlöschung fehlgeschlagen: " + e.getMessage(), e);
+        }
+
+        long t0 = System.nanoTime();
+        ressourcenCache.leeren();
+        patientIndex.neuAufbauen();
+        befundIndex.neuAufbauen();
+        bestandsStatistik.abgleichen();
+        referenzdaten.pruefeVersion();
+        schritte.add(new Schritt("caches", -1, System.nanoTime() - t0));
+
+        Ergebnis ergebnis = new Ergebnis(modus, mitStammdaten, System.nanoTime() - start, schritte);
+        log.info("Massenlöschung: {}", ergebnis.alsText());
+        return ergebnis;
+    }
+
+    static String truncateBefehl(List<String> tabellen) {
+        // Ohne CASCADE: eine unbekannte Tabelle mit Fremdschlüssel lässt das TRUNCATE scheitern statt mitgeleert zu werden
+        return "TRUNCATE TABLE " + String.join(", ", tabellen) + " RESTART IDENTITY";
+    }
+
+    public static Modus modus(String text) {
+        try {
+            return Modus.valueOf(text.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unbekannter Modus '" + text + "', erwartet truncate oder delete");
+        }
+    }
+}
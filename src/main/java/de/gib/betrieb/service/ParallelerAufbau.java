@@ -0,0 +1,145 @@
+package de.gib.betrieb.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Paralleler Aufbau von Patienten-Bundles. Die Selects laufen gleichzeitig auf einem begrenzten Pool
+ * (jeder Worker mit eigener Transaktion und Verbindung), die Konvertierung großer Bundles auf einem
+ * eigenen ForkJoinPool. Die Reihenfolge der Ergebnisse entspricht immer der Reihenfolge der Quellen.
+ * Unterhalb von parallel-ab Resources wird im aufrufenden Thread konvertiert, kleine Patienten zahlen
+ * so keinen Koordinationsaufwand.
+ */
+@Service
+public class ParallelerAufbau {
+
+    private final boolean aktiv;
+    private final int parallelAb;
+    private final ThreadPoolExecutor ladePool;
+    private final ForkJoinPool konvertierPool;
+
+    private final AtomicLong parallelKonvertiert = new AtomicLong();
+    private final AtomicLong sequentiellKonvertiert = new AtomicLong();
+    private final AtomicLong imAufruferGeladen = new AtomicLong();
+
+    public ParallelerAufbau(@Value("${fhir.bundle.parallel.aktiv:true}") boolean aktiv,
+                            @Value("${fhir.bundle.parallel.ab:64}") int parallelAb,
+                            @Value("${fhir.bundle.parallel.lade-threads:4}") int ladeThreads,
+                            @Value("${fhir.bundle.parallel.warteschlange:256}") int warteschlange,
+                            @Value("${fhir.bundle.parallel.konvertier-threads:0}") int konvertierThreads) {
+        this.aktiv = aktiv;
+        this.parallelAb = Math.max(1, parallelAb);
+
+        AtomicInteger ladeZaehler = new AtomicInteger();
+        // Voll: der Aufrufer lädt selbst, statt die Anfrage abzuweisen
+        this.ladePool = new ThreadPoolExecutor(
+                ladeThreads, ladeThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(warteschlange),
+                r -> {
+                    Thread t = new Thread(r, "fhir-bundle-lade-" + ladeZaehler.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, pool) -> {
+                    imAufruferGeladen.incrementAndGet();
+                    r.run();
+                });
+
+        AtomicInteger konvertierZaehler = new AtomicInteger();
+        int parallelitaet = konvertierThreads > 0 ? konvertierThreads : Runtime.getRuntime().availableProcessors();
+        // Eigener Pool statt commonPool: Bundles konkurrieren nicht mit anderen parallelen Streams
+        this.konvertierPool = new ForkJoinPool(parallelitaet, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("fhir-bundle-konvertierung-" + konvertierZaehler.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    public boolean aktiv() {
+        return aktiv;
+    }
+
+    /** Startet lader auf dem Lade-Pool; ohne parallelen Aufbau läuft er sofort im aufrufenden Thread */
+    public <T> CompletableFuture<T> starte(Supplier<T> lader) {
+        if (!aktiv) {
+            return CompletableFuture.completedFuture(lader.get());
+        }
+        return CompletableFuture.supplyAsync(lader, ladePool);
+    }
+
+    /** Wartet auf das Ergebnis von {@link #starte(Supplier)} und wirft dessen Fehler unverpackt weiter */
+    public static <T> T warte(CompletableFuture<T> ladung) {
+        try {
+            return ladung.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            }
+            if (e.getCause() instanceof Error f) {
+                throw f;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Liefert [erzeuge(0), ..., erzeuge(anzahl - 1)] in dieser Reihenfolge. Ab parallel-ab Elementen
+     * wird auf dem Konvertier-Pool gerechnet; erzeuge darf dann keine Lazy-Assoziationen nachladen.
+     */
+    public <R> List<R> konvertiere(int anzahl, IntFunction<R> erzeuge) {
+        if (!aktiv || anzahl < parallelAb) {
+            sequentiellKonvertiert.incrementAndGet();
+            List<R> ergebnis = new ArrayList<>(anzahl);
+            for (int i = 0; i < anzahl; i++) {
+                ergebnis.add(erzeuge.apply(i));
+            }
+            return ergebnis;
+        }
+        parallelKonvertiert.incrementAndGet();
+        // Geordneter Stream: collect hält die Reihenfolge der Indizes unabhängig von der Verteilung auf Threads
+        return konvertierPool.submit(() -> IntStream.range(0, anzahl).parallel()
+                .mapToObj(erzeuge)
+                .collect(Collectors.toCollection(() -> new ArrayList<R>(anzahl))))
+                .join();
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("parallelAb", parallelAb);
+        statistik.put("ladeThreads", ladePool.getMaximumPoolSize());
+        statistik.put("ladeWarteschlange", ladePool.getQueue().size());
+        statistik.put("imAufruferGeladen", imAufruferGeladen.get());
+        statistik.put("konvertierParallelitaet", konvertierPool.getParallelism());
+        statistik.put("parallelKonvertiert", parallelKonvertiert.get());
+        statistik.put("sequentiellKonvertiert", sequentiellKonvertiert.get());
+        return statistik;
+    }
+
+    @PreDestroy
+    public void beende() {
+        ladePool.shutdownNow();
+        konvertierPool.shutdownNow();
+    }
+}
@@ -0,0 +1,47 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Bericht;
+import de.gib.betrieb.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vollständig geladener Datenbestand eines Patienten (Fälle, Befunde, Berichte inkl. Arzt und Standort).
+ * Adapter rendern daraus ohne weitere Repository-Aufrufe.
+ */
+public class PatientGraph {
+
+    private final Patient patient;
+    private final List<Befund> befunde;
+    private final List<Bericht> berichte;
+    private final Map<Long, List<Befund>> befundeJeFall = new LinkedHashMap<>();
+
+    public PatientGraph(Patient patient, List<Befund> befunde, List<Bericht> berichte) {
+        this.patient = patient;
+        this.befunde = befunde;
+        this.berichte = berichte;
+        for (Befund befund : befunde) {
+            if (befund.getBehandlungsfall() != null) {
+                befundeJeFall.computeIfAbsent(befund.getBehandlungsfall().getFallId(), k -> new ArrayList<>())
+                        .add(befund);
+            }
+        }
+    }
+
+    public Patient getPatient() { return patient; }
+    public List<Befund> getBefunde() { return befunde; }
+    public List<Bericht> getBerichte() { return berichte; }
+
+    /** Befunde des Falls, zu dem der Bericht gehört (ersetzt die Einzelabfrage im Bericht-Adapter) */
+    public List<Befund> befundeZuBericht(Bericht bericht) {
+        if (bericht.getBehandlungsfall() == null) {
+            return null;
+        }
+        return befundeJeFall.getOrDefault(bericht.getBehandlungsfall().getFallId(), Collections.emptyList());
+    }
+}
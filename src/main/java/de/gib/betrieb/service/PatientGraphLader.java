@@ -0,0 +1,66 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.datenbank.BerichtRepository;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Bericht;
+import de.gib.betrieb.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lädt den Graphen eines Patienten mit einer festen Anzahl Selects (Patient, Befunde, Berichte),
+ * unabhängig davon, wie viele Fälle, Befunde und Berichte er hat.
+ */
+@Service
+public class PatientGraphLader {
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private BefundRepository befundRepository;
+
+    @Autowired
+    private BerichtRepository berichtRepository;
+
+    @Autowired
+    private ParallelerAufbau parallelerAufbau;
+
+    /** Liefert null, wenn der Patient nicht existiert */
+    @Transactional(readOnly = true)
+    public PatientGraph lade(Long patientId) {
+        Patient patient = patientRepository.findById(patientId).orElse(null);
+        if (patient == null) {
+            return null;
+        }
+        List<Befund> befunde = befundRepository.ladeBefundeFuerPatient(patientId);
+        List<Bericht> berichte = berichtRepository.ladeBerichteFuerPatient(patientId);
+        return new PatientGraph(patient, befunde, berichte);
+    }
+
+    /**
+     * Wie {@link #lade(Long)}, die drei Selects laufen aber gleichzeitig auf dem Lade-Pool. Jeder in eigener
+     * Transaktion; der aufrufende Thread hält dabei keine Verbindung, er wartet nur. Arzt wird mitgeladen,
+     * damit die Konvertierung in anderen Threads keinen Lazy-Proxy anfasst.
+     */
+    public PatientGraph ladeGleichzeitig(Long patientId) {
+        CompletableFuture<Patient> patient = parallelerAufbau.starte(
+                () -> patientRepository.findById(patientId).orElse(null));
+        CompletableFuture<List<Befund>> befunde = parallelerAufbau.starte(
+                () -> befundRepository.ladeBefundeMitArztFuerPatient(patientId));
+        CompletableFuture<List<Bericht>> berichte = parallelerAufbau.starte(
+                () -> berichtRepository.ladeBerichteMitArztFuerPatient(patientId));
+
+        Patient geladen = ParallelerAufbau.warte(patient);
+        if (geladen == null) {
+            return null;
+        }
+        return new PatientGraph(geladen, ParallelerAufbau.warte(befunde), ParallelerAufbau.warte(berichte));
+    }
+}
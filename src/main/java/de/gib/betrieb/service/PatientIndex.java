@@ -0,0 +1,161 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Patient;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Alle vorhandenen patienten_id als komprimierte Bitmap (Roaring) im Speicher.
+ * Existenzprüfungen laufen damit ohne Datenbankzugriff. Aufgebaut wird beim Start und in festen
+ * Abständen (für Änderungen an JPA vorbei), dazwischen halten Anlegen und Löschen über JPA die Bitmap aktuell.
+ */
+@Service
+public class PatientIndex {
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    private final ReentrantReadWriteLock sperre = new ReentrantReadWriteLock();
+
+    // Neuaufbauen nacheinander (Zeitplan und Massenänderungen), sie teilen sich waehrendAufbau
+    private final ReentrantLock aufbausperre = new ReentrantLock();
+
+    private Roaring64Bitmap ids = new Roaring64Bitmap();
+    private boolean aufgebaut;
+    private Instant aufgebautAm;
+
+    // Änderungen, die während eines Neuaufbaus committed werden; sie fehlen evtl. im gelesenen Stand
+    private List<EntitaetGeaendertEvent> waehrendAufbau;
+
+    /**
+     * Liest alle Ids neu ein und tauscht die Bitmap danach aus. Anfragen werden währenddessen
+     * weiter aus der alten Bitmap beantwortet. Ein zweiter Aufruf wartet, bis der laufende fertig ist.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${fhir.patientindex.neuaufbau:10m}",
+            initialDelayString = "${fhir.patientindex.neuaufbau:10m}")
+    @Transactional(readOnly = true)
+    public void neuAufbauen() {
+        aufbausperre.lock();
+        try {
+            schreibend(() -> waehrendAufbau = new ArrayList<>());
+
+            Roaring64Bitmap neu = new Roaring64Bitmap();
+            try (Stream<Long> alle = patientRepository.streameAlleIds()) {
+                alle.forEach(neu::addLong);
+            }
+            neu.runOptimize();
+
+            schreibend(() -> {
+                waehrendAufbau.forEach(e -> uebernehme(neu, e));
+                ids = neu;
+                aufgebaut = true;
+                aufgebautAm = Instant.now();
+            });
+        } finally {
+            // Auch nach einem Fehler beim Lesen keine Events mehr sammeln
+            schreibend(() -> waehrendAufbau = null);
+            aufbausperre.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void entitaetGeaendert(EntitaetGeaendertEvent event) {
+        if (!event.betrifft(Patient.class) || event.aenderung() == EntitaetGeaendertEvent.Aenderung.GEAENDERT) {
+            return;
+        }
+        schreibend(() -> {
+            uebernehme(ids, event);
+            if (waehrendAufbau != null) {
+                waehrendAufbau.add(event);
+            }
+        });
+    }
+
+    /** Vor dem ersten Aufbau wird die Datenbank gefragt */
+    public boolean existiert(long patientId) {
+        sperre.readLock().lock();
+        try {
+            if (aufgebaut) {
+                return ids.contains(patientId);
+            }
+        } finally {
+            sperre.readLock().unlock();
+        }
+        return patientRepository.existsById(patientId);
+    }
+
+    /** Ergebnis in der Reihenfolge der Anfrage, doppelte Ids einmal */
+    public Map<Long, Boolean> existieren(Collection<Long> patientIds) {
+        Map<Long, Boolean> ergebnis = new LinkedHashMap<>();
+        sperre.readLock().lock();
+        try {
+            if (aufgebaut) {
+                for (Long id : patientIds) {
+                    ergebnis.put(id, ids.contains(id));
+                }
+                return ergebnis;
+            }
+        } finally {
+            sperre.readLock().unlock();
+        }
+        for (Long id : patientIds) {
+            ergebnis.put(id, patientRepository.existsById(id));
+        }
+        return ergebnis;
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        sperre.readLock().lock();
+        try {
+            Map<String, Object> statistik = new LinkedHashMap<>();
+            statistik.put("aufgebaut", aufgebaut);
+            statistik.put("patienten", ids.getLongCardinality());
+            statistik.put("bytes", ids.getLongSizeInBytes());
+            statistik.put("aufgebautAm", aufgebautAm != null ? aufgebautAm.toString() : null);
+            return statistik;
+        } finally {
+            sperre.readLock().unlock();
+        }
+    }
+
+    private static void uebernehme(Roaring64Bitmap bitmap, EntitaetGeaendertEvent event) {
+        Long id = ((Patient) event.entitaet()).getPatientenId();
+        if (id == null) {
+            return;
+        }
+        if (event.aenderung() == EntitaetGeaendertEvent.Aenderung.GELOESCHT) {
+            bitmap.removeLong(id);
+        } else {
+            bitmap.addLong(id);
+        }
+    }
+
+    private void schreibend(Runnable aktion) {
+        sperre.writeLock().lock();
+        try {
+            aktion.run();
+        } finally {
+            sperre.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package de.gib.betrieb.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.model.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache für fertig serialisierte FHIR-Resources (JSON-Bytes), Schlüssel ist Resource-Typ + Id.
+ * Begrenzt über die Gesamtgröße in Bytes, Einträge laufen nach der TTL ab.
+ * Änderungen über JPA invalidieren die betroffenen Einträge nach dem Commit. Welche Observations und
+ * DiagnosticReports von Fall, Patient oder Arzt abhängen, hält ein Bezugsindex fest, der beim Einfügen
+ * mitgeschrieben wird; eine Änderung kostet damit nur so viel wie die abhängigen Einträge.
+ */
+@Service
+public class RessourcenCache {
+
+    // Beide Rendering-Engines liefern identische Bytes, daher gehört die Engine nicht in den Schlüssel
+    record Schluessel(String typ, Long id) {}
+
+    /** Von wem eine gecachte Resource außer ihrer eigenen Entität abhängt (subject, encounter, performer) */
+    public record Bezug(Long patientId, Long fallId, Long arztId) {
+
+        public static final Bezug KEINER = new Bezug(null, null, null);
+
+        public static Bezug von(Behandlungsfall fall) {
+            if (fall == null) {
+                return KEINER;
+            }
+            return new Bezug(fall.getPatient() != null ? fall.getPatient().getPatientenId() : null,
+                    fall.getFallId(), fall.getArzt() != null ? fall.getArzt().getArztId() : null);
+        }
+    }
+
+    /** Gerenderte Bytes samt Bezug, so wie sie der Lader liefert */
+    public record Geladen(byte[] json, Bezug bezug) {}
+
+    private final boolean aktiv;
+    private final Cache<Schluessel, byte[]> cache;
+    private final AtomicLong invalidierungen = new AtomicLong();
+
+    // Bezugsindex: Schlüssel -> Bezug und je Patient, Fall und Arzt die abhängigen Schlüssel
+    private final Map<Schluessel, Bezug> bezuege = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Schluessel>> nachPatient = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Schluessel>> nachFall = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Schluessel>> nachArzt = new ConcurrentHashMap<>();
+
+    public RessourcenCache(@Value("${fhir.cache.aktiv:true}") boolean aktiv,
+                           @Value("${fhir.cache.max-bytes:67108864}") long maxBytes,
+                           @Value("${fhir.cache.ttl:10m}") Duration ttl) {
+        this.aktiv = aktiv;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Schluessel k, byte[] json) -> json.length)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                // Synchron: der Bezug muss weg sein, bevor derselbe Schlüssel neu geladen wird
+                .evictionListener((Schluessel k, byte[] json, RemovalCause ursache) -> vergiss(k))
+                .build();
+    }
+
+    /**
+     * Liefert die gecachten Bytes oder rendert sie über den Lader.
+     * Liefert der Lader null (Resource existiert nicht), wird nichts gespeichert.
+     */
+    public byte[] hole(String typ, Long id, Supplier<byte[]> lader) {
+        if (!aktiv) {
+            return lader.get();
+        }
+        return cache.get(new Schluessel(typ, id), k -> lader.get());
+    }
+
+    /** Wie oben, der Bezug des Laders kommt beim Einfügen in den Bezugsindex */
+    public byte[] holeMitBezug(String typ, Long id, Supplier<Geladen> lader) {
+        if (!aktiv) {
+            Geladen geladen = lader.get();
+            return geladen != null ? geladen.json() : null;
+        }
+        return cache.get(new Schluessel(typ, id), k -> {
+            Geladen geladen = lader.get();
+            if (geladen == null) {
+                return null;
+            }
+            merke(k, geladen.bezug());
+            return geladen.json();
+        });
+    }
+
+    /** Nur nachsehen, ohne zu rendern; null wenn nicht gecacht */
+    public byte[] vorhanden(String typ, Long id) {
+        return aktiv ? cache.getIfPresent(new Schluessel(typ, id)) : null;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void entitaetGeaendert(EntitaetGeaendertEvent event) {
+        Object entitaet = event.entitaet();
+        boolean neu = event.aenderung() == EntitaetGeaendertEvent.Aenderung.ANGELEGT;
+
+        if (entitaet instanceof Patient patient) {
+            entferne("Patient", patient.getPatientenId());
+            // Der Name steht als display in den Referenzen von Observation und DiagnosticReport
+            if (!neu) {
+                entferneAbhaengige(nachPatient, patient.getPatientenId(), null);
+            }
+        } else if (entitaet instanceof Arzt arzt) {
+            entferne("Practitioner", arzt.getArztId());
+            if (!neu) {
+                entferneAbhaengige(nachArzt, arzt.getArztId(), null);
+            }
+        } else if (entitaet instanceof Befund befund) {
+            // Berichte listen die Befunde ihres Falls unter result; bei einem Fallwechsel auch die des alten Falls
+            Bezug vorher = befund.getBefundId() != null ? bezuege.get(new Schluessel("Observation", befund.getBefundId())) : null;
+            entferne("Observation", befund.getBefundId());
+            if (vorher != null) {
+                entferneAbhaengige(nachFall, vorher.fallId(), "DiagnosticReport");
+            }
+            if (befund.getBehandlungsfall() != null) {
+                entferneAbhaengige(nachFall, befund.getBehandlungsfall().getFallId(), "DiagnosticReport");
+            }
+        } else if (entitaet instanceof Bericht bericht) {
+            entferne("DiagnosticReport", bericht.getBerichtId());
+        } else if (entitaet instanceof Behandlungsfall fall && !neu) {
+            // Fall bestimmt subject, encounter und performer von Befunden und Berichten
+            entferneAbhaengige(nachFall, fall.getFallId(), null);
+        }
+    }
+
+    // Neue Terminologie ändert Displays und Codings in allen Resource-Typen
+    @EventListener
+    public void terminologieNeugeladen(Terminologie.Neugeladen event) {
+        leeren();
+    }
+
+    /** Leert den kompletten Cache, z. B. nach Massenänderungen an JPA vorbei */
+    public void leeren() {
+        invalidierungen.addAndGet(cache.estimatedSize());
+        cache.invalidateAll();
+        bezuege.clear();
+        nachPatient.clear();
+        nachFall.clear();
+        nachArzt.clear();
+    }
+
+    private void entferne(String typ, Long id) {
+        if (id != null) {
+            entferne(new Schluessel(typ, id));
+        }
+    }
+
+    private void entferne(Schluessel schluessel) {
+        if (cache.asMap().remove(schluessel) != null) {
+            invalidierungen.incrementAndGet();
+        }
+        vergiss(schluessel);
+    }
+
+    // Alle Einträge, die von der Id abhängen; typ null = jeder Typ
+    private void entferneAbhaengige(Map<Long, Set<Schluessel>> index, Long id, String typ) {
+        Set<Schluessel> abhaengige = id != null ? index.get(id) : null;
+        if (abhaengige == null) {
+            return;
+        }
+        for (Schluessel schluessel : List.copyOf(abhaengige)) {
+            if (typ == null || typ.equals(schluessel.typ())) {
+                entferne(schluessel);
+            }
+        }
+    }
+
+    private void merke(Schluessel schluessel, Bezug bezug) {
+        if (bezug == null || bezug.equals(Bezug.KEINER)) {
+            return;
+        }
+        bezuege.put(schluessel, bezug);
+        verknuepfe(nachPatient, bezug.patientId(), schluessel);
+        verknuepfe(nachFall, bezug.fallId(), schluessel);
+        verknuepfe(nachArzt, bezug.arztId(), schluessel);
+    }
+
+    private void vergiss(Schluessel schluessel) {
+        Bezug bezug = bezuege.remove(schluessel);
+        if (bezug != null) {
+            loese(nachPatient, bezug.patientId(), schluessel);
+            loese(nachFall, bezug.fallId(), schluessel);
+            loese(nachArzt, bezug.arztId(), schluessel);
+        }
+    }
+
+    private static void verknuepfe(Map<Long, Set<Schluessel>> index, Long id, Schluessel schluessel) {
+        if (id != null) {
+            // Hinzufügen innerhalb von compute, sonst kann loese die gerade leere Menge austragen
+            index.compute(id, (k, menge) -> {
+                Set<Schluessel> ergebnis = menge != null ? menge : ConcurrentHashMap.newKeySet();
+                ergebnis.add(schluessel);
+                return ergebnis;
+            });
+        }
+    }
+
+    private static void loese(Map<Long, Set<Schluessel>> index, Long id, Schluessel schluessel) {
+        if (id != null) {
+            index.computeIfPresent(id, (k, menge) -> {
+                menge.remove(schluessel);
+                return menge.isEmpty() ? null : menge;
+            });
+        }
+    }
+
+    /** Kennzahlen für /fhir/stats */
+    public Map<String, Object> statistik() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        statistik.put("eintraege", cache.estimatedSize());
+        statistik.put("bytes", cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        statistik.put("treffer", stats.hitCount());
+        statistik.put("fehlschlaege", stats.missCount());
+        statistik.put("trefferquote", Math.round(stats.hitRate() * 1000) / 1000.0);
+        statistik.put("verdraengungen", stats.evictionCount());
+        statistik.put("invalidierungen", invalidierungen.get());
+        statistik.put("bezuege", bezuege.size());
+        return statistik;
+    }
+}
@@ -0,0 +1,11 @@
+package de.gib.betrieb.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+// Generator-Gegenstück zu konvertiereZuFhir, z. B. patientAdapter::schreibeFhir
+@FunctionalInterface
+interface RessourcenSchreiber<T> {
+    void schreibe(T entitaet, JsonGenerator gen) throws IOException;
+}
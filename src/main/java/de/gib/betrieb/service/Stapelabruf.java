@@ -0,0 +1,114 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.ArztRepository;
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.datenbank.BerichtRepository;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Arzt;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Bericht;
+import de.gib.betrieb.model.Patient;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Einzelabrufe von Patient, Arzt, Befund und Bericht per Id. Bei gleichzeitigen Abrufen werden die Ids
+ * zu einer IN-Abfrage je Typ gesammelt ({@link Stapellader}), statt für jede ein eigenes findById
+ * abzusetzen. Befunde und Berichte kommen mit Fall, Patient und Arzt, weil die Entitäten an Threads
+ * anderer Requests gehen und dort nichts nachladen dürfen.
+ */
+@Service
+public class Stapelabruf {
+
+    private final boolean aktiv;
+    private final PatientRepository patientRepository;
+    private final ArztRepository arztRepository;
+    private final BefundRepository befundRepository;
+    private final BerichtRepository berichtRepository;
+
+    private final Map<String, Zaehler> zaehler = new LinkedHashMap<>();
+    private final Stapellader<Patient> patienten;
+    private final Stapellader<Arzt> aerzte;
+    private final Stapellader<Befund> befunde;
+    private final Stapellader<Bericht> berichte;
+
+    private record Zaehler(AtomicLong abfragen, AtomicLong ids, DistributionSummary groesse) {}
+
+    public Stapelabruf(PatientRepository patientRepository, ArztRepository arztRepository,
+                       BefundRepository befundRepository, BerichtRepository berichtRepository,
+                       @Value("${fhir.stapel.aktiv:true}") boolean aktiv,
+                       @Value("${fhir.stapel.fenster:2ms}") Duration fenster,
+                       @Value("${fhir.stapel.max-ids:64}") int maxIds,
+                       MeterRegistry registry) {
+        this.aktiv = aktiv;
+        this.patientRepository = patientRepository;
+        this.arztRepository = arztRepository;
+        this.befundRepository = befundRepository;
+        this.berichtRepository = berichtRepository;
+
+        long fensterNs = fenster.toNanos();
+        this.patienten = lader("Patient", patientRepository::findAllById, Patient::getPatientenId, fensterNs, maxIds, registry);
+        this.aerzte = lader("Practitioner", arztRepository::findAllById, Arzt::getArztId, fensterNs, maxIds, registry);
+        this.befunde = lader("Observation", befundRepository::ladeMitFall, Befund::getBefundId, fensterNs, maxIds, registry);
+        this.berichte = lader("DiagnosticReport", berichtRepository::ladeMitFall, Bericht::getBerichtId, fensterNs, maxIds, registry);
+    }
+
+    public Optional<Patient> patient(Long id) {
+        return aktiv ? patienten.lade(id) : patientRepository.findById(id);
+    }
+
+    public Optional<Arzt> arzt(Long id) {
+        return aktiv ? aerzte.lade(id) : arztRepository.findById(id);
+    }
+
+    public Optional<Befund> befund(Long id) {
+        return aktiv ? befunde.lade(id) : befundRepository.findById(id);
+    }
+
+    public Optional<Bericht> bericht(Long id) {
+        return aktiv ? berichte.lade(id) : berichtRepository.findById(id);
+    }
+
+    private <T> Stapellader<T> lader(String typ, Function<List<Long>, List<T>> ladeAlle, Function<T, Long> idVon,
+                                     long fensterNs, int maxIds, MeterRegistry registry) {
+        DistributionSummary groesse = registry == null ? null : DistributionSummary.builder("fhir.stapel.groesse")
+                .description("Ids je IN-Abfrage der Einzelabrufe")
+                .tag("typ", typ)
+                .register(registry);
+        Zaehler z = new Zaehler(new AtomicLong(), new AtomicLong(), groesse);
+        zaehler.put(typ, z);
+        return new Stapellader<>(ladeAlle, idVon, fensterNs, maxIds, n -> {
+            z.abfragen().incrementAndGet();
+            z.ids().addAndGet(n);
+            if (z.groesse() != null) {
+                z.groesse().record(n);
+            }
+        });
+    }
+
+    /** Kennzahlen für /fhir/stats: Abfragen und Ids je Typ, Ids pro Abfrage */
+    public Map<String, Object> statistik() {
+        Map<String, Object> statistik = new LinkedHashMap<>();
+        statistik.put("aktiv", aktiv);
+        zaehler.forEach((typ, z) -> {
+            long abfragen = z.abfragen().get();
+            long ids = z.ids().get();
+            Map<String, Object> eintrag = new LinkedHashMap<>();
+            eintrag.put("abfragen", abfragen);
+            eintrag.put("ids", ids);
+            eintrag.put("idsProAbfrage", abfragen == 0 ? 0.0 : (double) ids / abfragen);
+            statistik.put(typ, eintrag);
+        });
+        return statistik;
+    }
+}
@@ -0,0 +1,139 @@
+package de.gib.betrieb.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Sammelt Einzelabrufe per Id zu einer IN-Abfrage (Micro-Batching). Der erste Aufrufer eines Stapels
+ * führt die Abfrage im eigenen Thread aus, alle weiteren warten auf ihr Ergebnis. Gewartet wird nur,
+ * solange schon eine Abfrage dieses Laders in der Datenbank läuft (höchstens fenster, bis maxSchluessel
+ * Ids beisammen sind); ohne Gleichstand geht die Abfrage sofort los und Einzelabrufe werden nicht langsamer.
+ * Die Entitäten stammen aus dem Persistenzkontext des ausführenden Threads, die Abfrage muss deshalb
+ * alles mitladen, was die Aufrufer lesen.
+ */
+class Stapellader<T> {
+
+    private static final class Stapel<T> {
+        final Map<Long, CompletableFuture<Optional<T>>> eintraege = new LinkedHashMap<>();
+    }
+
+    private final Function<List<Long>, List<T>> ladeAlle;
+    private final Function<T, Long> idVon;
+    private final long fensterNs;
+    private final int maxSchluessel;
+    // Bekommt die Größe jedes ausgeführten Stapels (Metriken)
+    private final IntConsumer stapelGroesse;
+
+    private final ReentrantLock sperre = new ReentrantLock();
+    private final Condition geaendert = sperre.newCondition();
+    // Stapel, der gerade Ids sammelt, null wenn keiner offen ist
+    private Stapel<T> offen;
+    private int laufendeAbfragen;
+
+    Stapellader(Function<List<Long>, List<T>> ladeAlle, Function<T, Long> idVon,
+                long fensterNs, int maxSchluessel, IntConsumer stapelGroesse) {
+        this.ladeAlle = ladeAlle;
+        this.idVon = idVon;
+        this.fensterNs = fensterNs;
+        this.maxSchluessel = maxSchluessel;
+        this.stapelGroesse = stapelGroesse;
+    }
+
+    Optional<T> lade(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        Stapel<T> stapel;
+        CompletableFuture<Optional<T>> ergebnis;
+        boolean fuehrer;
+
+        sperre.lock();
+        try {
+            fuehrer = offen == null;
+            if (fuehrer) {
+                offen = new Stapel<>();
+            }
+            stapel = offen;
+            ergebnis = stapel.eintraege.computeIfAbsent(id, k -> new CompletableFuture<>());
+            if (stapel.eintraege.size() >= maxSchluessel) {
+                offen = null;
+                geaendert.signalAll();
+            }
+            if (fuehrer) {
+                sammle(stapel);
+                laufendeAbfragen++;
+            }
+        } finally {
+            sperre.unlock();
+        }
+
+        if (fuehrer) {
+            try {
+                fuehreAus(stapel);
+            } finally {
+                sperre.lock();
+                try {
+                    laufendeAbfragen--;
+                    geaendert.signalAll();
+                } finally {
+                    sperre.unlock();
+                }
+            }
+        }
+        return warte(ergebnis);
+    }
+
+    // Unter der Sperre: warten, bis der Stapel voll ist, die laufende Abfrage endet oder das Fenster abläuft
+    private void sammle(Stapel<T> stapel) {
+        long rest = fensterNs;
+        try {
+            while (offen == stapel && laufendeAbfragen > 0 && rest > 0) {
+                rest = geaendert.awaitNanos(rest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (offen == stapel) {
+            offen = null;
+        }
+    }
+
+    // Der Stapel ist geschlossen, eintraege ändert sich nicht mehr
+    private void fuehreAus(Stapel<T> stapel) {
+        List<Long> ids = new ArrayList<>(stapel.eintraege.keySet());
+        stapelGroesse.accept(ids.size());
+        try {
+            Map<Long, T> gefunden = new HashMap<>();
+            for (T entitaet : ladeAlle.apply(ids)) {
+                gefunden.put(idVon.apply(entitaet), entitaet);
+            }
+            stapel.eintraege.forEach((id, f) -> f.complete(Optional.ofNullable(gefunden.get(id))));
+        } catch (RuntimeException | Error e) {
+            stapel.eintraege.values().forEach(f -> f.completeExceptionally(e));
+        }
+    }
+
+    private static <T> Optional<T> warte(CompletableFuture<Optional<T>> ergebnis) {
+        try {
+            return ergebnis.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            }
+            if (e.getCause() instanceof Error f) {
+                throw f;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.*;
+import de.gib.betrieb.datenbank.*;
+import de.gib.betrieb.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Listen-Endpunkte als FHIR searchset Bundles.
+ * Geblättert wird per Keyset (_cursor = letzte Id der Vorseite), nicht per OFFSET:
+ * jede Seite ist ein Index-Range-Scan ab der letzten Id und kostet gleich viel, egal wie weit hinten.
+ */
+@Service
+public class SuchService {
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private ArztRepository arztRepository;
+
+    @Autowired
+    private BefundRepository befundRepository;
+
+    @Autowired
+    private BerichtRepository berichtRepository;
+
+    @Autowired
+    private PatientZuFhirAdapter patientAdapter;
+
+    @Autowired
+    private ArztZuFhirAdapter arztAdapter;
+
+    @Autowired
+    private BefundZuFhirAdapter befundAdapter;
+
+    @Autowired
+    private BerichtZuFhirAdapter berichtAdapter;
+
+    @Autowired
+    private BestandsStatistik bestandsStatistik;
+
+    @Autowired
+    private Terminologie terminologie;
+
+    @Value("${fhir.suche.seitengroesse:50}")
+    private int standardSeitengroesse;
+
+    @Value("${fhir.suche.max-seitengroesse:500}")
+    private int maxSeitengroesse;
+
+    /**
+     * Eine Seite anfragen: seitenUrl ist die URL des Listen-Endpunkts ohne Query, basisUrl die FHIR-Basis.
+     * auswahl kürzt die Resources nach _summary/_elements und wird in die Seitenlinks übernommen.
+     */
+    public record Seite(String basisUrl, String seitenUrl, Long cursor, Integer anzahl, Elementauswahl auswahl) {
+
+        public Seite(String basisUrl, String seitenUrl, Long cursor, Integer anzahl) {
+            this(basisUrl, seitenUrl, cursor, anzahl, Elementauswahl.ALLE);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> suchePatienten(Seite seite) {
+        if (seite.auswahl().nurAnzahl()) {
+            return baueAnzahl(seite, bestandsStatistik.anzahl(Patient.class));
+        }
+        int anzahl = seitengroesse(seite);
+        List<Patient> treffer = patientRepository.findeSeiteNach(cursor(seite), Limit.of(anzahl + 1));
+        return baueSearchset(seite, anzahl, treffer, "Patient",
+                Patient::getPatientenId, p -> patientAdapter.konvertiereZuFhir(p, seite.auswahl()));
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> sucheAerzte(Seite seite) {
+        if (seite.auswahl().nurAnzahl()) {
+            return baueAnzahl(seite, bestandsStatistik.anzahl(Arzt.class));
+        }
+        int anzahl = seitengroesse(seite);
+        List<Arzt> treffer = arztRepository.findeSeiteNach(cursor(seite), Limit.of(anzahl + 1));
+        return baueSearchset(seite, anzahl, treffer, "Practitioner",
+                Arzt::getArztId, a -> arztAdapter.konvertiereZuFhir(a, seite.auswahl()));
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> sucheBefundeVonPatient(Long patientId, Seite seite) {
+        if (seite.auswahl().nurAnzahl()) {
+            return baueAnzahl(seite, befundRepository.zaehleFuerPatient(patientId));
+        }
+        int anzahl = seitengroesse(seite);
+        List<Befund> treffer = befundRepository.findeSeiteFuerPatientNach(
+                patientId, cursor(seite), Limit.of(anzahl + 1));
+        return baueSearchset(seite, anzahl, treffer, "Observation",
+                Befund::getBefundId, b -> befundAdapter.konvertiereZuFhir(b, seite.auswahl()));
+    }
+
+    /**
+     * GET /fhir/Observation: Filter, Sortierung und Keyset-Position gehen als eine Abfrage in die Datenbank,
+     * konvertiert wird nur die angefragte Seite
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> sucheBefunde(BefundSuchparameter parameter, Seite seite) {
+        BefundKriterien kriterien = parameter.kriterien(terminologie);
+        Blaettern<Befund> blaettern = new Blaettern<>(parameter.alsQuery(), parameter.cursor(), parameter::cursorNach);
+        if (seite.auswahl().nurAnzahl()) {
+            return baueAnzahl(seite, blaettern.filter(),
+                    kriterien.trifftNichts() ? 0 : befundRepository.zaehle(kriterien));
+        }
+        int anzahl = seitengroesse(seite);
+        List<Befund> treffer = kriterien.trifftNichts() ? List.of() : befundRepository.suche(kriterien, anzahl + 1);
+        return baueSearchset(seite, anzahl, treffer, "Observation",
+                Befund::getBefundId, b -> befundAdapter.konvertiereZuFhir(b, seite.auswahl()), blaettern);
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> sucheBerichteVonPatient(Long patientId, Seite seite) {
+        if (seite.auswahl().nurAnzahl()) {
+            return baueAnzahl(seite, berichtRepository.zaehleFuerPatient(patientId));
+        }
+        int anzahl = seitengroesse(seite);
+        List<Bericht> treffer = berichtRepository.findeSeiteFuerPatientNach(
+                patientId, cursor(seite), Limit.of(anzahl + 1));
+
+        // result-Listen aller Berichte der Seite mit einem Select statt einem pro Bericht;
+        // entfällt, wenn die Auswahl weder result noch das Narrativ enthält
+        List<Befund> befunde = List.of();
+        if (BerichtZuFhirAdapter.brauchtBefunde(seite.auswahl())) {
+            List<Long> fallIds = treffer.stream()
+                    .map(b -> b.getBehandlungsfall().getFallId())
+                    .distinct()
+                    .toList();
+            befunde = fallIds.isEmpty() ? List.of() : befundRepository.findeBefundeDerFaelle(fallIds);
+        }
+        PatientGraph graph = new PatientGraph(null, befunde, treffer);
+
+        return baueSearchset(seite, anzahl, treffer, "DiagnosticReport",
+                Bericht::getBerichtId,
+                b -> berichtAdapter.konvertiereZuFhir(b, graph.befundeZuBericht(b), seite.auswahl()));
+    }
+
+    // Suchparameter und Cursor der Seitenlinks; ohne Filter ist der Cursor die letzte Id
+    private record Blaettern<T>(String filter, String cursor, Function<T, String> naechsterCursor) {}
+
+    private <T> Map<String, Object> baueSearchset(Seite seite, int anzahl, List<T> treffer, String typ,
+                                                  Function<T, Long> id,
+                                                  Function<T, Map<String, Object>> konverter) {
+        return baueSearchset(seite, anzahl, treffer, typ, id, konverter, new Blaettern<>("",
+                seite.cursor() != null ? seite.cursor().toString() : null, t -> id.apply(t).toString()));
+    }
+
+    // treffer enthält bis zu anzahl + 1 Zeilen; die zusätzliche Zeile zeigt nur an, dass es eine Folgeseite gibt
+    private <T> Map<String, Object> baueSearchset(Seite seite, int anzahl, List<T> treffer, String typ,
+                                                  Function<T, Long> id,
+                                                  Function<T, Map<String, Object>> konverter,
+                                                  Blaettern<T> blaettern) {
+        boolean weitere = treffer.size() > anzahl;
+        List<T> seitenTreffer = weitere ? treffer.subList(0, anzahl) : treffer;
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (T t : seitenTreffer) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("fullUrl", seite.basisUrl() + "/" + typ + "/" + id.apply(t));
+            entry.put("resource", konverter.apply(t));
+            entry.put("search", Map.of("mode", "match"));
+            entries.add(entry);
+        }
+
+        List<Map<String, Object>> links = new ArrayList<>();
+        links.add(link("self", seitenLink(seite, anzahl, blaettern.filter(), blaettern.cursor())));
+        if (weitere) {
+            String naechster = blaettern.naechsterCursor().apply(seitenTreffer.get(seitenTreffer.size() - 1));
+            links.add(link("next", seitenLink(seite, anzahl, blaettern.filter(), naechster)));
+        }
+
+        Map<String, Object> bundle = new LinkedHashMap<>();
+        bundle.put("resourceType", "Bundle");
+        bundle.put("id", UUID.randomUUID().toString());
+        bundle.put("type", "searchset");
+        bundle.put("link", links);
+        bundle.put("entry", entries);
+        return bundle;
+    }
+
+    // _summary=count: nur die Trefferzahl, ohne Einträge und ohne Folgeseite
+    private static Map<String, Object> baueAnzahl(Seite seite, long total) {
+        return baueAnzahl(seite, "", total);
+    }
+
+    private static Map<String, Object> baueAnzahl(Seite seite, String filter, long total) {
+        Map<String, Object> bundle = new LinkedHashMap<>();
+        bundle.put("resourceType", "Bundle");
+        bundle.put("id", UUID.randomUUID().toString());
+        bundle.put("type", "searchset");
+        bundle.put("total", total);
+        bundle.put("link", List.of(link("self", seite.seitenUrl() + "?" + (filter + seite.auswahl().alsQuery()).substring(1))));
+        return bundle;
+    }
+
+    private int seitengroesse(Seite seite) {
+        if (seite.anzahl() == null || seite.anzahl() < 1) {
+            return standardSeitengroesse;
+        }
+        return Math.min(seite.anzahl(), maxSeitengroesse);
+    }
+
+    // Ids sind IDENTITY-Werte ab 1, ohne Cursor beginnt die Suche also vor der ersten Zeile
+    private static Long cursor(Seite seite) {
+        return seite.cursor() != null ? seite.cursor() : 0L;
+    }
+
+    private static String seitenLink(Seite seite, int anzahl, String filter, String cursor) {
+        String url = seite.seitenUrl() + "?_count=" + anzahl + filter;
+        if (cursor != null) {
+            url += "&_cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8);
+        }
+        return url + seite.auswahl().alsQuery();
+    }
+
+    private static Map<String, Object> link(String relation, String url) {
+        Map<String, Object> link = new LinkedHashMap<>();
+        link.put("relation", relation);
+        link.put("url", url);
+        return link;
+    }
+}
@@ -135,6 +135,16 @@ public class TestdatenGenerator {
         }
     }
 
+    /**
+     * Generiert nur die Stammdaten (Einrichtungen, Standorte, Ärzte, Medikamente),
+     * auf die der MassendatenGenerator verweist
+     */
+    public void generiereStammdaten() {
+        generiereStandorte(generiereEinrichtungen());
+        generiereAerzte(20);
+        generiereMedikamente();
+    }
+
     /**
      * Generiert Einrichtungen (Krankenhäuser)
      */
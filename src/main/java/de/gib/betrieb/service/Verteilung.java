@@ -0,0 +1,137 @@
+package de.gib.betrieb.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.random.RandomGenerator;
+
+/**
+ * Verteilung einer Anzahl (Fälle je Patient, Befunde/Berichte je Fall) für die Massengenerierung.
+ * Schreibweise wie in den Properties:
+ * <ul>
+ *   <li>{@code gleich:2-5} – gleichverteilt von 2 bis 5</li>
+ *   <li>{@code zipf:1.2:5000} – 1 bis 5000, P(k) proportional zu k^-1.2 (wenige Patienten mit sehr vielen)</li>
+ *   <li>{@code lognormal:1.0:1.3:5000} – gerundetes exp(N(1.0, 1.3)), begrenzt auf 1 bis 5000</li>
+ * </ul>
+ */
+public abstract sealed class Verteilung {
+
+    private final String text;
+
+    private Verteilung(String text) {
+        this.text = text;
+    }
+
+    public abstract int ziehe(RandomGenerator zufall);
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    public static Verteilung gleich(int min, int max) {
+        return new Gleich(min, max);
+    }
+
+    public static Verteilung parse(String text) {
+        String[] teile = text.trim().toLowerCase(Locale.ROOT).split(":");
+        try {
+            switch (teile[0]) {
+                case "gleich" -> {
+                    if (teile.length == 2) {
+                        String[] bereich = teile[1].split("-");
+                        int min = Integer.parseInt(bereich[0].trim());
+                        return new Gleich(min, bereich.length > 1 ? Integer.parseInt(bereich[1].trim()) : min);
+                    }
+                }
+                case "zipf" -> {
+                    if (teile.length == 3) {
+                        return new Zipf(Double.parseDouble(teile[1]), Integer.parseInt(teile[2]));
+                    }
+                }
+                case "lognormal" -> {
+                    if (teile.length == 4) {
+                        return new Lognormal(Double.parseDouble(teile[1]), Double.parseDouble(teile[2]),
+                                Integer.parseInt(teile[3]));
+                    }
+                }
+                default -> { }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Ungültige Verteilung '" + text + "': " + e.getMessage(), e);
+        }
+        throw new IllegalArgumentException("Ungültige Verteilung '" + text
+                + "', erwartet gleich:min-max, zipf:s:max oder lognormal:mu:sigma:max");
+    }
+
+    static final class Gleich extends Verteilung {
+
+        private final int min;
+        private final int max;
+
+        Gleich(int min, int max) {
+            super("gleich:" + min + "-" + max);
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("gleich braucht 0 <= min <= max");
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public int ziehe(RandomGenerator zufall) {
+            return min + zufall.nextInt(max - min + 1);
+        }
+    }
+
+    static final class Zipf extends Verteilung {
+
+        // Verteilungsfunktion über 1..max, gezogen per Binärsuche
+        private final double[] kumuliert;
+
+        Zipf(double exponent, int max) {
+            super("zipf:" + exponent + ":" + max);
+            if (exponent <= 0 || max < 1 || max > 1_000_000) {
+                throw new IllegalArgumentException("zipf braucht s > 0 und 1 <= max <= 1000000");
+            }
+            kumuliert = new double[max];
+            double summe = 0;
+            for (int k = 1; k <= max; k++) {
+                summe += Math.pow(k, -exponent);
+                kumuliert[k - 1] = summe;
+            }
+            for (int i = 0; i < max; i++) {
+                kumuliert[i] /= summe;
+            }
+            kumuliert[max - 1] = 1.0;
+        }
+
+        @Override
+        public int ziehe(RandomGenerator zufall) {
+            int i = Arrays.binarySearch(kumuliert, zufall.nextDouble());
+            return (i >= 0 ? i : -i - 1) + 1;
+        }
+    }
+
+    static final class Lognormal extends Verteilung {
+
+        private final double mu;
+        private final double sigma;
+        private final int max;
+
+        Lognormal(double mu, double sigma, int max) {
+            super("lognormal:" + mu + ":" + sigma + ":" + max);
+            if (sigma < 0 || max < 1) {
+                throw new IllegalArgumentException("lognormal braucht sigma >= 0 und max >= 1");
+            }
+            this.mu = mu;
+            this.sigma = sigma;
+            this.max = max;
+        }
+
+        @Override
+        public int ziehe(RandomGenerator zufall) {
+            long wert = Math.round(Math.exp(mu + sigma * zufall.nextGaussian()));
+            return (int) Math.max(1, Math.min(max, wert));
+        }
+    }
+}
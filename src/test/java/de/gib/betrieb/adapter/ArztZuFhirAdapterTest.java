@@ -1,10 +1,12 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gib.betrieb.model.Arzt;
 import de.gib.betrieb.testsupport.FhirTestValidator;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -49,6 +51,26 @@ class ArztZuFhirAdapterTest {
         assertTrue(((String) ref.get("display")).contains("Max"));
     }
 
+    @Test
+    void generator_engine_liefert_identisches_json() throws Exception {
+        var arzt = Mockito.mock(Arzt.class);
+        Mockito.when(arzt.getArztId()).thenReturn(8L);
+        Mockito.when(arzt.getVorname()).thenReturn("Anna");
+        Mockito.when(arzt.getNachname()).thenReturn("Schulz");
+        Mockito.when(arzt.getFachrichtung()).thenReturn("Orthopädie");
+
+        var adapter = new ArztZuFhirAdapter();
+        var mapper = new ObjectMapper();
+
+        byte[] ausMap = mapper.writeValueAsBytes(adapter.konvertiereZuFhir(arzt));
+        var puffer = new ByteArrayOutputStream();
+        try (var gen = mapper.getFactory().createGenerator(puffer)) {
+            adapter.schreibeFhir(arzt, gen);
+        }
+
+        assertArrayEquals(ausMap, puffer.toByteArray());
+    }
+
     @Test
     void validierung_r4_practitioner_ist_gueltig() {
         var arzt = Mockito.mock(Arzt.class);
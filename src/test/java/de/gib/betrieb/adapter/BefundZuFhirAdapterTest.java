@@ -1,5 +1,6 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gib.betrieb.model.Arzt;
 import de.gib.betrieb.model.Befund;
 import de.gib.betrieb.model.Behandlungsfall;
@@ -13,7 +14,9 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -57,9 +60,9 @@ class BefundZuFhirAdapterTest {
         when(fall.getArzt()).thenReturn(arzt);
         when(fall.getFallId()).thenReturn(77L);
 
-        when(patientAdapter.erstellePatientReference(patient))
+        when(patientAdapter.erstellePatientReference(patient, true))
                 .thenReturn(Map.of("reference", "Patient/1"));
-        when(arztAdapter.erstellePractitionerReference(arzt))
+        when(arztAdapter.erstellePractitionerReference(arzt, true))
                 .thenReturn(Map.of("reference", "Practitioner/9"));
     }
 
@@ -100,4 +103,48 @@ class BefundZuFhirAdapterTest {
         var res = FhirTestValidator.validateMap(out);
         FhirTestValidator.assertValid(res);
     }
+
+    @Test
+    void generator_engine_liefert_identisches_json() throws Exception {
+        // Echte Referenz-Adapter, damit subject/performer in beiden Engines geschrieben werden
+        ReflectionTestUtils.setField(adapter, "patientAdapter", new PatientZuFhirAdapter());
+        ReflectionTestUtils.setField(adapter, "arztAdapter", new ArztZuFhirAdapter());
+        var mapper = new ObjectMapper();
+
+        assertArrayEquals(alsMapJson(mapper), alsGeneratorJson(mapper));
+
+        // Auch der valueString-Zweig ohne Einheit muss identisch sein
+        when(befund.getWert()).thenReturn("Erhöht");
+        when(befund.getEinheit()).thenReturn("");
+        assertArrayEquals(alsMapJson(mapper), alsGeneratorJson(mapper));
+    }
+
+    @Test
+    void index_variante_entspricht_der_elementauswahl_des_index() throws Exception {
+        var mapper = new ObjectMapper();
+        var ausIndex = adapter.konvertiereAusIndex(new BefundZuFhirAdapter.Indexbefund(100L, 77L, 1L, "LAB-001",
+                LocalDateTime.of(2024, 4, 1, 12, 0), 120.5, null, "mmHg"));
+
+        assertArrayEquals(mapper.writeValueAsBytes(adapter.konvertiereZuFhir(befund, BefundZuFhirAdapter.INDEX_ELEMENTE)),
+                mapper.writeValueAsBytes(ausIndex));
+        FhirTestValidator.assertValid(FhirTestValidator.validateMap(ausIndex));
+
+        when(befund.getWert()).thenReturn("Erhöht");
+        var text = adapter.konvertiereAusIndex(new BefundZuFhirAdapter.Indexbefund(100L, 77L, 1L, "LAB-001",
+                LocalDateTime.of(2024, 4, 1, 12, 0), Double.NaN, "Erhöht", "mmHg"));
+        assertArrayEquals(mapper.writeValueAsBytes(adapter.konvertiereZuFhir(befund, BefundZuFhirAdapter.INDEX_ELEMENTE)),
+                mapper.writeValueAsBytes(text));
+    }
+
+    private byte[] alsMapJson(ObjectMapper mapper) throws Exception {
+        return mapper.writeValueAsBytes(adapter.konvertiereZuFhir(befund));
+    }
+
+    private byte[] alsGeneratorJson(ObjectMapper mapper) throws Exception {
+        var puffer = new ByteArrayOutputStream();
+        try (var gen = mapper.getFactory().createGenerator(puffer)) {
+            adapter.schreibeFhir(befund, gen);
+        }
+        return puffer.toByteArray();
+    }
 }
@@ -1,6 +1,7 @@
 package de.gib.betrieb.adapter;
 
 import de.gib.betrieb.datenbank.BefundRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gib.betrieb.model.Arzt;
 import de.gib.betrieb.model.Befund;
 import de.gib.betrieb.model.Behandlungsfall;
@@ -15,7 +16,9 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -23,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -58,9 +62,9 @@ class BerichtZuFhirAdapterTest {
         when(fall.getArzt()).thenReturn(arzt);
         when(fall.getFallId()).thenReturn(77L);
 
-        when(patientAdapter.erstellePatientReference(patient))
+        when(patientAdapter.erstellePatientReference(patient, true))
                 .thenReturn(Map.of("reference", "Patient/1"));
-        when(arztAdapter.erstellePractitionerReference(arzt))
+        when(arztAdapter.erstellePractitionerReference(arzt, true))
                 .thenReturn(Map.of("reference", "Practitioner/9"));
 
         var b1 = mock(Befund.class);
@@ -107,6 +111,21 @@ class BerichtZuFhirAdapterTest {
         FhirTestValidator.assertValid(res);
     }
 
+    @Test
+    void vorgeladene_befunde_ohne_repository_zugriff() {
+        var befund = mock(Befund.class);
+        when(befund.getBefundId()).thenReturn(12L);
+        when(befund.getCode()).thenReturn("LAB-001");
+
+        var out = adapter.konvertiereZuFhir(bericht, List.of(befund));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = (List<Map<String, Object>>) out.get("result");
+        assertEquals(1, result.size());
+        assertEquals("Observation/12", result.get(0).get("reference"));
+        verifyNoInteractions(befundRepository);
+    }
+
     @Test
     void generiereUrl() {
         assertEquals("DiagnosticReport/200", adapter.generiereFhirUrl(200L));
@@ -118,4 +137,49 @@ class BerichtZuFhirAdapterTest {
         var res = FhirTestValidator.validateMap(out);
         FhirTestValidator.assertValid(res);
     }
+
+    @Test
+    void generator_engine_liefert_identisches_json() throws Exception {
+        // Echte Referenz-Adapter, damit subject/performer in beiden Engines geschrieben werden
+        ReflectionTestUtils.setField(adapter, "patientAdapter", new PatientZuFhirAdapter());
+        ReflectionTestUtils.setField(adapter, "arztAdapter", new ArztZuFhirAdapter());
+        var mapper = new ObjectMapper();
+
+        assertArrayEquals(alsMapJson(mapper), alsGeneratorJson(mapper));
+    }
+
+    @Test
+    void summary_laesst_narrativ_und_result_weg_ohne_befunde_zu_laden() throws Exception {
+        ReflectionTestUtils.setField(adapter, "patientAdapter", new PatientZuFhirAdapter());
+        ReflectionTestUtils.setField(adapter, "arztAdapter", new ArztZuFhirAdapter());
+        var auswahl = Elementauswahl.aus("true", null);
+        var mapper = new ObjectMapper();
+
+        var out = adapter.konvertiereZuFhir(bericht, auswahl);
+        var puffer = new ByteArrayOutputStream();
+        try (var gen = mapper.getFactory().createGenerator(puffer)) {
+            adapter.schreibeFhir(bericht, auswahl, gen);
+        }
+
+        assertFalse(out.containsKey("text"));
+        assertFalse(out.containsKey("result"));
+        assertFalse(out.containsKey("conclusion"));
+        assertTrue(out.containsKey("category"));
+        assertTrue(out.containsKey("performer"));
+        assertTrue(mapper.writeValueAsString(out.get("meta")).contains("SUBSETTED"));
+        assertArrayEquals(mapper.writeValueAsBytes(out), puffer.toByteArray());
+        verify(befundRepository, never()).findByBehandlungsfallFallId(any());
+    }
+
+    private byte[] alsMapJson(ObjectMapper mapper) throws Exception {
+        return mapper.writeValueAsBytes(adapter.konvertiereZuFhir(bericht));
+    }
+
+    private byte[] alsGeneratorJson(ObjectMapper mapper) throws Exception {
+        var puffer = new ByteArrayOutputStream();
+        try (var gen = mapper.getFactory().createGenerator(puffer)) {
+            adapter.schreibeFhir(bericht, gen);
+        }
+        return puffer.toByteArray();
+    }
 }
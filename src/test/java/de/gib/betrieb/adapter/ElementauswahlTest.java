@@ -0,0 +1,75 @@
+package de.gib.betrieb.adapter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElementauswahlTest {
+
+    @Test
+    void ohne_parameter_oder_summary_false_ist_alles_enthalten() {
+        assertSame(Elementauswahl.ALLE, Elementauswahl.aus(null, " "));
+        assertSame(Elementauswahl.ALLE, Elementauswahl.aus("false", null));
+        assertFalse(Elementauswahl.ALLE.eingeschraenkt());
+        assertEquals("", Elementauswahl.ALLE.alsQuery());
+    }
+
+    @Test
+    void summary_modi_nach_r4() {
+        var zusammenfassung = Elementauswahl.aus("true", null);
+        assertTrue(zusammenfassung.enthaelt("Observation", "value"));
+        assertFalse(zusammenfassung.enthaelt("Observation", "category"));
+        assertFalse(zusammenfassung.enthaelt("Observation", "text"));
+        assertFalse(zusammenfassung.enthaelt("Practitioner", "qualification"));
+
+        var text = Elementauswahl.aus("text", null);
+        assertTrue(text.enthaelt("Patient", "text"));
+        assertTrue(text.enthaelt("Observation", "status"));
+        assertFalse(text.enthaelt("Patient", "name"));
+
+        var daten = Elementauswahl.aus("DATA", null);
+        assertTrue(daten.enthaelt("DiagnosticReport", "conclusion"));
+        assertFalse(daten.enthaelt("DiagnosticReport", "text"));
+        assertEquals("&_summary=data", daten.alsQuery());
+
+        assertTrue(Elementauswahl.aus("count", null).nurAnzahl());
+    }
+
+    @Test
+    void elements_mit_pflichtelementen_und_grundnamen() {
+        var auswahl = Elementauswahl.aus(null, "valueQuantity, subject");
+
+        assertTrue(auswahl.enthaelt("Observation", "value"));
+        assertTrue(auswahl.enthaelt("Observation", "subject"));
+        assertTrue(auswahl.enthaelt("Observation", "code"));
+        assertFalse(auswahl.enthaelt("Observation", "text"));
+        assertTrue(auswahl.eingeschraenkt());
+        assertEquals("&_elements=subject,value", auswahl.alsQuery());
+    }
+
+    @Test
+    void ungueltige_angaben() {
+        assertThrows(IllegalArgumentException.class, () -> Elementauswahl.aus("kurz", null));
+        assertThrows(IllegalArgumentException.class, () -> Elementauswahl.aus("true", "name"));
+    }
+
+    @Test
+    void reduziertes_profil_liegt_ueber_der_auswahl() {
+        var reduziert = Elementauswahl.ALLE.reduziert();
+
+        assertSame(Elementauswahl.REDUZIERT, reduziert);
+        assertSame(reduziert, reduziert.reduziert());
+        assertTrue(reduziert.eingeschraenkt());
+        assertFalse(reduziert.mitAnzeige());
+        assertFalse(reduziert.enthaelt("DiagnosticReport", "result"));
+        assertFalse(reduziert.enthaelt("Patient", "text"));
+        assertTrue(reduziert.enthaelt("DiagnosticReport", "conclusion"));
+        assertEquals("", reduziert.alsQuery());
+
+        var elemente = Elementauswahl.aus(null, "result,subject").reduziert();
+        assertTrue(elemente.istReduziert());
+        assertFalse(elemente.enthaelt("DiagnosticReport", "result"));
+        assertTrue(elemente.enthaelt("DiagnosticReport", "subject"));
+        assertEquals("&_elements=result,subject", elemente.alsQuery());
+    }
+}
@@ -0,0 +1,72 @@
+package de.gib.betrieb.adapter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FragmenteTest {
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    Terminologie terminologie = Terminologie.standard();
+
+    @Test
+    void gleiche_konzepte_teilen_ein_fragment() {
+        var kategorie = Fragmente.kategorie(terminologie.uebersetze(Terminologie.BEFUND_KATEGORIE, "LAB-001"));
+        var nochmal = Fragmente.kategorie(terminologie.uebersetze(Terminologie.BEFUND_KATEGORIE, "LAB-002"));
+
+        assertSame(kategorie, nochmal);
+        assertEquals("[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/observation-category\","
+                + "\"code\":\"laboratory\",\"display\":\"Laboratory\"}]}]", kategorie.json());
+    }
+
+    @Test
+    void werte_sind_tief_unveraenderlich() {
+        var konzept = terminologie.uebersetze(Terminologie.BEFUND_CODE, "LAB-001");
+        @SuppressWarnings("unchecked")
+        var code = (Map<String, Object>) Fragmente.codeableConcept(konzept, konzept.display()).wert();
+        @SuppressWarnings("unchecked")
+        var coding = (List<Map<String, Object>>) code.get("coding");
+
+        assertThrows(UnsupportedOperationException.class, () -> code.put("text", "x"));
+        assertThrows(UnsupportedOperationException.class, () -> coding.add(Map.of()));
+        assertThrows(UnsupportedOperationException.class, () -> coding.get(0).put("code", "x"));
+    }
+
+    @Test
+    void json_entspricht_dem_serialisierten_wert() throws Exception {
+        var konzept = terminologie.uebersetze(Terminologie.FACHRICHTUNG, "Kardiologie");
+        for (var fragment : List.of(Fragmente.meta("http://hl7.org/fhir/StructureDefinition/Patient"),
+                Fragmente.PRAEFIX_DR, Fragmente.qualifikation(konzept, "Kardiologie"),
+                Fragmente.codeableConcept(konzept, null))) {
+            assertEquals(objectMapper.writeValueAsString(fragment.wert()), fragment.json());
+        }
+    }
+
+    @Test
+    void generator_schreibt_rohes_json_und_beachtet_einrueckung() throws Exception {
+        var fragment = Fragmente.meta("http://hl7.org/fhir/StructureDefinition/Patient");
+
+        StringWriter kompakt = new StringWriter();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(kompakt)) {
+            gen.writeStartObject();
+            fragment.schreibeFeld(gen, "meta");
+            gen.writeEndObject();
+        }
+        assertEquals("{\"meta\":" + fragment.json() + "}", kompakt.toString());
+
+        StringWriter eingerueckt = new StringWriter();
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(eingerueckt).useDefaultPrettyPrinter()) {
+            gen.writeStartObject();
+            fragment.schreibeFeld(gen, "meta");
+            gen.writeEndObject();
+        }
+        assertEquals(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(Map.of("meta", fragment.wert())),
+                eingerueckt.toString());
+    }
+}
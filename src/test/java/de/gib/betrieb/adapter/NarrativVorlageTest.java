@@ -0,0 +1,32 @@
+package de.gib.betrieb.adapter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NarrativVorlageTest {
+
+    @Test
+    void rendert_literale_und_platzhalter_im_div() {
+        var vorlage = NarrativVorlage.kompiliere("{a} und {b}, nochmal {a}.", "a", "b");
+
+        assertEquals("<div xmlns=\"http://www.w3.org/1999/xhtml\">x und y, nochmal x.</div>", vorlage.rendere("x", "y"));
+        // Der Puffer wird wiederverwendet, das Ergebnis ist trotzdem eigenständig
+        assertEquals("<div xmlns=\"http://www.w3.org/1999/xhtml\">1 und 2, nochmal 1.</div>", vorlage.rendere("1", "2"));
+    }
+
+    @Test
+    void fehlerhafte_vorlagen_fallen_beim_kompilieren_auf() {
+        assertThrows(IllegalArgumentException.class, () -> NarrativVorlage.kompiliere("Wert {x", "x"));
+        assertThrows(IllegalArgumentException.class, () -> NarrativVorlage.kompiliere("Wert {y}", "x"));
+    }
+
+    @Test
+    void saetze_entsprechen_dem_bisherigen_text() {
+        assertEquals("<div xmlns=\"http://www.w3.org/1999/xhtml\">Behandelnde Person Dr. Anna Roth.</div>",
+                erstelleNarratixtext.practitionerDiv("Dr.", "Anna", "Roth", ""));
+        assertEquals("<div xmlns=\"http://www.w3.org/1999/xhtml\">Bericht Bericht mit Status final, "
+                        + "ausgegeben am ohne Ausgabedatum. Ergebnisse: 3.</div>",
+                erstelleNarratixtext.diagnosticReportDiv(null, "final", null, 3));
+    }
+}
@@ -1,10 +1,13 @@
 package de.gib.betrieb.adapter;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.gib.betrieb.model.Patient;
 import de.gib.betrieb.testsupport.FhirTestValidator;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Map;
 
@@ -51,6 +54,28 @@ class PatientZuFhirAdapterTest {
         assertEquals("Tim Bauer", ref.get("display"));
     }
 
+    @Test
+    void generator_engine_liefert_identisches_json() throws Exception {
+        var p = Mockito.mock(Patient.class);
+        Mockito.when(p.getPatientenId()).thenReturn(42L);
+        Mockito.when(p.getVorname()).thenReturn("Jürgen");
+        Mockito.when(p.getNachname()).thenReturn("Weiß");
+        Mockito.when(p.getGeschlecht()).thenReturn("m");
+        Mockito.when(p.getGeburtsdatum()).thenReturn(LocalDate.of(1960, 12, 24));
+
+        var adapter = new PatientZuFhirAdapter();
+        var mapper = new ObjectMapper();
+
+        byte[] ausMap = mapper.writeValueAsBytes(adapter.konvertiereZuFhir(p));
+        var puffer = new ByteArrayOutputStream();
+        try (var gen = mapper.getFactory().createGenerator(puffer)) {
+            adapter.schreibeFhir(p, gen);
+        }
+
+        assertEquals(new String(ausMap, StandardCharsets.UTF_8), puffer.toString(StandardCharsets.UTF_8));
+        assertArrayEquals(ausMap, puffer.toByteArray());
+    }
+
     @Test
     void validierung_r4_prueft_patient_ist_gueltig() {
         var p = Mockito.mock(Patient.class);
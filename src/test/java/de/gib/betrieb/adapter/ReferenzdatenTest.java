@@ -0,0 +1,111 @@
+package de.gib.betrieb.adapter;
+
+import de.gib.betrieb.datenbank.*;
+import de.gib.betrieb.model.Arzt;
+import de.gib.betrieb.model.Einrichtung;
+import de.gib.betrieb.model.Standort;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ReferenzdatenTest {
+
+    @Mock ArztRepository arztRepository;
+    @Mock StandortRepository standortRepository;
+    @Mock EinrichtungRepository einrichtungRepository;
+    @Mock MedikamentRepository medikamentRepository;
+
+    @InjectMocks Referenzdaten referenzdaten;
+
+    @BeforeEach
+    void init() {
+        when(arztRepository.pruefsumme()).thenReturn("2:17");
+        when(standortRepository.pruefsumme()).thenReturn("1:5");
+        when(einrichtungRepository.pruefsumme()).thenReturn("1:3");
+        when(medikamentRepository.pruefsumme()).thenReturn("0:0");
+
+        var einrichtung = new Einrichtung("Klinikum Nord", "Krankenhaus");
+        einrichtung.setEinrichtungsId(4L);
+        var standort = new Standort(einrichtung, "Station 3", "Station");
+        standort.setStandortId(11L);
+
+        when(arztRepository.findAll()).thenReturn(List.of(arzt(9L, "Anna", "Schulz"), arzt(2L, "Max", "Mustermann")));
+        when(standortRepository.findAll()).thenReturn(List.of(standort));
+        when(einrichtungRepository.findAll()).thenReturn(List.of(einrichtung));
+        when(medikamentRepository.findAll()).thenReturn(List.of());
+    }
+
+    @Test
+    void laedt_nur_bei_geaenderter_pruefsumme() {
+        referenzdaten.pruefeVersion();
+        referenzdaten.pruefeVersion();
+        verify(arztRepository, times(1)).findAll();
+
+        when(arztRepository.pruefsumme()).thenReturn("2:18");
+        referenzdaten.pruefeVersion();
+        verify(arztRepository, times(2)).findAll();
+    }
+
+    @Test
+    void nachschlagen_ueber_long_id() {
+        referenzdaten.pruefeVersion();
+
+        assertEquals("Dr. Anna Schulz (Kardiologie)", referenzdaten.arzt(9L).display());
+        assertEquals("Practitioner/2", referenzdaten.arzt(2L).reference());
+        assertNull(referenzdaten.arzt(5L));
+        assertEquals(4L, referenzdaten.standort(11L).einrichtungsId());
+        assertEquals("Klinikum Nord", referenzdaten.einrichtung(4L).name());
+    }
+
+    @Test
+    void aenderung_ueber_jpa_wird_sofort_uebernommen() {
+        referenzdaten.pruefeVersion();
+
+        referenzdaten.entitaetGeaendert(new EntitaetGeaendertEvent(arzt(9L, "Anna", "Neumann"),
+                EntitaetGeaendertEvent.Aenderung.GEAENDERT));
+        referenzdaten.entitaetGeaendert(new EntitaetGeaendertEvent(arzt(5L, "Eva", "Lang"),
+                EntitaetGeaendertEvent.Aenderung.ANGELEGT));
+        referenzdaten.entitaetGeaendert(new EntitaetGeaendertEvent(arzt(2L, "Max", "Mustermann"),
+                EntitaetGeaendertEvent.Aenderung.GELOESCHT));
+
+        assertEquals("Dr. Anna Neumann (Kardiologie)", referenzdaten.arzt(9L).display());
+        assertEquals("Dr. Eva Lang (Kardiologie)", referenzdaten.arzt(5L).display());
+        assertNull(referenzdaten.arzt(2L));
+    }
+
+    @Test
+    void adapter_liest_referenz_ohne_entitaetsfelder() {
+        referenzdaten.pruefeVersion();
+        var adapter = new ArztZuFhirAdapter();
+        ReflectionTestUtils.setField(adapter, "referenzdaten", referenzdaten);
+
+        // Wie ein nicht initialisierter Lazy-Proxy: nur die Id ist bekannt
+        var proxy = Mockito.mock(Arzt.class);
+        when(proxy.getArztId()).thenReturn(9L);
+
+        var ref = adapter.erstellePractitionerReference(proxy);
+        assertEquals("Practitioner/9", ref.get("reference"));
+        assertEquals("Dr. Anna Schulz (Kardiologie)", ref.get("display"));
+        verify(proxy, never()).getNachname();
+    }
+
+    private static Arzt arzt(long id, String vorname, String nachname) {
+        var arzt = new Arzt(vorname, nachname, "Kardiologie");
+        arzt.setArztId(id);
+        return arzt;
+    }
+}
@@ -0,0 +1,98 @@
+package de.gib.betrieb.adapter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TerminologieTest {
+
+    Terminologie terminologie = new Terminologie();
+
+    @Test
+    void exakte_treffer_praefixe_und_rueckfall() {
+        assertEquals("Blutdruck", terminologie.uebersetze(Terminologie.BEFUND_CODE, "LAB-001").display());
+        assertEquals("vital-signs", terminologie.uebersetze(Terminologie.BEFUND_KATEGORIE, "VITAL-002").code());
+        assertEquals("exam", terminologie.uebersetze(Terminologie.BEFUND_KATEGORIE, "URINE-001").code());
+        assertEquals("mm[Hg]", terminologie.uebersetze(Terminologie.UCUM, "mmHg").code());
+        assertEquals("mg/dL", terminologie.uebersetze(Terminologie.UCUM, "mg/dL").code());
+        assertEquals("309343006", terminologie.uebersetze(Terminologie.FACHRICHTUNG, "Dermatologie").code());
+        assertEquals("Dermatologie", terminologie.uebersetze(Terminologie.FACHRICHTUNG, "Dermatologie").display());
+        assertEquals("Medizinischer Bericht", terminologie.uebersetze(Terminologie.BERICHT_CODE, null).display());
+    }
+
+    @Test
+    void unbekannte_codes_werden_einmal_gebaut_und_geteilt() {
+        var erstes = terminologie.uebersetze(Terminologie.BEFUND_CODE, "XRAY-9");
+        var zweites = terminologie.uebersetze(Terminologie.BEFUND_CODE, new String("XRAY-9"));
+
+        assertEquals("Unbekannte Messung (XRAY-9)", erstes.display());
+        assertSame(erstes, zweites);
+        assertSame(erstes.coding(), zweites.coding());
+        assertThrows(UnsupportedOperationException.class, () -> erstes.coding().put("code", "x"));
+    }
+
+    @Test
+    void neu_laden_ersetzt_maps_und_behaelt_die_uebrigen() throws Exception {
+        var vorher = terminologie.uebersetze(Terminologie.BEFUND_CODE, "LAB-001");
+
+        String json = """
+                {"version": "2", "konzeptMaps": [
+                  {"name": "befund-code", "system": "http://krankenhaus.de/codes",
+                   "eintraege": [{"quelle": "LAB-001", "display": "Blutdruck systolisch"}],
+                   "unbekannt": {"display": "Unbekannte Messung ({quelle})"}}
+                ]}
+                """;
+        terminologie.lade(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("Blutdruck", vorher.display());
+        assertEquals("Blutdruck systolisch", terminologie.uebersetze(Terminologie.BEFUND_CODE, "LAB-001").display());
+        assertEquals("394579002", terminologie.uebersetze(Terminologie.FACHRICHTUNG, "Kardiologie").code());
+        assertEquals("2", terminologie.statistik().get("version"));
+    }
+
+    @Test
+    void quellen_kehren_die_abbildung_fuer_die_suche_um() {
+        var labor = terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "laboratory");
+        assertEquals(List.of(new Terminologie.Praefix("LAB", Set.of(), List.of())), labor.praefixe());
+        assertFalse(labor.ohneCode());
+
+        // exam ist der Rückfall: jeder Code außer LAB*/VITAL*, auch der fehlende
+        var exam = terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "exam");
+        assertEquals(List.of(new Terminologie.Praefix("", Set.of(), List.of("LAB", "VITAL"))), exam.praefixe());
+        assertTrue(exam.ohneCode());
+
+        assertEquals(Set.of("LAB-001"), terminologie.quellen(Terminologie.BEFUND_CODE, null, "LAB-001").codes());
+        assertEquals(Set.of("LAB-001"),
+                terminologie.quellen(Terminologie.BEFUND_CODE, "http://krankenhaus.de/codes", "LAB-001").codes());
+        assertTrue(terminologie.quellen(Terminologie.BEFUND_CODE, "http://loinc.org", "LAB-001").trifftNichts());
+        // Unbekannte Codes werden unverändert ausgegeben und sind deshalb auch suchbar
+        assertEquals(Set.of("XRAY-9"), terminologie.quellen(Terminologie.BEFUND_CODE, null, "XRAY-9").codes());
+        assertTrue(terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "imaging").trifftNichts());
+    }
+
+    @Test
+    void quellen_beachten_vorrang_von_exakten_eintraegen_und_frueheren_praefixen() throws Exception {
+        String json = """
+                {"version": "3", "konzeptMaps": [
+                  {"name": "befund-kategorie", "system": "http://terminology.hl7.org/CodeSystem/observation-category",
+                   "eintraege": [{"quelle": "LAB-EKG", "code": "procedure"}],
+                   "praefixe": [{"quelle": "LAB-X", "code": "imaging"}, {"quelle": "LAB", "code": "laboratory"},
+                                {"quelle": "LAB-XY", "code": "laboratory"}],
+                   "unbekannt": {"code": "exam"}, "leer": {"code": "exam"}}
+                ]}
+                """;
+        terminologie.lade(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        var labor = terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "laboratory");
+        // LAB-XY liegt ganz unter dem früheren LAB-X und trifft nie
+        assertEquals(List.of(new Terminologie.Praefix("LAB", Set.of("LAB-EKG"), List.of("LAB-X"))), labor.praefixe());
+        assertEquals(Set.of("LAB-EKG"), terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "procedure").codes());
+        assertEquals(new Terminologie.Praefix("", Set.of("LAB-EKG"), List.of("LAB-X", "LAB", "LAB-XY")),
+                terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "exam").praefixe().get(0));
+    }
+}
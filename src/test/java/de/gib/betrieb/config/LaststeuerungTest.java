@@ -0,0 +1,107 @@
+package de.gib.betrieb.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaststeuerungTest {
+
+    private static Laststeuerung steuerung(int maxParallel, int reduziertAb, int normalUnter, Duration haltezeit) {
+        return new Laststeuerung(true, maxParallel, 4, Duration.ofMillis(20),
+                reduziertAb, Duration.ofSeconds(10), normalUnter, Duration.ofSeconds(1),
+                haltezeit, Duration.ofSeconds(3), null);
+    }
+
+    @Test
+    void hysterese_zwischen_den_schwellen() {
+        Laststeuerung steuerung = steuerung(10, 6, 3, Duration.ofMillis(100));
+        long t = 0;
+
+        assertFalse(steuerung.bewerte(5, t));
+        assertTrue(steuerung.bewerte(6, t));
+        // Zwischen den Schwellen bleibt der Zustand
+        assertTrue(steuerung.bewerte(4, t + 500_000_000));
+        // Unter normal-unter, aber die letzte Überlast liegt noch nicht die Haltezeit zurück
+        long letzteUeberlast = t + 600_000_000;
+        steuerung.bewerte(7, letzteUeberlast);
+        assertTrue(steuerung.bewerte(2, letzteUeberlast + 50_000_000));
+        assertFalse(steuerung.bewerte(2, letzteUeberlast + 100_000_000));
+        assertFalse(steuerung.bewerte(4, letzteUeberlast + 200_000_000));
+
+        assertEquals(2L, steuerung.statistik().get("profilwechsel"));
+    }
+
+    @Test
+    void anfrage_im_reduzierten_profil_bekommt_header() throws Exception {
+        Laststeuerung steuerung = steuerung(4, 1, 0, Duration.ofSeconds(10));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fhir/Patient/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(steuerung.preHandle(request, response, null));
+        assertTrue(steuerung.reduziertBeantworten());
+        assertEquals("reduziert", response.getHeader("X-Lastprofil"));
+        assertEquals(1, steuerung.statistik().get("parallel"));
+
+        steuerung.afterCompletion(request, response, null, null);
+        assertFalse(steuerung.reduziertBeantworten());
+        assertEquals(0, steuerung.statistik().get("parallel"));
+    }
+
+    @Test
+    void ohne_freien_platz_429_mit_retry_after() throws Exception {
+        Laststeuerung steuerung = steuerung(1, 1, 0, Duration.ofSeconds(10));
+        MockHttpServletRequest erste = new MockHttpServletRequest("GET", "/fhir/Patient/1");
+        assertTrue(steuerung.preHandle(erste, new MockHttpServletResponse(), null));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(steuerung.preHandle(new MockHttpServletRequest("GET", "/fhir/Patient/2"), response, null));
+        assertEquals(429, response.getStatus());
+        assertEquals("3", response.getHeader("Retry-After"));
+        assertTrue(response.getContentAsString().contains("\"code\":\"throttled\""));
+        assertEquals(1L, steuerung.statistik().get("abgewiesen"));
+
+        // Nach der Freigabe ist der Platz wieder da
+        steuerung.afterCompletion(erste, new MockHttpServletResponse(), null, null);
+        MockHttpServletRequest dritte = new MockHttpServletRequest("GET", "/fhir/Patient/3");
+        assertTrue(steuerung.preHandle(dritte, new MockHttpServletResponse(), null));
+        steuerung.afterCompletion(dritte, new MockHttpServletResponse(), null, null);
+    }
+
+    @Test
+    void plaetze_begrenzen_die_parallelen_anfragen() throws Exception {
+        Laststeuerung steuerung = new Laststeuerung(true, 2, 16, Duration.ofSeconds(5),
+                2, Duration.ofSeconds(10), 1, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(1), null);
+        AtomicInteger gleichzeitig = new AtomicInteger();
+        AtomicInteger hoechstens = new AtomicInteger();
+        CountDownLatch fertig = new CountDownLatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            new Thread(() -> {
+                MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fhir/Patient");
+                try {
+                    if (steuerung.preHandle(request, new MockHttpServletResponse(), null)) {
+                        hoechstens.accumulateAndGet(gleichzeitig.incrementAndGet(), Math::max);
+                        Thread.sleep(10);
+                        gleichzeitig.decrementAndGet();
+                        steuerung.afterCompletion(request, new MockHttpServletResponse(), null, null);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    fertig.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(fertig.await(10, TimeUnit.SECONDS));
+        assertTrue(hoechstens.get() <= 2);
+        assertEquals(0L, steuerung.statistik().get("abgewiesen"));
+    }
+}
@@ -0,0 +1,59 @@
+package de.gib.betrieb.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTimingInterceptorTest {
+
+    ServerTimingInterceptor interceptor = new ServerTimingInterceptor();
+    StufenTimer stufenTimer = new StufenTimer(new SimpleMeterRegistry());
+
+    @AfterEach
+    void aufraeumen() {
+        StufenTimer.beendeAnfrage();
+    }
+
+    @Test
+    void header_mit_stufen_und_gesamtdauer() {
+        var request = new MockHttpServletRequest("GET", "/fhir/Patient/1");
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        stufenTimer.messe("Patient", "db", () -> null);
+
+        String header = schreibeBody(request);
+
+        assertTrue(header.matches("db;dur=\\d+\\.\\d{3}, gesamt;dur=\\d+\\.\\d{3}"), header);
+    }
+
+    @Test
+    void asynchroner_handler_gibt_die_messung_des_threads_frei() {
+        var request = new MockHttpServletRequest("GET", "/fhir/$export");
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        stufenTimer.messe("Patient", "db", () -> null);
+
+        interceptor.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), null);
+
+        assertNull(StufenTimer.stufenDerAnfrage());
+    }
+
+    @Test
+    void ohne_eigene_messung_kein_header() {
+        // Liegengebliebene Stufen auf dem Thread gehören nicht zu dieser Anfrage
+        StufenTimer.starteAnfrage();
+        stufenTimer.messe("Patient", "db", () -> null);
+
+        assertNull(schreibeBody(new MockHttpServletRequest("GET", "/api/test/status")));
+    }
+
+    private String schreibeBody(MockHttpServletRequest request) {
+        var response = new ServletServerHttpResponse(new MockHttpServletResponse());
+        interceptor.beforeBodyWrite("body", null, null, null, new ServletServerHttpRequest(request), response);
+        return response.getHeaders().getFirst("Server-Timing");
+    }
+}
@@ -0,0 +1,58 @@
+package de.gib.betrieb.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StufenTimerTest {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    StufenTimer stufenTimer = new StufenTimer(registry);
+
+    @AfterEach
+    void aufraeumen() {
+        StufenTimer.beendeAnfrage();
+    }
+
+    @Test
+    void messe_registriert_timer_je_typ_und_stufe() {
+        assertEquals("ok", stufenTimer.messe("Patient", "db", () -> "ok"));
+        stufenTimer.messe("Patient", "db", () -> null);
+        stufenTimer.messe("Observation", "mapping", () -> null);
+
+        assertEquals(2, registry.get("fhir.stufe").tags("typ", "Patient", "stufe", "db").timer().count());
+        assertEquals(1, registry.get("fhir.stufe").tags("typ", "Observation", "stufe", "mapping").timer().count());
+    }
+
+    @Test
+    void stufen_werden_pro_anfrage_aufsummiert() {
+        assertNull(StufenTimer.stufenDerAnfrage());
+
+        StufenTimer.starteAnfrage();
+        stufenTimer.messe("DiagnosticReport", "db", () -> null);
+        stufenTimer.messe("DiagnosticReport", "db", () -> null);
+        stufenTimer.messe("DiagnosticReport", "serialisierung", () -> null);
+
+        var stufen = StufenTimer.stufenDerAnfrage();
+        assertEquals(2, stufen.size());
+        assertTrue(stufen.containsKey("db"));
+        assertTrue(stufen.containsKey("serialisierung"));
+    }
+
+    @Test
+    void ohne_timer_wird_nur_ausgefuehrt() {
+        assertEquals(42, StufenTimer.messe(null, "Patient", "narrativ", () -> 42));
+    }
+
+    @Test
+    void bytes_als_verteilung() {
+        stufenTimer.erfasseBytes("Patient", 1200);
+        stufenTimer.erfasseBytes("Patient", 800);
+
+        var groesse = registry.get("fhir.antwort.bytes").tags("typ", "Patient").summary();
+        assertEquals(2, groesse.count());
+        assertEquals(2000.0, groesse.totalAmount());
+    }
+}
@@ -0,0 +1,53 @@
+package de.gib.betrieb.config;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VerbindungsbegrenzungTest {
+
+    @Test
+    void close_gibt_den_platz_genau_einmal_frei() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        Connection verbindung = mock(Connection.class);
+        when(pool.getConnection()).thenReturn(verbindung);
+        when(verbindung.isReadOnly()).thenReturn(true);
+
+        var begrenzt = (Verbindungsbegrenzung.BegrenzteDataSource) new Verbindungsbegrenzung(2, Duration.ofMillis(10))
+                .postProcessAfterInitialization(pool, "dataSource");
+
+        Connection erste = begrenzt.getConnection();
+        Connection zweite = begrenzt.getConnection();
+        assertEquals(0, begrenzt.freiePlaetze());
+        assertTrue(erste.isReadOnly());
+        assertThrows(SQLTransientConnectionException.class, begrenzt::getConnection);
+
+        erste.close();
+        erste.close();
+        assertEquals(1, begrenzt.freiePlaetze());
+        verify(verbindung, times(2)).close();
+
+        zweite.close();
+        assertEquals(2, begrenzt.freiePlaetze());
+    }
+
+    @Test
+    void fehler_beim_holen_gibt_den_platz_zurueck() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenThrow(new SQLTransientConnectionException("pool leer"));
+
+        var begrenzt = (Verbindungsbegrenzung.BegrenzteDataSource) new Verbindungsbegrenzung(1, Duration.ofMillis(10))
+                .postProcessAfterInitialization(pool, "dataSource");
+
+        assertThrows(SQLTransientConnectionException.class, begrenzt::getConnection);
+        assertEquals(1, begrenzt.freiePlaetze());
+        assertSame(begrenzt, new Verbindungsbegrenzung(1, Duration.ofMillis(10))
+                .postProcessAfterInitialization(begrenzt, "dataSource"));
+    }
+}
@@ -0,0 +1,59 @@
+package de.gib.betrieb.datenbank;
+
+import de.gib.betrieb.adapter.Terminologie;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BefundSucheRepositoryImplTest {
+
+    Terminologie terminologie = new Terminologie();
+
+    @Test
+    void filter_und_keyset_nach_datum_in_einer_abfrage() {
+        var kriterien = new BefundKriterien(5L, terminologie.quellen(Terminologie.BEFUND_CODE, null, "LAB-002"), null,
+                LocalDateTime.of(2025, 1, 1, 0, 0), null, BefundKriterien.Sortierung.DATUM_ABSTEIGEND,
+                new BefundKriterien.Position(LocalDateTime.of(2025, 2, 1, 8, 0), 99L));
+
+        var abfrage = BefundSucheRepositoryImpl.baue(kriterien, false);
+
+        assertEquals("SELECT b FROM Befund b JOIN FETCH b.behandlungsfall f JOIN FETCH f.patient p"
+                + " WHERE f.patient.patientenId = :patient AND (b.code IN :code) AND b.zeitpunkt >= :ab"
+                + " AND (b.zeitpunkt <= :nachZeit AND (b.zeitpunkt < :nachZeit OR b.befundId < :nachId))"
+                + " ORDER BY b.zeitpunkt DESC, b.befundId DESC", abfrage.jpql());
+        assertEquals(List.of("LAB-002"), abfrage.parameter().get("code"));
+        assertEquals(99L, abfrage.parameter().get("nachId"));
+    }
+
+    @Test
+    void ohne_zeitfilter_stehen_befunde_ohne_zeitpunkt_am_ende() {
+        var kriterien = new BefundKriterien(null, null, null, null, null, BefundKriterien.Sortierung.DATUM,
+                new BefundKriterien.Position(LocalDateTime.of(2025, 2, 1, 8, 0), 7L));
+
+        String jpql = BefundSucheRepositoryImpl.baue(kriterien, false).jpql();
+
+        assertTrue(jpql.contains(" OR b.zeitpunkt IS NULL)"), jpql);
+        assertTrue(jpql.endsWith("ORDER BY b.zeitpunkt NULLS LAST, b.befundId"), jpql);
+    }
+
+    @Test
+    void rueckfall_kategorie_schliesst_die_anderen_praefixe_aus() {
+        var kriterien = new BefundKriterien(null, null, terminologie.quellen(Terminologie.BEFUND_KATEGORIE, null, "exam"),
+                null, null, BefundKriterien.Sortierung.ID, null);
+
+        var abfrage = BefundSucheRepositoryImpl.baue(kriterien, true);
+
+        assertEquals("SELECT count(b) FROM Befund b JOIN b.behandlungsfall f WHERE ((b.code IS NOT NULL"
+                + " AND b.code NOT LIKE :kategorieP0A0 ESCAPE '!' AND b.code NOT LIKE :kategorieP0A1 ESCAPE '!')"
+                + " OR b.code IS NULL)", abfrage.jpql());
+        assertEquals("LAB%", abfrage.parameter().get("kategorieP0A0"));
+    }
+
+    @Test
+    void like_maskiert_platzhalter_im_praefix() {
+        assertEquals("A!_B!%!!%", BefundSucheRepositoryImpl.like("A_B%!"));
+    }
+}
@@ -0,0 +1,90 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.BefundZuFhirAdapter;
+import de.gib.betrieb.adapter.Terminologie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BefundAuswertungTest {
+
+    @Mock BefundIndex befundIndex;
+
+    @InjectMocks BefundAuswertung auswertung;
+
+    @BeforeEach
+    void init() {
+        ReflectionTestUtils.setField(auswertung, "befundAdapter", new BefundZuFhirAdapter());
+        ReflectionTestUtils.setField(auswertung, "terminologie", new Terminologie());
+        when(befundIndex.bereit()).thenReturn(true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void stats_liefert_je_code_eine_observation_mit_kennzahlen() {
+        when(befundIndex.kennzahlen(eq(4L), any(), eq(LocalDateTime.of(2024, 1, 1, 0, 0)), isNull())).thenReturn(List.of(
+                new BefundIndex.Kennzahlen("LAB-002", 3, 2, 80, 120, 200, "mg/dL",
+                        LocalDateTime.of(2024, 2, 1, 8, 0), LocalDateTime.of(2024, 3, 1, 8, 0))));
+
+        var ergebnis = auswertung.stats(new BefundSuchparameter("4", "LAB-002", null, List.of("ge2024"), null, null),
+                null, "count,average,totalcount");
+
+        assertEquals("Parameters", ergebnis.get("resourceType"));
+        var parameter = (List<Map<String, Object>>) ergebnis.get("parameter");
+        var observation = (Map<String, Object>) parameter.get(0).get("resource");
+        assertEquals("statistics", parameter.get(0).get("name"));
+        assertEquals(Map.of("reference", "Patient/4"), observation.get("subject"));
+
+        var komponenten = (List<Map<String, Object>>) observation.get("component");
+        assertEquals(3, komponenten.size());
+        assertEquals(2L, komponenten.get(0).get("valueInteger"));
+        assertEquals(100.0, ((Map<?, ?>) komponenten.get(1).get("valueQuantity")).get("value"));
+        assertEquals("mg/dL", ((Map<?, ?>) komponenten.get(1).get("valueQuantity")).get("unit"));
+        assertEquals(3L, komponenten.get(2).get("valueInteger"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void code_filter_laeuft_ueber_die_terminologie() {
+        var filter = org.mockito.ArgumentCaptor.forClass(Predicate.class);
+        when(befundIndex.letzte(eq(4L), filter.capture(), isNull(), isNull(), eq(3))).thenReturn(List.of());
+
+        auswertung.lastn(new BefundSuchparameter("Patient/4", null, "vital-signs", null, null, null), 3, "b", "s");
+
+        Predicate<String> codeFilter = filter.getValue();
+        assertTrue(codeFilter.test("VITAL-002"));
+        assertFalse(codeFilter.test("LAB-001"));
+        assertFalse(codeFilter.test(null));
+    }
+
+    @Test
+    void ungueltige_anfragen() {
+        assertThrows(IllegalArgumentException.class,
+                () -> auswertung.lastn(new BefundSuchparameter(null, null, null, null, null, null), null, "b", "s"));
+        assertThrows(IllegalArgumentException.class,
+                () -> auswertung.stats(new BefundSuchparameter("1", null, null, null, null, null), null, "median"));
+
+        when(befundIndex.bereit()).thenReturn(false);
+        assertThrows(IllegalStateException.class,
+                () -> auswertung.lastn(new BefundSuchparameter("1", null, null, null, null, null), null, "b", "s"));
+    }
+}
@@ -0,0 +1,150 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.BefundZuFhirAdapter;
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.datenbank.BefundZeile;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent.Aenderung;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Behandlungsfall;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BefundIndexTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 10, 8, 0);
+
+    @Mock BefundRepository befundRepository;
+
+    @InjectMocks BefundIndex index;
+
+    @BeforeEach
+    void aufbauen() {
+        when(befundRepository.streameIndexZeilen()).thenReturn(Stream.of(
+                zeile(1L, 10L, "LAB-002", T0, "90"),
+                zeile(1L, 11L, "LAB-002", T0.plusDays(2), "110,5"),
+                zeile(1L, 12L, "LAB-002", T0.plusDays(1), "130"),
+                zeile(1L, 13L, "LAB-001", T0.plusHours(3), "Erhöht"),
+                zeile(1L, 14L, "URINE-001", null, "Normal"),
+                zeile(2L, 20L, "LAB-002", T0, "70")));
+        index.neuAufbauen();
+    }
+
+    @Test
+    void letzte_werte_je_code_neueste_zuerst() {
+        var letzte = index.letzte(1L, c -> true, null, null, 2);
+
+        assertEquals(List.of(13L, 11L, 12L, 14L), letzte.stream().map(BefundZuFhirAdapter.Indexbefund::befundId).toList());
+        assertEquals(110.5, letzte.get(1).wert());
+        assertEquals("mg/dL", letzte.get(1).einheit());
+        assertTrue(Double.isNaN(letzte.get(0).wert()));
+        assertEquals("Erhöht", letzte.get(0).wertText());
+        assertNull(letzte.get(3).zeitpunkt());
+        assertEquals(T0.plusDays(2), letzte.get(1).zeitpunkt());
+    }
+
+    @Test
+    void zeitraum_per_binaersuche_und_ohne_undatierte_befunde() {
+        var letzte = index.letzte(1L, "LAB-002"::equals, T0, T0.plusDays(2), 5);
+        assertEquals(List.of(12L, 10L), letzte.stream().map(BefundZuFhirAdapter.Indexbefund::befundId).toList());
+
+        assertTrue(index.letzte(1L, "URINE-001"::equals, null, T0.plusYears(1), 5).isEmpty());
+        assertTrue(index.letzte(3L, c -> true, null, null, 5).isEmpty());
+    }
+
+    @Test
+    void kennzahlen_ueber_die_numerischen_werte() {
+        var kennzahlen = index.kennzahlen(1L, c -> c.startsWith("LAB"), null, null);
+
+        assertEquals(2, kennzahlen.size());
+        var lab1 = kennzahlen.get(0);
+        assertEquals("LAB-001", lab1.code());
+        assertEquals(1, lab1.anzahl());
+        assertEquals(0, lab1.anzahlNumerisch());
+        assertTrue(Double.isNaN(lab1.mittelwert()));
+
+        var lab2 = kennzahlen.get(1);
+        assertEquals(3, lab2.anzahlNumerisch());
+        assertEquals(90.0, lab2.minimum());
+        assertEquals(130.0, lab2.maximum());
+        assertEquals(110.5 / 3 + 220.0 / 3, lab2.mittelwert(), 1e-9);
+        assertEquals("mg/dL", lab2.einheit());
+        assertEquals(T0, lab2.erster());
+        assertEquals(T0.plusDays(2), lab2.letzter());
+    }
+
+    @Test
+    void aenderungen_ueber_jpa_ersetzen_die_partition() {
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(befund(30L, 2L, "LAB-002", T0.plusDays(5), "75"), Aenderung.ANGELEGT));
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(befund(11L, 1L, "LAB-002", T0.plusDays(2), "100"), Aenderung.GEAENDERT));
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(befund(13L, 1L, "LAB-001", null, null), Aenderung.GELOESCHT));
+
+        assertEquals(30L, index.letzte(2L, c -> true, null, null, 1).get(0).befundId());
+        assertEquals(100.0, index.letzte(1L, "LAB-002"::equals, null, null, 1).get(0).wert());
+        assertTrue(index.letzte(1L, "LAB-001"::equals, null, null, 1).isEmpty());
+
+        var patient = new Patient();
+        patient.setPatientenId(2L);
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(patient, Aenderung.GELOESCHT));
+        assertTrue(index.letzte(2L, c -> true, null, null, 1).isEmpty());
+        assertEquals(4L, index.statistik().get("zeilen"));
+    }
+
+    @Test
+    void ueberlappende_neuaufbauten_verlieren_keine_aenderungen() throws Exception {
+        CountDownLatch erster = new CountDownLatch(1);
+        CountDownLatch weiter = new CountDownLatch(1);
+        when(befundRepository.streameIndexZeilen())
+                .thenAnswer(aufruf -> {
+                    erster.countDown();
+                    weiter.await(5, TimeUnit.SECONDS);
+                    return Stream.of(zeile(1L, 10L, "LAB-002", T0, "90"));
+                })
+                .thenAnswer(aufruf -> Stream.of(zeile(1L, 10L, "LAB-002", T0, "90"),
+                        zeile(1L, 30L, "LAB-001", T0, "5"), zeile(2L, 20L, "LAB-002", T0, "70")));
+
+        // Zeitplan liest noch, als nach einem COPY der zweite Neuaufbau startet
+        var zeitplan = CompletableFuture.runAsync(index::neuAufbauen);
+        assertTrue(erster.await(5, TimeUnit.SECONDS));
+        var nachCopy = CompletableFuture.runAsync(index::neuAufbauen);
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(befund(30L, 1L, "LAB-001", T0, "5"), Aenderung.ANGELEGT));
+        Thread.sleep(50);
+        weiter.countDown();
+
+        zeitplan.get(5, TimeUnit.SECONDS);
+        nachCopy.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(30L, 10L), index.letzte(1L, c -> true, null, null, 1).stream()
+                .map(BefundZuFhirAdapter.Indexbefund::befundId).toList());
+        assertEquals(1, index.letzte(2L, c -> true, null, null, 1).size());
+    }
+
+    private static BefundZeile zeile(long patientId, long befundId, String code, LocalDateTime zeitpunkt, String wert) {
+        return new BefundZeile(patientId, befundId, 100L + patientId, code, zeitpunkt, wert, "mg/dL");
+    }
+
+    private static Befund befund(long befundId, long patientId, String code, LocalDateTime zeitpunkt, String wert) {
+        var patient = new Patient();
+        patient.setPatientenId(patientId);
+        var fall = new Behandlungsfall();
+        fall.setPatient(patient);
+        var befund = new Befund(fall, code, wert, "mg/dL", zeitpunkt);
+        befund.setBefundId(befundId);
+        return befund;
+    }
+}
@@ -0,0 +1,107 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.datenbank.BefundKriterien;
+import de.gib.betrieb.model.Befund;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BefundSuchparameterTest {
+
+    Terminologie terminologie = new Terminologie();
+
+    @Test
+    void datumsbereich_gilt_in_der_genauigkeit_des_werts() {
+        var k = parameter(List.of("ge2025-01", "le2025-03-31")).kriterien(terminologie);
+
+        assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0), k.ab());
+        // le auf einen Tag schließt den ganzen Tag ein
+        assertEquals(LocalDateTime.of(2025, 4, 1, 0, 0), k.bis());
+
+        var jahr = parameter(List.of("2024")).kriterien(terminologie);
+        assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0), jahr.ab());
+        assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0), jahr.bis());
+
+        var gt = parameter(List.of("gt2025-02-10T08:30:00", "lt2025-02-10T09:00:00")).kriterien(terminologie);
+        assertEquals(LocalDateTime.of(2025, 2, 10, 8, 30, 1), gt.ab());
+        assertEquals(LocalDateTime.of(2025, 2, 10, 9, 0), gt.bis());
+    }
+
+    @Test
+    void zeitzone_wird_in_serverzeit_umgerechnet_auch_wenn_das_plus_als_leerzeichen_ankommt() {
+        var k = parameter(List.of("ge2025-06-01T12:00:00 02:00")).kriterien(terminologie);
+
+        LocalDateTime erwartet = OffsetDateTime.parse("2025-06-01T12:00:00+02:00")
+                .atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        assertEquals(erwartet, k.ab());
+    }
+
+    @Test
+    void widerspruechlicher_zeitraum_trifft_nichts() {
+        assertTrue(parameter(List.of("ge2025-05-01", "lt2025-04-01")).kriterien(terminologie).trifftNichts());
+    }
+
+    @Test
+    void code_und_kategorie_werden_auf_legacy_codes_zurueckgefuehrt() {
+        var p = new BefundSuchparameter("Patient/7", "http://krankenhaus.de/codes|LAB-001,LAB-002",
+                "laboratory", null, null, null);
+        var k = p.kriterien(terminologie);
+
+        assertEquals(7L, k.patientId());
+        assertEquals(Set.of("LAB-001", "LAB-002"), k.codes().codes());
+        assertEquals("LAB", k.kategorien().praefixe().get(0).praefix());
+        assertNull(k.ab());
+        assertEquals(BefundKriterien.Sortierung.ID, k.sortierung());
+    }
+
+    @Test
+    void cursor_passt_zur_sortierung() {
+        var befund = new Befund();
+        befund.setBefundId(42L);
+        befund.setZeitpunkt(LocalDateTime.of(2025, 3, 1, 10, 15));
+
+        var nachDatum = new BefundSuchparameter(null, null, null, null, "-date", null);
+        String cursor = nachDatum.cursorNach(befund);
+        assertEquals("2025-03-01T10:15,42", cursor);
+
+        var folgeseite = new BefundSuchparameter(null, null, null, null, "-date", cursor).kriterien(terminologie);
+        assertEquals(BefundKriterien.Sortierung.DATUM_ABSTEIGEND, folgeseite.sortierung());
+        assertEquals(new BefundKriterien.Position(LocalDateTime.of(2025, 3, 1, 10, 15), 42L), folgeseite.nach());
+
+        befund.setZeitpunkt(null);
+        assertEquals(",42", nachDatum.cursorNach(befund));
+        assertEquals("42", new BefundSuchparameter(null, null, null, null, null, null).cursorNach(befund));
+    }
+
+    @Test
+    void filter_stehen_kodiert_in_den_seitenlinks() {
+        var p = new BefundSuchparameter("3", "http://krankenhaus.de/codes|LAB-001", null,
+                List.of("ge2025-01-01", "le2025-03-31"), "date", "x");
+
+        assertEquals("&patient=3&code=http%3A%2F%2Fkrankenhaus.de%2Fcodes%7CLAB-001"
+                + "&date=ge2025-01-01&date=le2025-03-31&_sort=date", p.alsQuery());
+    }
+
+    @Test
+    void ungueltige_werte_werden_abgewiesen() {
+        assertThrows(IllegalArgumentException.class, () -> parameter(List.of("sa2025")).kriterien(terminologie));
+        assertThrows(IllegalArgumentException.class, () -> parameter(List.of("2025-13")).kriterien(terminologie));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BefundSuchparameter(null, null, null, null, "wert", null).kriterien(terminologie));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BefundSuchparameter(null, null, null, null, "date", "17").kriterien(terminologie));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BefundSuchparameter("Practitioner/1", null, null, null, null, null).kriterien(terminologie));
+    }
+
+    private static BefundSuchparameter parameter(List<String> datum) {
+        return new BefundSuchparameter(null, null, null, datum, null, null);
+    }
+}
@@ -0,0 +1,98 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.*;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent.Aenderung;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BestandsStatistikTest {
+
+    @Mock PatientRepository patientRepository;
+    @Mock ArztRepository arztRepository;
+    @Mock BefundRepository befundRepository;
+    @Mock BerichtRepository berichtRepository;
+
+    @InjectMocks BestandsStatistik statistik;
+
+    @BeforeEach
+    void init() {
+        statistik.init();
+        when(patientRepository.count()).thenReturn(100L);
+        when(befundRepository.count()).thenReturn(5000L);
+    }
+
+    @Test
+    void zaehlt_nur_beim_abgleich() {
+        assertEquals(100L, statistik.anzahl(Patient.class));
+        assertEquals(100L, statistik.anzahl(Patient.class));
+        verify(patientRepository, times(1)).count();
+    }
+
+    @Test
+    void jpa_events_schreiben_den_zaehler_fort() {
+        statistik.abgleichen();
+
+        statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Patient(), Aenderung.ANGELEGT));
+        statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Patient(), Aenderung.ANGELEGT));
+        statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Patient(), Aenderung.GEAENDERT));
+        statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Befund(), Aenderung.GELOESCHT));
+
+        assertEquals(102L, statistik.anzahl(Patient.class));
+        assertEquals(4999L, statistik.anzahl(Befund.class));
+
+        // Abgleich ersetzt die fortgeschriebenen Werte durch den Stand der Datenbank
+        when(patientRepository.count()).thenReturn(103L);
+        statistik.abgleichen();
+        assertEquals(103L, statistik.anzahl(Patient.class));
+    }
+
+    @Test
+    void waehrend_der_abfrage_gemeldete_aenderungen_bleiben_stehen() {
+        statistik.abgleichen();
+        statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Patient(), Aenderung.ANGELEGT));
+
+        // Ein Commit meldet sich, während COUNT(*) läuft; die Abfrage sieht nur den ersten neuen Patienten
+        when(patientRepository.count()).thenAnswer(aufruf -> {
+            statistik.entitaetGeaendert(new EntitaetGeaendertEvent(new Patient(), Aenderung.ANGELEGT));
+            return 101L;
+        });
+        statistik.abgleichen();
+
+        assertEquals(102L, statistik.anzahl(Patient.class));
+        assertEquals(1L, ((Map<?, ?>) statistik.statistik().get("patient")).get("aenderungenSeitAbgleich"));
+    }
+
+    @Test
+    void schaetzung_aus_pg_class_und_exakt_als_rueckfall() {
+        ReflectionTestUtils.setField(statistik, "modus", "schaetzung");
+        when(befundRepository.geschaetzteAnzahl()).thenReturn(4800L);
+        when(patientRepository.geschaetzteAnzahl()).thenReturn(-1L);
+
+        @SuppressWarnings("unchecked")
+        var befund = (Map<String, Object>) statistik.statistik().get("befund");
+        @SuppressWarnings("unchecked")
+        var patient = (Map<String, Object>) statistik.statistik().get("patient");
+
+        assertEquals(4800L, befund.get("wert"));
+        assertEquals("schaetzung", befund.get("art"));
+        assertEquals(100L, patient.get("wert"));
+        assertEquals("exakt", patient.get("art"));
+        verify(befundRepository, never()).count();
+    }
+}
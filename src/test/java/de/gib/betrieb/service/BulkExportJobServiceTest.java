@@ -0,0 +1,153 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.IdBereich;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BulkExportJobServiceTest {
+
+    @TempDir
+    Path exportVerzeichnis;
+
+    BulkExportService bulkExportService = mock(BulkExportService.class);
+
+    // Ein Worker, ein Platz in der Warteschlange: die dritte Partition wird abgelehnt
+    BulkExportJobService service = new BulkExportJobService(1, 1);
+
+    CountDownLatch freigabe = new CountDownLatch(1);
+
+    @BeforeEach
+    void init() throws Exception {
+        ReflectionTestUtils.setField(service, "bulkExportService", bulkExportService);
+        ReflectionTestUtils.setField(service, "exportVerzeichnis", exportVerzeichnis.toString());
+        ReflectionTestUtils.setField(service, "partitionenProTyp", 4);
+        when(bulkExportService.ermittlePartitionsBereich("Patient")).thenReturn(new IdBereich(1L, 100L));
+        when(bulkExportService.exportiereBereich(eq("Patient"), anyLong(), anyLong(), any(), any(), any()))
+                .thenAnswer(aufruf -> {
+                    freigabe.await(5, TimeUnit.SECONDS);
+                    return 0L;
+                });
+    }
+
+    @AfterEach
+    void beende() {
+        freigabe.countDown();
+        service.beende();
+    }
+
+    @Test
+    void schneide_deckt_bereich_lueckenlos_ab() {
+        List<long[]> teile = BulkExportJobService.schneide(1, 10, 4);
+
+        assertEquals(4, teile.size());
+        assertEquals(1, teile.get(0)[0]);
+        assertEquals(10, teile.get(3)[1]);
+        for (int i = 1; i < teile.size(); i++) {
+            assertEquals(teile.get(i - 1)[1] + 1, teile.get(i)[0], "Lücke oder Überlappung bei Partition " + i);
+        }
+    }
+
+    @Test
+    void schneide_kleiner_bereich_liefert_weniger_partitionen() {
+        List<long[]> teile = BulkExportJobService.schneide(5, 6, 4);
+
+        assertEquals(2, teile.size());
+        assertArrayEquals(new long[]{5, 5}, teile.get(0));
+        assertArrayEquals(new long[]{6, 6}, teile.get(1));
+    }
+
+    @Test
+    void abgelehnter_job_wird_komplett_verworfen() throws Exception {
+        assertThrows(RejectedExecutionException.class,
+                () -> service.starteJob(List.of("Patient"), AusgabeEngine.MAP, "anfrage", "basis"));
+
+        try (var verzeichnisse = Files.list(exportVerzeichnis)) {
+            assertEquals(0, verzeichnisse.count());
+        }
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(service, "jobs")).isEmpty());
+    }
+
+    @Test
+    void beendete_jobs_werden_nach_der_aufbewahrung_entfernt() throws Exception {
+        ReflectionTestUtils.setField(service, "partitionenProTyp", 1);
+        freigabe.countDown();
+        ExportJob job = service.starteJob(List.of("Patient"), AusgabeEngine.MAP, "anfrage", "basis");
+        for (int i = 0; i < 100 && job.getStatus() == ExportJob.Status.LAEUFT; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(ExportJob.Status.FERTIG, job.getStatus());
+
+        service.raeumeAuf();
+        assertSame(job, service.getJob(job.getId()));
+
+        ReflectionTestUtils.setField(service, "aufbewahrung", Duration.ZERO);
+        Files.createDirectory(exportVerzeichnis.resolve("verwaist"));
+        Thread.sleep(5);
+        service.raeumeAuf();
+
+        assertNull(service.getJob(job.getId()));
+        try (var verzeichnisse = Files.list(exportVerzeichnis)) {
+            assertEquals(0, verzeichnisse.count());
+        }
+    }
+
+    @Test
+    void fehlgeschlagene_partition_stoppt_die_laufenden() throws Exception {
+        BulkExportJobService zweiWorker = new BulkExportJobService(2, 4);
+        ReflectionTestUtils.setField(zweiWorker, "bulkExportService", bulkExportService);
+        ReflectionTestUtils.setField(zweiWorker, "exportVerzeichnis", exportVerzeichnis.toString());
+        ReflectionTestUtils.setField(zweiWorker, "partitionenProTyp", 2);
+        CountDownLatch zweiteLaeuft = new CountDownLatch(1);
+        CountDownLatch zweiteGestoppt = new CountDownLatch(1);
+
+        // Partition 1..50 schlägt fehl, sobald 51..100 läuft; diese schreibt bis zum Abbruch weiter
+        when(bulkExportService.exportiereBereich(eq("Patient"), eq(1L), anyLong(), any(), any(), any()))
+                .thenAnswer(aufruf -> {
+                    zweiteLaeuft.await(5, TimeUnit.SECONDS);
+                    throw new IOException("Platte voll");
+                });
+        when(bulkExportService.exportiereBereich(eq("Patient"), eq(51L), anyLong(), any(), any(), any()))
+                .thenAnswer(aufruf -> {
+                    BooleanSupplier abbruch = aufruf.getArgument(5);
+                    zweiteLaeuft.countDown();
+                    for (int i = 0; i < 500; i++) {
+                        if (abbruch.getAsBoolean()) {
+                            zweiteGestoppt.countDown();
+                            throw new CancellationException();
+                        }
+                        Thread.sleep(10);
+                    }
+                    return 50L;
+                });
+
+        try {
+            ExportJob job = zweiWorker.starteJob(List.of("Patient"), AusgabeEngine.MAP, "anfrage", "basis");
+
+            assertTrue(zweiteGestoppt.await(5, TimeUnit.SECONDS), "laufende Partition wurde nicht gestoppt");
+            assertEquals(ExportJob.Status.FEHLER, job.getStatus());
+            assertTrue(job.getFehler().contains("Platte voll"), job.getFehler());
+            assertEquals("0/2 Partitionen", job.fortschritt());
+        } finally {
+            zweiWorker.beende();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.gib.betrieb.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.gib.betrieb.adapter.PatientZuFhirAdapter;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BulkExportServiceTest {
+
+    @Mock PatientRepository patientRepository;
+    @Mock PatientZuFhirAdapter patientAdapter;
+    @Spy ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks BulkExportService service;
+
+    @Test
+    void ndjson_zeilen_ohne_trennzeichen_vor_der_zweiten_resource() throws Exception {
+        when(patientRepository.streamePatientenImBereich(1L, 2L))
+                .thenAnswer(aufruf -> Stream.of(patient(1L), patient(2L)));
+        when(patientAdapter.konvertiereZuFhir(any(Patient.class))).thenAnswer(aufruf ->
+                Map.of("id", String.valueOf(aufruf.<Patient>getArgument(0).getPatientenId())));
+        doAnswer(aufruf -> {
+            JsonGenerator gen = aufruf.getArgument(1);
+            gen.writeStartObject();
+            gen.writeStringField("id", String.valueOf(aufruf.<Patient>getArgument(0).getPatientenId()));
+            gen.writeEndObject();
+            return null;
+        }).when(patientAdapter).schreibeFhir(any(Patient.class), any(JsonGenerator.class));
+
+        for (AusgabeEngine engine : AusgabeEngine.values()) {
+            var ziel = new ByteArrayOutputStream();
+            long anzahl = service.exportiereBereich("Patient", 1L, 2L, engine, ziel, () -> false);
+
+            assertEquals(2, anzahl);
+            assertArrayEquals("{\"id\":\"1\"}\n{\"id\":\"2\"}\n".getBytes(StandardCharsets.UTF_8), ziel.toByteArray(),
+                    engine + ": " + ziel.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Patient patient(long id) {
+        var patient = new Patient();
+        patient.setPatientenId(id);
+        return patient;
+    }
+}
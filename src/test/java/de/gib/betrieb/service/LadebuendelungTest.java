@@ -0,0 +1,89 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.Elementauswahl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LadebuendelungTest {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    Ladebuendelung buendelung = new Ladebuendelung(true, registry);
+
+    @Test
+    void gleichzeitige_gleiche_abrufe_teilen_eine_ladung() throws Exception {
+        CountDownLatch gestartet = new CountDownLatch(1);
+        CountDownLatch freigabe = new CountDownLatch(1);
+        AtomicInteger ladungen = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> ergebnisse = new ArrayList<>();
+            ergebnisse.add(pool.submit(() -> buendelung.lade("Patient", 1L, Elementauswahl.ALLE, () -> {
+                ladungen.incrementAndGet();
+                gestartet.countDown();
+                warte(freigabe);
+                return new byte[]{42};
+            })));
+            assertTrue(gestartet.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                ergebnisse.add(pool.submit(() -> buendelung.lade("Patient", 1L, Elementauswahl.aus(null, null), () -> {
+                    ladungen.incrementAndGet();
+                    return new byte[]{0};
+                })));
+            }
+            // Die drei Nachzügler hängen an der laufenden Ladung
+            while (((Number) buendelung.statistik().get("geteilt")).longValue() < 3) {
+                Thread.sleep(1);
+            }
+            freigabe.countDown();
+
+            for (Future<byte[]> ergebnis : ergebnisse) {
+                assertArrayEquals(new byte[]{42}, ergebnis.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, ladungen.get());
+        assertEquals(0.75, buendelung.statistik().get("quote"));
+        assertEquals(3.0, registry.get("fhir.buendelung").tag("ergebnis", "geteilt").counter().count());
+        assertEquals(0, buendelung.statistik().get("laufend"));
+    }
+
+    @Test
+    void andere_optionen_und_nachfolgende_abrufe_laden_selbst() {
+        assertEquals("voll", buendelung.lade("Observation", 7L, Elementauswahl.ALLE, () -> "voll"));
+        assertEquals("kurz", buendelung.lade("Observation", 7L, Elementauswahl.aus("true", null), () -> "kurz"));
+        assertEquals("neu", buendelung.lade("Observation", 7L, Elementauswahl.ALLE, () -> "neu"));
+
+        assertEquals(3L, buendelung.statistik().get("geladen"));
+        assertEquals(0L, buendelung.statistik().get("geteilt"));
+    }
+
+    @Test
+    void fehler_wird_weitergereicht_und_eintrag_entfernt() {
+        assertThrows(IllegalStateException.class, () -> buendelung.lade("Patient", 2L, Elementauswahl.ALLE, () -> {
+            throw new IllegalStateException("db weg");
+        }));
+
+        assertEquals("ok", buendelung.lade("Patient", 2L, Elementauswahl.ALLE, () -> "ok"));
+    }
+
+    private static void warte(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LastGeneratorTest {
+
+    private final LastGenerator lastGenerator = new LastGenerator();
+
+    @Test
+    void alle_anfragen_werden_gezaehlt() throws Exception {
+        var ergebnis = lastGenerator.fuehreDurchlaufAus(ids(50), 5_000, 4, id -> id % 10 != 0);
+
+        assertEquals(45, ergebnis.erfolgreich);
+        assertEquals(5, ergebnis.fehler);
+        assertEquals(50, ergebnis.antwortzeitNs.getTotalCount());
+        assertEquals(50, ergebnis.bedienzeitNs.getTotalCount());
+    }
+
+    @Test
+    void wartezeit_bei_ueberlast_landet_in_der_antwortzeit() throws Exception {
+        // 1000 Anfragen/s, aber ein Worker braucht 2 ms pro Anfrage: die Warteschlange wächst
+        var ergebnis = lastGenerator.fuehreDurchlaufAus(ids(100), 1_000, 1,
+                id -> { LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2)); return true; });
+
+        long bedienP99 = ergebnis.bedienzeitNs.getValueAtPercentile(99);
+        long antwortP99 = ergebnis.antwortzeitNs.getValueAtPercentile(99);
+        assertTrue(antwortP99 > 5 * bedienP99,
+                "korrigierte p99 " + antwortP99 + " ns sollte deutlich über der Bedienzeit " + bedienP99 + " ns liegen");
+        assertTrue(ergebnis.verspaetet > 50);
+    }
+
+    @Test
+    void je_ankunft_ein_thread_ohne_obergrenze() throws Exception {
+        // Gleiche Überlast wie oben, aber jede Ankunft bekommt einen eigenen Thread (wie bei virtuellen Threads)
+        var gleichzeitig = new AtomicInteger();
+        var hoechstens = new AtomicInteger();
+        var ergebnis = lastGenerator.jeAnkunft(ids(100), TimeUnit.MILLISECONDS.toNanos(1),
+                Executors.newCachedThreadPool(), id -> {
+                    hoechstens.accumulateAndGet(gleichzeitig.incrementAndGet(), Math::max);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    gleichzeitig.decrementAndGet();
+                    return id != 7;
+                });
+
+        assertEquals(99, ergebnis.erfolgreich);
+        assertEquals(1, ergebnis.fehler);
+        assertEquals(100, ergebnis.antwortzeitNs.getTotalCount());
+        assertTrue(hoechstens.get() >= 4, "höchstens " + hoechstens.get() + " Aufrufe gleichzeitig");
+        // Keine Warteschlange: die korrigierte Antwortzeit bleibt in der Größenordnung der Bedienzeit
+        assertTrue(ergebnis.antwortzeitNs.getValueAtPercentile(50) < 2 * ergebnis.bedienzeitNs.getValueAtPercentile(50));
+    }
+
+    @Test
+    void rate_null_wird_abgelehnt() {
+        assertThrows(IllegalArgumentException.class,
+                () -> lastGenerator.fuehreDurchlaufAus(ids(1), 0, 1, id -> true));
+    }
+
+    private static List<Long> ids(int anzahl) {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= anzahl; i++) ids.add(i);
+        return ids;
+    }
+}
@@ -0,0 +1,117 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MassendatenGeneratorTest {
+
+    @Test
+    void copy_zeilen_trennen_mit_tabulator_und_schreiben_null_als_backslash_n() {
+        MassendatenGenerator.CopyZeilen zeilen = new MassendatenGenerator.CopyZeilen();
+        zeilen.zeile(1L, "Müller", LocalDate.of(1970, 3, 5), null);
+        zeilen.zeile(2L, LocalDateTime.of(2024, 1, 2, 8, 30), "");
+
+        assertEquals("1\tMüller\t1970-03-05\t\\N\n2\t2024-01-02T08:30\t\n", zeilen.toString());
+    }
+
+    @Test
+    void copy_zeilen_maskieren_steuerzeichen() {
+        MassendatenGenerator.CopyZeilen zeilen = new MassendatenGenerator.CopyZeilen();
+        zeilen.zeile("a\tb", "c\\d", "e\nf\rg");
+
+        assertEquals("a\\tb\tc\\\\d\te\\nf\\rg\n", zeilen.toString());
+    }
+
+    @Test
+    void copy_befehl_nennt_id_spalte_zuerst() {
+        MassendatenGenerator.Tabelle tabelle = new MassendatenGenerator.Tabelle("bericht", "bericht_id", "fall_id, code");
+
+        assertEquals("COPY bericht (bericht_id, fall_id, code) FROM STDIN", tabelle.copyBefehl());
+    }
+
+    @Test
+    void ergebnis_rechnet_zeilen_pro_sekunde_je_tabelle() {
+        MassendatenGenerator.Ergebnis ergebnis = new MassendatenGenerator.Ergebnis(10,
+                generator.optionen(7L, 2, null, null, null), 2_000_000_000L, List.of(
+                new MassendatenGenerator.Tabellenergebnis("patient", 10, 500_000_000L),
+                new MassendatenGenerator.Tabellenergebnis("befund", 30, 0)));
+
+        assertEquals(40, ergebnis.zeilen());
+        assertEquals(20.0, ergebnis.tabellen().get(0).zeilenProSekunde());
+        assertEquals(0.0, ergebnis.tabellen().get(1).zeilenProSekunde());
+        Map<String, Object> map = ergebnis.alsMap();
+        assertEquals(20.0, map.get("zeilenProSekunde"));
+        assertEquals(2.0, map.get("sekunden"));
+        assertEquals(7L, map.get("seed"));
+        assertEquals("gleich:2-5", map.get("befunde"));
+    }
+
+    @Test
+    void gleicher_seed_ergibt_gleiche_zeilen() {
+        MassendatenGenerator.Optionen optionen = generator.optionen(42L, 4, "zipf:1.1:20", "lognormal:1.0:1.0:500", null);
+
+        assertEquals(erzeugeAlles(optionen), erzeugeAlles(optionen));
+        assertNotEquals(erzeugeAlles(optionen),
+                erzeugeAlles(generator.optionen(43L, 4, "zipf:1.1:20", "lognormal:1.0:1.0:500", null)));
+    }
+
+    @Test
+    void bloecke_haengen_nur_von_seed_und_blocknummer_ab() {
+        MassendatenGenerator.Optionen optionen = generator.optionen(42L, 1, null, null, null);
+        List<MassendatenGenerator.Block> bloecke = generator.plane(25_000, optionen);
+
+        assertEquals(3, bloecke.size());
+        assertEquals(5_000, bloecke.get(2).patienten);
+        // Fünf Blöcke planen ändert die ersten drei nicht
+        List<MassendatenGenerator.Block> mehr = generator.plane(45_000, optionen);
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(bloecke.get(i).befundeJeFall, mehr.get(i).befundeJeFall);
+        }
+    }
+
+    @Test
+    void fremdschluessel_kommen_aus_den_zugeteilten_bereichen() {
+        MassendatenGenerator.Block block = generator.plane(2, generator.optionen(1L, 1, "gleich:1", "gleich:2", "gleich:1")).get(0);
+        for (int i = 0; i < block.ersteId.length; i++) {
+            block.ersteId[i] = 100 * (i + 1);
+        }
+
+        MassendatenGenerator.CopyZeilen[] puffer = MassendatenGenerator.erzeuge(block, STAMMDATEN, STICHTAG);
+
+        List<String> patienten = spalte(puffer[0], 0);
+        List<String> faelle = spalte(puffer[1], 0);
+        assertEquals(List.of("100", "101"), patienten);
+        assertEquals(List.of("200", "201"), faelle);
+        assertEquals(patienten, spalte(puffer[1], 1));
+        assertEquals(List.of("300", "301", "302", "303"), spalte(puffer[2], 0));
+        assertEquals(List.of("200", "200", "201", "201"), spalte(puffer[2], 1));
+        assertEquals(List.of("200", "201"), spalte(puffer[3], 1));
+    }
+
+    MassendatenGenerator generator = new MassendatenGenerator();
+
+    static final MassendatenGenerator.Stammdaten STAMMDATEN = new MassendatenGenerator.Stammdaten(
+            new long[]{1, 2, 3}, new long[]{10, 11}, new long[]{20, 21, 22});
+
+    static final LocalDateTime STICHTAG = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    private String erzeugeAlles(MassendatenGenerator.Optionen optionen) {
+        StringBuilder alles = new StringBuilder();
+        for (MassendatenGenerator.Block block : generator.plane(12_000, optionen)) {
+            for (MassendatenGenerator.CopyZeilen zeilen : MassendatenGenerator.erzeuge(block, STAMMDATEN, STICHTAG)) {
+                alles.append(zeilen);
+            }
+        }
+        return alles.toString();
+    }
+
+    private static List<String> spalte(MassendatenGenerator.CopyZeilen zeilen, int spalte) {
+        return zeilen.toString().lines().map(z -> z.split("\t")[spalte]).toList();
+    }
+}
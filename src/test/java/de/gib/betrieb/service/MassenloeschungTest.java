@@ -0,0 +1,48 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MassenloeschungTest {
+
+    @Test
+    void abhaengige_tabellen_kommen_vor_den_referenzierten() {
+        List<String> reihenfolge = new ArrayList<>(Massenloeschung.PATIENTENBEZOGEN);
+        reihenfolge.addAll(Massenloeschung.STAMMDATEN);
+
+        assertTrue(reihenfolge.indexOf("befund") < reihenfolge.indexOf("behandlungsfall"));
+        assertTrue(reihenfolge.indexOf("bericht") < reihenfolge.indexOf("behandlungsfall"));
+        assertTrue(reihenfolge.indexOf("behandlungsfall") < reihenfolge.indexOf("patient"));
+        assertTrue(reihenfolge.indexOf("termin") < reihenfolge.indexOf("standort"));
+        assertTrue(reihenfolge.indexOf("standort") < reihenfolge.indexOf("einrichtung"));
+        assertTrue(reihenfolge.indexOf("verordnung") < reihenfolge.indexOf("medikament"));
+    }
+
+    @Test
+    void truncate_setzt_identitaeten_zurueck_ohne_cascade() {
+        assertEquals("TRUNCATE TABLE befund, patient RESTART IDENTITY",
+                Massenloeschung.truncateBefehl(List.of("befund", "patient")));
+    }
+
+    @Test
+    void modus_wird_ohne_beachtung_der_schreibweise_gelesen() {
+        assertEquals(Massenloeschung.Modus.DELETE, Massenloeschung.modus(" Delete "));
+        assertThrows(IllegalArgumentException.class, () -> Massenloeschung.modus("drop"));
+    }
+
+    @Test
+    void text_nennt_zeilen_nur_wenn_bekannt() {
+        Massenloeschung.Ergebnis ergebnis = new Massenloeschung.Ergebnis(Massenloeschung.Modus.DELETE, false,
+                1_500_000_000L, List.of(new Massenloeschung.Schritt("befund", 42, 250_000_000L),
+                new Massenloeschung.Schritt("caches", -1, 10_000_000L)));
+
+        String text = ergebnis.alsText();
+        assertTrue(text.startsWith("delete in 1.50 s"), text);
+        assertTrue(text.contains("befund           42 Zeilen, 0.25 s"), text);
+        assertTrue(text.contains("caches           0.01 s"), text);
+    }
+}
@@ -0,0 +1,91 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelerAufbauTest {
+
+    ParallelerAufbau aufbau = new ParallelerAufbau(true, 8, 2, 16, 4);
+
+    @AfterEach
+    void beende() {
+        aufbau.beende();
+    }
+
+    @Test
+    void grosse_listen_werden_parallel_in_quellreihenfolge_konvertiert() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> ergebnis = aufbau.konvertiere(10_000, i -> {
+            threads.add(Thread.currentThread().getName());
+            return i * 2;
+        });
+
+        assertEquals(IntStream.range(0, 10_000).map(i -> i * 2).boxed().toList(), ergebnis);
+        assertTrue(threads.stream().allMatch(t -> t.startsWith("fhir-bundle-konvertierung-")), threads::toString);
+        assertEquals(1L, aufbau.statistik().get("parallelKonvertiert"));
+    }
+
+    @Test
+    void kleine_listen_bleiben_im_aufrufenden_thread() {
+        String aufrufer = Thread.currentThread().getName();
+        List<String> ergebnis = aufbau.konvertiere(7, i -> Thread.currentThread().getName() + ":" + i);
+
+        assertEquals(IntStream.range(0, 7).mapToObj(i -> aufrufer + ":" + i).toList(), ergebnis);
+        assertEquals(1L, aufbau.statistik().get("sequentiellKonvertiert"));
+        assertEquals(0L, aufbau.statistik().get("parallelKonvertiert"));
+    }
+
+    @Test
+    void ladungen_laufen_gleichzeitig() throws Exception {
+        // Beide Ladungen warten aufeinander: endet nur, wenn sie wirklich parallel laufen
+        CountDownLatch beideGestartet = new CountDownLatch(2);
+        CompletableFuture<String> a = aufbau.starte(() -> treffe(beideGestartet, "a"));
+        CompletableFuture<String> b = aufbau.starte(() -> treffe(beideGestartet, "b"));
+
+        assertEquals("a", a.get(5, TimeUnit.SECONDS));
+        assertEquals("b", b.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fehler_der_ladung_kommt_unverpackt_beim_aufrufer_an() {
+        CompletableFuture<Object> ladung = aufbau.starte(() -> {
+            throw new IllegalStateException("DB weg");
+        });
+
+        IllegalStateException fehler = assertThrows(IllegalStateException.class, () -> ParallelerAufbau.warte(ladung));
+        assertEquals("DB weg", fehler.getMessage());
+    }
+
+    @Test
+    void ohne_parallelen_aufbau_laeuft_alles_im_aufrufer() {
+        ParallelerAufbau aus = new ParallelerAufbau(false, 1, 2, 16, 4);
+        try {
+            String aufrufer = Thread.currentThread().getName();
+            assertEquals(aufrufer, ParallelerAufbau.warte(aus.starte(() -> Thread.currentThread().getName())));
+            assertEquals(List.of(aufrufer, aufrufer),
+                    aus.konvertiere(2, i -> Thread.currentThread().getName()));
+        } finally {
+            aus.beende();
+        }
+    }
+
+    private static String treffe(CountDownLatch latch, String wert) {
+        latch.countDown();
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return wert;
+    }
+}
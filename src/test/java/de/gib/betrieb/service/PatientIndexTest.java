@@ -0,0 +1,94 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent.Aenderung;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PatientIndexTest {
+
+    @Mock PatientRepository patientRepository;
+
+    @InjectMocks PatientIndex index;
+
+    @Test
+    void vor_dem_aufbau_fragt_die_datenbank() {
+        when(patientRepository.existsById(3L)).thenReturn(true);
+
+        assertTrue(index.existiert(3L));
+        verify(patientRepository).existsById(3L);
+    }
+
+    @Test
+    void nach_dem_aufbau_ohne_datenbank() {
+        when(patientRepository.streameAlleIds()).thenReturn(Stream.of(1L, 2L, 5L, 3_000_000_000L));
+        index.neuAufbauen();
+
+        assertTrue(index.existiert(5L));
+        assertTrue(index.existiert(3_000_000_000L));
+        assertFalse(index.existiert(4L));
+        assertEquals(Map.of(1L, true, 4L, false, 2L, true), index.existieren(List.of(1L, 4L, 2L)));
+        verify(patientRepository, never()).existsById(any());
+    }
+
+    @Test
+    void anlegen_und_loeschen_ueber_jpa() {
+        when(patientRepository.streameAlleIds()).thenReturn(Stream.of(1L, 2L));
+        index.neuAufbauen();
+
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(patient(7L), Aenderung.ANGELEGT));
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(patient(1L), Aenderung.GELOESCHT));
+
+        assertTrue(index.existiert(7L));
+        assertFalse(index.existiert(1L));
+        assertTrue(index.existiert(2L));
+    }
+
+    @Test
+    void ueberlappende_neuaufbauten_laufen_nacheinander() throws Exception {
+        CountDownLatch erster = new CountDownLatch(1);
+        CountDownLatch weiter = new CountDownLatch(1);
+        when(patientRepository.streameAlleIds())
+                .thenAnswer(aufruf -> {
+                    erster.countDown();
+                    weiter.await(5, TimeUnit.SECONDS);
+                    return Stream.of(1L, 2L);
+                })
+                .thenAnswer(aufruf -> Stream.of(1L, 2L, 3L, 7L));
+
+        // z.B. Zeitplan und Massenlöschung gleichzeitig
+        var zeitplan = CompletableFuture.runAsync(index::neuAufbauen);
+        assertTrue(erster.await(5, TimeUnit.SECONDS));
+        var massenaenderung = CompletableFuture.runAsync(index::neuAufbauen);
+        index.entitaetGeaendert(new EntitaetGeaendertEvent(patient(7L), Aenderung.ANGELEGT));
+        Thread.sleep(50);
+        weiter.countDown();
+
+        zeitplan.get(5, TimeUnit.SECONDS);
+        massenaenderung.get(5, TimeUnit.SECONDS);
+        assertTrue(index.existiert(3L));
+        assertTrue(index.existiert(7L));
+    }
+
+    private static Patient patient(long id) {
+        Patient patient = new Patient();
+        patient.setPatientenId(id);
+        return patient;
+    }
+}
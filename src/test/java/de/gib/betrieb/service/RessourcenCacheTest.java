@@ -0,0 +1,102 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.datenbank.EntitaetGeaendertEvent;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Behandlungsfall;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RessourcenCacheTest {
+
+    private final RessourcenCache cache = new RessourcenCache(true, 1024 * 1024, Duration.ofMinutes(5));
+
+    @Test
+    void zweiter_abruf_kommt_aus_dem_cache() {
+        var aufrufe = new AtomicInteger();
+
+        cache.hole("Patient", 1L, () -> json(aufrufe));
+        byte[] zweiter = cache.hole("Patient", 1L, () -> json(aufrufe));
+
+        assertEquals(1, aufrufe.get());
+        assertEquals("{\"id\":\"1\"}", new String(zweiter, StandardCharsets.UTF_8));
+        assertEquals(1L, cache.statistik().get("treffer"));
+        assertEquals(1L, cache.statistik().get("fehlschlaege"));
+    }
+
+    @Test
+    void nicht_gefundene_resource_wird_nicht_gespeichert() {
+        assertNull(cache.hole("Patient", 404L, () -> null));
+        assertEquals(0L, cache.statistik().get("eintraege"));
+    }
+
+    @Test
+    void aenderung_am_patienten_invalidiert_patient_und_abhaengige_typen() {
+        var aufrufe = new AtomicInteger();
+        cache.hole("Patient", 1L, () -> json(aufrufe));
+        cache.holeMitBezug("Observation", 10L, () -> geladen(aufrufe, 1L, 100L));
+        cache.holeMitBezug("Observation", 11L, () -> geladen(aufrufe, 2L, 200L));
+        cache.hole("Practitioner", 9L, () -> json(aufrufe));
+
+        var patient = Mockito.mock(Patient.class);
+        Mockito.when(patient.getPatientenId()).thenReturn(1L);
+        cache.entitaetGeaendert(new EntitaetGeaendertEvent(patient, EntitaetGeaendertEvent.Aenderung.GEAENDERT));
+
+        cache.hole("Patient", 1L, () -> json(aufrufe));
+        cache.holeMitBezug("Observation", 10L, () -> geladen(aufrufe, 1L, 100L));
+        cache.holeMitBezug("Observation", 11L, () -> geladen(aufrufe, 2L, 200L));
+        cache.hole("Practitioner", 9L, () -> json(aufrufe));
+
+        // Patient und seine Observation neu gerendert, die des anderen Patienten und Practitioner aus dem Cache
+        assertEquals(6, aufrufe.get());
+        assertEquals(2L, cache.statistik().get("invalidierungen"));
+    }
+
+    @Test
+    void neuer_befund_invalidiert_nur_die_berichte_seines_falls() {
+        var aufrufe = new AtomicInteger();
+        cache.holeMitBezug("DiagnosticReport", 20L, () -> geladen(aufrufe, 1L, 100L));
+        cache.holeMitBezug("DiagnosticReport", 21L, () -> geladen(aufrufe, 1L, 101L));
+        cache.holeMitBezug("Observation", 12L, () -> geladen(aufrufe, 1L, 100L));
+
+        var fall = Mockito.mock(Behandlungsfall.class);
+        Mockito.when(fall.getFallId()).thenReturn(100L);
+        var befund = Mockito.mock(Befund.class);
+        Mockito.when(befund.getBefundId()).thenReturn(11L);
+        Mockito.when(befund.getBehandlungsfall()).thenReturn(fall);
+        cache.entitaetGeaendert(new EntitaetGeaendertEvent(befund, EntitaetGeaendertEvent.Aenderung.ANGELEGT));
+
+        // Bericht des Falls neu, Bericht eines anderen Falls und die andere Observation aus dem Cache
+        cache.holeMitBezug("DiagnosticReport", 20L, () -> geladen(aufrufe, 1L, 100L));
+        cache.holeMitBezug("DiagnosticReport", 21L, () -> geladen(aufrufe, 1L, 101L));
+        cache.holeMitBezug("Observation", 12L, () -> geladen(aufrufe, 1L, 100L));
+        assertEquals(4, aufrufe.get());
+        assertEquals(1L, cache.statistik().get("invalidierungen"));
+    }
+
+    @Test
+    void leeren_verwirft_auch_den_bezugsindex() {
+        var aufrufe = new AtomicInteger();
+        cache.holeMitBezug("Observation", 12L, () -> geladen(aufrufe, 1L, 100L));
+        assertEquals(1, cache.statistik().get("bezuege"));
+
+        cache.leeren();
+
+        assertEquals(0, cache.statistik().get("bezuege"));
+    }
+
+    private static RessourcenCache.Geladen geladen(AtomicInteger aufrufe, long patientId, long fallId) {
+        return new RessourcenCache.Geladen(json(aufrufe), new RessourcenCache.Bezug(patientId, fallId, null));
+    }
+
+    private static byte[] json(AtomicInteger aufrufe) {
+        aufrufe.incrementAndGet();
+        return "{\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StapelladerTest {
+
+    private final List<List<Long>> abfragen = new CopyOnWriteArrayList<>();
+
+    @Test
+    void einzelner_abruf_wartet_nicht_auf_das_fenster() {
+        Stapellader<String> lader = new Stapellader<>(this::lade, Long::valueOf, TimeUnit.SECONDS.toNanos(10), 64, n -> {});
+
+        long start = System.nanoTime();
+        assertEquals(Optional.of("7"), lader.lade(7L));
+        assertEquals(Optional.empty(), lader.lade(-1L));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(List.of(List.of(7L), List.of(-1L)), abfragen);
+    }
+
+    @Test
+    void abrufe_waehrend_einer_laufenden_abfrage_werden_gesammelt() throws Exception {
+        CountDownLatch ersteLaeuft = new CountDownLatch(1);
+        CountDownLatch freigabe = new CountDownLatch(1);
+        List<Integer> groessen = new CopyOnWriteArrayList<>();
+        Stapellader<String> lader = new Stapellader<>(ids -> {
+            if (ids.contains(0L)) {
+                ersteLaeuft.countDown();
+                warte(freigabe);
+            }
+            return lade(ids);
+        }, Long::valueOf, TimeUnit.SECONDS.toNanos(10), 64, groessen::add);
+
+        ExecutorService pool = Executors.newFixedThreadPool(9);
+        try {
+            Future<Optional<String>> erste = pool.submit(() -> lader.lade(0L));
+            assertTrue(ersteLaeuft.await(5, TimeUnit.SECONDS));
+            List<Future<Optional<String>>> weitere = new ArrayList<>();
+            for (long id = 1; id <= 8; id++) {
+                long i = id;
+                weitere.add(pool.submit(() -> lader.lade(i % 4 + 1)));
+            }
+            Thread.sleep(100);
+            freigabe.countDown();
+
+            assertEquals(Optional.of("0"), erste.get(5, TimeUnit.SECONDS));
+            for (int i = 0; i < weitere.size(); i++) {
+                assertEquals(Optional.of(String.valueOf((i + 1) % 4 + 1)), weitere.get(i).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Eine Abfrage für die erste Id, eine für die vier verschiedenen Ids der übrigen acht Abrufe
+        assertEquals(List.of(1, 4), groessen);
+    }
+
+    @Test
+    void voller_stapel_geht_ohne_fenster_los_und_fehler_erreichen_alle() {
+        Stapellader<String> lader = new Stapellader<>(ids -> {
+            throw new IllegalStateException("db weg");
+        }, Long::valueOf, TimeUnit.SECONDS.toNanos(10), 1, n -> {});
+
+        assertThrows(IllegalStateException.class, () -> lader.lade(1L));
+        assertEquals(Optional.empty(), lader.lade(null));
+    }
+
+    // Negative Ids gibt es nicht
+    private List<String> lade(List<Long> ids) {
+        abfragen.add(ids);
+        return ids.stream().filter(id -> id >= 0).map(String::valueOf).toList();
+    }
+
+    private static void warte(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
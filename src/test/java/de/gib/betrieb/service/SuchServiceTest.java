@@ -0,0 +1,136 @@
+package de.gib.betrieb.service;
+
+import de.gib.betrieb.adapter.BefundZuFhirAdapter;
+import de.gib.betrieb.adapter.PatientZuFhirAdapter;
+import de.gib.betrieb.adapter.Terminologie;
+import de.gib.betrieb.datenbank.BefundKriterien;
+import de.gib.betrieb.datenbank.BefundRepository;
+import de.gib.betrieb.datenbank.PatientRepository;
+import de.gib.betrieb.model.Befund;
+import de.gib.betrieb.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class SuchServiceTest {
+
+    private static final String BASIS = "http://localhost/fhir";
+
+    @Mock PatientRepository patientRepository;
+    @Mock PatientZuFhirAdapter patientAdapter;
+    @Mock BefundRepository befundRepository;
+    @Mock BefundZuFhirAdapter befundAdapter;
+
+    @InjectMocks SuchService suchService;
+
+    @BeforeEach
+    void init() {
+        ReflectionTestUtils.setField(suchService, "standardSeitengroesse", 50);
+        ReflectionTestUtils.setField(suchService, "maxSeitengroesse", 500);
+        ReflectionTestUtils.setField(suchService, "terminologie", new Terminologie());
+        when(patientAdapter.konvertiereZuFhir(any(), any())).thenAnswer(inv ->
+                Map.of("resourceType", "Patient", "id", ((Patient) inv.getArgument(0)).getPatientenId().toString()));
+    }
+
+    @Test
+    void volle_seite_liefert_next_link_mit_letzter_id() {
+        when(patientRepository.findeSeiteNach(20L, Limit.of(3)))
+                .thenReturn(List.of(patient(21L), patient(22L), patient(23L)));
+
+        var bundle = suchService.suchePatienten(new SuchService.Seite(BASIS, BASIS + "/Patient", 20L, 2));
+
+        assertEquals("searchset", bundle.get("type"));
+        List<?> entries = (List<?>) bundle.get("entry");
+        assertEquals(2, entries.size());
+        assertEquals(BASIS + "/Patient/21", ((Map<?, ?>) entries.get(0)).get("fullUrl"));
+
+        List<?> links = (List<?>) bundle.get("link");
+        assertEquals(2, links.size());
+        assertEquals("next", ((Map<?, ?>) links.get(1)).get("relation"));
+        assertEquals(BASIS + "/Patient?_count=2&_cursor=22", ((Map<?, ?>) links.get(1)).get("url"));
+    }
+
+    @Test
+    void letzte_seite_ohne_next_link() {
+        when(patientRepository.findeSeiteNach(0L, Limit.of(51))).thenReturn(List.of(patient(1L)));
+
+        var bundle = suchService.suchePatienten(new SuchService.Seite(BASIS, BASIS + "/Patient", null, null));
+
+        List<?> links = (List<?>) bundle.get("link");
+        assertEquals(1, links.size());
+        assertEquals("self", ((Map<?, ?>) links.get(0)).get("relation"));
+        assertEquals(1, ((List<?>) bundle.get("entry")).size());
+    }
+
+    @Test
+    void count_wird_auf_maximum_begrenzt() {
+        when(patientRepository.findeSeiteNach(0L, Limit.of(501))).thenReturn(List.of());
+
+        suchService.suchePatienten(new SuchService.Seite(BASIS, BASIS + "/Patient", null, 100_000));
+
+        verify(patientRepository).findeSeiteNach(0L, Limit.of(501));
+    }
+
+    @Test
+    void befundsuche_blaettert_mit_zeitpunkt_und_behaelt_die_filter() {
+        when(befundRepository.suche(any(), eq(3))).thenReturn(List.of(
+                befund(5L, LocalDateTime.of(2025, 3, 2, 9, 0)),
+                befund(4L, LocalDateTime.of(2025, 3, 1, 9, 0)),
+                befund(9L, LocalDateTime.of(2025, 2, 1, 9, 0))));
+
+        var parameter = new BefundSuchparameter("1", "LAB-001", null, List.of("ge2025"), "-date", null);
+        var bundle = suchService.sucheBefunde(parameter,
+                new SuchService.Seite(BASIS, BASIS + "/Observation", null, 2));
+
+        assertEquals(2, ((List<?>) bundle.get("entry")).size());
+        List<?> links = (List<?>) bundle.get("link");
+        assertEquals(BASIS + "/Observation?_count=2&patient=1&code=LAB-001&date=ge2025&_sort=-date"
+                + "&_cursor=2025-03-01T09%3A00%2C4", ((Map<?, ?>) links.get(1)).get("url"));
+
+        var kriterien = ArgumentCaptor.forClass(BefundKriterien.class);
+        verify(befundRepository).suche(kriterien.capture(), eq(3));
+        assertEquals(LocalDateTime.of(2025, 1, 1, 0, 0), kriterien.getValue().ab());
+    }
+
+    @Test
+    void befundsuche_ohne_passenden_code_fragt_die_datenbank_nicht() {
+        var parameter = new BefundSuchparameter(null, null, "imaging", null, null, null);
+
+        var bundle = suchService.sucheBefunde(parameter, new SuchService.Seite(BASIS, BASIS + "/Observation", null, null));
+
+        assertTrue(((List<?>) bundle.get("entry")).isEmpty());
+        verifyNoInteractions(befundRepository);
+    }
+
+    private static Befund befund(long id, LocalDateTime zeitpunkt) {
+        var b = new Befund();
+        b.setBefundId(id);
+        b.setZeitpunkt(zeitpunkt);
+        return b;
+    }
+
+    private static Patient patient(long id) {
+        var p = new Patient();
+        p.setPatientenId(id);
+        return p;
+    }
+}
@@ -0,0 +1,69 @@
+package de.gib.betrieb.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerteilungTest {
+
+    @Test
+    void gleich_bleibt_in_den_grenzen_und_trifft_beide() {
+        Verteilung gleich = Verteilung.parse("gleich:2-5");
+        SplittableRandom zufall = new SplittableRandom(1);
+        int[] werte = IntStream.range(0, 10_000).map(i -> gleich.ziehe(zufall)).toArray();
+
+        assertEquals(2, IntStream.of(werte).min().orElseThrow());
+        assertEquals(5, IntStream.of(werte).max().orElseThrow());
+        assertEquals("gleich:2-5", gleich.toString());
+        assertEquals(3, Verteilung.parse("gleich:3").ziehe(zufall));
+    }
+
+    @Test
+    void zipf_ist_schief_mit_langem_ende() {
+        Verteilung zipf = Verteilung.parse("zipf:1.1:5000");
+        SplittableRandom zufall = new SplittableRandom(2);
+        int[] werte = IntStream.range(0, 100_000).map(i -> zipf.ziehe(zufall)).toArray();
+
+        long einsen = IntStream.of(werte).filter(w -> w == 1).count();
+        long zweien = IntStream.of(werte).filter(w -> w == 2).count();
+        // P(1) = 1 / H(5000, 1.1) ~ 16 %, P(2) = P(1) / 2^1.1; einzelne Ziehungen liegen im Tausenderbereich
+        assertTrue(einsen > 15_000 && einsen < 17_000, "Einsen: " + einsen);
+        assertEquals(Math.pow(2, 1.1), (double) einsen / zweien, 0.1);
+        assertTrue(IntStream.of(werte).max().orElseThrow() > 1000);
+        assertTrue(IntStream.of(werte).allMatch(w -> w >= 1 && w <= 5000));
+    }
+
+    @Test
+    void lognormal_wird_auf_1_bis_max_begrenzt() {
+        Verteilung lognormal = Verteilung.parse("lognormal:2.0:1.5:300");
+        SplittableRandom zufall = new SplittableRandom(3);
+        int[] werte = IntStream.range(0, 100_000).map(i -> lognormal.ziehe(zufall)).toArray();
+
+        assertTrue(IntStream.of(werte).allMatch(w -> w >= 1 && w <= 300));
+        assertEquals(300, IntStream.of(werte).max().orElseThrow());
+        // Median exp(2) ~ 7
+        long unterSieben = IntStream.of(werte).filter(w -> w < 7).count();
+        assertTrue(unterSieben > 40_000 && unterSieben < 55_000, "unter 7: " + unterSieben);
+    }
+
+    @Test
+    void gleicher_seed_gleiche_folge() {
+        Verteilung zipf = Verteilung.parse("zipf:1.3:100");
+        SplittableRandom a = new SplittableRandom(9);
+        SplittableRandom b = new SplittableRandom(9);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(zipf.ziehe(a), zipf.ziehe(b));
+        }
+    }
+
+    @Test
+    void ungueltige_schreibweise_wird_abgelehnt() {
+        assertThrows(IllegalArgumentException.class, () -> Verteilung.parse("poisson:3"));
+        assertThrows(IllegalArgumentException.class, () -> Verteilung.parse("zipf:1.1"));
+        assertThrows(IllegalArgumentException.class, () -> Verteilung.parse("gleich:5-2"));
+        assertThrows(IllegalArgumentException.class, () -> Verteilung.parse("lognormal:a:1:5"));
+    }
+}